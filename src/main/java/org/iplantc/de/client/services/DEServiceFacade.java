@@ -3,14 +3,19 @@ package org.iplantc.de.client.services;
 import org.iplantc.de.shared.AsyncCallbackWrapper;
 import org.iplantc.de.shared.DEService;
 import org.iplantc.de.shared.DEServiceAsync;
+import org.iplantc.de.shared.services.BaseServiceCallWrapper;
 import org.iplantc.de.shared.services.MultiPartServiceWrapper;
+import org.iplantc.de.shared.services.ServiceCallResult;
 import org.iplantc.de.shared.services.ServiceCallWrapper;
 
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.http.client.URL;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.client.rpc.ServiceDefTarget;
 
+import java.util.List;
+
 /**
  * A singleton service that provides an asynchronous proxy to data services.
  */
@@ -19,6 +24,8 @@ public class DEServiceFacade implements DEServiceAsync {
 
     private static DEServiceFacade srvFacade;
     private DEServiceAsync proxy;
+    private ServiceCallBatcher batcher;
+    private int defaultTimeoutMillis;
 
     private DEServiceFacade() {
         proxy = (DEServiceAsync)GWT.create(DEService.class);
@@ -26,6 +33,48 @@ public class DEServiceFacade implements DEServiceAsync {
         ((ServiceDefTarget)proxy).setServiceEntryPoint(GWT.getModuleBaseURL() + DE_SERVICE);
     }
 
+    /**
+     * Enables or disables batching. When batching is enabled, service calls made during the same pass
+     * through the browser event loop are sent to the server in a single RPC call, and identical GET
+     * requests that are already pending share a single response. Batching is disabled by default.
+     * 
+     * @param enabled true if service calls should be batched.
+     */
+    public void setBatchingEnabled(boolean enabled) {
+        batcher = enabled ? new ServiceCallBatcher(proxy) : null;
+    }
+
+    /**
+     * @return true if service calls are being batched.
+     */
+    public boolean isBatchingEnabled() {
+        return batcher != null;
+    }
+
+    /**
+     * Sets the deadline used for service calls that don't have one of their own. The server stops
+     * waiting for the service once the deadline has passed, so it should be about as long as the user
+     * is expected to wait for a response.
+     * 
+     * @param timeoutMillis the number of milliseconds to wait, or zero for no deadline.
+     */
+    public void setDefaultTimeout(int timeoutMillis) {
+        defaultTimeoutMillis = Math.max(0, timeoutMillis);
+    }
+
+    /**
+     * @return the deadline used for service calls that don't have one of their own, in milliseconds.
+     */
+    public int getDefaultTimeout() {
+        return defaultTimeoutMillis;
+    }
+
+    private void applyDefaultTimeout(BaseServiceCallWrapper wrapper) {
+        if (!wrapper.hasTimeout()) {
+            wrapper.setTimeoutMillis(defaultTimeoutMillis);
+        }
+    }
+
     /**
      * Retrieve singleton instance.
      * 
@@ -48,7 +97,12 @@ public class DEServiceFacade implements DEServiceAsync {
      */
     @Override
     public void getServiceData(ServiceCallWrapper wrapper, AsyncCallback<String> callback) {
-        proxy.getServiceData(wrapper, new AsyncCallbackWrapper<String>(callback));
+        applyDefaultTimeout(wrapper);
+        if (batcher != null) {
+            batcher.getServiceData(wrapper, new AsyncCallbackWrapper<String>(callback));
+        } else {
+            proxy.getServiceData(wrapper, new AsyncCallbackWrapper<String>(callback));
+        }
     }
 
     /**
@@ -60,6 +114,42 @@ public class DEServiceFacade implements DEServiceAsync {
      */
     @Override
     public void getServiceData(MultiPartServiceWrapper wrapper, AsyncCallback<String> callback) {
+        applyDefaultTimeout(wrapper);
         proxy.getServiceData(wrapper, new AsyncCallbackWrapper<String>(callback));
     }
+
+    /**
+     * Perform several independent service calls in a single RPC call. The server sends the requests
+     * concurrently, so the call takes about as long as the slowest request.
+     * 
+     * @param wrappers the service call configuration objects.
+     * @param callback the callback for when the RPC call finishes.
+     */
+    @Override
+    public void getServiceDataBatch(List<ServiceCallWrapper> wrappers,
+            AsyncCallback<List<ServiceCallResult>> callback) {
+        for (ServiceCallWrapper wrapper : wrappers) {
+            applyDefaultTimeout(wrapper);
+        }
+        proxy.getServiceDataBatch(wrappers, new AsyncCallbackWrapper<List<ServiceCallResult>>(callback));
+    }
+
+    /**
+     * Builds the URL used to stream the response to a GET request directly from the service dispatcher.
+     * This is intended for services with large responses, which don't need to be buffered and
+     * serialized by the RPC mechanism. The URL can be used with a <code>RequestBuilder</code>.
+     * 
+     * @param wrapper the service call configuration object.
+     * @return the streaming URL.
+     */
+    public String getServiceStreamUrl(ServiceCallWrapper wrapper) {
+        StringBuilder url = new StringBuilder(GWT.getModuleBaseURL() + DE_SERVICE);
+        url.append("?address=").append(URL.encodeQueryString(wrapper.getAddress())); //$NON-NLS-1$
+        if (wrapper.hasArguments()) {
+            String args = wrapper.getArguments();
+            url.append("&"); //$NON-NLS-1$
+            url.append(args.startsWith("?") ? args.substring(1) : args); //$NON-NLS-1$
+        }
+        return url.toString();
+    }
 }
@@ -0,0 +1,189 @@
+package org.iplantc.de.client.services;
+
+import org.iplantc.de.shared.DEServiceAsync;
+import org.iplantc.de.shared.services.BaseServiceCallWrapper.Type;
+import org.iplantc.de.shared.services.ServiceCallResult;
+import org.iplantc.de.shared.services.ServiceCallWrapper;
+
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.google.gwt.user.client.rpc.SerializationException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the service calls made during a single pass through the browser event loop and sends them
+ * to the server together. Identical GET requests that are already pending share a single service call,
+ * and every caller receives the same response.
+ *
+ * Callbacks passed to this class should already be wrapped in an <code>AsyncCallbackWrapper</code>
+ * if authentication failures need to be handled.
+ */
+public class ServiceCallBatcher {
+
+    /**
+     * The maximum number of service calls to send in a single RPC call.
+     */
+    private static final int MAX_BATCH_SIZE = 20;
+
+    private final DEServiceAsync proxy;
+
+    /**
+     * The calls waiting to be sent.
+     */
+    private List<PendingCall> queue = new ArrayList<PendingCall>();
+
+    /**
+     * The pending GET requests, indexed by address.
+     */
+    private final Map<String, PendingCall> pendingGets = new HashMap<String, PendingCall>();
+
+    /**
+     * @param proxy the service proxy used to send the calls.
+     */
+    public ServiceCallBatcher(DEServiceAsync proxy) {
+        this.proxy = proxy;
+    }
+
+    /**
+     * Queues a service call. The call is sent when the browser event loop finishes its current task.
+     *
+     * @param wrapper the service call configuration object.
+     * @param callback the callback for when the service call finishes.
+     */
+    public void getServiceData(ServiceCallWrapper wrapper, AsyncCallback<String> callback) {
+        String key = getKey(wrapper);
+        PendingCall call = key == null ? null : pendingGets.get(key);
+        if (call != null) {
+            call.callbacks.add(callback);
+            return;
+        }
+
+        call = new PendingCall(wrapper, key);
+        call.callbacks.add(callback);
+        if (key != null) {
+            pendingGets.put(key, call);
+        }
+        queue.add(call);
+        if (queue.size() == 1) {
+            Scheduler.get().scheduleFinally(new ScheduledCommand() {
+                @Override
+                public void execute() {
+                    flush();
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends all queued service calls.
+     */
+    private void flush() {
+        List<PendingCall> calls = queue;
+        queue = new ArrayList<PendingCall>();
+        for (int start = 0; start < calls.size(); start += MAX_BATCH_SIZE) {
+            send(calls.subList(start, Math.min(start + MAX_BATCH_SIZE, calls.size())));
+        }
+    }
+
+    /**
+     * Sends a group of service calls. A single call is sent on its own.
+     *
+     * @param calls the service calls to send.
+     */
+    private void send(final List<PendingCall> calls) {
+        if (calls.size() == 1) {
+            final PendingCall call = calls.get(0);
+            proxy.getServiceData(call.wrapper, new AsyncCallback<String>() {
+                @Override
+                public void onSuccess(String result) {
+                    call.succeed(result);
+                }
+
+                @Override
+                public void onFailure(Throwable caught) {
+                    call.fail(caught);
+                }
+            });
+            return;
+        }
+
+        List<ServiceCallWrapper> wrappers = new ArrayList<ServiceCallWrapper>();
+        for (PendingCall call : calls) {
+            wrappers.add(call.wrapper);
+        }
+        proxy.getServiceDataBatch(wrappers, new AsyncCallback<List<ServiceCallResult>>() {
+            @Override
+            public void onSuccess(List<ServiceCallResult> results) {
+                for (int i = 0; i < calls.size(); i++) {
+                    ServiceCallResult result = results.get(i);
+                    if (result.isSuccess()) {
+                        calls.get(i).succeed(result.getData());
+                    } else {
+                        calls.get(i).fail(new SerializationException(result.getError()));
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable caught) {
+                for (PendingCall call : calls) {
+                    call.fail(caught);
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the key used to identify identical GET requests.
+     *
+     * @param wrapper the service call configuration object.
+     * @return the key, or null if the request isn't a GET request.
+     */
+    private String getKey(ServiceCallWrapper wrapper) {
+        if (wrapper.getType() != Type.GET) {
+            return null;
+        }
+        return wrapper.hasArguments() ? wrapper.getAddress() + "?" + wrapper.getArguments() //$NON-NLS-1$
+                : wrapper.getAddress();
+    }
+
+    /**
+     * A service call that hasn't completed yet, along with all of the callers waiting for it.
+     */
+    private class PendingCall {
+
+        private final ServiceCallWrapper wrapper;
+        private final String key;
+        private final List<AsyncCallback<String>> callbacks = new ArrayList<AsyncCallback<String>>();
+
+        public PendingCall(ServiceCallWrapper wrapper, String key) {
+            this.wrapper = wrapper;
+            this.key = key;
+        }
+
+        public void succeed(String result) {
+            complete();
+            for (AsyncCallback<String> callback : callbacks) {
+                callback.onSuccess(result);
+            }
+        }
+
+        public void fail(Throwable caught) {
+            complete();
+            for (AsyncCallback<String> callback : callbacks) {
+                callback.onFailure(caught);
+            }
+        }
+
+        private void complete() {
+            if (key != null) {
+                pendingGets.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package org.iplantc.de.server;
+
+import static org.iplantc.de.server.util.ServletUtils.getIntProp;
+
+import org.iplantc.clavin.spring.ConfigAliasResolver;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Decides which thread handles requests that spend most of their time waiting for other services. In
+ * the classic mode, requests are handled on the container thread that received them, so the number of
+ * service calls in flight can't exceed the size of the container's thread pool. In the async mode, the
+ * request is put into asynchronous mode and handled on a thread from a separate pool of small-stack
+ * threads, and the container thread is returned to the container immediately. The authenticated user
+ * and the Spring Security context are carried over to the pool thread.
+ *
+ * The pool threads are still platform threads, so the async mode trades memory for concurrency: every
+ * thread reserves its stack, and the pool may reserve up to max-threads times stack-size-kb of memory.
+ * The defaults, 200 threads with 256 KB stacks, reserve at most 50 MB. Measure the memory use of the
+ * container before raising them.
+ *
+ * The async mode requires a Servlet 3.0 container, and every filter and servlet that handles the request
+ * must be marked with <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code> in the deployment
+ * descriptor. The Servlet 3.0 methods are called reflectively because this module is compiled against
+ * the Servlet 2.5 API, and requests that can't be handled asynchronously fall back to the classic
+ * mode. When the pool is exhausted, requests are handled on the container thread as well. Remember to
+ * raise the {@link ServiceIsolation} limits along with the pool size, or they'll limit the number of
+ * calls in flight instead.
+ *
+ * The pool threads are stopped by {@link SharedResourcesListener} when the web application is stopped.
+ *
+ * All settings are optional and are read from the "webapp" properties:
+ *
+ * <pre>
+ * org.iplantc.discoveryenvironment.dispatch.mode = async
+ * org.iplantc.discoveryenvironment.dispatch.max-threads = 400
+ * </pre>
+ */
+public class AsyncDispatcher {
+    private static final Logger LOG = Logger.getLogger(AsyncDispatcher.class);
+
+    /**
+     * The name of the servlet context attribute used to store the shared instance.
+     */
+    private static final String CONTEXT_ATTRIBUTE = AsyncDispatcher.class.getName();
+
+    /**
+     * The prefix used for all dispatch settings.
+     */
+    public static final String PROPERTY_PREFIX = "org.iplantc.discoveryenvironment.dispatch.";
+
+    /**
+     * The execution mode, either "classic" or "async".
+     */
+    public static final String MODE = PROPERTY_PREFIX + "mode";
+
+    /**
+     * The maximum number of requests that may be handled asynchronously at the same time. Each request
+     * holds a thread, and each thread reserves the stack size configured by {@link #STACK_SIZE}.
+     */
+    public static final String MAX_THREADS = PROPERTY_PREFIX + "max-threads";
+
+    /**
+     * The stack size of the threads that handle asynchronous requests, in kilobytes. Smaller stacks let
+     * more threads fit in the same memory, but a stack that's too small for the request handlers fails
+     * with a StackOverflowError.
+     */
+    public static final String STACK_SIZE = PROPERTY_PREFIX + "stack-size-kb";
+
+    /**
+     * The number of milliseconds the container waits for an asynchronous request to finish. Zero means
+     * that the container never times the request out.
+     */
+    public static final String ASYNC_TIMEOUT = PROPERTY_PREFIX + "timeout-ms";
+
+    private static final String CLASSIC_MODE = "classic";
+    private static final String ASYNC_MODE = "async";
+    private static final int DEFAULT_MAX_THREADS = 200;
+    private static final int DEFAULT_STACK_SIZE = 256;
+    private static final int DEFAULT_ASYNC_TIMEOUT = 0;
+
+    /**
+     * The Servlet 3.0 methods used to handle requests asynchronously, or null if the container doesn't
+     * support them.
+     */
+    private static final AsyncMethods ASYNC_METHODS = AsyncMethods.find();
+
+    private final AsyncSupport asyncSupport;
+    private final ThreadPoolExecutor executor;
+    private final long asyncTimeout;
+
+    /**
+     * @param props the web application configuration properties.
+     */
+    public AsyncDispatcher(Properties props) {
+        this(props, ASYNC_METHODS);
+    }
+
+    /**
+     * @param props the web application configuration properties.
+     * @param asyncSupport the operations used to handle requests asynchronously, or null if the container
+     *            doesn't support them.
+     */
+    AsyncDispatcher(Properties props, AsyncSupport asyncSupport) {
+        this.asyncSupport = asyncSupport;
+        String mode = StringUtils.defaultIfEmpty(props.getProperty(MODE), CLASSIC_MODE).trim();
+        if (!mode.equalsIgnoreCase(CLASSIC_MODE) && !mode.equalsIgnoreCase(ASYNC_MODE)) {
+            throw new IllegalStateException("invalid dispatch mode in " + MODE + ": " + mode);
+        }
+        asyncTimeout = Math.max(0, getIntProp(props, ASYNC_TIMEOUT, DEFAULT_ASYNC_TIMEOUT));
+        if (mode.equalsIgnoreCase(ASYNC_MODE) && asyncSupport != null) {
+            int maxThreads = Math.max(1, getIntProp(props, MAX_THREADS, DEFAULT_MAX_THREADS));
+            long stackSize = Math.max(64, getIntProp(props, STACK_SIZE, DEFAULT_STACK_SIZE)) * 1024L;
+            executor = new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new DispatchThreadFactory(stackSize));
+            LOG.info("handling service requests asynchronously on up to " + maxThreads + " threads");
+        }
+        else {
+            if (mode.equalsIgnoreCase(ASYNC_MODE)) {
+                LOG.warn("the servlet container doesn't support asynchronous requests; using the "
+                        + CLASSIC_MODE + " dispatch mode");
+            }
+            executor = null;
+        }
+    }
+
+    /**
+     * Gets the shared instance for a servlet context. The instance is created from the "webapp"
+     * configuration properties the first time this method is called and reused thereafter.
+     *
+     * @param context the servlet context.
+     * @return the shared instance.
+     */
+    public static AsyncDispatcher getAsyncDispatcher(ServletContext context) {
+        synchronized (context) {
+            AsyncDispatcher result = (AsyncDispatcher)context.getAttribute(CONTEXT_ATTRIBUTE);
+            if (result == null) {
+                result = new AsyncDispatcher(ConfigAliasResolver.getRequiredAliasedConfigFrom(context,
+                        "webapp"));
+                context.setAttribute(CONTEXT_ATTRIBUTE, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Shuts down the shared instance for a servlet context, if it has been created.
+     *
+     * @param context the servlet context.
+     */
+    public static void shutdown(ServletContext context) {
+        AsyncDispatcher dispatcher;
+        synchronized (context) {
+            dispatcher = (AsyncDispatcher)context.getAttribute(CONTEXT_ATTRIBUTE);
+            context.removeAttribute(CONTEXT_ATTRIBUTE);
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Stops the threads that handle asynchronous requests once the requests they're handling have
+     * finished. Requests dispatched afterwards are handled on the container thread.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return true if requests may be handled asynchronously.
+     */
+    public boolean isAsync() {
+        return executor != null;
+    }
+
+    /**
+     * Handles a request, asynchronously if possible. When the request is handled asynchronously, this
+     * method returns as soon as the handler has been started, and the response is completed once the
+     * handler returns. Errors thrown by asynchronous handlers are logged and, if the response hasn't
+     * been committed yet, reported to the client with an internal server error status.
+     *
+     * @param req the HTTP servlet request.
+     * @param res the HTTP servlet response.
+     * @param handler handles the request.
+     * @throws ServletException if the handler throws it on the current thread.
+     * @throws IOException if the handler throws it on the current thread.
+     */
+    public void dispatch(final HttpServletRequest req, final HttpServletResponse res, final Handler handler)
+            throws ServletException, IOException {
+        if (executor == null || !asyncSupport.isAsyncSupported(req)) {
+            handler.handle(req, res);
+            return;
+        }
+
+        final RequestContext context = RequestContext.capture(req);
+        final Object asyncContext = asyncSupport.startAsync(req, asyncTimeout);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    RequestContext previous = context.attach();
+                    try {
+                        handler.handle(context.getRequest(), res);
+                    }
+                    catch (Throwable e) {
+                        LOG.error("unable to handle request for " + req.getRequestURI(), e);
+                        sendError(res);
+                    }
+                    finally {
+                        context.detach(previous);
+                        asyncSupport.complete(asyncContext);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            LOG.debug("no asynchronous dispatch threads available; handling the request synchronously");
+            try {
+                handler.handle(req, res);
+            }
+            finally {
+                asyncSupport.complete(asyncContext);
+            }
+        }
+    }
+
+    private void sendError(HttpServletResponse res) {
+        if (!res.isCommitted()) {
+            try {
+                res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            catch (IOException e) {
+                LOG.debug("unable to send an error response", e);
+            }
+        }
+    }
+
+    /**
+     * Handles a single request.
+     */
+    public interface Handler {
+
+        /**
+         * @param req the HTTP servlet request.
+         * @param res the HTTP servlet response.
+         * @throws ServletException if a servlet error occurs.
+         * @throws IOException if an I/O error occurs.
+         */
+        void handle(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException;
+    }
+
+    /**
+     * The Servlet 3.0 operations used to handle requests asynchronously.
+     */
+    interface AsyncSupport {
+
+        /**
+         * @param req the servlet request.
+         * @return true if every filter and servlet handling the request supports asynchronous mode.
+         */
+        boolean isAsyncSupported(ServletRequest req);
+
+        /**
+         * Puts a request into asynchronous mode.
+         *
+         * @param req the servlet request.
+         * @param timeout the number of milliseconds the container waits for the request to finish.
+         * @return the asynchronous context.
+         * @throws ServletException if the request can't be put into asynchronous mode.
+         */
+        Object startAsync(ServletRequest req, long timeout) throws ServletException;
+
+        /**
+         * Completes an asynchronous request.
+         *
+         * @param asyncContext the asynchronous context.
+         */
+        void complete(Object asyncContext);
+    }
+
+    /**
+     * Creates daemon threads with a fixed stack size for asynchronous requests.
+     */
+    private static class DispatchThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+        private final long stackSize;
+
+        public DispatchThreadFactory(long stackSize) {
+            this.stackSize = stackSize;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(null, r, "service-dispatcher-async-" + count.incrementAndGet(),
+                    stackSize);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * The Servlet 3.0 methods used to handle requests asynchronously, called reflectively.
+     */
+    private static class AsyncMethods implements AsyncSupport {
+
+        private final Method isAsyncSupported;
+        private final Method startAsync;
+        private final Method setTimeout;
+        private final Method complete;
+
+        private AsyncMethods(Method isAsyncSupported, Method startAsync, Method setTimeout, Method complete) {
+            this.isAsyncSupported = isAsyncSupported;
+            this.startAsync = startAsync;
+            this.setTimeout = setTimeout;
+            this.complete = complete;
+        }
+
+        /**
+         * @return the methods, or null if the servlet API doesn't have them.
+         */
+        public static AsyncMethods find() {
+            try {
+                Class<?> asyncContext = Class.forName("javax.servlet.AsyncContext");
+                return new AsyncMethods(ServletRequest.class.getMethod("isAsyncSupported"),
+                        ServletRequest.class.getMethod("startAsync"), asyncContext.getMethod("setTimeout",
+                                long.class), asyncContext.getMethod("complete"));
+            }
+            catch (ClassNotFoundException e) {
+                return null;
+            }
+            catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean isAsyncSupported(ServletRequest req) {
+            try {
+                return (Boolean)isAsyncSupported.invoke(req);
+            }
+            catch (Exception e) {
+                return false;
+            }
+        }
+
+        @Override
+        public Object startAsync(ServletRequest req, long timeout) throws ServletException {
+            Object result = invoke(startAsync, req);
+            invoke(setTimeout, result, timeout);
+            return result;
+        }
+
+        @Override
+        public void complete(Object asyncContext) {
+            try {
+                invoke(complete, asyncContext);
+            }
+            catch (ServletException e) {
+                LOG.warn("unable to complete an asynchronous request", e);
+            }
+        }
+
+        private Object invoke(Method method, Object target, Object... args) throws ServletException {
+            try {
+                return method.invoke(target, args);
+            }
+            catch (InvocationTargetException e) {
+                throw new ServletException(method.getName() + " failed", e.getCause());
+            }
+            catch (IllegalAccessException e) {
+                throw new ServletException(method.getName() + " failed", e);
+            }
+        }
+    }
+}
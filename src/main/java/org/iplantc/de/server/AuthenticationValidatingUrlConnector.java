@@ -5,6 +5,7 @@ import static org.iplantc.de.server.util.CasUtils.attributePrincipalFromServletR
 import org.iplantc.de.shared.AuthenticationException;
 
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.jasig.cas.client.authentication.AttributePrincipal;
 
 import java.io.IOException;
@@ -50,6 +51,17 @@ public class AuthenticationValidatingUrlConnector extends BaseUrlConnector {
     public HttpEntityEnclosingRequestBase getRequest(HttpServletRequest request, String address,
             String method) throws IOException {
         validateAuthentication(request);
-        return copyUserAgent(request, RequestFactory.buildRequest(method, address));
+        return copyUserAgent(request, RequestFactory.buildRequest(method, addIpAddress(address, request)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpRequestBase getBodilessRequest(HttpServletRequest request, String address, String method)
+            throws IOException {
+        validateAuthentication(request);
+        String url = addIpAddress(address, request);
+        return copyUserAgent(request, RequestFactory.buildBodilessRequest(method, url));
     }
 }
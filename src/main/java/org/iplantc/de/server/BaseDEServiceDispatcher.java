@@ -1,32 +1,64 @@
 package org.iplantc.de.server;
 
+import org.iplantc.de.server.metrics.LatencyDistribution;
+import org.iplantc.de.server.metrics.ServiceMetrics;
+import org.iplantc.de.server.metrics.ServiceStats;
+import org.iplantc.de.server.util.CountingEntity;
+import org.iplantc.de.server.util.ServletUtils;
+import org.iplantc.de.server.util.StreamUtils;
 import org.iplantc.de.shared.AuthenticationException;
 import org.iplantc.de.shared.DEService;
 import org.iplantc.de.shared.services.BaseServiceCallWrapper;
 import org.iplantc.de.shared.services.HTTPPart;
 import org.iplantc.de.shared.services.MultiPartServiceWrapper;
+import org.iplantc.de.shared.services.ServiceCallResult;
 import org.iplantc.de.shared.services.ServiceCallWrapper;
 
 import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.server.rpc.RemoteServiceServlet;
 
-import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MultipartEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
-import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Dispatches HTTP requests to other services.
@@ -35,6 +67,55 @@ public abstract class BaseDEServiceDispatcher extends RemoteServiceServlet imple
     private static final long serialVersionUID = 1L;
     private static final Logger LOGGER = Logger.getLogger(BaseDEServiceDispatcher.class);
 
+    /**
+     * The name of the query string parameter used to specify the service address in streaming requests.
+     */
+    public static final String ADDRESS_PARAM = "address";
+
+    /**
+     * The name of the header used to tell services when the caller will give up on a request, in
+     * milliseconds since the epoch.
+     */
+    public static final String DEADLINE_HEADER = "X-Request-Deadline";
+
+    /**
+     * The maximum number of service calls from batches that may run at the same time.
+     */
+    private static final int BATCH_THREADS = 32;
+
+    /**
+     * The maximum number of batched service calls that may wait for a thread. When the queue is full,
+     * service calls run on the thread that submitted the batch.
+     */
+    private static final int BATCH_QUEUE_SIZE = 256;
+
+    /**
+     * The maximum number of attempts of hedged requests that may run at the same time. When every
+     * thread is busy, requests aren't hedged.
+     */
+    private static final int HEDGE_THREADS = 64;
+
+    /**
+     * The number of seconds to wait for the service calls of an abandoned batch to finish.
+     */
+    private static final int ABANDON_WAIT_SECONDS = 30;
+
+    /**
+     * Runs the service calls in batches. Created on first use and shut down when the servlet is
+     * destroyed.
+     */
+    private ThreadPoolExecutor batchExecutor;
+
+    /**
+     * Runs both attempts of hedged requests, and requests shared by several callers.
+     */
+    private ThreadPoolExecutor hedgeExecutor;
+
+    /**
+     * Aborts requests whose deadlines have passed.
+     */
+    private ScheduledExecutorService deadlineTimer;
+
     private ServiceCallResolver serviceResolver;
 
     /**
@@ -52,6 +133,36 @@ public abstract class BaseDEServiceDispatcher extends RemoteServiceServlet imple
      */
     private UrlConnector urlConnector;
 
+    /**
+     * Used to send requests to other services.
+     */
+    private HttpTransport transport;
+
+    /**
+     * Caches responses to GET requests.
+     */
+    private ServiceResponseCache responseCache;
+
+    /**
+     * Limits concurrent calls to each service and stops calls to failing services.
+     */
+    private ServiceIsolation serviceIsolation;
+
+    /**
+     * Decides which failed calls are retried.
+     */
+    private RetryPolicy retryPolicy;
+
+    /**
+     * Decides which thread handles each request.
+     */
+    private AsyncDispatcher asyncDispatcher;
+
+    /**
+     * Shares identical concurrent GET requests to services with user-independent responses.
+     */
+    private SingleFlight singleFlight;
+
     /**
      * The default constructor.
      */
@@ -77,6 +188,77 @@ public abstract class BaseDEServiceDispatcher extends RemoteServiceServlet imple
         }
     }
 
+    /**
+     * Stops the threads used to run batched and hedged service calls and to enforce deadlines.
+     */
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (batchExecutor != null) {
+                batchExecutor.shutdownNow();
+                batchExecutor = null;
+            }
+            if (hedgeExecutor != null) {
+                hedgeExecutor.shutdownNow();
+                hedgeExecutor = null;
+            }
+            if (deadlineTimer != null) {
+                deadlineTimer.shutdownNow();
+                deadlineTimer = null;
+            }
+        }
+        super.destroy();
+    }
+
+    /**
+     * @return the executor that runs the service calls in batches.
+     */
+    private synchronized ThreadPoolExecutor getBatchExecutor() {
+        if (batchExecutor == null) {
+            batchExecutor = new ThreadPoolExecutor(BATCH_THREADS, BATCH_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(BATCH_QUEUE_SIZE),
+                    new DaemonThreadFactory("service-dispatcher-batch"),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            batchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return batchExecutor;
+    }
+
+    /**
+     * @return the executor that runs both attempts of hedged requests, and requests shared by several
+     *         callers.
+     */
+    private synchronized ThreadPoolExecutor getHedgeExecutor() {
+        if (hedgeExecutor == null) {
+            hedgeExecutor = new ThreadPoolExecutor(HEDGE_THREADS, HEDGE_THREADS, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new DaemonThreadFactory("service-dispatcher-hedge"));
+            hedgeExecutor.allowCoreThreadTimeOut(true);
+        }
+        return hedgeExecutor;
+    }
+
+    /**
+     * @return the timer that aborts requests whose deadlines have passed.
+     */
+    private synchronized ScheduledExecutorService getDeadlineTimer() {
+        if (deadlineTimer == null) {
+            deadlineTimer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+                    "service-dispatcher-deadline"));
+        }
+        return deadlineTimer;
+    }
+
+    /**
+     * Gets the state of the current servlet request that work on other threads needs.
+     *
+     * @return the request context attached to the current thread, or a new one captured from the
+     *         current request.
+     */
+    private RequestContext getRequestContext() {
+        RequestContext current = RequestContext.current();
+        return current == null ? RequestContext.capture(getRequest()) : current;
+    }
+
     /**
      * Sets the servlet context to use when looking up the keystore path.
      *
@@ -110,7 +292,11 @@ public abstract class BaseDEServiceDispatcher extends RemoteServiceServlet imple
      * @return the request to use.
      */
     public HttpServletRequest getRequest() {
-        return request == null ? getThreadLocalRequest() : request;
+        if (request != null) {
+            return request;
+        }
+        RequestContext current = RequestContext.current();
+        return current == null ? getThreadLocalRequest() : current.getRequest();
     }
 
     /**
@@ -124,14 +310,222 @@ public abstract class BaseDEServiceDispatcher extends RemoteServiceServlet imple
     }
 
     /**
-     * Retrieves the result from a URL connection.
+     * Sets the transport used to send requests to other services. If no transport is set, the pooled
+     * HTTP client shared by all dispatchers in the servlet context is used.
+     *
+     * @param transport the transport.
+     */
+    public void setTransport(HttpTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Sets the cache used for responses to GET requests. If no cache is set, the cache shared by all
+     * dispatchers in the servlet context is used.
+     *
+     * @param responseCache the response cache.
+     */
+    public void setResponseCache(ServiceResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Gets the cache used for responses to GET requests.
+     *
+     * @return the response cache.
+     */
+    protected ServiceResponseCache getResponseCache() {
+        if (responseCache == null) {
+            responseCache = ServiceResponseCache.getServiceResponseCache(getContext());
+        }
+        return responseCache;
+    }
+
+    /**
+     * Sets the bulkheads and circuit breakers used to isolate this dispatcher from misbehaving
+     * services. If none are set, the ones shared by all dispatchers in the servlet context are used.
+     *
+     * @param serviceIsolation the service isolation settings.
+     */
+    public void setServiceIsolation(ServiceIsolation serviceIsolation) {
+        this.serviceIsolation = serviceIsolation;
+    }
+
+    /**
+     * Gets the bulkheads and circuit breakers used to isolate this dispatcher from misbehaving services.
+     *
+     * @return the service isolation settings.
+     */
+    protected ServiceIsolation getServiceIsolation() {
+        if (serviceIsolation == null) {
+            serviceIsolation = ServiceIsolation.getServiceIsolation(getContext());
+        }
+        return serviceIsolation;
+    }
+
+    /**
+     * Sets the policy that decides which failed service calls are retried. If none is set, the policy
+     * shared by all dispatchers in the servlet context is used.
+     *
+     * @param retryPolicy the retry policy.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Gets the policy that decides which failed service calls are retried.
+     *
+     * @return the retry policy.
+     */
+    protected RetryPolicy getRetryPolicy() {
+        if (retryPolicy == null) {
+            retryPolicy = RetryPolicy.getRetryPolicy(getContext());
+        }
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the object that shares identical concurrent GET requests. If none is set, the instance shared
+     * by all dispatchers in the servlet context is used.
+     *
+     * @param singleFlight the single-flight instance.
+     */
+    public void setSingleFlight(SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    /**
+     * Gets the object that shares identical concurrent GET requests.
+     *
+     * @return the single-flight instance.
+     */
+    protected SingleFlight getSingleFlight() {
+        if (singleFlight == null) {
+            singleFlight = SingleFlight.getSingleFlight(getContext());
+        }
+        return singleFlight;
+    }
+
+    /**
+     * Sets the dispatcher that decides which thread handles each request. If none is set, the
+     * dispatcher shared by all servlets in the servlet context is used.
+     *
+     * @param asyncDispatcher the dispatcher.
+     */
+    public void setAsyncDispatcher(AsyncDispatcher asyncDispatcher) {
+        this.asyncDispatcher = asyncDispatcher;
+    }
+
+    /**
+     * Gets the dispatcher that decides which thread handles each request.
+     *
+     * @return the dispatcher.
+     */
+    protected AsyncDispatcher getAsyncDispatcher() {
+        if (asyncDispatcher == null) {
+            asyncDispatcher = AsyncDispatcher.getAsyncDispatcher(getContext());
+        }
+        return asyncDispatcher;
+    }
+
+    /**
+     * Handles both RPC calls and streaming requests on a thread chosen by the {@link AsyncDispatcher},
+     * so that requests waiting for services don't need to hold container threads.
+     *
+     * @param req the HTTP servlet request.
+     * @param res the HTTP servlet response.
+     * @throws ServletException if a servlet error occurs.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse res) throws ServletException,
+            IOException {
+        getAsyncDispatcher().dispatch(req, res, new AsyncDispatcher.Handler() {
+            @Override
+            public void handle(HttpServletRequest req, HttpServletResponse res) throws ServletException,
+                    IOException {
+                BaseDEServiceDispatcher.super.service(req, res);
+            }
+        });
+    }
+
+    /**
+     * Gets the transport used to send requests to other services.
+     *
+     * @return the transport.
+     */
+    protected HttpTransport getTransport() {
+        if (transport == null) {
+            transport = PooledHttpClient.getPooledHttpClient(getContext());
+        }
+        return transport;
+    }
+
+    /**
+     * Retrieves the result from a service response. Compressed responses are decompressed as they're
+     * read. The response entity is always consumed so that the connection can be reused.
+     *
+     * @param response the service response.
+     * @return the response body as a string.
+     * @throws ServiceErrorException if the service returned an unsuccessful status code.
+     * @throws IOException if an I/O error occurs.
+     */
+    private String retrieveResult(HttpResponse response) throws IOException {
+        HttpEntity entity = StreamUtils.decodeContent(response).getEntity();
+        String body = entity == null ? "" : EntityUtils.toString(entity, "UTF-8");
+        int status = response.getStatusLine().getStatusCode();
+        if (status >= 400) {
+            throw new ServiceErrorException(status, body);
+        }
+        return body;
+    }
+
+    /**
+     * Retrieves the result from a service response and records the size of the response body.
      *
-     * @param urlc the URL connection.
-     * @return the URL result as a string.
+     * @param response the service response.
+     * @param call used to record the progress of the call.
+     * @return the response body as a string.
+     * @throws ServiceErrorException if the service returned an unsuccessful status code.
      * @throws IOException if an I/O error occurs.
      */
-    private String retrieveResult(URLConnection urlc) throws IOException {
-        return IOUtils.toString(urlc.getInputStream());
+    private String retrieveResult(HttpResponse response, ServiceStats.Call call) throws IOException {
+        CountingEntity entity = StreamUtils.countContent(response);
+        try {
+            return retrieveResult(response);
+        } finally {
+            call.bytesReceived(entity == null ? 0 : entity.getByteCount());
+        }
+    }
+
+    /**
+     * Verifies that a service response indicates success. If it doesn't, the response entity is
+     * consumed and its contents are used to build the exception.
+     *
+     * @param response the service response.
+     * @return the service response.
+     * @throws ServiceErrorException if the service returned an unsuccessful status code.
+     * @throws IOException if an I/O error occurs.
+     */
+    private HttpResponse verifyResponse(HttpResponse response) throws IOException {
+        if (response.getStatusLine().getStatusCode() >= 400) {
+            retrieveResult(response);
+        }
+        return response;
+    }
+
+    /**
+     * Gets the URL connector for this service dispatcher.
+     *
+     * @return the URL connector.
+     * @throws IOException if no URL connector is available.
+     */
+    private UrlConnector getUrlConnector() throws IOException {
+        if (urlConnector == null) {
+            throw new IOException("No URL connector available.");
+        }
+        return urlConnector;
     }
 
     /**
@@ -149,135 +543,656 @@ public abstract class BaseDEServiceDispatcher extends RemoteServiceServlet imple
     }
 
     /**
-     * Sends an HTTP GET request to another service.
+     * Builds an HTTP GET request to another service.
      *
      * @param address the address to connect to.
-     * @return the URL connection used to send the request.
+     * @return the request.
      * @throws IOException if an error occurs.
      */
-    private URLConnection get(String address) throws IOException {
+    private HttpRequestBase buildGetRequest(String address) throws IOException {
+        return buildBodilessRequest(address, "GET");
+    }
+
+    /**
+     * Builds an HTTP request without a body to another service. URL connectors that don't extend
+     * {@link BaseUrlConnector} can only build requests with bodies, so for those the address and
+     * headers are copied from a POST request built by the connector.
+     *
+     * @param address the address to send the request to.
+     * @param method the HTTP request method.
+     * @return the request.
+     * @throws IOException if an I/O error occurs.
+     */
+    private HttpRequestBase buildBodilessRequest(String address, String method) throws IOException {
+        UrlConnector connector = getUrlConnector();
+        if (connector instanceof BaseUrlConnector) {
+            return ((BaseUrlConnector)connector).getBodilessRequest(getRequest(), address, method);
+        }
+        HttpEntityEnclosingRequestBase template = connector.getRequest(getRequest(), address, "POST");
+        HttpRequestBase clientRequest = RequestFactory.buildBodilessRequest(method,
+                template.getURI().toString());
+        clientRequest.setHeaders(template.getAllHeaders());
+        return clientRequest;
+    }
+
+    /**
+     * Builds an HTTP UPDATE request to another service.
+     *
+     * @param address the address to connect to.
+     * @param body the request body.
+     * @param requestMethod the request method.
+     * @return the request.
+     * @throws IOException if an I/O error occurs.
+     */
+    private HttpRequestBase buildUpdateRequest(String address, String body, String requestMethod)
+            throws IOException {
+        HttpEntityEnclosingRequestBase clientRequest = getUrlConnector().getRequest(getRequest(), address,
+                requestMethod);
+
+        // Services expect the same content type that HttpURLConnection sent by default.
+        StringEntity entity = new StringEntity(body, "UTF-8");
+        entity.setContentType("application/x-www-form-urlencoded");
+        clientRequest.setEntity(entity);
+
+        return clientRequest;
+    }
+
+    /**
+     * Sends a multipart HTTP update request to another service.
+     *
+     * @param wrapper the service call wrapper.
+     * @param address the address to send the request to.
+     * @param parts the components of the multipart request.
+     * @param requestMethod the request method.
+     * @param deadline the deadline of the call, or zero if it has none.
+     * @return the URL connection used to send the request.
+     * @throws IOException if an I/O error occurs.
+     */
+    private String updateMultipart(MultiPartServiceWrapper wrapper, String address, List<HTTPPart> parts,
+            String requestMethod, long deadline) throws IOException {
+        String result;
+        HttpEntityEnclosingRequestBase clientRequest = null;
+        ScheduledFuture<?> abortTask = null;
+        String serviceKey = serviceResolver.getServiceKey(wrapper.getAddress());
+        ServiceIsolation.Permit permit = getServiceIsolation().acquire(serviceKey);
+        ServiceStats.Call call = ServiceMetrics.getInstance().getStats(serviceKey).start();
+        EndpointBalancer.Lease lease = serviceResolver.startCall(serviceKey, address);
+        boolean healthy = true;
+        try {
+            // Build the multipart request.
+            clientRequest = getUrlConnector().getRequest(getRequest(), address, requestMethod);
+            buildMultipartRequest(clientRequest, parts);
+            abortTask = applyDeadline(clientRequest, deadline);
+
+            // Execute the request.
+            healthy = false;
+            HttpResponse response = execute(clientRequest, call);
+            healthy = isHealthy(response);
+            CountingEntity entity = StreamUtils.countContent(response);
+            try {
+                result = EntityUtils.toString(StreamUtils.decodeContent(response).getEntity(), "UTF-8");
+            } finally {
+                call.bytesReceived(entity == null ? 0 : entity.getByteCount());
+            }
+            if (response.getStatusLine().getStatusCode() < 400) {
+                call.succeeded();
+            }
+        } catch (IOException e) {
+            if (deadline != 0 && !(e instanceof ServiceErrorException)
+                    && System.currentTimeMillis() >= deadline) {
+                throw new DeadlineExceededException(address, e);
+            }
+            throw e;
+        } finally {
+            if (abortTask != null) {
+                abortTask.cancel(false);
+            }
+            boolean abandoned = isAbandoned(clientRequest, deadline);
+            if (abandoned) {
+                call.abandoned();
+            }
+            call.finish();
+            healthy = healthy || abandoned;
+            permit.release(healthy);
+            lease.release(healthy);
+            if (clientRequest != null) {
+                clientRequest.releaseConnection();
+            }
+        }
+
+        LOGGER.debug("multipart UPDATE request sent");
+
+        return result;
+    }
+
+    private void buildMultipartRequest(HttpEntityEnclosingRequestBase clientRequest, List<HTTPPart> parts)
+            throws IOException {
+        MultipartEntity entity = new MultipartEntity();
+        for (HTTPPart part : parts) {
+            entity.addPart(part.getName(), MultipartBodyFactory.createBody(part));
+        }
+        addAdditionalParts(entity);
+        clientRequest.setEntity(entity);
+    }
+
+    /**
+     * This method allows concrete subclasses to add additional parts to multipart form requests if
+     * necessary. By default, no additional parts are added.
+     *
+     * @param entity the entity to add the part to.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void addAdditionalParts(MultipartEntity entity) throws IOException {
+        // The base implementation of this method does nothing.
+    }
+
+    /**
+     * Builds an HTTP DELETE request to another service.
+     *
+     * @param address the address to send the request to.
+     * @return the request.
+     * @throws IOException if an I/O error occurs.
+     */
+    private HttpRequestBase buildDeleteRequest(String address) throws IOException {
+        HttpRequestBase clientRequest = buildBodilessRequest(address, "DELETE");
+        clientRequest.setHeader("Content-Type", "application/x-www-form-urlencoded");
+        return clientRequest;
+    }
+
+    /**
+     * Builds a request to another service.
+     *
+     * @param wrapper the service call wrapper.
+     * @param address the resolved address to send the request to.
+     * @param body the request body.
+     * @return the request.
+     * @throws IOException if an I/O error occurs.
+     */
+    private HttpRequestBase buildRequest(ServiceCallWrapper wrapper, String address, String body)
+            throws IOException {
+        switch (wrapper.getType()) {
+            case GET:
+                return buildGetRequest(address);
+
+            case PUT:
+                return buildUpdateRequest(address, body, "PUT");
+
+            case POST:
+                return buildUpdateRequest(address, body, "POST");
+
+            case DELETE:
+                return buildDeleteRequest(address);
+
+            default:
+                throw new IOException("unsupported request type: " + wrapper.getType());
+        }
+    }
+
+    /**
+     * Sends a request to another service, recording the progress of the call in the service metrics.
+     * The request is assumed to be ready to send when this method is called.
+     *
+     * @param clientRequest the request to send.
+     * @param call used to record the progress of the call.
+     * @return the response to the request.
+     * @throws IOException if an I/O error occurs.
+     */
+    private HttpResponse execute(HttpRequestBase clientRequest, ServiceStats.Call call) throws IOException {
+        call.requestBuilt(getContentLength(clientRequest));
+        clientRequest.setHeader("Accept-Encoding", StreamUtils.ACCEPT_ENCODING);
         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("sending a GET request to " + address);
+            LOGGER.debug("sending a " + clientRequest.getMethod() + " request to " + clientRequest.getURI());
+        }
+        HttpContext httpContext = new BasicHttpContext();
+        HttpResponse response = getTransport().execute(clientRequest, httpContext);
+        call.responseStarted(httpContext);
+        return response;
+    }
+
+    /**
+     * Gets the length of a request body.
+     *
+     * @param clientRequest the request.
+     * @return the length in bytes, or a negative number if it's unknown.
+     */
+    private long getContentLength(HttpRequestBase clientRequest) {
+        if (clientRequest instanceof HttpEntityEnclosingRequestBase) {
+            HttpEntity entity = ((HttpEntityEnclosingRequestBase)clientRequest).getEntity();
+            return entity == null ? 0 : entity.getContentLength();
+        }
+        return 0;
+    }
+
+    /**
+     * Determines whether a response indicates that a service is working. Client errors don't count
+     * against the service's circuit breaker.
+     *
+     * @param response the response.
+     * @return true if the response isn't a server error.
+     */
+    private boolean isHealthy(HttpResponse response) {
+        return response.getStatusLine().getStatusCode() < 500;
+    }
+
+    /**
+     * Determines whether a request was aborted because its result was no longer needed. Requests
+     * aborted because they ran past their deadline don't count: a service that's too slow to answer in
+     * time is failing.
+     *
+     * @param clientRequest the request, or null if it was never built.
+     * @param deadline the deadline of the call, or zero if it has none.
+     * @return true if the request was aborted before its deadline passed.
+     */
+    private boolean isAbandoned(HttpRequestBase clientRequest, long deadline) {
+        if (clientRequest == null || !clientRequest.isAborted()) {
+            return false;
+        }
+        return deadline == 0 || System.currentTimeMillis() < deadline;
+    }
+
+    /**
+     * Converts the timeout of a service call into an absolute deadline.
+     *
+     * @param wrapper the service call wrapper.
+     * @return the deadline in milliseconds since the epoch, or zero if the call has no deadline.
+     */
+    private long getDeadline(BaseServiceCallWrapper wrapper) {
+        return wrapper.hasTimeout() ? System.currentTimeMillis() + wrapper.getTimeoutMillis() : 0;
+    }
+
+    /**
+     * Makes a request honor a deadline: the connect and read timeouts are limited to the time
+     * remaining, the deadline is forwarded to the service so that it can give up as well, and the
+     * request is aborted if it's still running when the deadline passes.
+     *
+     * @param clientRequest the request.
+     * @param deadline the deadline in milliseconds since the epoch, or zero if there is none.
+     * @return the task that aborts the request, which must be cancelled once the request is finished,
+     *         or null if there is no deadline.
+     * @throws DeadlineExceededException if the deadline has already passed.
+     */
+    private ScheduledFuture<?> applyDeadline(final HttpRequestBase clientRequest, long deadline)
+            throws DeadlineExceededException {
+        if (deadline == 0) {
+            return null;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new DeadlineExceededException(clientRequest.getURI().toString(), null);
+        }
+        int timeout = (int)Math.min(Integer.MAX_VALUE, remaining);
+        HttpParams params = clientRequest.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, timeout);
+        HttpConnectionParams.setSoTimeout(params, timeout);
+        clientRequest.setHeader(DEADLINE_HEADER, Long.toString(deadline));
+        return getDeadlineTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                LOGGER.warn("deadline passed; aborting request to " + clientRequest.getURI());
+                clientRequest.abort();
+            }
+        }, remaining, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a request to another service and retrieves the response body. Concurrent identical GET
+     * requests to services whose responses don't depend on the user share a single request.
+     *
+     * @param wrapper the service call wrapper.
+     * @param address the resolved address to send the request to.
+     * @param body the request body.
+     * @param deadline the deadline of the call, or zero if it has none.
+     * @return the response body.
+     * @throws ServiceErrorException if the service returned an unsuccessful status code.
+     * @throws IOException if an I/O error occurs.
+     */
+    private String retrieveSharedServiceData(final ServiceCallWrapper wrapper, final String address,
+            final String body, final long deadline) throws IOException {
+        String serviceKey = serviceResolver.getServiceKey(wrapper.getAddress());
+        SingleFlight flight = getSingleFlight();
+        if (wrapper.getType() != BaseServiceCallWrapper.Type.GET || !flight.isShared(serviceKey)) {
+            return retrieveServiceDataWithRetries(wrapper, address, body, deadline);
+        }
+
+        // The shared request may still be running after this servlet request has finished, so it works
+        // from a snapshot of the request rather than the request itself. It's abandoned at this caller's
+        // deadline; other callers that are still waiting then send requests of their own.
+        final RequestContext context = getRequestContext().fork();
+        return flight.retrieve(address, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                RequestContext previous = context.attach();
+                try {
+                    return retrieveServiceDataWithRetries(wrapper, address, body, deadline);
+                } finally {
+                    context.detach(previous);
+                }
+            }
+        }, deadline, getHedgeExecutor());
+    }
+
+    /**
+     * Sends a request to another service and retrieves the response body, trying again after
+     * transient failures if the retry policy allows it. GET requests to services with hedging enabled
+     * are hedged.
+     *
+     * @param wrapper the service call wrapper.
+     * @param address the resolved address to send the request to.
+     * @param body the request body.
+     * @param deadline the deadline of the call, or zero if it has none.
+     * @return the response body.
+     * @throws ServiceErrorException if the service returned an unsuccessful status code.
+     * @throws IOException if an I/O error occurs.
+     */
+    private String retrieveServiceDataWithRetries(final ServiceCallWrapper wrapper, String address,
+            final String body, final long deadline) throws IOException {
+        final String serviceKey = serviceResolver.getServiceKey(wrapper.getAddress());
+        final RetryPolicy.Settings settings = getRetryPolicy().getSettings(serviceKey);
+        final boolean hedged = settings.isHedged()
+                && wrapper.getType() == BaseServiceCallWrapper.Type.GET;
+        return withRetries(wrapper, address, deadline, new Attempt<String>() {
+            @Override
+            public String run(String address) throws IOException {
+                return hedged ? retrieveHedged(wrapper, address, body, serviceKey, settings, deadline)
+                        : retrieveServiceData(wrapper, address, body, null, deadline);
+            }
+        });
+    }
+
+    /**
+     * Makes attempts at a service call until one succeeds, trying again after transient failures if the
+     * retry policy allows it.
+     *
+     * @param wrapper the service call wrapper.
+     * @param address the resolved address to send the first attempt to.
+     * @param deadline the deadline of the call, or zero if it has none.
+     * @param task makes a single attempt.
+     * @return the result of the successful attempt.
+     * @throws IOException if the last attempt fails.
+     */
+    private <T> T withRetries(ServiceCallWrapper wrapper, String address, long deadline, Attempt<T> task)
+            throws IOException {
+        String serviceKey = serviceResolver.getServiceKey(wrapper.getAddress());
+        RetryPolicy.Settings settings = getRetryPolicy().getSettings(serviceKey);
+        long retryDeadline = System.currentTimeMillis() + settings.getBudgetMillis();
+        if (deadline != 0) {
+            retryDeadline = Math.min(retryDeadline, deadline);
+        }
+        for (int attempt = 1;; attempt++) {
+            try {
+                return task.run(address);
+            } catch (IOException e) {
+                // Requests aborted at their deadline fail with whatever error the abort caused.
+                if (deadline != 0 && !(e instanceof ServiceErrorException)
+                        && System.currentTimeMillis() >= deadline) {
+                    throw new DeadlineExceededException(address, e);
+                }
+                if (!settings.isRetryable(wrapper.getType()) || attempt >= settings.getMaxAttempts()
+                        || !RetryPolicy.isTransient(e)) {
+                    throw e;
+                }
+                long delay = settings.getDelayMillis(attempt);
+                if (System.currentTimeMillis() + delay >= retryDeadline) {
+                    throw e;
+                }
+                LOGGER.warn("retrying " + wrapper.getType() + " request to " + address + " in " + delay
+                        + " ms: " + e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+
+                // Resolve the address again so that the retry can go to another endpoint.
+                if (serviceKey != null) {
+                    address = retrieveServiceAddress(wrapper);
+                }
+            }
+        }
+    }
+
+    /**
+     * A single attempt at a service call.
+     */
+    private interface Attempt<T> {
+
+        /**
+         * @param address the resolved address to send the request to.
+         * @return the result of the attempt.
+         * @throws IOException if the attempt fails.
+         */
+        T run(String address) throws IOException;
+    }
+
+    /**
+     * Sends a GET request to another service, sending a second copy of the request if the first one
+     * takes longer than the service's 95th percentile latency over the last minute. The first
+     * successful response is used and the other request is aborted. Requests aren't hedged until
+     * enough calls to the service have been timed in that minute.
+     *
+     * @param wrapper the service call wrapper.
+     * @param address the resolved address to send the request to.
+     * @param body the request body.
+     * @param serviceKey the service key.
+     * @param settings the retry settings for the service.
+     * @param deadline the deadline in milliseconds since the epoch, or zero if there is none.
+     * @return the response body.
+     * @throws IOException if both requests fail.
+     */
+    private String retrieveHedged(ServiceCallWrapper wrapper, String address, String body,
+            String serviceKey, RetryPolicy.Settings settings, long deadline) throws IOException {
+        LatencyDistribution latency = ServiceMetrics.getInstance().getStats(serviceKey).getTotalLatency();
+        if (latency.getCount() < settings.getHedgeMinSamples()) {
+            return retrieveServiceData(wrapper, address, body, null, deadline);
+        }
+        long hedgeDelay = Math.max(settings.getHedgeMinDelayMillis(),
+                (long)Math.ceil(latency.getPercentileMillis(95)));
+
+        CompletionService<String> completion = new ExecutorCompletionService<String>(getHedgeExecutor());
+        HedgedAttempt first = new HedgedAttempt(wrapper, address, body, deadline);
+        HedgedAttempt second = null;
+        try {
+            first.future = completion.submit(first);
+        } catch (RejectedExecutionException e) {
+            return retrieveServiceData(wrapper, address, body, null, deadline);
+        }
+
+        Future<String> done = null;
+        try {
+            done = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                try {
+                    second = new HedgedAttempt(wrapper, address, body, deadline);
+                    second.future = completion.submit(second);
+                    LOGGER.debug("hedging GET request to " + address + " after " + hedgeDelay + " ms");
+                } catch (RejectedExecutionException e) {
+                    second = null;
+                }
+                done = completion.take();
+            }
+            try {
+                return getAttemptResult(done);
+            } catch (IOException e) {
+                if (second == null) {
+                    throw e;
+                }
+                // The other attempt is still running; it may yet succeed.
+                done = completion.take();
+                return getAttemptResult(done);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " + address);
+        } finally {
+            first.abortUnless(done);
+            if (second != null) {
+                second.abortUnless(done);
+            }
+        }
+    }
+
+    /**
+     * Gets the result of an attempt of a hedged request.
+     */
+    private String getAttemptResult(Future<String> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
         }
-
-        // make post mode connection
-        URLConnection urlc = getUrlConnection(address);
-        urlc.setDoOutput(true);
-
-        LOGGER.debug("GET request sent to " + address);
-
-        return urlc;
     }
 
     /**
-     * Sends an HTTP UPDATE request to another service.
-     *
-     * @param address the address to connect to.
-     * @param body the request body.
-     * @param requestMethod the request method.
-     * @return the URL connection used to send the request.
-     * @throws IOException if an I/O error occurs.
+     * A single attempt of a hedged request. Attempts run on their own threads, so the state of the
+     * current servlet request is passed to them explicitly.
      */
-    private URLConnection update(String address, String body, String requestMethod) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("sending an UPDATE request to " + address);
+    private class HedgedAttempt implements Callable<String> {
+
+        private final RequestContext context = getRequestContext();
+        private final ServiceCallWrapper wrapper;
+        private final String address;
+        private final String body;
+        private final long deadline;
+        private final AtomicReference<HttpRequestBase> inFlight = new AtomicReference<HttpRequestBase>();
+        private Future<String> future;
+
+        public HedgedAttempt(ServiceCallWrapper wrapper, String address, String body, long deadline) {
+            this.wrapper = wrapper;
+            this.address = address;
+            this.body = body;
+            this.deadline = deadline;
         }
 
-        // make post mode connection
-        HttpURLConnection urlc = getUrlConnection(address);
-        urlc.setRequestMethod(requestMethod);
-        urlc.setDoOutput(true);
-
-        // send post
-        OutputStreamWriter outRemote = null;
-        try {
-            outRemote = new OutputStreamWriter(urlc.getOutputStream());
-            outRemote.write(body);
-            outRemote.flush();
-        } finally {
-            if (outRemote != null) {
-                outRemote.close();
+        @Override
+        public String call() throws Exception {
+            RequestContext previous = context.attach();
+            try {
+                return retrieveServiceData(wrapper, address, body, inFlight, deadline);
+            } finally {
+                context.detach(previous);
             }
         }
 
-        LOGGER.debug("UPDATE request sent");
-
-        return urlc;
+        /**
+         * Aborts this attempt unless it's the one that produced the result.
+         */
+        public void abortUnless(Future<String> winner) {
+            if (future != null && future != winner && !future.isDone()) {
+                HttpRequestBase request = inFlight.get();
+                if (request != null) {
+                    request.abort();
+                }
+                future.cancel(true);
+            }
+        }
     }
 
     /**
-     * Sends a multipart HTTP update request to another service.
+     * Sends a request to another service and retrieves the response body. Responses to GET requests
+     * are served from the response cache when possible, and other requests invalidate the cached
+     * responses that they may affect.
      *
-     * @param address the address to send the request to.
-     * @param parts the components of the multipart request.
-     * @param requestMethod the request method.
-     * @return the URL connection used to send the request.
+     * @param wrapper the service call wrapper.
+     * @param address the resolved address to send the request to.
+     * @param body the request body.
+     * @param inFlight receives the request once it's built so that it can be aborted, may be null.
+     * @param deadline the deadline in milliseconds since the epoch, or zero if there is none.
+     * @return the response body.
+     * @throws ServiceErrorException if the service returned an unsuccessful status code.
+     * @throws DeadlineExceededException if the deadline passed before the request was sent.
      * @throws IOException if an I/O error occurs.
      */
-    private String updateMultipart(String address, List<HTTPPart> parts, String requestMethod)
-            throws IOException {
-        String result;
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("sending a multipart UPDATE request to " + address);
+    private String retrieveServiceData(ServiceCallWrapper wrapper, String address, String body,
+            AtomicReference<HttpRequestBase> inFlight, long deadline) throws IOException {
+        String serviceKey = serviceResolver.getServiceKey(wrapper.getAddress());
+        ServiceResponseCache cache = getResponseCache();
+        boolean update = wrapper.getType() != BaseServiceCallWrapper.Type.GET;
+        String cacheKey = !update && cache.isCacheable(serviceKey) ? getCacheKey(address) : null;
+        ServiceResponseCache.Entry entry = cacheKey == null ? null : cache.get(cacheKey);
+        if (entry != null && entry.isFresh()) {
+            LOGGER.debug("cached response used for " + address);
+            return entry.getBody();
         }
 
-        // Build the multipart request.
-        HttpEntityEnclosingRequestBase clientRequest = urlConnector.getRequest(getRequest(), address,
-                requestMethod);
-        buildMultipartRequest(clientRequest, parts);
+        ServiceIsolation.Permit permit = getServiceIsolation().acquire(serviceKey);
+        ServiceStats.Call call = ServiceMetrics.getInstance().getStats(serviceKey).start();
+        EndpointBalancer.Lease lease = serviceResolver.startCall(serviceKey, address);
 
-        // Execute the request.
-        HttpClient client = new DefaultHttpClient();
+        // Failures that occur before the request is sent aren't the service's fault.
+        boolean healthy = true;
+        HttpRequestBase clientRequest = null;
+        ScheduledFuture<?> abortTask = null;
+        RequestContext context = RequestContext.current();
         try {
-            HttpResponse response = client.execute(clientRequest);
-            result = IOUtils.toString(response.getEntity().getContent());
+            clientRequest = buildRequest(wrapper, address, body);
+            if (entry != null) {
+                entry.addValidators(clientRequest);
+            }
+            abortTask = applyDeadline(clientRequest, deadline);
+            if (inFlight != null) {
+                inFlight.set(clientRequest);
+            }
+            if (context != null) {
+                context.track(clientRequest);
+            }
+            healthy = false;
+            HttpResponse response = execute(clientRequest, call);
+            healthy = isHealthy(response);
+            if (entry != null
+                    && response.getStatusLine().getStatusCode() == HttpServletResponse.SC_NOT_MODIFIED) {
+                EntityUtils.consume(response.getEntity());
+                call.succeeded();
+                cache.revalidated(cacheKey, entry, response);
+                LOGGER.debug("cached response revalidated for " + address);
+                return entry.getBody();
+            }
+            String result = retrieveResult(response, call);
+            call.succeeded();
+            if (cacheKey != null) {
+                cache.put(cacheKey, serviceKey, address, result, response);
+            }
+            return result;
         } finally {
-            client.getConnectionManager().shutdown();
-        }
-
-        LOGGER.debug("multipart UPDATE request sent");
-
-        return result;
-    }
-
-    private void buildMultipartRequest(HttpEntityEnclosingRequestBase clientRequest, List<HTTPPart> parts)
-            throws IOException {
-        MultipartEntity entity = new MultipartEntity();
-        for (HTTPPart part : parts) {
-            entity.addPart(part.getName(), MultipartBodyFactory.createBody(part));
+            if (abortTask != null) {
+                abortTask.cancel(false);
+            }
+            if (context != null && clientRequest != null) {
+                context.untrack(clientRequest);
+            }
+            // Requests are aborted when they lose a hedging race or their batch is abandoned; that isn't
+            // the service's fault either.
+            boolean abandoned = isAbandoned(clientRequest, deadline);
+            if (abandoned) {
+                call.abandoned();
+            }
+            call.finish();
+            healthy = healthy || abandoned;
+            permit.release(healthy);
+            lease.release(healthy);
+            if (update) {
+                cache.invalidate(serviceKey, address);
+            }
         }
-        addAdditionalParts(entity);
-        clientRequest.setEntity(entity);
-    }
-
-    /**
-     * This method allows concrete subclasses to add additional parts to multipart form requests if
-     * necessary. By default, no additional parts are added.
-     *
-     * @param entity the entity to add the part to.
-     * @throws IOException if an I/O error occurs.
-     */
-    protected void addAdditionalParts(MultipartEntity entity) throws IOException {
-        // The base implementation of this method does nothing.
     }
 
     /**
-     * Sends an HTTP DELETE request to another service.
+     * Builds the key used to cache a response. Responses are cached separately for each user because
+     * services may tailor their responses to the user.
      *
-     * @param address the address to send the request to.
-     * @return the URL connection used to send the request.
-     * @throws IOException if an I/O error occurs.
+     * @param address the resolved service address.
+     * @return the cache key or null if the user isn't authenticated.
      */
-    private URLConnection delete(String address) throws IOException {
-        // make post mode connection
-        HttpURLConnection urlc = getUrlConnection(address);
-
-        urlc.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-        urlc.setRequestMethod("DELETE");
-        urlc.setDoOutput(true);
-        urlc.connect();
-
-        return urlc;
+    private String getCacheKey(String address) {
+        String username = ServletUtils.getUsername(getRequest());
+        return username == null ? null : username + " " + address;
     }
 
     /**
@@ -385,11 +1300,11 @@ public abstract class BaseDEServiceDispatcher extends RemoteServiceServlet imple
      * @throws IOException if the username can't be obtained.
      */
     protected String getUsername() throws IOException {
-        Object username = getRequest().getSession().getAttribute(DESecurityConstants.LOCAL_SHIB_UID);
+        String username = ServletUtils.getUsername(getRequest());
         if (username == null) {
             throw new IOException("user is not authenticated");
         }
-        return username.toString();
+        return username;
     }
 
     /**
@@ -402,117 +1317,485 @@ public abstract class BaseDEServiceDispatcher extends RemoteServiceServlet imple
      */
     @Override
     public String getServiceData(ServiceCallWrapper wrapper) throws SerializationException, AuthenticationException {
+        return getServiceData(wrapper, getDeadline(wrapper));
+    }
+
+    /**
+     * Performs a service call that has to finish by a deadline fixed when the call was made, so that
+     * time spent waiting before the call starts counts against its timeout.
+     *
+     * @param wrapper the service call wrapper.
+     * @param deadline the deadline of the call, or zero if it has none.
+     * @return the response from the service call.
+     * @throws AuthenticationException if the user isn't authenticated.
+     * @throws SerializationException if any other error occurs.
+     */
+    private String getServiceData(ServiceCallWrapper wrapper, long deadline)
+            throws SerializationException, AuthenticationException {
         String json = null;
-        URLConnection urlc = null;
 
         if (isValidServiceCall(wrapper)) {
             String address = retrieveServiceAddress(wrapper);
             String body = updateRequestBody(wrapper.getBody());
             LOGGER.debug("request json==>" + body);
             try {
-                switch (wrapper.getType()) {
-                    case GET:
-                        urlc = get(address);
-                        break;
-
-                    case PUT:
-                        urlc = update(address, body, "PUT");
-                        break;
-
-                    case POST:
-                        urlc = update(address, body, "POST");
-                        break;
-
-                    case DELETE:
-                        urlc = delete(address);
-                        break;
-
-                    default:
-                        break;
-                }
-
-                json = retrieveResult(urlc);
+                json = retrieveSharedServiceData(wrapper, address, body, deadline);
             } catch (AuthenticationException ex) {
                 throw ex;
+            } catch (ServiceErrorException ex) {
+                LOGGER.error(ex.toString(), ex);
+                LOGGER.error(ex.getResponseBody());
+                throw new SerializationException(ex.getResponseBody(), ex);
             } catch (Exception ex) {
                 LOGGER.error(ex.toString(), ex);
                 // because the GWT compiler will issue a warning if we simply
                 // throw exception, we'll
                 // use SerializationException()
-                SerializationException exception;
-
-                try {
-                    HttpURLConnection httpConn = (HttpURLConnection)urlc;
-
-                    String errMsg = IOUtils.toString(httpConn.getErrorStream());
+                throw new SerializationException(ex);
+            }
+        }
 
-                    LOGGER.error(errMsg);
+        LOGGER.debug("json==>" + json);
+        return json;
+    }
 
-                    exception = new SerializationException(errMsg, ex);
-                } catch (Exception ignore) {
-                    exception = new SerializationException(ex);
+    /**
+     * Performs several independent service calls concurrently on a bounded thread pool. Each call is
+     * handled exactly as it would be by {@link #getServiceData(ServiceCallWrapper)}, and a failed call
+     * is reported in its result rather than failing the whole batch. If any call fails because the user
+     * isn't authenticated, however, the whole batch fails so that the client can redirect the user.
+     *
+     * @param wrappers the service call wrappers.
+     * @return the results, in the same order as the wrappers.
+     * @throws AuthenticationException if the user isn't authenticated.
+     * @throws SerializationException if no list of wrappers is provided or the batch is interrupted.
+     */
+    @Override
+    public List<ServiceCallResult> getServiceDataBatch(List<ServiceCallWrapper> wrappers)
+            throws SerializationException, AuthenticationException {
+        if (wrappers == null) {
+            throw new SerializationException("no list of service calls was provided for the batch");
+        }
+        final RequestContext context = getRequestContext();
+        ThreadPoolExecutor executor = getBatchExecutor();
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (final ServiceCallWrapper wrapper : wrappers) {
+            final long deadline = getDeadline(wrapper);
+            futures.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    RequestContext previous = context.attach();
+                    try {
+                        if (context.isCancelled()) {
+                            throw new InterruptedIOException("batch abandoned");
+                        }
+                        return getServiceData(wrapper, deadline);
+                    } finally {
+                        context.detach(previous);
+                    }
                 }
+            }));
+        }
 
-                throw exception;
+        List<ServiceCallResult> results = new ArrayList<ServiceCallResult>();
+        try {
+            for (Future<String> future : futures) {
+                results.add(getBatchResult(future));
             }
+        } catch (AuthenticationException ex) {
+            abandon(context, futures);
+            throw ex;
+        } catch (InterruptedException ex) {
+            abandon(context, futures);
+            Thread.currentThread().interrupt();
+            throw new SerializationException(ex);
         }
+        return results;
+    }
 
-        LOGGER.debug("json==>" + json);
-        return json;
+    /**
+     * Waits for a single service call in a batch to complete.
+     *
+     * @param future the future representing the service call.
+     * @return the result of the service call.
+     * @throws AuthenticationException if the user isn't authenticated.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    private ServiceCallResult getBatchResult(Future<String> future) throws AuthenticationException,
+            InterruptedException {
+        try {
+            return ServiceCallResult.success(future.get());
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof AuthenticationException) {
+                throw (AuthenticationException)cause;
+            }
+            LOGGER.error("batched service call failed", cause);
+            return ServiceCallResult.failure(cause.getMessage());
+        }
+    }
+
+    /**
+     * Abandons the service calls in a batch that haven't completed yet. Calls in flight are aborted,
+     * calls that haven't started fail immediately, and this method waits for the calls to finish so
+     * that none of them uses the servlet request after the container has recycled it.
+     *
+     * @param context the request context shared by the service calls.
+     * @param futures the futures representing the service calls.
+     */
+    private void abandon(RequestContext context, List<Future<String>> futures) {
+        context.cancel();
+        boolean interrupted = Thread.interrupted();
+        long waitUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ABANDON_WAIT_SECONDS);
+        for (Future<String> future : futures) {
+            while (!future.isDone()) {
+                try {
+                    future.get(Math.max(1, waitUntil - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // The failure has already been reported.
+                } catch (TimeoutException e) {
+                    LOGGER.error("service calls from an abandoned batch are still running");
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * Implements entry point for service dispatcher for streaming data back to client.
+     * Implements entry point for service dispatcher for streaming data back to client. The call is
+     * subject to the same isolation, retry policy, metrics and deadline as any other service call, and
+     * it stays in progress until the returned stream is closed, so the stream must always be closed.
+     * Only failures that occur before the response body is read are retried.
      *
      * @param wrapper the service call wrapper.
      * @return an input stream that can be used to retrieve the response from the service call.
      * @throws AuthenticationException if the user isn't authenticated.
+     * @throws ServiceErrorException if the service returned an unsuccessful status code or refused the
+     *         call.
      * @throws IOException if an I/O error occurs.
      * @throws SerializationException if any other error occurs.
      */
-    public DEServiceInputStream getServiceStream(ServiceCallWrapper wrapper)
+    public DEServiceInputStream getServiceStream(final ServiceCallWrapper wrapper)
             throws SerializationException, IOException {
-        String json = null;
-        URLConnection urlc = null;
+        if (!isValidServiceCall(wrapper)) {
+            throw new SerializationException("invalid service call");
+        }
+        String address = retrieveServiceAddress(wrapper);
+        final String body = updateRequestBody(wrapper.getBody());
+        final long deadline = getDeadline(wrapper);
 
-        if (isValidServiceCall(wrapper)) {
-            String address = retrieveServiceAddress(wrapper);
-            String body = updateRequestBody(wrapper.getBody());
+        try {
+            return withRetries(wrapper, address, deadline, new Attempt<DEServiceInputStream>() {
+                @Override
+                public DEServiceInputStream run(String address) throws IOException {
+                    return openServiceStream(wrapper, address, body, deadline);
+                }
+            });
+        } catch (AuthenticationException ex) {
+            throw ex;
+        } catch (ServiceErrorException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            // because the GWT compiler will issue a warning if we simply
+            // throw exception, we'll
+            // use SerializationException()
+            throw new SerializationException(ex);
+        }
+    }
 
-            try {
-                switch (wrapper.getType()) {
-                    case GET:
-                        urlc = get(address);
-                        break;
+    /**
+     * Sends a request to another service and opens the response body. The service isolation permit,
+     * endpoint lease and deadline of the call are held by the returned stream until it's closed.
+     *
+     * @param wrapper the service call wrapper.
+     * @param address the resolved address to send the request to.
+     * @param body the request body.
+     * @param deadline the deadline in milliseconds since the epoch, or zero if there is none.
+     * @return the stream of the response body.
+     * @throws ServiceErrorException if the service returned an unsuccessful status code.
+     * @throws IOException if an I/O error occurs.
+     */
+    private DEServiceInputStream openServiceStream(ServiceCallWrapper wrapper, String address,
+            String body, long deadline) throws IOException {
+        String serviceKey = serviceResolver.getServiceKey(wrapper.getAddress());
+        ServiceIsolation.Permit permit = getServiceIsolation().acquire(serviceKey);
+        ServiceStats.Call call = ServiceMetrics.getInstance().getStats(serviceKey).start();
+        EndpointBalancer.Lease lease = serviceResolver.startCall(serviceKey, address);
+
+        boolean healthy = true;
+        HttpRequestBase clientRequest = null;
+        ScheduledFuture<?> abortTask = null;
+        DEServiceInputStream result = null;
+        try {
+            clientRequest = buildRequest(wrapper, address, body);
+            abortTask = applyDeadline(clientRequest, deadline);
+            healthy = false;
+            HttpResponse response = execute(clientRequest, call);
+            healthy = isHealthy(response);
+            verifyResponse(response);
+            CountingEntity received = StreamUtils.countContent(response);
+            result = new ServiceCallStream(StreamUtils.decodeContent(response), clientRequest, permit,
+                    call, lease, abortTask, received);
+            return result;
+        } finally {
+            if (result == null) {
+                if (abortTask != null) {
+                    abortTask.cancel(false);
+                }
+                boolean abandoned = isAbandoned(clientRequest, deadline);
+                if (abandoned) {
+                    call.abandoned();
+                }
+                call.finish();
+                healthy = healthy || abandoned;
+                permit.release(healthy);
+                lease.release(healthy);
+                if (clientRequest != null) {
+                    clientRequest.releaseConnection();
+                }
+            }
+        }
+    }
 
-                    case PUT:
-                        urlc = update(address, body, "PUT");
-                        break;
+    /**
+     * A stream of a service response body that finishes the service call when it's closed. The call
+     * fails if reading the body fails.
+     */
+    private static class ServiceCallStream extends DEServiceInputStream {
+
+        private final HttpRequestBase clientRequest;
+        private final ServiceIsolation.Permit permit;
+        private final ServiceStats.Call call;
+        private final EndpointBalancer.Lease lease;
+        private final ScheduledFuture<?> abortTask;
+        private final CountingEntity received;
+        private boolean failed;
+        private boolean closed;
+
+        public ServiceCallStream(HttpResponse response, HttpRequestBase clientRequest,
+                ServiceIsolation.Permit permit, ServiceStats.Call call, EndpointBalancer.Lease lease,
+                ScheduledFuture<?> abortTask, CountingEntity received) throws IOException {
+            super(response);
+            this.clientRequest = clientRequest;
+            this.permit = permit;
+            this.call = call;
+            this.lease = lease;
+            this.abortTask = abortTask;
+            this.received = received;
+        }
 
-                    case POST:
-                        urlc = update(address, body, "POST");
-                        break;
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
 
-                    case DELETE:
-                        urlc = delete(address);
-                        break;
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
 
-                    default:
-                        break;
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                if (abortTask != null) {
+                    abortTask.cancel(false);
                 }
-            } catch (AuthenticationException ex) {
-                throw ex;
-            } catch (Exception ex) {
-                // because the GWT compiler will issue a warning if we simply
-                // throw exception, we'll
-                // use SerializationException()
-                throw new SerializationException(ex);
+                call.bytesReceived(received == null ? 0 : received.getByteCount());
+                if (!failed) {
+                    call.succeeded();
+                }
+                call.finish();
+                permit.release(!failed);
+                lease.release(!failed);
+                clientRequest.releaseConnection();
+            }
+        }
+    }
+
+    /**
+     * Streams the response to a GET request directly to the client. This is a plain HTTP alternative to
+     * the RPC entry point for services that return large responses: the response body is copied to the
+     * servlet output stream through a fixed-size buffer instead of being read into memory and then
+     * serialized again. The service address is specified using the <code>address</code> query string
+     * parameter. All other query string parameters are passed on to the service.
+     *
+     * Unlike RPC calls, these requests can be made by any page the user visits, for example using an
+     * image tag, so only addresses that refer to named services are accepted. Otherwise another site
+     * could make the server fetch an arbitrary URL with the user's credentials attached.
+     *
+     * @param req the HTTP servlet request.
+     * @param res the HTTP servlet response.
+     * @throws ServletException if a servlet error occurs.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException,
+            IOException {
+        ServiceCallWrapper wrapper = parseStreamingRequest(req.getQueryString());
+        if (wrapper == null) {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "no service address provided");
+            return;
+        }
+        if (!isNamedServiceAddress(wrapper.getAddress())) {
+            LOGGER.warn("streaming request for an address that isn't a named service rejected: "
+                    + wrapper.getAddress());
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "only named services may be streamed");
+            return;
+        }
+        RequestContext context = RequestContext.capture(req);
+        RequestContext previous = context.attach();
+        try {
+            streamServiceData(wrapper, res);
+        } finally {
+            context.detach(previous);
+        }
+    }
+
+    /**
+     * Determines whether an unresolved address refers to a named service. Additional path components
+     * may not climb out of the service's base path. Names that aren't configured are rejected when the
+     * address is resolved.
+     *
+     * @param address the unresolved address.
+     * @return true if the address refers to a named service.
+     */
+    private boolean isNamedServiceAddress(String address) {
+        if (serviceResolver.getServiceKey(address) == null) {
+            return false;
+        }
+        String path = address.split("\\?", 2)[0];
+        return !path.contains("/../") && !path.endsWith("/..") && !path.contains("\\");
+    }
+
+    /**
+     * Builds a service call wrapper from the query string of a streaming request.
+     *
+     * @param queryString the query string.
+     * @return the service call wrapper or null if no service address was provided.
+     * @throws UnsupportedEncodingException if the address can't be decoded.
+     */
+    private ServiceCallWrapper parseStreamingRequest(String queryString) throws UnsupportedEncodingException {
+        if (queryString == null) {
+            return null;
+        }
+        String address = null;
+        StringBuilder arguments = new StringBuilder();
+        for (String param : queryString.split("&")) {
+            if (address == null && param.startsWith(ADDRESS_PARAM + "=")) {
+                address = URLDecoder.decode(param.substring(ADDRESS_PARAM.length() + 1), "UTF-8");
+            } else if (param.length() > 0) {
+                arguments.append(arguments.length() == 0 ? "" : "&").append(param);
             }
         }
+        if (!isValidString(address)) {
+            return null;
+        }
+        ServiceCallWrapper wrapper = new ServiceCallWrapper(address);
+        wrapper.setArguments(arguments.toString());
+        return wrapper;
+    }
 
-        LOGGER.debug("json==>" + json);
-        System.out.println("json==>" + json);
-        return new DEServiceInputStream(urlc);
+    /**
+     * Sends a request to another service and copies the response directly to a servlet response without
+     * buffering the response body in memory.
+     *
+     * @param wrapper the service call wrapper.
+     * @param res the servlet response to copy the service response to.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void streamServiceData(ServiceCallWrapper wrapper, HttpServletResponse res) throws IOException {
+        if (!isValidServiceCall(wrapper)) {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, "invalid service call");
+            return;
+        }
+
+        String serviceKey = serviceResolver.getServiceKey(wrapper.getAddress());
+        ServiceIsolation.Permit permit;
+        try {
+            permit = getServiceIsolation().acquire(serviceKey);
+        } catch (ServiceUnavailableException ex) {
+            res.setHeader("Retry-After", String.valueOf(ex.getRetryAfterSeconds()));
+            res.sendError(ex.getStatusCode(), ex.getMessage());
+            return;
+        }
+
+        ServiceStats.Call call = ServiceMetrics.getInstance().getStats(serviceKey).start();
+        EndpointBalancer.Lease lease = EndpointBalancer.Lease.NONE;
+        boolean healthy = true;
+        try {
+            HttpRequestBase clientRequest;
+            HttpResponse response;
+            try {
+                String address = retrieveServiceAddress(wrapper);
+                lease = serviceResolver.startCall(serviceKey, address);
+                clientRequest = buildRequest(wrapper, address, updateRequestBody(wrapper.getBody()));
+                healthy = false;
+                response = execute(clientRequest, call);
+                healthy = isHealthy(response);
+            } catch (AuthenticationException ex) {
+                res.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+                return;
+            } catch (UnresolvableServiceNameException ex) {
+                res.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+                return;
+            }
+
+            // Compressed responses are passed through unchanged if the client can decode them.
+            CountingEntity received = StreamUtils.countContent(response);
+            HttpEntity entity = response.getEntity();
+            Header encoding = entity == null ? null : entity.getContentEncoding();
+            String acceptEncoding = getRequest().getHeader("Accept-Encoding");
+            if (encoding != null && StreamUtils.acceptsEncoding(acceptEncoding, encoding.getValue())) {
+                res.setHeader("Content-Encoding", encoding.getValue());
+            } else {
+                entity = StreamUtils.decodeContent(response).getEntity();
+            }
+
+            int status = response.getStatusLine().getStatusCode();
+            res.setStatus(status);
+            if (entity != null) {
+                if (entity.getContentType() != null) {
+                    res.setContentType(entity.getContentType().getValue());
+                }
+                if (entity.getContentLength() >= 0 && entity.getContentLength() <= Integer.MAX_VALUE) {
+                    res.setContentLength((int)entity.getContentLength());
+                }
+            }
+            try {
+                // The request is aborted if the client goes away, even if the body is being decoded.
+                StreamUtils.copyContent(entity, res.getOutputStream(), clientRequest);
+            } finally {
+                call.bytesReceived(received == null ? 0 : received.getByteCount());
+            }
+            if (status < 400) {
+                call.succeeded();
+            }
+        } finally {
+            call.finish();
+            permit.release(healthy);
+            lease.release(healthy);
+        }
     }
 
     /**
@@ -528,17 +1811,18 @@ public abstract class BaseDEServiceDispatcher extends RemoteServiceServlet imple
         String json = null;
 
         if (isValidServiceCall(wrapper)) {
+            long deadline = getDeadline(wrapper);
             String address = retrieveServiceAddress(wrapper);
             List<HTTPPart> parts = wrapper.getParts();
 
             try {
                 switch (wrapper.getType()) {
                     case PUT:
-                        json = updateMultipart(address, parts, "PUT");
+                        json = updateMultipart(wrapper, address, parts, "PUT", deadline);
                         break;
 
                     case POST:
-                        json = updateMultipart(address, parts, "POST");
+                        json = updateMultipart(wrapper, address, parts, "POST", deadline);
                         break;
 
                     default:
@@ -551,10 +1835,31 @@ public abstract class BaseDEServiceDispatcher extends RemoteServiceServlet imple
                 // throw exception, we'll
                 // use SerializationException()
                 throw new SerializationException(ex);
+            } finally {
+                getResponseCache().invalidate(serviceResolver.getServiceKey(wrapper.getAddress()), address);
             }
         }
 
-        System.out.println("json==>" + json);
+        LOGGER.debug("json==>" + json);
         return json;
     }
+
+    /**
+     * Creates named daemon threads for the dispatcher's executors.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        public DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -1,6 +1,6 @@
 package org.iplantc.de.server;
 
-import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.utils.URIBuilder;
 
 import java.io.IOException;
@@ -14,7 +14,20 @@ import javax.servlet.http.HttpServletRequest;
  * Performs actions common to most URL connectors.
  */
 public abstract class BaseUrlConnector implements UrlConnector {
-    
+
+    /**
+     * Obtains an HTTP request base object for a request that doesn't have a body, such as a GET or
+     * DELETE request. The request is sent using the service dispatcher's {@link HttpTransport}.
+     *
+     * @param request the servlet request.
+     * @param address the address to connect to.
+     * @param method the HTTP request method.
+     * @return the request.
+     * @throws IOException if the connection can't be established.
+     */
+    public abstract HttpRequestBase getBodilessRequest(HttpServletRequest request, String address,
+            String method) throws IOException;
+
     /**
      * Adds a query string parameter to a URI.
      *
@@ -62,13 +75,13 @@ public abstract class BaseUrlConnector implements UrlConnector {
 
     /**
      * Copies the User-Agent header from the incoming HTTP servlet request to an outgoing
-     * HttpEntityEnclosingRequestBase.
+     * HttpRequestBase.
      * 
      * @param req the incoming servlet request.
-     * @param c the outgoing HttpEntityEnclosingRequestBase.
+     * @param c the outgoing HttpRequestBase.
      * @return the outgoing request.
      */
-    protected HttpEntityEnclosingRequestBase copyUserAgent(HttpServletRequest req, HttpEntityEnclosingRequestBase c) {
+    protected <T extends HttpRequestBase> T copyUserAgent(HttpServletRequest req, T c) {
         c.addHeader("User-Agent", req.getHeader("User-Agent"));
         return c;
     }
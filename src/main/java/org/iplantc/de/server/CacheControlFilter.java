@@ -1,11 +1,25 @@
 package org.iplantc.de.server;
 
+import org.iplantc.de.server.util.StreamUtils;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -13,42 +27,285 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
- * 
- * A filter set no cache headers to GWT .nocache files
- * 
+ *
+ * A filter that applies the caching policy for static resources. GWT .nocache files get headers that
+ * prevent caching. GWT .cache files and fingerprinted resources, whose names change whenever their
+ * contents change, may be cached for a year without revalidation. Only resources that are part of the
+ * web application, or that are under one of the paths listed in the comma-separated staticPrefixes init
+ * parameter, are treated this way; a dynamic response whose name happens to look fingerprinted, such as
+ * a download of sample.20130415.fastq, passes straight through the filter.
+ *
+ * If a cached or uncached resource has a precompressed sibling (the same name followed by .br or .gz)
+ * and the client accepts that encoding, the sibling is served directly. Siblings of cached resources
+ * are served with an ETag and Last-Modified date so that they can be revalidated; siblings of uncached
+ * resources aren't. Requests for other resources pass straight through the filter.
+ *
+ * The names of fingerprinted resources are matched against the fingerprintPattern init parameter,
+ * which defaults to names like app.0123abcd.css. Set it to an empty string to disable fingerprint
+ * matching.
+ *
  * @author sriram
- * 
+ *
  */
 public class CacheControlFilter implements Filter {
 
+    /**
+     * The number of seconds in a year, the longest max-age that caches are expected to honor.
+     */
+    private static final long ONE_YEAR_SECONDS = 365L * 24 * 60 * 60;
+
+    /**
+     * The Cache-Control header value for resources whose contents never change.
+     */
+    private static final String IMMUTABLE = "public, max-age=" + ONE_YEAR_SECONDS + ", immutable";
+
+    /**
+     * The default pattern for the names of fingerprinted resources.
+     */
+    private static final String DEFAULT_FINGERPRINT_PATTERN = "[^/]+\\.[0-9a-fA-F]{8,}\\.[A-Za-z0-9]+";
+
+    /**
+     * The maximum number of resource paths that are remembered.
+     */
+    private static final int MAX_CACHED_PATHS = 10000;
+
+    /**
+     * Remembers the paths that aren't web application resources.
+     */
+    private static final StaticResource NONE = new StaticResource(false, null, null);
+
+    private ServletContext context;
+    private Pattern fingerprintPattern;
+    private final List<String> staticPrefixes = new ArrayList<String>();
+
+    /**
+     * The web application resources and their precompressed siblings, indexed by resource path.
+     */
+    private final ConcurrentMap<String, StaticResource> resources =
+            new ConcurrentHashMap<String, StaticResource>();
+
     @Override
     public void destroy() {
-        // TODO Auto-generated method stub
+        resources.clear();
     }
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain filterChain)
             throws IOException, ServletException {
         HttpServletRequest httpRequest = (HttpServletRequest)request;
+        HttpServletResponse httpResponse = (HttpServletResponse)response;
         String requestURI = httpRequest.getRequestURI();
+        String path = httpRequest.getServletPath() + StringUtils.defaultString(httpRequest.getPathInfo());
 
+        boolean validators;
         if (requestURI.contains(".nocache.")) {
             Date now = new Date();
-            HttpServletResponse httpResponse = (HttpServletResponse)response;
             httpResponse.setDateHeader("Date", now.getTime());
             // one day old
             httpResponse.setDateHeader("Expires", now.getTime() - 86400000L);
             httpResponse.setHeader("Pragma", "no-cache");
             httpResponse.setHeader("Cache-control", "no-cache, no-store, must-revalidate");
+            validators = false;
+        }
+        else if ((requestURI.contains(".cache.") || isFingerprinted(requestURI)) && isStatic(path)) {
+            long now = System.currentTimeMillis();
+            httpResponse.setDateHeader("Expires", now + ONE_YEAR_SECONDS * 1000);
+            httpResponse.setHeader("Cache-Control", IMMUTABLE);
+            validators = true;
+        }
+        else {
+            filterChain.doFilter(request, response);
+            return;
         }
 
-        filterChain.doFilter(request, response);
-
+        if (!servePrecompressed(httpRequest, httpResponse, path, validators)) {
+            filterChain.doFilter(request, response);
+        }
     }
 
     @Override
-    public void init(FilterConfig arg0) throws ServletException {
-        // TODO Auto-generated method stub
+    public void init(FilterConfig filterConfig) throws ServletException {
+        context = filterConfig.getServletContext();
+        String pattern = filterConfig.getInitParameter("fingerprintPattern");
+        if (pattern == null) {
+            pattern = DEFAULT_FINGERPRINT_PATTERN;
+        }
+        fingerprintPattern = StringUtils.isBlank(pattern) ? null : Pattern.compile(pattern.trim());
+        String prefixes = filterConfig.getInitParameter("staticPrefixes");
+        if (prefixes != null) {
+            for (String prefix : prefixes.split(",")) {
+                if (StringUtils.isNotBlank(prefix)) {
+                    staticPrefixes.add(prefix.trim());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param requestURI the request URI.
+     * @return true if the last segment of the URI is the name of a fingerprinted resource.
+     */
+    private boolean isFingerprinted(String requestURI) {
+        if (fingerprintPattern == null) {
+            return false;
+        }
+        return fingerprintPattern.matcher(requestURI.substring(requestURI.lastIndexOf('/') + 1)).matches();
+    }
+
+    /**
+     * @param path the path of the requested resource within the web application.
+     * @return true if the path is under a static prefix or names a web application resource.
+     */
+    private boolean isStatic(String path) throws IOException {
+        for (String prefix : staticPrefixes) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return getResource(path).exists;
     }
 
+    /**
+     * Serves the precompressed sibling of the requested resource if there is one and the client accepts
+     * its encoding.
+     *
+     * @param path the path of the requested resource within the web application.
+     * @param validators true if the response may be revalidated using an ETag and Last-Modified date.
+     * @return true if the response was sent.
+     */
+    private boolean servePrecompressed(HttpServletRequest request, HttpServletResponse response,
+            String path, boolean validators) throws IOException {
+        String method = request.getMethod();
+        boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            return false;
+        }
+        StaticResource siblings = getResource(path);
+        if (siblings.brotli == null && siblings.gzip == null) {
+            return false;
+        }
+
+        // The response depends on Accept-Encoding even if the uncompressed resource is served.
+        response.setHeader("Vary", "Accept-Encoding");
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        Variant variant = null;
+        if (siblings.brotli != null && StreamUtils.acceptsEncoding(acceptEncoding, "br")) {
+            variant = siblings.brotli;
+        }
+        else if (siblings.gzip != null && StreamUtils.acceptsEncoding(acceptEncoding, "gzip")) {
+            variant = siblings.gzip;
+        }
+        if (variant == null) {
+            return false;
+        }
+
+        if (validators) {
+            response.setHeader("ETag", variant.etag);
+            response.setDateHeader("Last-Modified", variant.lastModified);
+            if (isNotModified(request, variant)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+        }
+
+        String contentType = context.getMimeType(path);
+        if (contentType != null) {
+            response.setContentType(contentType);
+        }
+        response.setHeader("Content-Encoding", variant.encoding);
+        if (variant.length >= 0 && variant.length <= Integer.MAX_VALUE) {
+            response.setContentLength((int)variant.length);
+        }
+        if (!head) {
+            InputStream in = variant.url.openStream();
+            try {
+                IOUtils.copy(in, response.getOutputStream());
+            }
+            finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        return true;
+    }
+
+    private boolean isNotModified(HttpServletRequest request, Variant variant) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return StreamUtils.matchesEtag(ifNoneMatch, variant.etag);
+        }
+        try {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            return ifModifiedSince >= 0 && variant.lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Looks up a web application resource and its precompressed siblings. Web application resources
+     * don't change while the application is running, so the result is remembered.
+     */
+    private StaticResource getResource(String path) throws IOException {
+        StaticResource result = resources.get(path);
+        if (result == null) {
+            Variant brotli = findVariant(path + ".br", "br");
+            Variant gzip = findVariant(path + ".gz", "gzip");
+            boolean exists = brotli != null || gzip != null || context.getResource(path) != null;
+            result = exists ? new StaticResource(true, brotli, gzip) : NONE;
+            if (resources.size() < MAX_CACHED_PATHS) {
+                resources.put(path, result);
+            }
+        }
+        return result;
+    }
+
+    private Variant findVariant(String path, String encoding) throws IOException {
+        URL url = context.getResource(path);
+        if (url == null) {
+            return null;
+        }
+        URLConnection connection = url.openConnection();
+        long lastModified = connection.getLastModified();
+        long length = connection.getContentLength();
+        IOUtils.closeQuietly(connection.getInputStream());
+        return new Variant(url, encoding, lastModified, length);
+    }
+
+    /**
+     * A web application resource and its precompressed siblings. Either sibling may be null.
+     */
+    private static class StaticResource {
+
+        private final boolean exists;
+        private final Variant brotli;
+        private final Variant gzip;
+
+        public StaticResource(boolean exists, Variant brotli, Variant gzip) {
+            this.exists = exists;
+            this.brotli = brotli;
+            this.gzip = gzip;
+        }
+    }
+
+    /**
+     * A precompressed representation of a resource.
+     */
+    private static class Variant {
+
+        private final URL url;
+        private final String encoding;
+        private final long lastModified;
+        private final long length;
+        private final String etag;
+
+        public Variant(URL url, String encoding, long lastModified, long length) {
+            this.url = url;
+            this.encoding = encoding;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "-"
+                    + encoding + "\"";
+        }
+    }
 }
@@ -5,6 +5,7 @@ import static org.iplantc.de.server.util.CasUtils.attributePrincipalFromServletR
 import org.iplantc.de.shared.AuthenticationException;
 
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.jasig.cas.client.authentication.AttributePrincipal;
 
 import java.io.IOException;
@@ -22,6 +23,33 @@ import javax.servlet.http.HttpServletRequest;
  */
 public class CasUrlConnector extends BaseUrlConnector {
 
+    /**
+     * The number of proxy tickets to prefetch for each service used by a session.
+     */
+    private final int ticketPoolSize;
+
+    /**
+     * The number of milliseconds a prefetched proxy ticket may be held before it's discarded.
+     */
+    private final long maxTicketAge;
+
+    /**
+     * Creates a connector that uses the default proxy ticket prefetch settings.
+     */
+    public CasUrlConnector() {
+        this(ProxyTicketProvider.DEFAULT_POOL_SIZE, ProxyTicketProvider.DEFAULT_MAX_TICKET_AGE);
+    }
+
+    /**
+     * @param ticketPoolSize the maximum number of proxy tickets to prefetch for each service; zero disables
+     *        prefetching.
+     * @param maxTicketAge the number of milliseconds a prefetched proxy ticket may be held.
+     */
+    public CasUrlConnector(int ticketPoolSize, long maxTicketAge) {
+        this.ticketPoolSize = ticketPoolSize;
+        this.maxTicketAge = maxTicketAge;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -40,6 +68,16 @@ public class CasUrlConnector extends BaseUrlConnector {
         return copyUserAgent(request, RequestFactory.buildRequest(method, authenticatedUrl));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpRequestBase getBodilessRequest(HttpServletRequest request, String address, String method)
+            throws IOException {
+        String authenticatedUrl = addProxyTokenToUrl(address, request).toString();
+        return copyUserAgent(request, RequestFactory.buildBodilessRequest(method, authenticatedUrl));
+    }
+
     /**
      * Obtains a CAS proxy ticket and adds it to the URL as a query string parameter.
      *
@@ -56,8 +94,9 @@ public class CasUrlConnector extends BaseUrlConnector {
     }
 
     /**
-     * Gets the proxy ticket for the incoming servlet request and the outgoing address.  The incoming request must
-     * have been authenticated by CAS for this to work.
+     * Gets the proxy ticket for the incoming servlet request and the outgoing address.  The incoming
+     * request must have been authenticated by CAS for this to work.  Tickets are obtained from the
+     * session's ticket provider, which keeps a few prefetched tickets on hand for each service.
      *
      * @param request the incoming servlet request.
      * @param url     the URL used to contact the service.
@@ -66,7 +105,12 @@ public class CasUrlConnector extends BaseUrlConnector {
      */
     private String getProxyTicket(HttpServletRequest request, URL url) throws IOException {
         AttributePrincipal principal = attributePrincipalFromServletRequest(request);
-        String ticket = principal.getProxyTicketFor(extractServiceName(url));
+        String ticket = null;
+        if (principal != null) {
+            ProxyTicketProvider provider =
+                    ProxyTicketProvider.forSession(request.getSession(), ticketPoolSize, maxTicketAge);
+            ticket = provider.getProxyTicket(principal, extractServiceName(url));
+        }
         if (ticket == null) {
             request.getSession().invalidate();
             throw new AuthenticationException("unable to obtain a proxy ticket");
@@ -0,0 +1,365 @@
+package org.iplantc.de.server;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A file that is being uploaded in chunks. Chunks are written directly to their position in a spool
+ * file, so they may arrive in any order and several chunks may be written at the same time. The upload
+ * keeps track of the byte ranges that have been received, so a client that loses its connection can
+ * ask which ranges are missing and resume from there.
+ *
+ * Chunks are written while holding the upload's read lock, so they don't block each other. Completing
+ * and discarding the upload take the write lock, so neither happens while a chunk is being written, and
+ * chunks are rejected once the upload is being completed or has been discarded.
+ */
+public class ChunkedUpload {
+
+    /**
+     * The size of the buffer used to copy chunks to the spool file.
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    private final String id;
+    private final String username;
+    private final String address;
+    private final String filename;
+    private final String mimeType;
+    private final long size;
+    private final File spoolFile;
+
+    /**
+     * The byte ranges that have been received, as a map of start offsets to end offsets (exclusive).
+     * Adjacent and overlapping ranges are always merged.
+     */
+    private final TreeMap<Long, Long> received = new TreeMap<Long, Long>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * True while the assembled file is being sent to the service.
+     */
+    private boolean completing;
+
+    /**
+     * True once the spool file has been discarded.
+     */
+    private boolean closed;
+
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    /**
+     * @param id the upload identifier.
+     * @param username the name of the user who started the upload.
+     * @param address the address of the service the assembled file will be sent to.
+     * @param filename the name of the file.
+     * @param mimeType the MIME type of the file, may be null.
+     * @param size the size of the file in bytes.
+     * @param spoolFile the file used to assemble the chunks.
+     */
+    public ChunkedUpload(String id, String username, String address, String filename, String mimeType,
+            long size, File spoolFile) {
+        this.id = id;
+        this.username = username;
+        this.address = address;
+        this.filename = filename;
+        this.mimeType = mimeType;
+        this.size = size;
+        this.spoolFile = spoolFile;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public File getSpoolFile() {
+        return spoolFile;
+    }
+
+    /**
+     * @return the time the upload was last used, in milliseconds since the epoch.
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Writes a chunk to the spool file. The chunk only counts as received if its length matches the
+     * expected length and, when a checksum is given, its MD5 digest matches the checksum. A rejected
+     * chunk may have been partially written, but it will be overwritten when the client sends it again.
+     *
+     * @param offset the position of the chunk in the file.
+     * @param length the expected length of the chunk.
+     * @param in the chunk content.
+     * @param md5 the expected MD5 digest of the chunk, may be null.
+     * @throws ChunkRejectedException if the chunk doesn't fit in the file or doesn't match its checksum.
+     * @throws UploadClosedException if the upload is being completed or has been discarded.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeChunk(long offset, long length, InputStream in, byte[] md5) throws IOException {
+        lastActivity = System.currentTimeMillis();
+        if (offset < 0 || length < 0 || offset + length > size) {
+            throw new ChunkRejectedException("chunk at offset " + offset + " with length " + length
+                    + " doesn't fit in a file of size " + size);
+        }
+
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            copyChunk(offset, length, in, md5);
+        }
+        finally {
+            lock.readLock().unlock();
+            lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    private void copyChunk(long offset, long length, InputStream in, byte[] md5) throws IOException {
+        MessageDigest digest = md5 == null ? null : newDigest();
+        RandomAccessFile file = new RandomAccessFile(spoolFile, "rw");
+        long written = 0;
+        try {
+            FileChannel channel = file.getChannel();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (written < length) {
+                int n = in.read(buffer, 0, (int)Math.min(buffer.length, length - written));
+                if (n < 0) {
+                    break;
+                }
+                if (digest != null) {
+                    digest.update(buffer, 0, n);
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes, offset + written + bytes.position());
+                }
+                written += n;
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(file);
+        }
+
+        if (written != length) {
+            throw new ChunkRejectedException("expected " + length + " bytes at offset " + offset
+                    + " but received " + written);
+        }
+        if (digest != null && !Arrays.equals(md5, digest.digest())) {
+            throw new ChunkRejectedException("checksum mismatch for chunk at offset " + offset);
+        }
+        markReceived(offset, offset + length);
+    }
+
+    /**
+     * @throws UploadClosedException if the upload is being completed or has been discarded.
+     */
+    private void checkOpen() throws UploadClosedException {
+        if (closed) {
+            throw new UploadClosedException("upload " + id + " has been discarded");
+        }
+        if (completing) {
+            throw new UploadClosedException("upload " + id + " is being completed");
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    private synchronized void markReceived(long start, long end) {
+        if (start == end) {
+            return;
+        }
+        Map.Entry<Long, Long> before = received.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        Map.Entry<Long, Long> after;
+        while ((after = received.ceilingEntry(start)) != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            received.remove(after.getKey());
+        }
+        received.put(start, end);
+    }
+
+    /**
+     * @return the number of bytes received without gaps from the start of the file. A client resuming
+     *         a sequential upload can continue from this offset.
+     */
+    public synchronized long getContiguousBytes() {
+        Long end = received.get(0L);
+        return end == null ? 0 : end;
+    }
+
+    /**
+     * @return the byte ranges that have been received, each as a two-element array of the start offset
+     *         and the end offset (exclusive).
+     */
+    public synchronized List<long[]> getReceivedRanges() {
+        List<long[]> result = new ArrayList<long[]>();
+        for (Map.Entry<Long, Long> range : received.entrySet()) {
+            result.add(new long[] {range.getKey(), range.getValue()});
+        }
+        return result;
+    }
+
+    /**
+     * @return true if every byte of the file has been received.
+     */
+    public boolean isComplete() {
+        return getContiguousBytes() == size;
+    }
+
+    /**
+     * Starts sending the assembled file to the service. Chunks are rejected until
+     * {@link #endCompletion(boolean)} is called.
+     *
+     * @return true if the upload may be completed or false if chunks are missing.
+     * @throws UploadClosedException if the upload is already being completed or has been discarded.
+     */
+    public boolean beginCompletion() throws UploadClosedException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (!isComplete()) {
+                return false;
+            }
+            completing = true;
+            return true;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finishes sending the assembled file to the service. If the file was sent, or the upload was
+     * discarded in the meantime, the spool file is deleted; otherwise, the upload is kept so that the
+     * client can try to complete it again.
+     *
+     * @param sent true if the file was sent.
+     */
+    public void endCompletion(boolean sent) {
+        lock.writeLock().lock();
+        try {
+            completing = false;
+            lastActivity = System.currentTimeMillis();
+            if (sent) {
+                closed = true;
+            }
+            if (closed) {
+                deleteSpoolFile();
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the spool file. Chunks written afterwards are rejected. If the upload is being completed,
+     * the file is deleted once the completion has finished.
+     */
+    public void discard() {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            if (!completing) {
+                deleteSpoolFile();
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void deleteSpoolFile() {
+        if (spoolFile.exists() && !spoolFile.delete()) {
+            spoolFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Discards the upload if it hasn't been used since a given time. An upload that is being completed
+     * is never discarded this way.
+     *
+     * @param cutoff the time in milliseconds since the epoch.
+     * @return true if the upload was discarded.
+     */
+    public boolean discardIfIdleSince(long cutoff) {
+        lock.writeLock().lock();
+        try {
+            if (completing || lastActivity >= cutoff) {
+                return false;
+            }
+            discard();
+            return true;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indicates that a chunk was rejected. The client may send the chunk again.
+     */
+    public static class ChunkRejectedException extends IOException {
+        private static final long serialVersionUID = 2925826584196046342L;
+
+        public ChunkRejectedException(String msg) {
+            super(msg);
+        }
+    }
+
+    /**
+     * Indicates that the upload can't be changed because it's being completed or has been discarded.
+     */
+    public static class UploadClosedException extends IOException {
+        private static final long serialVersionUID = -5207380463195374115L;
+
+        public UploadClosedException(String msg) {
+            super(msg);
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package org.iplantc.de.server;
+
+import static org.iplantc.de.server.util.ServletUtils.getIntProp;
+import static org.iplantc.de.server.util.ServletUtils.getUsername;
+
+import org.iplantc.clavin.spring.ConfigAliasResolver;
+import org.iplantc.de.shared.AuthenticationException;
+import org.iplantc.de.shared.services.BaseServiceCallWrapper.Type;
+import org.iplantc.de.shared.services.MultiPartServiceWrapper;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Accepts large file uploads in fixed-size chunks, so that an interrupted upload can be resumed instead
+ * of being started over. Once every chunk has arrived, the assembled file is sent to the destination
+ * service as a multipart request, exactly as if it had been uploaded in a single request. The protocol
+ * is:
+ *
+ * <ul>
+ * <li><code>POST /</code> with the parameters <code>address</code>, <code>filename</code>,
+ * <code>size</code> and optionally <code>mime-type</code> starts an upload. The response contains the
+ * upload ID and the recommended chunk size.</li>
+ * <li><code>PUT /{id}?offset={offset}</code> stores a chunk. The chunk may carry its MD5 digest in a
+ * <code>Content-MD5</code> header (base64) or a <code>checksum</code> parameter (hex). Chunks may be
+ * sent in any order and in parallel. A chunk that doesn't match its checksum is rejected with status
+ * 409 and should be sent again.</li>
+ * <li><code>GET /{id}</code> reports the received byte ranges, so a client can resume an upload.</li>
+ * <li><code>POST /{id}</code> sends the assembled file to the service. The file is sent in the part
+ * named by the <code>part-name</code> parameter, <code>file</code> by default; all other parameters are
+ * sent as additional parts. The response is the response from the service. If the file can't be sent,
+ * the upload is kept and the request may be repeated.</li>
+ * <li><code>DELETE /{id}</code> abandons an upload.</li>
+ * </ul>
+ *
+ * Uploads larger than the configured maximum size are rejected with status 413, as are new uploads by a
+ * user who already has the maximum number of uploads in progress. Uploads that haven't been used for a
+ * while are discarded; expired uploads are looked for on every request. Upload state is kept in memory,
+ * so uploads can't be resumed after the web application is restarted.
+ */
+public class ChunkedUploadServlet extends HttpServlet {
+    private static final long serialVersionUID = -2164087541328216317L;
+
+    private static final Logger LOG = Logger.getLogger(ChunkedUploadServlet.class);
+
+    /**
+     * The prefix used for all chunked upload configuration settings.
+     */
+    public static final String PROPERTY_PREFIX = "org.iplantc.discoveryenvironment.upload.";
+
+    /**
+     * The directory used to assemble uploaded files.
+     */
+    public static final String SPOOL_DIR = PROPERTY_PREFIX + "spool-dir";
+
+    /**
+     * The chunk size recommended to clients, in bytes.
+     */
+    public static final String CHUNK_SIZE = PROPERTY_PREFIX + "chunk-size";
+
+    /**
+     * The largest chunk accepted, in bytes.
+     */
+    public static final String MAX_CHUNK_SIZE = PROPERTY_PREFIX + "max-chunk-size";
+
+    /**
+     * The number of minutes an unused upload is kept before it's discarded.
+     */
+    public static final String EXPIRY = PROPERTY_PREFIX + "expiry-minutes";
+
+    /**
+     * The largest file that may be uploaded, in megabytes.
+     */
+    public static final String MAX_UPLOAD_SIZE = PROPERTY_PREFIX + "max-upload-size-mb";
+
+    /**
+     * The largest number of uploads a single user may have in progress.
+     */
+    public static final String MAX_UPLOADS_PER_USER = PROPERTY_PREFIX + "max-uploads-per-user";
+
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int DEFAULT_MAX_CHUNK_SIZE = 32 * 1024 * 1024;
+    private static final int DEFAULT_EXPIRY = 24 * 60;
+    private static final int DEFAULT_MAX_UPLOAD_SIZE = 10 * 1024;
+    private static final int DEFAULT_MAX_UPLOADS_PER_USER = 10;
+
+    /**
+     * The parameters that describe the upload itself rather than additional parts.
+     */
+    private static final Set<String> RESERVED_PARAMS = new HashSet<String>(Arrays.asList("address",
+            "filename", "size", "mime-type", "part-name"));
+
+    private ServiceCallResolver serviceResolver;
+    private File spoolDir;
+    private int chunkSize;
+    private int maxChunkSize;
+    private long expiryMillis;
+    private long maxUploadSize;
+    private int maxUploadsPerUser;
+
+    /**
+     * The uploads in progress, indexed by upload ID.
+     */
+    private final ConcurrentMap<String, ChunkedUpload> uploads =
+            new ConcurrentHashMap<String, ChunkedUpload>();
+
+    /**
+     * Initializes the servlet.
+     *
+     * @throws ServletException if the servlet can't be initialized.
+     * @throws IllegalStateException if the configuration properties can't be loaded.
+     */
+    @Override
+    public void init() throws ServletException {
+        serviceResolver = ServiceCallResolver.getServiceCallResolver(getServletContext());
+        Properties props = ConfigAliasResolver.getRequiredAliasedConfigFrom(getServletContext(), "webapp");
+        String dir = props.getProperty(SPOOL_DIR);
+        spoolDir = StringUtils.isBlank(dir) ? new File(System.getProperty("java.io.tmpdir"), "de-uploads")
+                : new File(dir.trim());
+        if (!spoolDir.isDirectory() && !spoolDir.mkdirs()) {
+            throw new ServletException("unable to create the upload spool directory: " + spoolDir);
+        }
+        chunkSize = getIntProp(props, CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+        maxChunkSize = getIntProp(props, MAX_CHUNK_SIZE, DEFAULT_MAX_CHUNK_SIZE);
+        expiryMillis = TimeUnit.MINUTES.toMillis(getIntProp(props, EXPIRY, DEFAULT_EXPIRY));
+        maxUploadSize = getIntProp(props, MAX_UPLOAD_SIZE, DEFAULT_MAX_UPLOAD_SIZE) * 1024L * 1024L;
+        maxUploadsPerUser = getIntProp(props, MAX_UPLOADS_PER_USER, DEFAULT_MAX_UPLOADS_PER_USER);
+    }
+
+    /**
+     * Discards expired uploads before handling each request.
+     */
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse res) throws ServletException,
+            IOException {
+        discardExpiredUploads();
+        super.service(req, res);
+    }
+
+    /**
+     * Discards all uploads that are still in progress.
+     */
+    @Override
+    public void destroy() {
+        for (ChunkedUpload upload : uploads.values()) {
+            upload.discard();
+        }
+        uploads.clear();
+    }
+
+    /**
+     * Reports the status of an upload.
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        ChunkedUpload upload = findUpload(req, res);
+        if (upload != null) {
+            sendJson(res, HttpServletResponse.SC_OK, statusJson(upload));
+        }
+    }
+
+    /**
+     * Starts an upload or, if an upload ID is given, completes it.
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        if (getUploadId(req) == null) {
+            startUpload(req, res);
+            return;
+        }
+        ChunkedUpload upload = findUpload(req, res);
+        if (upload != null) {
+            completeUpload(upload, req, res);
+        }
+    }
+
+    /**
+     * Stores a chunk.
+     */
+    @Override
+    protected void doPut(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        ChunkedUpload upload = findUpload(req, res);
+        if (upload == null) {
+            return;
+        }
+
+        long offset;
+        try {
+            offset = Long.parseLong(req.getParameter("offset"));
+        }
+        catch (NumberFormatException e) {
+            sendError(res, HttpServletResponse.SC_BAD_REQUEST, "a numeric offset is required");
+            return;
+        }
+        long length = req.getContentLength();
+        if (length < 0 || length > maxChunkSize) {
+            sendError(res, HttpServletResponse.SC_BAD_REQUEST, "chunks must have a Content-Length of at most "
+                    + maxChunkSize + " bytes");
+            return;
+        }
+
+        byte[] md5;
+        try {
+            md5 = getChecksum(req);
+        }
+        catch (DecoderException e) {
+            sendError(res, HttpServletResponse.SC_BAD_REQUEST, "invalid chunk checksum");
+            return;
+        }
+
+        try {
+            upload.writeChunk(offset, length, req.getInputStream(), md5);
+        }
+        catch (ChunkedUpload.ChunkRejectedException e) {
+            sendError(res, HttpServletResponse.SC_CONFLICT, e.getMessage());
+            return;
+        }
+        catch (ChunkedUpload.UploadClosedException e) {
+            sendError(res, HttpServletResponse.SC_CONFLICT, e.getMessage());
+            return;
+        }
+        sendJson(res, HttpServletResponse.SC_OK, statusJson(upload));
+    }
+
+    /**
+     * Abandons an upload.
+     */
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        ChunkedUpload upload = findUpload(req, res);
+        if (upload != null) {
+            uploads.remove(upload.getId());
+            upload.discard();
+            res.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        }
+    }
+
+    private void startUpload(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        String username = getUsername(req);
+        if (username == null) {
+            sendError(res, HttpServletResponse.SC_UNAUTHORIZED, "user is not authenticated");
+            return;
+        }
+        String address = req.getParameter("address");
+        String filename = req.getParameter("filename");
+        long size;
+        try {
+            size = Long.parseLong(req.getParameter("size"));
+        }
+        catch (NumberFormatException e) {
+            size = -1;
+        }
+        if (StringUtils.isBlank(address) || StringUtils.isBlank(filename) || size < 0) {
+            sendError(res, HttpServletResponse.SC_BAD_REQUEST, "address, filename and size are required");
+            return;
+        }
+        if (size > maxUploadSize) {
+            sendError(res, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "files larger than "
+                    + maxUploadSize + " bytes can't be uploaded");
+            return;
+        }
+
+        String id = UUID.randomUUID().toString();
+        File spoolFile = new File(spoolDir, id + ".part");
+        ChunkedUpload upload = new ChunkedUpload(id, username, address, filename,
+                req.getParameter("mime-type"), size, spoolFile);
+        synchronized (uploads) {
+            if (countUploads(username) >= maxUploadsPerUser) {
+                sendError(res, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "no more than "
+                        + maxUploadsPerUser + " uploads may be in progress at once");
+                return;
+            }
+            // The spool file exists from the start, so that an empty file can be completed.
+            if (!spoolFile.createNewFile()) {
+                throw new IOException("spool file already exists: " + spoolFile);
+            }
+            uploads.put(id, upload);
+        }
+
+        JSONObject json = statusJson(upload);
+        json.put("chunk_size", chunkSize);
+        json.put("max_chunk_size", maxChunkSize);
+        sendJson(res, HttpServletResponse.SC_CREATED, json);
+    }
+
+    private void completeUpload(ChunkedUpload upload, HttpServletRequest req, HttpServletResponse res)
+            throws IOException {
+        // Chunks are rejected while the upload is being sent, and it can't be completed twice.
+        try {
+            if (!upload.beginCompletion()) {
+                JSONObject json = statusJson(upload);
+                json.put("error", "the upload is missing one or more chunks");
+                sendJson(res, HttpServletResponse.SC_CONFLICT, json);
+                return;
+            }
+        }
+        catch (ChunkedUpload.UploadClosedException e) {
+            sendError(res, HttpServletResponse.SC_CONFLICT, e.getMessage());
+            return;
+        }
+
+        boolean sent = false;
+        InputStream in = null;
+        try {
+            in = new FileInputStream(upload.getSpoolFile());
+            String partName = StringUtils.defaultIfEmpty(req.getParameter("part-name"), "file");
+            MultiPartServiceWrapper wrapper = new MultiPartServiceWrapper(Type.POST, upload.getAddress());
+            addParameterParts(req, wrapper);
+            wrapper.addPart(new FileHTTPPart(in, partName, upload.getFilename(), upload.getMimeType(),
+                    upload.getSize()));
+
+            BaseDEServiceDispatcher dispatcher = createServiceDispatcher();
+            dispatcher.setContext(getServletContext());
+            dispatcher.setRequest(req);
+            String result = dispatcher.getServiceData(wrapper);
+            sent = true;
+
+            res.setStatus(HttpServletResponse.SC_OK);
+            res.setContentType("application/json");
+            res.setCharacterEncoding("UTF-8");
+            res.getWriter().print(result == null ? "" : result);
+        }
+        catch (AuthenticationException e) {
+            sendError(res, HttpServletResponse.SC_UNAUTHORIZED, e.getMessage());
+        }
+        catch (SerializationException e) {
+            LOG.error("unable to send upload " + upload.getId() + " to " + upload.getAddress(), e);
+            sendError(res, HttpServletResponse.SC_BAD_GATEWAY, e.getMessage());
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+            if (sent) {
+                uploads.remove(upload.getId());
+            }
+            // An upload that wasn't sent is kept so that the client can try to complete it again.
+            upload.endCompletion(sent);
+        }
+    }
+
+    /**
+     * Creates the service dispatcher used to send assembled files to services. By default, requests are
+     * sent with CAS proxy tickets.
+     *
+     * @return the service dispatcher.
+     */
+    protected BaseDEServiceDispatcher createServiceDispatcher() {
+        return new CasServiceDispatcher(serviceResolver);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addParameterParts(HttpServletRequest req, MultiPartServiceWrapper wrapper) {
+        Enumeration<String> names = req.getParameterNames();
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            if (!RESERVED_PARAMS.contains(name)) {
+                for (String value : req.getParameterValues(name)) {
+                    wrapper.addPart(value, name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the upload named in the request path, sending an error response if it doesn't exist or
+     * belongs to another user.
+     *
+     * @return the upload or null if an error response was sent.
+     */
+    private ChunkedUpload findUpload(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        String id = getUploadId(req);
+        ChunkedUpload upload = id == null ? null : uploads.get(id);
+        if (upload == null || !upload.getUsername().equals(getUsername(req))) {
+            sendError(res, HttpServletResponse.SC_NOT_FOUND, "unknown upload: " + id);
+            return null;
+        }
+        return upload;
+    }
+
+    private String getUploadId(HttpServletRequest req) {
+        String pathInfo = req.getPathInfo();
+        String id = pathInfo == null ? null : pathInfo.replaceAll("^/", "");
+        return StringUtils.isBlank(id) ? null : id;
+    }
+
+    private byte[] getChecksum(HttpServletRequest req) throws DecoderException {
+        String contentMd5 = req.getHeader("Content-MD5");
+        if (contentMd5 != null) {
+            return Base64.decodeBase64(contentMd5.trim());
+        }
+        String checksum = req.getParameter("checksum");
+        return checksum == null ? null : Hex.decodeHex(checksum.trim().toCharArray());
+    }
+
+    private int countUploads(String username) {
+        int result = 0;
+        for (ChunkedUpload upload : uploads.values()) {
+            if (upload.getUsername().equals(username)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private void discardExpiredUploads() {
+        long cutoff = System.currentTimeMillis() - expiryMillis;
+        for (ChunkedUpload upload : uploads.values()) {
+            if (upload.getLastActivity() < cutoff && upload.discardIfIdleSince(cutoff)) {
+                uploads.remove(upload.getId(), upload);
+            }
+        }
+    }
+
+    private JSONObject statusJson(ChunkedUpload upload) {
+        JSONArray ranges = new JSONArray();
+        for (long[] range : upload.getReceivedRanges()) {
+            JSONArray pair = new JSONArray();
+            pair.add(range[0]);
+            pair.add(range[1]);
+            ranges.add(pair);
+        }
+        JSONObject json = new JSONObject();
+        json.put("id", upload.getId());
+        json.put("size", upload.getSize());
+        json.put("received", upload.getContiguousBytes());
+        json.put("ranges", ranges);
+        json.put("complete", upload.isComplete());
+        return json;
+    }
+
+    private void sendError(HttpServletResponse res, int status, String msg) throws IOException {
+        JSONObject json = new JSONObject();
+        json.put("status", "failure");
+        json.put("action", "CHUNKED_UPLOAD");
+        json.put("detail", msg);
+        sendJson(res, status, json);
+    }
+
+    private void sendJson(HttpServletResponse res, int status, JSONObject json) throws IOException {
+        res.setStatus(status);
+        res.setContentType("application/json");
+        res.setCharacterEncoding("UTF-8");
+        res.getWriter().print(json.toString());
+    }
+}
@@ -0,0 +1,142 @@
+package org.iplantc.de.server;
+
+/**
+ * A circuit breaker for a single service. While the breaker is closed, the outcome of each call is
+ * counted over a fixed window; if enough calls fail or are too slow the breaker opens and refuses all
+ * calls until the open period has passed. The breaker then half-opens and admits a limited number of
+ * probe calls: if all of them succeed the breaker closes again, and if any of them fails it reopens.
+ *
+ * Each permitted call is tagged with the generation of the breaker, which changes whenever the state
+ * changes, so that calls which started before a transition don't affect the new state.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Returned by {@link #tryAcquire()} when a call is refused.
+     */
+    public static final long REFUSED = -1;
+
+    private final int failureRateThreshold;
+    private final int minimumCalls;
+    private final long windowMillis;
+    private final long slowCallNanos;
+    private final long openMillis;
+    private final int probeCalls;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private long windowStart = System.currentTimeMillis();
+    private int calls;
+    private int failures;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    /**
+     * @param failureRateThreshold the percentage of failed calls that opens the breaker.
+     * @param minimumCalls the number of calls in a window required before the breaker may open.
+     * @param windowMillis the length of the window in milliseconds.
+     * @param slowCallMillis calls that take longer than this are counted as failures.
+     * @param openMillis the number of milliseconds the breaker stays open.
+     * @param probeCalls the number of calls admitted while the breaker is half-open.
+     */
+    public CircuitBreaker(int failureRateThreshold, int minimumCalls, long windowMillis, long slowCallMillis,
+            long openMillis, int probeCalls) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.windowMillis = windowMillis;
+        this.slowCallNanos = slowCallMillis * 1000000L;
+        this.openMillis = openMillis;
+        this.probeCalls = Math.max(1, probeCalls);
+    }
+
+    /**
+     * Asks for permission to call the service.
+     *
+     * @return the generation to pass to {@link #record(long, boolean, long)}, or {@link #REFUSED}.
+     */
+    public synchronized long tryAcquire() {
+        long now = System.currentTimeMillis();
+        if (state == State.OPEN) {
+            if (now - openedAt < openMillis) {
+                return REFUSED;
+            }
+            transition(State.HALF_OPEN, now);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesStarted >= probeCalls) {
+                return REFUSED;
+            }
+            probesStarted++;
+        }
+        return generation;
+    }
+
+    /**
+     * Records the outcome of a permitted call.
+     *
+     * @param callGeneration the value returned by {@link #tryAcquire()}.
+     * @param success true if the service responded without a server error.
+     * @param elapsedNanos how long the call took.
+     */
+    public synchronized void record(long callGeneration, boolean success, long elapsedNanos) {
+        if (callGeneration != generation) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean failed = !success || elapsedNanos > slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            if (failed) {
+                transition(State.OPEN, now);
+            }
+            else if (++probesSucceeded >= probeCalls) {
+                transition(State.CLOSED, now);
+            }
+        }
+        else if (state == State.CLOSED) {
+            if (now - windowStart >= windowMillis) {
+                windowStart = now;
+                calls = 0;
+                failures = 0;
+            }
+            calls++;
+            if (failed) {
+                failures++;
+            }
+            if (calls >= minimumCalls && failures * 100L >= (long)failureRateThreshold * calls) {
+                transition(State.OPEN, now);
+            }
+        }
+    }
+
+    /**
+     * @return the current state of the breaker.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of milliseconds until an open breaker admits a probe call.
+     */
+    public synchronized long getRemainingOpenMillis() {
+        return state == State.OPEN ? Math.max(0, openMillis - (System.currentTimeMillis() - openedAt)) : 0;
+    }
+
+    private void transition(State newState, long now) {
+        state = newState;
+        generation++;
+        windowStart = now;
+        calls = 0;
+        failures = 0;
+        probesStarted = 0;
+        probesSucceeded = 0;
+        if (newState == State.OPEN) {
+            openedAt = now;
+        }
+    }
+}
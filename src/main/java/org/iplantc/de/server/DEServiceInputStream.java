@@ -1,10 +1,18 @@
 package org.iplantc.de.server;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+
+import java.io.ByteArrayInputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A filter input stream that also stores the HTTP headers from the response.
@@ -32,6 +40,39 @@ public class DEServiceInputStream extends FilterInputStream {
         httpHeaders = urlConnection.getHeaderFields();
     }
 
+    /**
+     * Creates a DEServiceInputStream for the given HTTP response. Closing the stream releases the
+     * connection used to obtain the response.
+     * 
+     * @param response the HTTP response.
+     * @throws IOException if an I/O error occurs.
+     */
+    public DEServiceInputStream(HttpResponse response) throws IOException {
+        super(getContent(response.getEntity()));
+        Header contentTypeHeader = response.getFirstHeader("Content-Type");
+        contentType = contentTypeHeader == null ? null : contentTypeHeader.getValue();
+        httpHeaders = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (Header header : response.getAllHeaders()) {
+            List<String> values = httpHeaders.get(header.getName());
+            if (values == null) {
+                values = new ArrayList<String>();
+                httpHeaders.put(header.getName(), values);
+            }
+            values.add(header.getValue());
+        }
+    }
+
+    /**
+     * Gets the content of an HTTP entity.
+     * 
+     * @param entity the entity, which may be null.
+     * @return an input stream that can be used to read the content.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static InputStream getContent(HttpEntity entity) throws IOException {
+        return entity == null ? new ByteArrayInputStream(new byte[0]) : entity.getContent();
+    }
+
     /**
      * Gets the MIME content type returned by the server.
      * 
@@ -0,0 +1,36 @@
+package org.iplantc.de.server;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Indicates that a service call was abandoned because its deadline passed before the service
+ * responded. The response body is a JSON error document in the same format the proxy servlet uses.
+ */
+public class DeadlineExceededException extends ServiceErrorException {
+    private static final long serialVersionUID = 3016297450915366211L;
+
+    /**
+     * The HTTP status code used for abandoned calls.
+     */
+    public static final int STATUS_CODE = 504;
+
+    /**
+     * @param address the address of the service that was called.
+     * @param cause the failure caused by abandoning the call, may be null.
+     */
+    public DeadlineExceededException(String address, Throwable cause) {
+        super(STATUS_CODE, errorJson(address));
+        if (cause != null) {
+            initCause(cause);
+        }
+    }
+
+    private static String errorJson(String address) {
+        JSONObject json = new JSONObject();
+        json.put("status", "failure");
+        json.put("action", "SERVICE_CALL");
+        json.put("error_code", "ERR_DEADLINE_EXCEEDED");
+        json.put("detail", "the deadline for the call to " + address + " passed");
+        return json.toString();
+    }
+}
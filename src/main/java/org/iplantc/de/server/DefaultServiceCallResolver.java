@@ -1,44 +1,160 @@
 package org.iplantc.de.server;
 
+import static org.iplantc.de.server.util.ServletUtils.getIntProp;
+
 import org.iplantc.clavin.spring.ConfigAliasResolver;
+import org.iplantc.de.server.util.PropertiesFileWatcher;
 import org.iplantc.de.shared.services.BaseServiceCallWrapper;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class DefaultServiceCallResolver extends ServiceCallResolver {
+/**
+ * Resolves service keys using the "webapp" configuration properties. The service URLs are kept in an
+ * immutable, versioned routing snapshot. When an override file is configured, the file is watched for
+ * changes and a new snapshot that combines the original properties with the overrides is swapped in
+ * atomically. Readers never lock, and a request that has already resolved its address keeps using the
+ * address it obtained from the old snapshot.
+ *
+ * A service URL may list several endpoints separated by commas. The value is only treated as a list
+ * when every element is an absolute URL, so a single URL that happens to contain a comma is left alone.
+ * Calls to services with several endpoints are spread across the endpoints by an
+ * {@link EndpointBalancer}, which is configured using the same properties.
+ */
+public class DefaultServiceCallResolver extends ServiceCallResolver implements DisposableBean {
     private static final Logger LOG = Logger.getLogger(DefaultServiceCallResolver.class);
     private static final String PREFIX_KEY = "prefix";
 
-    private Properties appProperties;
-    private String prefix;
+    /**
+     * The path to a properties file containing service URL overrides.
+     */
+    public static final String OVERRIDE_FILE_KEY =
+            "org.iplantc.discoveryenvironment.routing.override-file";
+
+    /**
+     * The number of seconds between checks for changes to the override file.
+     */
+    public static final String RELOAD_INTERVAL_KEY =
+            "org.iplantc.discoveryenvironment.routing.reload-interval-seconds";
+
+    private static final int DEFAULT_RELOAD_INTERVAL = 30;
+
+    /**
+     * Matches the start of an absolute URL: a scheme followed by an authority.
+     */
+    private static final Pattern ABSOLUTE_URL = Pattern.compile("[a-zA-Z][a-zA-Z0-9+.-]*://[^/?#\\s]+.*");
+
+    /**
+     * The properties the resolver was created with. Overrides are applied on top of these.
+     */
+    private final Properties appProperties;
+
+    /**
+     * The current routing snapshot.
+     */
+    private final AtomicReference<RoutingSnapshot> snapshot;
+
+    /**
+     * Chooses the endpoint for services that have several endpoints.
+     */
+    private final EndpointBalancer balancer;
+
+    /**
+     * Watches the override file, if one is configured.
+     */
+    private PropertiesFileWatcher watcher;
 
     public DefaultServiceCallResolver(ConfigAliasResolver configResolver) {
-        appProperties = configResolver.getRequiredAliasedConfig("webapp");
-        setPrefix();
-        validatePrefix();
+        this(configResolver.getRequiredAliasedConfig("webapp"));
     }
 
     public DefaultServiceCallResolver(Properties prop) {
         appProperties = prop;
-        setPrefix();
-        validatePrefix();
+        snapshot = new AtomicReference<RoutingSnapshot>(new RoutingSnapshot(1, prop));
+        balancer = new EndpointBalancer(prop);
+        balancer.update(prop, snapshot.get().serviceUrls);
+        startWatcher();
     }
 
-    private void validatePrefix() {
-        if (StringUtils.isEmpty(prefix)) {
-            throw new IllegalArgumentException("Properties argument must contain a property defining "
-                    + "the prefix for service keys: " + PREFIX_KEY);
+    /**
+     * Starts watching the override file if one is configured.
+     */
+    private void startWatcher() {
+        String path = appProperties.getProperty(OVERRIDE_FILE_KEY);
+        if (StringUtils.isNotBlank(path)) {
+            int interval = getIntProp(appProperties, RELOAD_INTERVAL_KEY, DEFAULT_RELOAD_INTERVAL);
+            PropertiesFileWatcher.Listener listener = new PropertiesFileWatcher.Listener() {
+                @Override
+                public void propertiesChanged(Properties overrides) {
+                    reload(overrides);
+                }
+            };
+            watcher = new PropertiesFileWatcher(new File(path), interval, listener);
+            watcher.start();
+        }
+    }
+
+    /**
+     * Stops watching the override file and checking the health of service endpoints.
+     */
+    public void shutdown() {
+        if (watcher != null) {
+            watcher.shutdown();
         }
+        balancer.shutdown();
     }
 
-    private void setPrefix() {
-        prefix = appProperties.getProperty(PREFIX_KEY);
+    /**
+     * Shuts the resolver down when the application context that defines it is closed.
+     */
+    @Override
+    public void destroy() {
+        shutdown();
+    }
+
+    /**
+     * Replaces the current routing snapshot with one built from the original properties and a set of
+     * overrides. If the new snapshot can't be built, the current snapshot is retained.
+     *
+     * @param overrides the property overrides.
+     */
+    public synchronized void reload(Properties overrides) {
+        Properties merged = new Properties();
+        for (String name : appProperties.stringPropertyNames()) {
+            merged.setProperty(name, appProperties.getProperty(name));
+        }
+        for (String name : overrides.stringPropertyNames()) {
+            merged.setProperty(name, overrides.getProperty(name));
+        }
+        try {
+            RoutingSnapshot next = new RoutingSnapshot(snapshot.get().getVersion() + 1, merged);
+            snapshot.set(next);
+            balancer.update(merged, next.serviceUrls);
+            LOG.info("service routing reloaded; version " + next.getVersion());
+        }
+        catch (IllegalArgumentException e) {
+            LOG.error("service routing not reloaded", e);
+        }
+    }
+
+    /**
+     * @return the version number of the current routing snapshot.
+     */
+    public long getRoutingVersion() {
+        return snapshot.get().getVersion();
     }
 
     /**
@@ -66,8 +182,111 @@ public class DefaultServiceCallResolver extends ServiceCallResolver {
      */
     @Override
     public String resolveAddress(String serviceName) {
-        NamedServiceCall serviceCall = NamedServiceCall.parse(prefix, serviceName);
-        return serviceCall == null ? serviceName : serviceCall.resolve(appProperties);
+        return snapshot.get().resolveAddress(serviceName, balancer);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation returns the name of the property that the service URL is taken from.
+     */
+    @Override
+    public String getServiceKey(String address) {
+        return snapshot.get().getServiceKey(address);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation tracks calls to services that have several endpoints.
+     */
+    @Override
+    public EndpointBalancer.Lease startCall(String serviceKey, String address) {
+        List<String> urls = serviceKey == null ? null : snapshot.get().serviceUrls.get(serviceKey);
+        return urls == null ? EndpointBalancer.Lease.NONE : balancer.start(serviceKey, urls, address);
+    }
+
+    /**
+     * An immutable set of service routes. Every lookup made while handling a request uses a single
+     * snapshot.
+     */
+    private static final class RoutingSnapshot {
+
+        private final long version;
+        private final Properties props;
+        private final String prefix;
+
+        /**
+         * Matches named service calls. Compiled once because the resolver is used for every request.
+         */
+        private final Pattern serviceNamePattern;
+
+        /**
+         * Maps service names to the base URLs of their endpoints. This map is never modified after it's
+         * built, so it can be read without locking.
+         */
+        private final Map<String, List<String>> serviceUrls;
+
+        /**
+         * @param version the snapshot version number.
+         * @param props the configuration properties.
+         * @throws IllegalArgumentException if the properties don't define the service key prefix.
+         */
+        public RoutingSnapshot(long version, Properties props) {
+            this.version = version;
+            this.props = props;
+            this.prefix = props.getProperty(PREFIX_KEY);
+            if (StringUtils.isEmpty(prefix)) {
+                throw new IllegalArgumentException("Properties argument must contain a property defining "
+                        + "the prefix for service keys: " + PREFIX_KEY);
+            }
+            serviceNamePattern = Pattern.compile("(\\Q" + prefix + "\\E[^/?]+)(/[^?]*)?(\\?.*)?");
+            Map<String, List<String>> urls = new HashMap<String, List<String>>();
+            for (String name : props.stringPropertyNames()) {
+                if (name.startsWith(prefix)) {
+                    urls.put(name, splitUrls(props.getProperty(name)));
+                }
+            }
+            serviceUrls = Collections.unmodifiableMap(urls);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String resolveAddress(String serviceName, EndpointBalancer balancer) {
+            NamedServiceCall serviceCall = NamedServiceCall.parse(prefix, serviceNamePattern, serviceName);
+            return serviceCall == null ? serviceName : serviceCall.resolve(serviceUrls, props, balancer);
+        }
+
+        /**
+         * Splits a service URL into the URLs of its endpoints. The value is returned unchanged unless it
+         * contains at least two elements and every element is an absolute URL.
+         */
+        private static List<String> splitUrls(String value) {
+            if (value.indexOf(',') < 0) {
+                return Collections.singletonList(value);
+            }
+            List<String> result = new ArrayList<String>();
+            for (String url : value.split(",")) {
+                if (StringUtils.isBlank(url)) {
+                    continue;
+                }
+                if (!ABSOLUTE_URL.matcher(url.trim()).matches()) {
+                    return Collections.singletonList(value);
+                }
+                result.add(url.trim());
+            }
+            if (result.size() < 2) {
+                return Collections.singletonList(value);
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        public String getServiceKey(String address) {
+            NamedServiceCall serviceCall = NamedServiceCall.parse(prefix, serviceNamePattern, address);
+            return serviceCall == null ? null : serviceCall.serviceName;
+        }
     }
 
     /**
@@ -120,11 +339,14 @@ public class DefaultServiceCallResolver extends ServiceCallResolver {
          * call then a new NamedServiceCall will be returned.  Otherwise, null will be returned.
          *
          * @param prefix the property name prefix for named service calls.
+         * @param pattern the pattern used to match named service calls.
          * @param address the address to convert.
          * @return the NamedServiceCall instance or null if the address doesn't represent a named service call.
          */
-        public static NamedServiceCall parse(String prefix, String address) {
-            Pattern pattern = Pattern.compile("(\\Q" + prefix + "\\E[^/?]+)(/[^?]*)?(\\?.*)?");
+        public static NamedServiceCall parse(String prefix, Pattern pattern, String address) {
+            if (!address.startsWith(prefix)) {
+                return null;
+            }
             Matcher matcher = pattern.matcher(address);
             if (matcher.matches()) {
                 return new NamedServiceCall(matcher.group(1), matcher.group(2), matcher.group(3));
@@ -137,23 +359,27 @@ public class DefaultServiceCallResolver extends ServiceCallResolver {
         /**
          * Resolves a named service call.
          *
-         * @param props the properties to use when resolving the call.
+         * @param urls the map of service names to endpoint URLs.
+         * @param props the configuration properties, used for logging if the call can't be resolved.
+         * @param balancer chooses the endpoint if the service has more than one.
          * @return the resolved URL.
-         * @throws UnresolvableServiceNameException if the service name isn't found in the properties.
+         * @throws UnresolvableServiceNameException if the service name isn't found in the map.
          */
-        public String resolve(Properties props) {
-            return getServiceBaseUrl(props) + getAdditionalPath() + getQuery();
+        public String resolve(Map<String, List<String>> urls, Properties props, EndpointBalancer balancer) {
+            return balancer.choose(serviceName, getServiceBaseUrls(urls, props)) + getAdditionalPath()
+                    + getQuery();
         }
 
         /**
-         * Gets the base URL for this named service call.
+         * Gets the endpoint URLs for this named service call.
          *
-         * @param props the properties to use when resolving the service call.
-         * @return the base URL to use when connecting to the service.
-         * @throws UnresolvableServiceNameException if the service name isn't found in the properties.
+         * @param urls the map of service names to endpoint URLs.
+         * @param props the configuration properties, used for logging if the call can't be resolved.
+         * @return the base URLs to use when connecting to the service.
+         * @throws UnresolvableServiceNameException if the service name isn't found in the map.
          */
-        private String getServiceBaseUrl(Properties props) {
-            String result = props.getProperty(serviceName);
+        private List<String> getServiceBaseUrls(Map<String, List<String>> urls, Properties props) {
+            List<String> result = urls.get(serviceName);
             if (result == null) {
                 LOG.error("unknown service name: " + serviceName);
                 if (LOG.isDebugEnabled()) {
@@ -0,0 +1,86 @@
+package org.iplantc.de.server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * A snapshot of the parts of a servlet request that are needed to send service requests on its behalf:
+ * the user principal, the session, the remote address and the User-Agent header. URL connectors use
+ * these to obtain proxy tickets and to build outgoing requests.
+ *
+ * Work that may outlive the servlet request uses a snapshot instead of the request itself, because the
+ * container recycles request objects once the request has finished. Any other method of the snapshot
+ * fails with an {@link IllegalStateException} rather than quietly reading from a recycled request.
+ */
+class DetachedRequest implements InvocationHandler {
+
+    private static final String USER_AGENT = "User-Agent";
+
+    private final Principal principal;
+    private final HttpSession session;
+    private final String remoteAddr;
+    private final String userAgent;
+
+    private DetachedRequest(HttpServletRequest request) {
+        principal = request.getUserPrincipal();
+        session = request.getSession(false);
+        remoteAddr = request.getRemoteAddr();
+        userAgent = request.getHeader(USER_AGENT);
+    }
+
+    /**
+     * Takes a snapshot of a servlet request. This method must be called while the request is in
+     * progress.
+     *
+     * @param request the servlet request.
+     * @return the snapshot.
+     */
+    public static HttpServletRequest capture(HttpServletRequest request) {
+        return (HttpServletRequest)Proxy.newProxyInstance(DetachedRequest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, new DetachedRequest(request));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("getUserPrincipal")) {
+            return principal;
+        }
+        if (name.equals("getRemoteAddr")) {
+            return remoteAddr;
+        }
+        if (name.equals("getHeader") && USER_AGENT.equalsIgnoreCase((String)args[0])) {
+            return userAgent;
+        }
+        if (name.equals("getSession")) {
+            boolean create = args == null || (Boolean)args[0];
+            if (session == null && create) {
+                throw new IllegalStateException("the servlet request had no session");
+            }
+            return session;
+        }
+        if (name.equals("equals")) {
+            return proxy == args[0];
+        }
+        if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        }
+        if (name.equals("toString")) {
+            return "detached request for " + principal;
+        }
+        throw new IllegalStateException(describe(method, args) + " isn't available once the servlet "
+                + "request may have finished");
+    }
+
+    private static String describe(Method method, Object[] args) {
+        return method.getName() + (args != null && args.length == 1 ? "(" + args[0] + ")" : "()");
+    }
+}
@@ -50,8 +50,9 @@ public class EmailServlet extends RemoteServiceServlet implements EmailService {
 
     /**
      * {@inheritDoc}
-     * 
-     * @return
+     *
+     * The message is queued for delivery, so this method returns without waiting for the e-mail
+     * service.
      */
     @Override
     public void sendEmail(String subject, String message, String fromAddress, String toAddress) {
@@ -60,6 +61,6 @@ public class EmailServlet extends RemoteServiceServlet implements EmailService {
                 .setContent(message)
                 .setFromAddress(fromAddress)
                 .setToAddress(toAddress);
-        client.sendMessage(request);
+        client.queueMessage(request);
     }
 }
@@ -0,0 +1,500 @@
+package org.iplantc.de.server;
+
+import static org.iplantc.de.server.util.ServletUtils.getIntProp;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads calls to services that have several endpoints across those endpoints. Each call goes to one
+ * of the available endpoints, chosen using one of these strategies:
+ *
+ * <ul>
+ * <li>round-robin: the endpoints are used in turn.</li>
+ * <li>least-in-flight: the endpoint with the fewest calls in flight is used.</li>
+ * <li>latency: of two endpoints chosen at random, the one with the lower recent latency, weighted by
+ * its calls in flight, is used.</li>
+ * </ul>
+ *
+ * An endpoint is ejected for a while after several consecutive calls to it fail, but no more than a
+ * fixed share of a service's endpoints are ejected at once. If a health check path is configured, every
+ * endpoint is also probed periodically and endpoints that fail the probe aren't used until they pass
+ * again. If no endpoints are available, all of them are used.
+ *
+ * All settings are optional and are read from the "webapp" properties. Each setting other than the
+ * health check interval may be overridden for a single service by appending the service key to the
+ * setting name, for example:
+ *
+ * <pre>
+ * org.iplantc.discoveryenvironment.balancer.strategy = least-in-flight
+ * org.iplantc.discoveryenvironment.balancer.health-path.org.iplantc.services.apps = /health
+ * </pre>
+ */
+public class EndpointBalancer {
+    private static final Logger LOG = Logger.getLogger(EndpointBalancer.class);
+
+    /**
+     * The prefix used for all balancer settings.
+     */
+    public static final String PROPERTY_PREFIX = "org.iplantc.discoveryenvironment.balancer.";
+
+    /**
+     * The strategy used to choose endpoints: round-robin, least-in-flight or latency.
+     */
+    public static final String STRATEGY = PROPERTY_PREFIX + "strategy";
+
+    /**
+     * The number of consecutive failed calls that causes an endpoint to be ejected. Zero disables
+     * ejection.
+     */
+    public static final String EJECT_AFTER = PROPERTY_PREFIX + "eject-after-failures";
+
+    /**
+     * The number of seconds an ejected endpoint isn't used.
+     */
+    public static final String EJECT_DURATION = PROPERTY_PREFIX + "eject-seconds";
+
+    /**
+     * The largest percentage of a service's endpoints that may be ejected at once.
+     */
+    public static final String MAX_EJECTED = PROPERTY_PREFIX + "max-ejected-percent";
+
+    /**
+     * The path appended to an endpoint's URL to check its health. Health checks are disabled if it's
+     * empty.
+     */
+    public static final String HEALTH_PATH = PROPERTY_PREFIX + "health-path";
+
+    /**
+     * The number of seconds between health checks.
+     */
+    public static final String HEALTH_INTERVAL = PROPERTY_PREFIX + "health-interval-seconds";
+
+    /**
+     * The number of milliseconds to wait for a response to a health check.
+     */
+    public static final String HEALTH_TIMEOUT = PROPERTY_PREFIX + "health-timeout-ms";
+
+    private static final String ROUND_ROBIN = "round-robin";
+    private static final String LEAST_IN_FLIGHT = "least-in-flight";
+    private static final String LATENCY = "latency";
+
+    private static final int DEFAULT_EJECT_AFTER = 5;
+    private static final int DEFAULT_EJECT_DURATION = 30;
+    private static final int DEFAULT_MAX_EJECTED = 50;
+    private static final int DEFAULT_HEALTH_INTERVAL = 10;
+    private static final int DEFAULT_HEALTH_TIMEOUT = 2000;
+
+    /**
+     * The weight of the latest call in an endpoint's average latency.
+     */
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private static final Random RANDOM = new Random();
+
+    /**
+     * The configuration properties and the endpoints of each service with more than one endpoint.
+     */
+    private volatile Properties props;
+    private volatile Map<String, List<String>> services = Collections.emptyMap();
+
+    /**
+     * The state of every endpoint that has been used, indexed by URL. Endpoints keep their state when
+     * the routing is reloaded.
+     */
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+    /**
+     * The position of the next round-robin choice for each service.
+     */
+    private final ConcurrentMap<String, AtomicInteger> positions =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    private ScheduledExecutorService healthChecker;
+
+    /**
+     * True once the balancer has been shut down. Health checks aren't restarted after that.
+     */
+    private boolean shutdown;
+
+    /**
+     * @param props the web application configuration properties.
+     */
+    public EndpointBalancer(Properties props) {
+        this.props = props;
+    }
+
+    /**
+     * Updates the configuration and the set of services. Health checks are started the first time a
+     * service with several endpoints has a health check path.
+     *
+     * @param props the configuration properties.
+     * @param serviceUrls the endpoint URLs of each service, indexed by service key.
+     */
+    public synchronized void update(Properties props, Map<String, List<String>> serviceUrls) {
+        Map<String, List<String>> balanced = new ConcurrentHashMap<String, List<String>>();
+        boolean checkHealth = false;
+        for (Map.Entry<String, List<String>> entry : serviceUrls.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                balanced.put(entry.getKey(), entry.getValue());
+                checkHealth |= !StringUtils.isBlank(getStringSetting(props, HEALTH_PATH, entry.getKey(), ""));
+            }
+        }
+        this.props = props;
+        this.services = balanced;
+        if (checkHealth && healthChecker == null && !shutdown) {
+            startHealthChecks(Math.max(1, getIntProp(props, HEALTH_INTERVAL, DEFAULT_HEALTH_INTERVAL)));
+        }
+    }
+
+    /**
+     * Stops the health checks.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+            healthChecker = null;
+        }
+    }
+
+    /**
+     * Chooses the endpoint for a call to a service.
+     *
+     * @param serviceKey the service key.
+     * @param urls the service's endpoint URLs.
+     * @return the URL of the chosen endpoint.
+     */
+    public String choose(String serviceKey, List<String> urls) {
+        if (urls.size() == 1) {
+            return urls.get(0);
+        }
+        List<Endpoint> candidates = getAvailable(urls, System.currentTimeMillis());
+        String strategy = getStringSetting(props, STRATEGY, serviceKey, ROUND_ROBIN).trim();
+        if (strategy.equalsIgnoreCase(LEAST_IN_FLIGHT)) {
+            return chooseLeastInFlight(candidates).url;
+        }
+        if (strategy.equalsIgnoreCase(LATENCY)) {
+            return chooseByLatency(candidates).url;
+        }
+        if (!strategy.equalsIgnoreCase(ROUND_ROBIN)) {
+            LOG.warn("unknown balancing strategy " + strategy + " for " + serviceKey + "; using "
+                    + ROUND_ROBIN);
+        }
+        AtomicInteger position = positions.get(serviceKey);
+        if (position == null) {
+            AtomicInteger created = new AtomicInteger(RANDOM.nextInt(urls.size()));
+            position = positions.putIfAbsent(serviceKey, created);
+            if (position == null) {
+                position = created;
+            }
+        }
+        int index = (position.getAndIncrement() & Integer.MAX_VALUE) % candidates.size();
+        return candidates.get(index).url;
+    }
+
+    /**
+     * Records the start of a call to one of a service's endpoints. The lease must always be released
+     * once the call is finished.
+     *
+     * @param serviceKey the service key.
+     * @param urls the service's endpoint URLs.
+     * @param address the resolved address the call is sent to.
+     * @return the lease.
+     */
+    public Lease start(String serviceKey, List<String> urls, String address) {
+        if (urls.size() < 2) {
+            return Lease.NONE;
+        }
+        String url = null;
+        for (String candidate : urls) {
+            if (address.startsWith(candidate) && (url == null || candidate.length() > url.length())) {
+                url = candidate;
+            }
+        }
+        return url == null ? Lease.NONE : new Lease(this, serviceKey, urls, getEndpoint(url));
+    }
+
+    /**
+     * Checks the health of every endpoint of the services that have a health check path.
+     */
+    void checkHealth() {
+        Properties current = props;
+        int timeout = getIntProp(current, HEALTH_TIMEOUT, DEFAULT_HEALTH_TIMEOUT);
+        for (Map.Entry<String, List<String>> entry : services.entrySet()) {
+            String path = getStringSetting(current, HEALTH_PATH, entry.getKey(), "").trim();
+            if (path.length() == 0) {
+                continue;
+            }
+            for (String url : entry.getValue()) {
+                Endpoint endpoint = getEndpoint(url);
+                boolean healthy = probe(url + path, timeout);
+                if (healthy != endpoint.probeHealthy) {
+                    LOG.warn("endpoint " + url + " of " + entry.getKey() + " is now "
+                            + (healthy ? "healthy" : "unhealthy"));
+                    endpoint.probeHealthy = healthy;
+                }
+            }
+        }
+    }
+
+    private boolean probe(String address, int timeout) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection)new URL(address).openConnection();
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setInstanceFollowRedirects(false);
+            int status = connection.getResponseCode();
+            return status >= 200 && status < 400;
+        }
+        catch (IOException e) {
+            LOG.debug("health check failed: " + address, e);
+            return false;
+        }
+        finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private void startHealthChecks(int intervalSeconds) {
+        healthChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "endpoint-health-check");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        healthChecker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkHealth();
+                }
+                catch (RuntimeException e) {
+                    LOG.error("endpoint health check failed", e);
+                }
+            }
+        }, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private Endpoint getEndpoint(String url) {
+        Endpoint result = endpoints.get(url);
+        if (result == null) {
+            Endpoint created = new Endpoint(url);
+            result = endpoints.putIfAbsent(url, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the endpoints that may be used, or all endpoints if none of them may be used.
+     */
+    private List<Endpoint> getAvailable(List<String> urls, long now) {
+        List<Endpoint> all = new ArrayList<Endpoint>(urls.size());
+        List<Endpoint> available = new ArrayList<Endpoint>(urls.size());
+        for (String url : urls) {
+            Endpoint endpoint = getEndpoint(url);
+            all.add(endpoint);
+            if (endpoint.isAvailable(now)) {
+                available.add(endpoint);
+            }
+        }
+        return available.isEmpty() ? all : available;
+    }
+
+    private Endpoint chooseLeastInFlight(List<Endpoint> candidates) {
+        Endpoint result = null;
+        int ties = 0;
+        for (Endpoint endpoint : candidates) {
+            int inFlight = endpoint.inFlight.get();
+            if (result == null || inFlight < result.inFlight.get()) {
+                result = endpoint;
+                ties = 1;
+            }
+            else if (inFlight == result.inFlight.get() && RANDOM.nextInt(++ties) == 0) {
+                // Break ties at random so that idle endpoints share the load.
+                result = endpoint;
+            }
+        }
+        return result;
+    }
+
+    private Endpoint chooseByLatency(List<Endpoint> candidates) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        int first = RANDOM.nextInt(candidates.size());
+        int second = RANDOM.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Endpoint a = candidates.get(first);
+        Endpoint b = candidates.get(second);
+        return a.getCost() <= b.getCost() ? a : b;
+    }
+
+    /**
+     * Ejects an endpoint unless too many of the service's endpoints are ejected already.
+     */
+    private void eject(String serviceKey, List<String> urls, Endpoint endpoint) {
+        Properties current = props;
+        long now = System.currentTimeMillis();
+        int maxEjectedPercent = getSetting(current, MAX_EJECTED, serviceKey, DEFAULT_MAX_EJECTED);
+        int maxEjected = urls.size() * maxEjectedPercent / 100;
+        int ejected = 0;
+        for (String url : urls) {
+            if (getEndpoint(url).ejectedUntil > now) {
+                ejected++;
+            }
+        }
+        if (ejected >= maxEjected) {
+            LOG.warn("endpoint " + endpoint.url + " of " + serviceKey + " is failing, but too many "
+                    + "endpoints are ejected already");
+            return;
+        }
+        long duration = TimeUnit.SECONDS.toMillis(getSetting(current, EJECT_DURATION, serviceKey,
+                DEFAULT_EJECT_DURATION));
+        endpoint.ejectedUntil = now + duration;
+        LOG.warn("endpoint " + endpoint.url + " of " + serviceKey + " ejected for " + duration + " ms");
+    }
+
+    /**
+     * Gets a setting for a service, falling back to the setting for all services.
+     */
+    private static int getSetting(Properties props, String name, String serviceKey, int defaultValue) {
+        int value = getIntProp(props, name, defaultValue);
+        return getIntProp(props, name + "." + serviceKey, value);
+    }
+
+    private static String getStringSetting(Properties props, String name, String serviceKey,
+            String defaultValue) {
+        String value = StringUtils.defaultIfEmpty(props.getProperty(name), defaultValue);
+        return StringUtils.defaultIfEmpty(props.getProperty(name + "." + serviceKey), value);
+    }
+
+    /**
+     * A call in progress to an endpoint.
+     */
+    public static class Lease {
+
+        /**
+         * A lease for calls that aren't balanced.
+         */
+        public static final Lease NONE = new Lease(null, null, null, null) {
+            @Override
+            public void release(boolean success) {
+                // Nothing to release.
+            }
+        };
+
+        private final EndpointBalancer balancer;
+        private final String serviceKey;
+        private final List<String> urls;
+        private final Endpoint endpoint;
+        private final long start = System.nanoTime();
+        private boolean released;
+
+        private Lease(EndpointBalancer balancer, String serviceKey, List<String> urls, Endpoint endpoint) {
+            this.balancer = balancer;
+            this.serviceKey = serviceKey;
+            this.urls = urls;
+            this.endpoint = endpoint;
+            if (endpoint != null) {
+                endpoint.inFlight.incrementAndGet();
+            }
+        }
+
+        /**
+         * Releases the lease and records the outcome of the call. Calling this method more than once
+         * has no effect.
+         *
+         * @param success true if the endpoint responded without a server error.
+         */
+        public void release(boolean success) {
+            if (released) {
+                return;
+            }
+            released = true;
+            endpoint.inFlight.decrementAndGet();
+            int ejectAfter = getSetting(balancer.props, EJECT_AFTER, serviceKey, DEFAULT_EJECT_AFTER);
+            if (endpoint.record(success, System.nanoTime() - start, ejectAfter)) {
+                balancer.eject(serviceKey, urls, endpoint);
+            }
+        }
+    }
+
+    /**
+     * The state of a single endpoint.
+     */
+    private static class Endpoint {
+
+        private final String url;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile boolean probeHealthy = true;
+        private volatile long ejectedUntil;
+        private volatile double latencyMillis;
+        private int consecutiveFailures;
+
+        public Endpoint(String url) {
+            this.url = url;
+        }
+
+        public boolean isAvailable(long now) {
+            return probeHealthy && ejectedUntil <= now;
+        }
+
+        /**
+         * @return the expected cost of sending another call to this endpoint.
+         */
+        public double getCost() {
+            return (latencyMillis + 1) * (inFlight.get() + 1);
+        }
+
+        /**
+         * Records the outcome of a call.
+         *
+         * @param success true if the call succeeded.
+         * @param elapsedNanos the duration of the call in nanoseconds.
+         * @param ejectAfter the number of consecutive failures that cause ejection, or zero.
+         * @return true if the endpoint should be ejected.
+         */
+        public synchronized boolean record(boolean success, long elapsedNanos, int ejectAfter) {
+            double elapsedMillis = elapsedNanos / 1e6;
+            latencyMillis = latencyMillis == 0 ? elapsedMillis : LATENCY_WEIGHT * elapsedMillis
+                    + (1 - LATENCY_WEIGHT) * latencyMillis;
+            if (success) {
+                consecutiveFailures = 0;
+                return false;
+            }
+            if (ejectAfter > 0 && ++consecutiveFailures >= ejectAfter) {
+                consecutiveFailures = 0;
+                return true;
+            }
+            return false;
+        }
+    }
+}
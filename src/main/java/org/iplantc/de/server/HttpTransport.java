@@ -0,0 +1,46 @@
+package org.iplantc.de.server;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+
+/**
+ * Sends requests prepared by a {@link UrlConnector} to other services. Implementations are shared by
+ * all of the requests handled by a service dispatcher, so they must be thread safe.
+ */
+public interface HttpTransport {
+
+    /**
+     * The name of the execution context attribute containing the value of {@link System#nanoTime()}
+     * when a connection to the service was obtained, if the transport records it.
+     */
+    public static final String CONNECTED_AT = "org.iplantc.de.connected-at";
+
+    /**
+     * Executes a request. The caller must either consume the response entity or release the
+     * request's connection when it's finished with the response.
+     *
+     * @param request the request to execute.
+     * @return the response.
+     * @throws IOException if an I/O error occurs.
+     */
+    public HttpResponse execute(HttpUriRequest request) throws IOException;
+
+    /**
+     * Executes a request using a specific execution context. Callers can use the context to retrieve
+     * information about the execution of the request, such as {@link #CONNECTED_AT}.
+     *
+     * @param request the request to execute.
+     * @param context the execution context.
+     * @return the response.
+     * @throws IOException if an I/O error occurs.
+     */
+    public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException;
+
+    /**
+     * Releases all resources held by the transport.
+     */
+    public void shutdown();
+}
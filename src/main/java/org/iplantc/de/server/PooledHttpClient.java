@@ -0,0 +1,349 @@
+package org.iplantc.de.server;
+
+import static org.iplantc.de.server.util.ServletUtils.getIntProp;
+
+import org.iplantc.clavin.spring.ConfigAliasResolver;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+
+/**
+ * The default {@link HttpTransport}: an HTTP client backed by a pool of persistent connections that is
+ * shared by all of the service dispatchers in a web application. Connections are kept alive between
+ * requests and reused, so requests to the same backend don't pay the cost of establishing a new
+ * connection every time. Idle and expired connections are evicted from the pool by a background thread,
+ * which runs until the client is shut down; {@link SharedResourcesListener} shuts down the shared
+ * client when the web application is stopped.
+ *
+ * The pool is configured using the same "webapp" properties that are used to resolve service
+ * names. All of the settings are optional. Per-host connection limits are given as a comma-separated
+ * list of base URLs and limits, for example:
+ *
+ * <pre>
+ * org.iplantc.discoveryenvironment.http.route-limits = \
+ *     http://foo.example.org:8080=20, https://bar.example.org=5
+ * </pre>
+ */
+public class PooledHttpClient implements HttpTransport {
+
+    /**
+     * The name of the servlet context attribute used to store the shared client.
+     */
+    private static final String CONTEXT_ATTRIBUTE = PooledHttpClient.class.getName();
+
+    /**
+     * The prefix used for all connection pool configuration settings.
+     */
+    public static final String PROPERTY_PREFIX = "org.iplantc.discoveryenvironment.http.";
+
+    /**
+     * The maximum number of connections in the pool.
+     */
+    public static final String MAX_CONNECTIONS = PROPERTY_PREFIX + "max-connections";
+
+    /**
+     * The maximum number of connections in the pool for any single backend host.
+     */
+    public static final String MAX_CONNECTIONS_PER_ROUTE = PROPERTY_PREFIX + "max-connections-per-route";
+
+    /**
+     * The number of seconds a connection may sit idle in the pool before it's closed.
+     */
+    public static final String IDLE_TIMEOUT = PROPERTY_PREFIX + "idle-timeout-seconds";
+
+    /**
+     * The number of seconds to keep a connection alive when the backend doesn't say otherwise.
+     */
+    public static final String KEEP_ALIVE = PROPERTY_PREFIX + "keep-alive-seconds";
+
+    /**
+     * The maximum number of connections in the pool for specific backend hosts.
+     */
+    public static final String ROUTE_LIMITS = PROPERTY_PREFIX + "route-limits";
+
+    /**
+     * The number of milliseconds to wait for a connection to a backend to be established.
+     */
+    public static final String CONNECT_TIMEOUT = PROPERTY_PREFIX + "connect-timeout-ms";
+
+    /**
+     * The number of milliseconds to wait for data from a backend before giving up.
+     */
+    public static final String SOCKET_TIMEOUT = PROPERTY_PREFIX + "socket-timeout-ms";
+
+    /**
+     * The number of milliseconds to wait for a connection to become available in the pool.
+     */
+    public static final String POOL_TIMEOUT = PROPERTY_PREFIX + "pool-timeout-ms";
+
+    /**
+     * True if pooled connections should be checked for staleness before they're reused.
+     */
+    public static final String STALE_CHECK = PROPERTY_PREFIX + "stale-connection-check";
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 200;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+    private static final int DEFAULT_IDLE_TIMEOUT = 30;
+    private static final int DEFAULT_KEEP_ALIVE = 30;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+    private static final int DEFAULT_SOCKET_TIMEOUT = 300000;
+    private static final int DEFAULT_POOL_TIMEOUT = 30000;
+
+    /**
+     * The connection manager that maintains the pool.
+     */
+    private final PoolingClientConnectionManager connectionManager;
+
+    /**
+     * The client used to send all requests.
+     */
+    private final DefaultHttpClient client;
+
+    /**
+     * The thread used to evict idle connections from the pool.
+     */
+    private final IdleConnectionEvictor evictor;
+
+    /**
+     * @param resolver the configuration alias resolver used to retrieve the web application properties.
+     */
+    public PooledHttpClient(ConfigAliasResolver resolver) {
+        this(resolver.getRequiredAliasedConfig("webapp"));
+    }
+
+    /**
+     * @param props the web application configuration properties.
+     */
+    public PooledHttpClient(Properties props) {
+        int idleTimeout = getIntProp(props, IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT);
+        long keepAliveMillis = TimeUnit.SECONDS.toMillis(getIntProp(props, KEEP_ALIVE,
+                DEFAULT_KEEP_ALIVE));
+
+        connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(getIntProp(props, MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS));
+        connectionManager.setDefaultMaxPerRoute(getIntProp(props, MAX_CONNECTIONS_PER_ROUTE,
+                DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+        setRouteLimits(props.getProperty(ROUTE_LIMITS));
+
+        client = new DefaultHttpClient(connectionManager);
+        client.setKeepAliveStrategy(new DefaultKeepAliveStrategy(keepAliveMillis));
+        client.addRequestInterceptor(new ConnectionTimeRecorder());
+
+        HttpParams params = client.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, getIntProp(props, CONNECT_TIMEOUT,
+                DEFAULT_CONNECT_TIMEOUT));
+        HttpConnectionParams.setSoTimeout(params, getIntProp(props, SOCKET_TIMEOUT, DEFAULT_SOCKET_TIMEOUT));
+        HttpConnectionParams.setStaleCheckingEnabled(params,
+                !"false".equalsIgnoreCase(props.getProperty(STALE_CHECK)));
+        HttpClientParams.setConnectionManagerTimeout(params, getIntProp(props, POOL_TIMEOUT,
+                DEFAULT_POOL_TIMEOUT));
+
+        evictor = new IdleConnectionEvictor(connectionManager, idleTimeout);
+        evictor.start();
+    }
+
+    /**
+     * Gets the shared pooled HTTP client for a servlet context. The client is created from the "webapp"
+     * configuration properties the first time this method is called and reused thereafter.
+     *
+     * @param context the servlet context.
+     * @return the shared client.
+     */
+    public static PooledHttpClient getPooledHttpClient(ServletContext context) {
+        synchronized (context) {
+            PooledHttpClient result = (PooledHttpClient)context.getAttribute(CONTEXT_ATTRIBUTE);
+            if (result == null) {
+                result = new PooledHttpClient(ConfigAliasResolver.getRequiredAliasedConfigFrom(context,
+                        "webapp"));
+                context.setAttribute(CONTEXT_ATTRIBUTE, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Shuts down the shared pooled HTTP client for a servlet context, if it has been created.
+     *
+     * @param context the servlet context.
+     */
+    public static void shutdown(ServletContext context) {
+        PooledHttpClient client;
+        synchronized (context) {
+            client = (PooledHttpClient)context.getAttribute(CONTEXT_ATTRIBUTE);
+            context.removeAttribute(CONTEXT_ATTRIBUTE);
+        }
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+
+    /**
+     * @return the underlying HTTP client.
+     */
+    public HttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpResponse execute(HttpUriRequest request) throws IOException {
+        return client.execute(request);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException {
+        return client.execute(request, context);
+    }
+
+    /**
+     * Stops the eviction thread and closes all connections in the pool.
+     */
+    @Override
+    public void shutdown() {
+        evictor.shutdown();
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Applies per-host connection limits to the connection pool.
+     *
+     * @param limits the comma-separated list of base URLs and connection limits, may be null.
+     * @throws IllegalStateException if the limits can't be parsed.
+     */
+    private void setRouteLimits(String limits) {
+        if (StringUtils.isBlank(limits)) {
+            return;
+        }
+        for (String limit : limits.split(",")) {
+            String[] components = limit.trim().split("=");
+            try {
+                URL url = new URL(components[0].trim());
+                int max = Integer.parseInt(components[1].trim());
+                HttpHost host = new HttpHost(url.getHost(), url.getPort(), url.getProtocol());
+                connectionManager.setMaxPerRoute(new HttpRoute(host), max);
+
+                // Requests may be routed with either an explicit or an implicit default port.
+                if (url.getPort() < 0) {
+                    host = new HttpHost(url.getHost(), url.getDefaultPort(), url.getProtocol());
+                    connectionManager.setMaxPerRoute(new HttpRoute(host), max);
+                }
+            }
+            catch (Exception e) {
+                throw new IllegalStateException("invalid route limit in " + ROUTE_LIMITS + ": " + limit, e);
+            }
+        }
+    }
+
+    /**
+     * Uses the timeout from the backend's Keep-Alive header if there is one, and a fixed default
+     * otherwise. The HttpClient default is to keep connections alive indefinitely.
+     */
+    private static class DefaultKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        private final long defaultMillis;
+
+        public DefaultKeepAliveStrategy(long defaultMillis) {
+            this.defaultMillis = defaultMillis;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            HeaderElementIterator it = new BasicHeaderElementIterator(
+                    response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement element = it.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        return Long.parseLong(element.getValue()) * 1000;
+                    }
+                    catch (NumberFormatException ignore) {
+                        // Fall through to the default.
+                    }
+                }
+            }
+            return defaultMillis;
+        }
+    }
+
+    /**
+     * Records the time at which a connection was obtained for a request. Request interceptors are called
+     * after the connection has been leased from the pool and opened, just before the request is sent.
+     */
+    private static class ConnectionTimeRecorder implements HttpRequestInterceptor {
+
+        @Override
+        public void process(HttpRequest request, HttpContext context) {
+            context.setAttribute(CONNECTED_AT, System.nanoTime());
+        }
+    }
+
+    /**
+     * Periodically closes expired connections and connections that have been idle for too long.
+     */
+    private static class IdleConnectionEvictor extends Thread {
+
+        private final PoolingClientConnectionManager connectionManager;
+        private final int idleTimeout;
+        private volatile boolean shutdown;
+
+        public IdleConnectionEvictor(PoolingClientConnectionManager connectionManager, int idleTimeout) {
+            super("pooled-http-client-evictor");
+            this.connectionManager = connectionManager;
+            this.idleTimeout = idleTimeout;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long sleepMillis = TimeUnit.SECONDS.toMillis(Math.max(1, idleTimeout / 2));
+            try {
+                while (!shutdown) {
+                    synchronized (this) {
+                        wait(sleepMillis);
+                    }
+                    connectionManager.closeExpiredConnections();
+                    connectionManager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void shutdown() {
+            shutdown = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
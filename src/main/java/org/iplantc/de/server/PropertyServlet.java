@@ -1,17 +1,34 @@
 package org.iplantc.de.server;
 
 import org.iplantc.clavin.spring.ConfigAliasResolver;
+import org.iplantc.de.server.util.StreamUtils;
 import org.iplantc.de.shared.services.PropertyService;
 
 import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.server.rpc.RemoteServiceServlet;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.JSONObject;
+
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Provides the discovery environment configuration properties to the client. The properties are read
+ * once, when the servlet is initialized, and the same snapshot is returned to every caller.
+ *
+ * Besides the GWT RPC interface, the snapshot is available as a JSON object from a plain GET request to
+ * the servlet. The response carries an ETag derived from the contents of the snapshot, so clients that
+ * keep a copy of the properties can revalidate it with If-None-Match and receive a 304 response if the
+ * properties haven't changed.
+ */
 public class PropertyServlet extends RemoteServiceServlet implements PropertyService{
 
     /**
@@ -24,6 +41,22 @@ public class PropertyServlet extends RemoteServiceServlet implements PropertySer
      */
     private Properties props;
 
+    /**
+     * The configuration settings as they're sent to the client. This map is never modified after it's
+     * created.
+     */
+    private HashMap<String, String> snapshot;
+
+    /**
+     * The JSON representation of the snapshot.
+     */
+    private String snapshotJson;
+
+    /**
+     * The version of the snapshot, a hash of its contents.
+     */
+    private String version;
+
     /**
      * The default constructor.
      */
@@ -48,6 +81,33 @@ public class PropertyServlet extends RemoteServiceServlet implements PropertySer
         if (props == null) {
             props = ConfigAliasResolver.getRequiredAliasedConfigFrom(getServletContext(), "webapp");
         }
+        createSnapshot();
+    }
+
+    /**
+     * Builds the property snapshot, its JSON representation and its version. The properties are sorted
+     * so that the version only depends on their contents.
+     */
+    private void createSnapshot() {
+        TreeMap<String, String> sorted = new TreeMap<String, String>();
+        for (Object key : props.keySet()) {
+            sorted.put(key.toString(), props.get(key).toString());
+        }
+
+        // Values are quoted explicitly; json-lib would turn values that look like JSON into objects.
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(JSONObject.quote(entry.getKey())).append(':');
+            json.append(JSONObject.quote(entry.getValue()));
+        }
+        json.append('}');
+
+        snapshot = new HashMap<String, String>(sorted);
+        snapshotJson = json.toString();
+        version = DigestUtils.shaHex(snapshotJson);
     }
 
     /**
@@ -55,10 +115,24 @@ public class PropertyServlet extends RemoteServiceServlet implements PropertySer
      */
     @Override
     public Map<String, String> getProperties() throws SerializationException {
-        HashMap<String, String> propertyMap = new HashMap<String, String>();
-        for (Object key : props.keySet()) {
-            propertyMap.put(key.toString(), props.get(key).toString());
+        return snapshot;
+    }
+
+    /**
+     * Sends the properties as a JSON object, or a 304 response if the client already has the current
+     * version.
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        String etag = "\"" + version + "\"";
+        res.setHeader("ETag", etag);
+        res.setHeader("Cache-Control", "private, no-cache");
+        if (StreamUtils.matchesEtag(req.getHeader("If-None-Match"), etag)) {
+            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
         }
-        return propertyMap;
+        res.setContentType("application/json");
+        res.setCharacterEncoding("UTF-8");
+        res.getWriter().print(snapshotJson);
     }
 }
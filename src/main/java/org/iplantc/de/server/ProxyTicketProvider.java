@@ -0,0 +1,409 @@
+package org.iplantc.de.server;
+
+import org.apache.log4j.Logger;
+import org.jasig.cas.client.authentication.AttributePrincipal;
+import org.springframework.web.util.WebUtils;
+
+import java.io.Serializable;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Hands out CAS proxy tickets for a single user session. Obtaining a proxy ticket requires a round trip
+ * to the CAS server, so a small pool of tickets is prefetched in the background for each service the
+ * session is using heavily. A request that finds a ticket in the pool doesn't have to wait for CAS at
+ * all; a request that finds the pool empty obtains a ticket synchronously.
+ *
+ * Proxy tickets may only be used once and expire quickly, so tickets are discarded if they aren't used
+ * within the maximum ticket age. To avoid fetching tickets that will only be thrown away, each pool is
+ * refilled to the number of requests the session sent to the service within the last maximum ticket age,
+ * up to the pool size; a session that calls a service less often than that never prefetches tickets for
+ * it. The ticket pools are not replicated with the session; a session that is moved to another node
+ * simply starts with empty pools.
+ *
+ * Tickets are prefetched by a pool of threads that is shared by all of the sessions in a web application
+ * and stored in a servlet context attribute. The threads are stopped by {@link SharedResourcesListener}
+ * when the web application is stopped.
+ */
+public class ProxyTicketProvider implements Serializable {
+    private static final long serialVersionUID = -4265906113117916547L;
+
+    private static final Logger LOG = Logger.getLogger(ProxyTicketProvider.class);
+
+    /**
+     * The name of the session attribute used to store the ticket provider.
+     */
+    private static final String SESSION_ATTRIBUTE = ProxyTicketProvider.class.getName();
+
+    /**
+     * The name of the servlet context attribute used to store the prefetch threads.
+     */
+    private static final String PREFETCHER_ATTRIBUTE = SESSION_ATTRIBUTE + ".prefetcher";
+
+    /**
+     * The default maximum number of tickets to keep on hand for each service.
+     */
+    public static final int DEFAULT_POOL_SIZE = 2;
+
+    /**
+     * The default number of milliseconds a prefetched ticket may be held before it's discarded.
+     */
+    public static final long DEFAULT_MAX_TICKET_AGE = 5000;
+
+    /**
+     * The number of threads used to prefetch tickets for all sessions.
+     */
+    private static final int PREFETCH_THREADS = 4;
+
+    /**
+     * The maximum number of prefetch requests that may be waiting for a thread.
+     */
+    private static final int PREFETCH_QUEUE_SIZE = 1000;
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong EXPIRED = new AtomicLong();
+    private static final AtomicLong CAS_REQUESTS = new AtomicLong();
+    private static final AtomicLong CAS_FAILURES = new AtomicLong();
+    private static final AtomicLong CAS_LATENCY_MILLIS = new AtomicLong();
+
+    private final int poolSize;
+    private final long maxTicketAge;
+
+    /**
+     * The ticket pools, indexed by service name.
+     */
+    private transient Map<String, TicketPool> pools;
+
+    /**
+     * The executor used to prefetch tickets, or null if tickets aren't prefetched.
+     */
+    private transient volatile Executor prefetcher;
+
+    /**
+     * Creates a ticket provider that doesn't prefetch tickets.
+     *
+     * @param poolSize the maximum number of tickets to keep on hand for each service.
+     * @param maxTicketAge the number of milliseconds a prefetched ticket may be held.
+     */
+    public ProxyTicketProvider(int poolSize, long maxTicketAge) {
+        this(poolSize, maxTicketAge, null);
+    }
+
+    /**
+     * @param poolSize the maximum number of tickets to keep on hand for each service.
+     * @param maxTicketAge the number of milliseconds a prefetched ticket may be held.
+     * @param prefetcher the executor used to prefetch tickets, or null if tickets aren't prefetched.
+     */
+    ProxyTicketProvider(int poolSize, long maxTicketAge, Executor prefetcher) {
+        this.poolSize = poolSize;
+        this.maxTicketAge = maxTicketAge;
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * Gets the ticket provider for a session, creating it if necessary. The provider prefetches tickets
+     * using the threads shared by the session's web application.
+     *
+     * @param session the HTTP session.
+     * @param poolSize the maximum number of tickets to keep on hand for each service.
+     * @param maxTicketAge the number of milliseconds a prefetched ticket may be held.
+     * @return the ticket provider.
+     */
+    public static ProxyTicketProvider forSession(HttpSession session, int poolSize, long maxTicketAge) {
+        synchronized (WebUtils.getSessionMutex(session)) {
+            ProxyTicketProvider provider = (ProxyTicketProvider)session.getAttribute(SESSION_ATTRIBUTE);
+            if (provider == null) {
+                provider = new ProxyTicketProvider(poolSize, maxTicketAge);
+                session.setAttribute(SESSION_ATTRIBUTE, provider);
+            }
+            if (provider.prefetcher == null) {
+                // Providers that were moved from another node have lost their prefetcher.
+                provider.prefetcher = getPrefetcher(session.getServletContext());
+            }
+            return provider;
+        }
+    }
+
+    /**
+     * Gets the prefetch threads for a servlet context, creating them if necessary. Prefetch requests are
+     * rejected when the queue is full or the threads have been shut down; the next request for the
+     * service will simply obtain its ticket synchronously.
+     *
+     * @param context the servlet context.
+     * @return the prefetch executor.
+     */
+    private static Executor getPrefetcher(ServletContext context) {
+        synchronized (context) {
+            Executor result = (Executor)context.getAttribute(PREFETCHER_ATTRIBUTE);
+            if (result == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS,
+                        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(PREFETCH_QUEUE_SIZE),
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "proxy-ticket-prefetcher");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+                executor.allowCoreThreadTimeOut(true);
+                context.setAttribute(PREFETCHER_ATTRIBUTE, executor);
+                result = executor;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Stops the prefetch threads for a servlet context, if they have been created. Providers that still
+     * refer to the threads obtain their tickets synchronously afterwards.
+     *
+     * @param context the servlet context.
+     */
+    public static void shutdown(ServletContext context) {
+        ThreadPoolExecutor executor;
+        synchronized (context) {
+            executor = (ThreadPoolExecutor)context.getAttribute(PREFETCHER_ATTRIBUTE);
+            context.removeAttribute(PREFETCHER_ATTRIBUTE);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Gets a proxy ticket for a service.
+     *
+     * @param principal the CAS principal for the session.
+     * @param serviceName the name of the service the ticket is for.
+     * @return the ticket or null if a ticket couldn't be obtained.
+     */
+    public String getProxyTicket(AttributePrincipal principal, String serviceName) {
+        TicketPool pool = getPool(serviceName);
+        int demand = pool.recordRequest();
+        String ticket = pool.take();
+        if (ticket != null) {
+            HITS.incrementAndGet();
+        }
+        else {
+            MISSES.incrementAndGet();
+            ticket = requestTicket(principal, serviceName);
+        }
+        if (ticket != null) {
+            pool.refill(principal, demand);
+        }
+        return ticket;
+    }
+
+    /**
+     * @return the current time in milliseconds; overridden in tests.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the ticket pool for a service.
+     *
+     * @param serviceName the name of the service.
+     * @return the ticket pool.
+     */
+    private synchronized TicketPool getPool(String serviceName) {
+        if (pools == null) {
+            pools = new ConcurrentHashMap<String, TicketPool>();
+        }
+        TicketPool pool = pools.get(serviceName);
+        if (pool == null) {
+            pool = new TicketPool(serviceName);
+            pools.put(serviceName, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Obtains a proxy ticket from the CAS server.
+     *
+     * @param principal the CAS principal for the session.
+     * @param serviceName the name of the service the ticket is for.
+     * @return the ticket or null if a ticket couldn't be obtained.
+     */
+    private static String requestTicket(AttributePrincipal principal, String serviceName) {
+        long start = System.currentTimeMillis();
+        String ticket = null;
+        try {
+            ticket = principal.getProxyTicketFor(serviceName);
+        }
+        catch (RuntimeException e) {
+            LOG.warn("unable to obtain a proxy ticket for " + serviceName, e);
+        }
+        CAS_REQUESTS.incrementAndGet();
+        CAS_LATENCY_MILLIS.addAndGet(System.currentTimeMillis() - start);
+        if (ticket == null) {
+            CAS_FAILURES.incrementAndGet();
+        }
+        return ticket;
+    }
+
+    /**
+     * @return the number of tickets that were handed out from a pool.
+     */
+    public static long getHitCount() {
+        return HITS.get();
+    }
+
+    /**
+     * @return the number of tickets that had to be obtained synchronously.
+     */
+    public static long getMissCount() {
+        return MISSES.get();
+    }
+
+    /**
+     * @return the number of prefetched tickets that were discarded because they were too old.
+     */
+    public static long getExpiredCount() {
+        return EXPIRED.get();
+    }
+
+    /**
+     * @return the number of requests sent to the CAS server.
+     */
+    public static long getCasRequestCount() {
+        return CAS_REQUESTS.get();
+    }
+
+    /**
+     * @return the number of requests to the CAS server that didn't produce a ticket.
+     */
+    public static long getCasFailureCount() {
+        return CAS_FAILURES.get();
+    }
+
+    /**
+     * @return the total number of milliseconds spent waiting for the CAS server.
+     */
+    public static long getCasLatencyMillis() {
+        return CAS_LATENCY_MILLIS.get();
+    }
+
+    /**
+     * A pool of prefetched tickets for a single service.
+     */
+    private class TicketPool {
+
+        private final String serviceName;
+        private final ConcurrentLinkedQueue<PrefetchedTicket> tickets =
+                new ConcurrentLinkedQueue<PrefetchedTicket>();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+
+        /**
+         * The times of the most recent requests for tickets, oldest first.
+         */
+        private final LinkedList<Long> requestTimes = new LinkedList<Long>();
+
+        public TicketPool(String serviceName) {
+            this.serviceName = serviceName;
+        }
+
+        /**
+         * Records a request for a ticket.
+         *
+         * @return the number of earlier requests within the maximum ticket age, up to the pool size.
+         */
+        public int recordRequest() {
+            long now = currentTimeMillis();
+            synchronized (requestTimes) {
+                while (!requestTimes.isEmpty() && now - requestTimes.getFirst() > maxTicketAge) {
+                    requestTimes.removeFirst();
+                }
+                int result = Math.min(poolSize, requestTimes.size());
+                requestTimes.addLast(now);
+                while (requestTimes.size() > Math.max(poolSize, 0)) {
+                    requestTimes.removeFirst();
+                }
+                return result;
+            }
+        }
+
+        /**
+         * Takes a ticket from the pool, discarding any tickets that are too old.
+         *
+         * @return the ticket or null if the pool doesn't contain a usable ticket.
+         */
+        public String take() {
+            long now = currentTimeMillis();
+            PrefetchedTicket ticket;
+            while ((ticket = tickets.poll()) != null) {
+                if (now - ticket.obtained <= maxTicketAge) {
+                    return ticket.ticket;
+                }
+                EXPIRED.incrementAndGet();
+            }
+            return null;
+        }
+
+        /**
+         * Refills the pool in the background. At most one refill is in progress for a pool at a time.
+         *
+         * @param principal the CAS principal for the session.
+         * @param target the number of tickets the pool should hold.
+         */
+        public void refill(final AttributePrincipal principal, final int target) {
+            Executor executor = prefetcher;
+            if (executor == null || target <= 0 || tickets.size() >= target
+                    || !refilling.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (tickets.size() < target) {
+                                String ticket = requestTicket(principal, serviceName);
+                                if (ticket == null) {
+                                    break;
+                                }
+                                tickets.add(new PrefetchedTicket(ticket, currentTimeMillis()));
+                            }
+                        }
+                        finally {
+                            refilling.set(false);
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                refilling.set(false);
+            }
+        }
+    }
+
+    /**
+     * A ticket along with the time it was obtained.
+     */
+    private static class PrefetchedTicket {
+
+        private final String ticket;
+        private final long obtained;
+
+        public PrefetchedTicket(String ticket, long obtained) {
+            this.ticket = ticket;
+            this.obtained = obtained;
+        }
+    }
+}
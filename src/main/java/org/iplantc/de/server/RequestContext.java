@@ -0,0 +1,183 @@
+package org.iplantc.de.server;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.security.Principal;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * The state of a servlet request that work on other threads needs. Spring Security keeps the
+ * authenticated user in a thread-local security context, so a request object used on another thread
+ * can't find its own user principal; the principal and the security context are captured on the
+ * request thread and restored on the threads that work for the request.
+ *
+ * A request context also keeps track of the service requests sent on its behalf, so that the work done
+ * for a servlet request can be abandoned before the container recycles the request object.
+ */
+public class RequestContext {
+
+    /**
+     * The request context attached to the current thread.
+     */
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<RequestContext>();
+
+    private final HttpServletRequest request;
+    private final SecurityContext securityContext;
+    private final Thread origin;
+
+    /**
+     * The service requests in flight on behalf of the servlet request.
+     */
+    private final Set<HttpRequestBase> inFlight = new HashSet<HttpRequestBase>();
+    private boolean cancelled;
+
+    private RequestContext(HttpServletRequest request, SecurityContext securityContext, Thread origin) {
+        this.request = request;
+        this.securityContext = securityContext;
+        this.origin = origin;
+    }
+
+    /**
+     * Captures the state of a servlet request. This method must be called on the thread that received
+     * the request.
+     *
+     * @param req the servlet request.
+     * @return the request context.
+     */
+    public static RequestContext capture(HttpServletRequest req) {
+        return new RequestContext(new PrincipalRequestWrapper(req, req.getUserPrincipal()),
+                SecurityContextHolder.getContext(), Thread.currentThread());
+    }
+
+    /**
+     * Creates a context for work that is shared with other servlet requests and may still be running
+     * after this one has finished. The new context reports the same user, but its request is a
+     * {@link DetachedRequest snapshot} of the servlet request, so the work never touches a request the
+     * container has recycled. Service requests tracked by the new context aren't aborted when this
+     * context is cancelled. This method must be called while the servlet request is in progress.
+     *
+     * @return the new context.
+     */
+    public RequestContext fork() {
+        return new RequestContext(DetachedRequest.capture(request), securityContext, origin);
+    }
+
+    /**
+     * @return the request context attached to the current thread, or null if there is none.
+     */
+    public static RequestContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the servlet request, which reports the user principal captured on the request thread.
+     */
+    public HttpServletRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Attaches this context to the current thread. Every call must be matched by a call to
+     * {@link #detach(RequestContext)} on the same thread.
+     *
+     * @return the context that was attached to the current thread before, or null if there was none.
+     */
+    public RequestContext attach() {
+        RequestContext previous = CURRENT.get();
+        CURRENT.set(this);
+        if (Thread.currentThread() != origin) {
+            SecurityContextHolder.setContext(securityContext);
+        }
+        return previous;
+    }
+
+    /**
+     * Detaches this context from the current thread, restoring the context that was attached before.
+     * Pool threads are left without any thread-local state.
+     *
+     * @param previous the context returned by {@link #attach()}.
+     */
+    public void detach(RequestContext previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        }
+        else {
+            CURRENT.set(previous);
+        }
+        if (Thread.currentThread() != origin) {
+            if (previous == null || previous.origin == Thread.currentThread()) {
+                SecurityContextHolder.clearContext();
+            }
+            else {
+                SecurityContextHolder.setContext(previous.securityContext);
+            }
+        }
+    }
+
+    /**
+     * Records that a service request is being sent on behalf of the servlet request. If the work for
+     * the servlet request has been cancelled, the service request is aborted immediately.
+     *
+     * @param clientRequest the service request.
+     */
+    public synchronized void track(HttpRequestBase clientRequest) {
+        if (cancelled) {
+            clientRequest.abort();
+        }
+        else {
+            inFlight.add(clientRequest);
+        }
+    }
+
+    /**
+     * Records that a service request has finished.
+     *
+     * @param clientRequest the service request.
+     */
+    public synchronized void untrack(HttpRequestBase clientRequest) {
+        inFlight.remove(clientRequest);
+    }
+
+    /**
+     * Abandons the work done for the servlet request: service requests in flight are aborted, and
+     * service requests sent later are aborted as soon as they're tracked.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        for (HttpRequestBase clientRequest : inFlight) {
+            clientRequest.abort();
+        }
+        inFlight.clear();
+    }
+
+    /**
+     * @return true if the work for the servlet request has been cancelled.
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Reports a user principal captured on the request thread.
+     */
+    private static class PrincipalRequestWrapper extends HttpServletRequestWrapper {
+
+        private final Principal principal;
+
+        public PrincipalRequestWrapper(HttpServletRequest request, Principal principal) {
+            super(request);
+            this.principal = principal;
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            return principal;
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package org.iplantc.de.server;
 
+import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
 
 import java.util.Arrays;
 import java.util.List;
@@ -18,6 +21,11 @@ public class RequestFactory {
      */
     private static final List<String> validMethods = Arrays.asList("POST", "PUT");
 
+    /**
+     * The types of methods for which requests without bodies can be returned.
+     */
+    private static final List<String> validBodilessMethods = Arrays.asList("GET", "DELETE");
+
     /**
      * Builds the request object.
      * 
@@ -31,4 +39,18 @@ public class RequestFactory {
         }
         return method == "POST" ? new HttpPost(address) : new HttpPut(address);
     }
+
+    /**
+     * Builds a request object for a request that doesn't have a body.
+     * 
+     * @param method the HTTP method.
+     * @param address the address to connect to.
+     * @return the request object.
+     */
+    public static HttpRequestBase buildBodilessRequest(String method, String address) {
+        if (!validBodilessMethods.contains(method)) {
+            throw new IllegalArgumentException("supported method types: " + validBodilessMethods);
+        }
+        return method.equals("GET") ? new HttpGet(address) : new HttpDelete(address);
+    }
 }
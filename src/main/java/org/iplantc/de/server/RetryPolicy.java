@@ -0,0 +1,286 @@
+package org.iplantc.de.server;
+
+import static org.iplantc.de.server.util.ServletUtils.getIntProp;
+
+import org.iplantc.clavin.spring.ConfigAliasResolver;
+import org.iplantc.de.shared.AuthenticationException;
+import org.iplantc.de.shared.services.BaseServiceCallWrapper.Type;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Decides whether failed service calls are tried again and how long to wait between attempts. By
+ * default, GET and DELETE requests are retried after I/O errors and 502, 503 or 504 responses; PUT and
+ * POST requests are only retried for services that opt in, because they may not be idempotent. Calls
+ * refused by {@link ServiceIsolation} are never retried. The delay between attempts grows
+ * exponentially with random jitter, and no attempt is started once the retry budget for the call has
+ * been used up.
+ *
+ * GET requests to services with hedging enabled are also hedged: if the first attempt hasn't finished
+ * when the service's 95th percentile latency over the last minute has passed, a second attempt is sent
+ * and whichever response arrives first is used.
+ *
+ * All settings are optional and are read from the "webapp" properties. Each setting may be overridden
+ * for a single service by appending the service key to the setting name, for example:
+ *
+ * <pre>
+ * org.iplantc.discoveryenvironment.retry.max-attempts = 3
+ * org.iplantc.discoveryenvironment.retry.methods.org.iplantc.services.buggalo = GET,DELETE,PUT
+ * org.iplantc.discoveryenvironment.retry.hedge.org.iplantc.services.file-io.download = true
+ * </pre>
+ */
+public class RetryPolicy {
+
+    /**
+     * The name of the servlet context attribute used to store the shared instance.
+     */
+    private static final String CONTEXT_ATTRIBUTE = RetryPolicy.class.getName();
+
+    /**
+     * The prefix used for all retry settings.
+     */
+    public static final String PROPERTY_PREFIX = "org.iplantc.discoveryenvironment.retry.";
+
+    /**
+     * The maximum number of attempts for a single call, including the first one. One disables retries.
+     */
+    public static final String MAX_ATTEMPTS = PROPERTY_PREFIX + "max-attempts";
+
+    /**
+     * The upper bound of the delay before the first retry, in milliseconds.
+     */
+    public static final String BASE_DELAY = PROPERTY_PREFIX + "base-delay-ms";
+
+    /**
+     * The upper bound of the delay between any two attempts, in milliseconds.
+     */
+    public static final String MAX_DELAY = PROPERTY_PREFIX + "max-delay-ms";
+
+    /**
+     * The number of milliseconds after the first attempt during which retries may be started.
+     */
+    public static final String BUDGET = PROPERTY_PREFIX + "budget-ms";
+
+    /**
+     * The comma-separated list of request methods that may be retried.
+     */
+    public static final String METHODS = PROPERTY_PREFIX + "methods";
+
+    /**
+     * True if GET requests should be hedged.
+     */
+    public static final String HEDGE = PROPERTY_PREFIX + "hedge";
+
+    /**
+     * The minimum number of milliseconds to wait before sending a hedged request.
+     */
+    public static final String HEDGE_MIN_DELAY = PROPERTY_PREFIX + "hedge-min-delay-ms";
+
+    /**
+     * The number of calls to a service that must have been timed in the last minute before its latency
+     * is trusted for hedging.
+     */
+    public static final String HEDGE_MIN_SAMPLES = PROPERTY_PREFIX + "hedge-min-samples";
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final int DEFAULT_BASE_DELAY = 100;
+    private static final int DEFAULT_MAX_DELAY = 2000;
+    private static final int DEFAULT_BUDGET = 10000;
+    private static final String DEFAULT_METHODS = "GET,DELETE";
+    private static final int DEFAULT_HEDGE_MIN_DELAY = 50;
+    private static final int DEFAULT_HEDGE_MIN_SAMPLES = 100;
+
+    private static final Random JITTER = new Random();
+
+    private final Properties props;
+
+    private final ConcurrentMap<String, Settings> settings = new ConcurrentHashMap<String, Settings>();
+
+    /**
+     * The settings used for addresses that aren't named services.
+     */
+    private final Settings defaults;
+
+    /**
+     * @param props the web application configuration properties.
+     */
+    public RetryPolicy(Properties props) {
+        this.props = props;
+        defaults = new Settings(null);
+    }
+
+    /**
+     * Gets the shared instance for a servlet context. The instance is created from the "webapp"
+     * configuration properties the first time this method is called and reused thereafter.
+     *
+     * @param context the servlet context.
+     * @return the shared instance.
+     */
+    public static RetryPolicy getRetryPolicy(ServletContext context) {
+        synchronized (context) {
+            RetryPolicy result = (RetryPolicy)context.getAttribute(CONTEXT_ATTRIBUTE);
+            if (result == null) {
+                result = new RetryPolicy(ConfigAliasResolver.getRequiredAliasedConfigFrom(context, "webapp"));
+                context.setAttribute(CONTEXT_ATTRIBUTE, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Gets the retry settings for a service.
+     *
+     * @param serviceKey the service key, or null if the address isn't a named service.
+     * @return the settings.
+     */
+    public Settings getSettings(String serviceKey) {
+        if (serviceKey == null) {
+            return defaults;
+        }
+        Settings result = settings.get(serviceKey);
+        if (result == null) {
+            Settings created = new Settings(serviceKey);
+            result = settings.putIfAbsent(serviceKey, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determines whether a failure is likely to be transient.
+     *
+     * @param e the exception thrown by the failed attempt.
+     * @return true if another attempt might succeed.
+     */
+    public static boolean isTransient(IOException e) {
+        if (e instanceof ServiceUnavailableException || e instanceof DeadlineExceededException
+                || e instanceof AuthenticationException) {
+            return false;
+        }
+        if (e instanceof ServiceErrorException) {
+            int status = ((ServiceErrorException)e).getStatusCode();
+            return status == 502 || status == 503 || status == 504;
+        }
+        return true;
+    }
+
+    /**
+     * Gets a setting for a service, falling back to the setting for all services.
+     */
+    private int getSetting(String name, String serviceKey, int defaultValue) {
+        int value = getIntProp(props, name, defaultValue);
+        return serviceKey == null ? value : getIntProp(props, name + "." + serviceKey, value);
+    }
+
+    private String getStringSetting(String name, String serviceKey, String defaultValue) {
+        String value = StringUtils.defaultIfEmpty(props.getProperty(name), defaultValue);
+        return serviceKey == null ? value : StringUtils.defaultIfEmpty(props.getProperty(name + "."
+                + serviceKey), value);
+    }
+
+    /**
+     * The retry settings for a single service.
+     */
+    public class Settings {
+
+        private final int maxAttempts;
+        private final long baseDelay;
+        private final long maxDelay;
+        private final long budget;
+        private final Set<Type> methods = EnumSet.noneOf(Type.class);
+        private final boolean hedge;
+        private final long hedgeMinDelay;
+        private final int hedgeMinSamples;
+
+        private Settings(String serviceKey) {
+            maxAttempts = Math.max(1, getSetting(MAX_ATTEMPTS, serviceKey, DEFAULT_MAX_ATTEMPTS));
+            baseDelay = Math.max(1, getSetting(BASE_DELAY, serviceKey, DEFAULT_BASE_DELAY));
+            maxDelay = Math.max(baseDelay, getSetting(MAX_DELAY, serviceKey, DEFAULT_MAX_DELAY));
+            budget = getSetting(BUDGET, serviceKey, DEFAULT_BUDGET);
+            for (String method : getStringSetting(METHODS, serviceKey, DEFAULT_METHODS).split(",")) {
+                if (!StringUtils.isBlank(method)) {
+                    try {
+                        methods.add(Type.valueOf(method.trim().toUpperCase()));
+                    }
+                    catch (IllegalArgumentException e) {
+                        throw new IllegalStateException("invalid request method in " + METHODS + ": "
+                                + method, e);
+                    }
+                }
+            }
+            hedge = Boolean.parseBoolean(getStringSetting(HEDGE, serviceKey, "false").trim());
+            hedgeMinDelay = getSetting(HEDGE_MIN_DELAY, serviceKey, DEFAULT_HEDGE_MIN_DELAY);
+            hedgeMinSamples = getSetting(HEDGE_MIN_SAMPLES, serviceKey, DEFAULT_HEDGE_MIN_SAMPLES);
+        }
+
+        /**
+         * @param type the request method.
+         * @return true if requests of this type may be retried.
+         */
+        public boolean isRetryable(Type type) {
+            return maxAttempts > 1 && methods.contains(type);
+        }
+
+        /**
+         * @return the maximum number of attempts for a single call.
+         */
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        /**
+         * @return the number of milliseconds after the first attempt during which retries may start.
+         */
+        public long getBudgetMillis() {
+            return budget;
+        }
+
+        /**
+         * Chooses the delay before the next attempt. The delay is chosen at random between zero and an
+         * upper bound that doubles after every attempt, so that clients retrying at the same time
+         * spread out.
+         *
+         * @param attempt the number of attempts made so far.
+         * @return the delay in milliseconds.
+         */
+        public long getDelayMillis(int attempt) {
+            long bound = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 20));
+            synchronized (JITTER) {
+                return (long)(JITTER.nextDouble() * bound);
+            }
+        }
+
+        /**
+         * @return true if GET requests should be hedged.
+         */
+        public boolean isHedged() {
+            return hedge;
+        }
+
+        /**
+         * @return the minimum number of milliseconds to wait before sending a hedged request.
+         */
+        public long getHedgeMinDelayMillis() {
+            return hedgeMinDelay;
+        }
+
+        /**
+         * @return the number of timed calls required before a service's latency is used for hedging.
+         */
+        public int getHedgeMinSamples() {
+            return hedgeMinSamples;
+        }
+    }
+}
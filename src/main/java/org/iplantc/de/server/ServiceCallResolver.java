@@ -31,6 +31,30 @@ public abstract class ServiceCallResolver {
      */
     public abstract String resolveAddress(String serviceName);
 
+    /**
+     * Gets the service key that an unresolved address refers to. Service keys are used to look up
+     * per-service settings. The default implementation doesn't recognize any service keys.
+     *
+     * @param address the unresolved service address.
+     * @return the service key or null if the address doesn't refer to a named service.
+     */
+    public String getServiceKey(String address) {
+        return null;
+    }
+
+    /**
+     * Records the start of a call to a resolved address, so that the outcome of the call can be taken
+     * into account when later calls are resolved. The lease must always be released once the call is
+     * finished. The default implementation doesn't track calls.
+     *
+     * @param serviceKey the service key, or null if the address isn't a named service.
+     * @param address the resolved address.
+     * @return the lease.
+     */
+    public EndpointBalancer.Lease startCall(String serviceKey, String address) {
+        return EndpointBalancer.Lease.NONE;
+    }
+
     /**
      * Gets the service call resolver for a servlet context.
      *
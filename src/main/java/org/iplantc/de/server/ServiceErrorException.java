@@ -0,0 +1,44 @@
+package org.iplantc.de.server;
+
+import java.io.IOException;
+
+/**
+ * Indicates that a service returned an unsuccessful HTTP status code.
+ */
+public class ServiceErrorException extends IOException {
+    private static final long serialVersionUID = 3326125463316553128L;
+
+    /**
+     * The HTTP status code returned by the service.
+     */
+    private final int statusCode;
+
+    /**
+     * The body of the error response.
+     */
+    private final String responseBody;
+
+    /**
+     * @param statusCode the HTTP status code returned by the service.
+     * @param responseBody the body of the error response.
+     */
+    public ServiceErrorException(int statusCode, String responseBody) {
+        super("service returned status code " + statusCode + ": " + responseBody);
+        this.statusCode = statusCode;
+        this.responseBody = responseBody;
+    }
+
+    /**
+     * @return the HTTP status code returned by the service.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the body of the error response.
+     */
+    public String getResponseBody() {
+        return responseBody;
+    }
+}
@@ -0,0 +1,265 @@
+package org.iplantc.de.server;
+
+import static org.iplantc.de.server.util.ServletUtils.getIntProp;
+
+import org.iplantc.clavin.spring.ConfigAliasResolver;
+
+import org.apache.log4j.Logger;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Isolates the web application from misbehaving services. Each named service has a bulkhead that limits
+ * the number of concurrent calls to it, so that a service that hangs can tie up only a bounded number
+ * of servlet threads, and a {@link CircuitBreaker} that stops calls to a service that is failing or
+ * slow. Calls to addresses that aren't named services aren't isolated.
+ *
+ * All settings are optional and are read from the "webapp" properties. Each setting may be overridden
+ * for a single service by appending the service key to the setting name, for example:
+ *
+ * <pre>
+ * org.iplantc.discoveryenvironment.isolation.max-concurrent = 50
+ * org.iplantc.discoveryenvironment.isolation.max-concurrent.org.iplantc.services.buggalo = 5
+ * </pre>
+ */
+public class ServiceIsolation {
+    private static final Logger LOG = Logger.getLogger(ServiceIsolation.class);
+
+    /**
+     * The name of the servlet context attribute used to store the shared instance.
+     */
+    private static final String CONTEXT_ATTRIBUTE = ServiceIsolation.class.getName();
+
+    /**
+     * The prefix used for all isolation settings.
+     */
+    public static final String PROPERTY_PREFIX = "org.iplantc.discoveryenvironment.isolation.";
+
+    /**
+     * The maximum number of concurrent calls to a service. Zero disables the bulkhead.
+     */
+    public static final String MAX_CONCURRENT = PROPERTY_PREFIX + "max-concurrent";
+
+    /**
+     * The number of milliseconds to wait for a call to a busy service to finish before giving up.
+     */
+    public static final String MAX_WAIT = PROPERTY_PREFIX + "max-wait-ms";
+
+    /**
+     * The percentage of failed or slow calls that opens the circuit breaker. Zero disables the breaker.
+     */
+    public static final String FAILURE_RATE = PROPERTY_PREFIX + "failure-rate-percent";
+
+    /**
+     * The number of calls in a window required before the circuit breaker may open.
+     */
+    public static final String MINIMUM_CALLS = PROPERTY_PREFIX + "minimum-calls";
+
+    /**
+     * The length of the window over which failures are counted, in seconds.
+     */
+    public static final String WINDOW = PROPERTY_PREFIX + "window-seconds";
+
+    /**
+     * Calls that take longer than this many milliseconds count as failures.
+     */
+    public static final String SLOW_CALL = PROPERTY_PREFIX + "slow-call-ms";
+
+    /**
+     * The number of seconds the circuit breaker stays open before admitting probe calls.
+     */
+    public static final String OPEN_DURATION = PROPERTY_PREFIX + "open-seconds";
+
+    /**
+     * The number of probe calls admitted while the circuit breaker is half-open.
+     */
+    public static final String PROBE_CALLS = PROPERTY_PREFIX + "probe-calls";
+
+    private static final int DEFAULT_MAX_CONCURRENT = 50;
+    private static final int DEFAULT_MAX_WAIT = 0;
+    private static final int DEFAULT_FAILURE_RATE = 50;
+    private static final int DEFAULT_MINIMUM_CALLS = 20;
+    private static final int DEFAULT_WINDOW = 30;
+    private static final int DEFAULT_SLOW_CALL = 60000;
+    private static final int DEFAULT_OPEN_DURATION = 30;
+    private static final int DEFAULT_PROBE_CALLS = 3;
+
+    /**
+     * A permit for calls that aren't isolated.
+     */
+    private static final Permit UNRESTRICTED = new Permit(null, null, 0) {
+        @Override
+        public void release(boolean success) {
+            // Nothing to release.
+        }
+    };
+
+    private final Properties props;
+
+    private final ConcurrentMap<String, Guard> guards = new ConcurrentHashMap<String, Guard>();
+
+    /**
+     * @param props the web application configuration properties.
+     */
+    public ServiceIsolation(Properties props) {
+        this.props = props;
+    }
+
+    /**
+     * Gets the shared instance for a servlet context. The instance is created from the "webapp"
+     * configuration properties the first time this method is called and reused thereafter.
+     *
+     * @param context the servlet context.
+     * @return the shared instance.
+     */
+    public static ServiceIsolation getServiceIsolation(ServletContext context) {
+        synchronized (context) {
+            ServiceIsolation result = (ServiceIsolation)context.getAttribute(CONTEXT_ATTRIBUTE);
+            if (result == null) {
+                result = new ServiceIsolation(ConfigAliasResolver.getRequiredAliasedConfigFrom(context,
+                        "webapp"));
+                context.setAttribute(CONTEXT_ATTRIBUTE, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Obtains permission to call a service. The permit must always be released once the call is
+     * finished.
+     *
+     * @param serviceKey the service key, or null if the address isn't a named service.
+     * @return the permit.
+     * @throws ServiceUnavailableException if the call is refused.
+     */
+    public Permit acquire(String serviceKey) throws ServiceUnavailableException {
+        if (serviceKey == null) {
+            return UNRESTRICTED;
+        }
+        Guard guard = getGuard(serviceKey);
+
+        if (guard.bulkhead != null && !tryAcquire(guard.bulkhead, guard.maxWait)) {
+            LOG.warn("too many concurrent calls to " + serviceKey);
+            throw new ServiceUnavailableException(serviceKey, "too many concurrent calls to " + serviceKey,
+                    1);
+        }
+
+        long generation = guard.breaker == null ? 0 : guard.breaker.tryAcquire();
+        if (generation == CircuitBreaker.REFUSED) {
+            if (guard.bulkhead != null) {
+                guard.bulkhead.release();
+            }
+            long retryAfter = TimeUnit.MILLISECONDS.toSeconds(guard.breaker.getRemainingOpenMillis()) + 1;
+            throw new ServiceUnavailableException(serviceKey, serviceKey + " is temporarily unavailable",
+                    retryAfter);
+        }
+        return new Permit(guard.bulkhead, guard.breaker, generation);
+    }
+
+    /**
+     * Gets the circuit breaker state for a service.
+     *
+     * @param serviceKey the service key.
+     * @return the state, or null if the service hasn't been called or has no circuit breaker.
+     */
+    public CircuitBreaker.State getState(String serviceKey) {
+        Guard guard = guards.get(serviceKey);
+        return guard == null || guard.breaker == null ? null : guard.breaker.getState();
+    }
+
+    private static boolean tryAcquire(Semaphore bulkhead, long maxWait) {
+        try {
+            return bulkhead.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Guard getGuard(String serviceKey) {
+        Guard result = guards.get(serviceKey);
+        if (result == null) {
+            Guard created = new Guard(serviceKey);
+            result = guards.putIfAbsent(serviceKey, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets a setting for a service, falling back to the setting for all services.
+     */
+    private int getSetting(String name, String serviceKey, int defaultValue) {
+        return getIntProp(props, name + "." + serviceKey, getIntProp(props, name, defaultValue));
+    }
+
+    /**
+     * The bulkhead and circuit breaker for a single service.
+     */
+    private class Guard {
+
+        private final Semaphore bulkhead;
+        private final long maxWait;
+        private final CircuitBreaker breaker;
+
+        public Guard(String serviceKey) {
+            int maxConcurrent = getSetting(MAX_CONCURRENT, serviceKey, DEFAULT_MAX_CONCURRENT);
+            bulkhead = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+            maxWait = getSetting(MAX_WAIT, serviceKey, DEFAULT_MAX_WAIT);
+
+            int failureRate = getSetting(FAILURE_RATE, serviceKey, DEFAULT_FAILURE_RATE);
+            breaker = failureRate <= 0 ? null : new CircuitBreaker(failureRate,
+                    getSetting(MINIMUM_CALLS, serviceKey, DEFAULT_MINIMUM_CALLS),
+                    TimeUnit.SECONDS.toMillis(getSetting(WINDOW, serviceKey, DEFAULT_WINDOW)),
+                    getSetting(SLOW_CALL, serviceKey, DEFAULT_SLOW_CALL),
+                    TimeUnit.SECONDS.toMillis(getSetting(OPEN_DURATION, serviceKey, DEFAULT_OPEN_DURATION)),
+                    getSetting(PROBE_CALLS, serviceKey, DEFAULT_PROBE_CALLS));
+        }
+    }
+
+    /**
+     * Permission to make a single call to a service.
+     */
+    public static class Permit {
+
+        private final Semaphore bulkhead;
+        private final CircuitBreaker breaker;
+        private final long generation;
+        private final long start = System.nanoTime();
+        private boolean released;
+
+        private Permit(Semaphore bulkhead, CircuitBreaker breaker, long generation) {
+            this.bulkhead = bulkhead;
+            this.breaker = breaker;
+            this.generation = generation;
+        }
+
+        /**
+         * Releases the permit and records the outcome of the call. Calling this method more than once
+         * has no effect.
+         *
+         * @param success true if the service responded without a server error.
+         */
+        public void release(boolean success) {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (breaker != null) {
+                breaker.record(generation, success, System.nanoTime() - start);
+            }
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+        }
+    }
+}
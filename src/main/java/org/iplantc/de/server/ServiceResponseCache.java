@@ -0,0 +1,431 @@
+package org.iplantc.de.server;
+
+import static org.iplantc.de.server.util.ServletUtils.getIntProp;
+import static org.iplantc.de.server.util.UrlUtils.getResourcePath;
+
+import org.iplantc.clavin.spring.ConfigAliasResolver;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+
+/**
+ * A size-bounded cache of responses to GET requests, shared by all of the service dispatchers in a web
+ * application. Only responses from services that have a configured time to live are cached, for
+ * example:
+ *
+ * <pre>
+ * org.iplantc.discoveryenvironment.cache.max-entries = 1000
+ * org.iplantc.discoveryenvironment.cache.ttl.org.iplantc.services.reference-genomes = 300
+ * org.iplantc.discoveryenvironment.cache.invalidates.org.iplantc.services.reference-genomes-admin = \
+ *     org.iplantc.services.reference-genomes
+ * </pre>
+ *
+ * The backend's Cache-Control header is honored: responses marked no-store are never cached, max-age
+ * shortens the configured time to live and no-cache responses are always revalidated. Stale entries
+ * that have an ETag or a Last-Modified date are revalidated with a conditional request rather than
+ * fetched again. A PUT, POST or DELETE request to a service discards the cached responses from that
+ * service for the updated resource, its ancestors and its descendants; a DELETE of
+ * <code>/apps/123</code>, for example, discards the cached responses for <code>/apps</code> and
+ * <code>/apps/123/tasks</code> but not for <code>/apps/456</code>. All cached responses from the services
+ * that it's configured to invalidate are discarded as well. Cached responses are indexed by service, so
+ * an update only touches the entries of the services involved.
+ */
+public class ServiceResponseCache {
+
+    /**
+     * The name of the servlet context attribute used to store the shared cache.
+     */
+    private static final String CONTEXT_ATTRIBUTE = ServiceResponseCache.class.getName();
+
+    /**
+     * The prefix used for all response cache configuration settings.
+     */
+    public static final String PROPERTY_PREFIX = "org.iplantc.discoveryenvironment.cache.";
+
+    /**
+     * The maximum number of responses to keep in the cache.
+     */
+    public static final String MAX_ENTRIES = PROPERTY_PREFIX + "max-entries";
+
+    /**
+     * The prefix for the settings that specify how many seconds responses from a service are cached.
+     */
+    public static final String TTL_PREFIX = PROPERTY_PREFIX + "ttl.";
+
+    /**
+     * The prefix for the settings that list the service keys whose responses become invalid when a
+     * service is updated.
+     */
+    public static final String INVALIDATES_PREFIX = PROPERTY_PREFIX + "invalidates.";
+
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * The time to live for each cacheable service, in milliseconds, indexed by service key.
+     */
+    private final Map<String, Long> ttls;
+
+    /**
+     * The service keys to invalidate when a service is updated, indexed by the updated service key.
+     */
+    private final Map<String, Set<String>> invalidations;
+
+    /**
+     * The cached responses in least recently used order.
+     */
+    private final Map<String, Entry> entries;
+
+    /**
+     * The resource path of every cached response, indexed by service key and cache key.
+     */
+    private final Map<String, Map<String, String>> resourcesByService =
+            new HashMap<String, Map<String, String>>();
+
+    /**
+     * @param props the web application configuration properties.
+     */
+    public ServiceResponseCache(Properties props) {
+        final int maxEntries = getIntProp(props, MAX_ENTRIES, DEFAULT_MAX_ENTRIES);
+        ttls = loadTtls(props);
+        invalidations = loadInvalidations(props);
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    unindex(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets the shared response cache for a servlet context. The cache is created from the "webapp"
+     * configuration properties the first time this method is called and reused thereafter.
+     *
+     * @param context the servlet context.
+     * @return the shared cache.
+     */
+    public static ServiceResponseCache getServiceResponseCache(ServletContext context) {
+        synchronized (context) {
+            ServiceResponseCache result = (ServiceResponseCache)context.getAttribute(CONTEXT_ATTRIBUTE);
+            if (result == null) {
+                result = new ServiceResponseCache(ConfigAliasResolver.getRequiredAliasedConfigFrom(context,
+                        "webapp"));
+                context.setAttribute(CONTEXT_ATTRIBUTE, result);
+            }
+            return result;
+        }
+    }
+
+    private static Map<String, Long> loadTtls(Properties props) {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (String name : props.stringPropertyNames()) {
+            if (name.startsWith(TTL_PREFIX)) {
+                long seconds = getIntProp(props, name, 0);
+                if (seconds > 0) {
+                    result.put(name.substring(TTL_PREFIX.length()), TimeUnit.SECONDS.toMillis(seconds));
+                }
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static Map<String, Set<String>> loadInvalidations(Properties props) {
+        Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+        for (String name : props.stringPropertyNames()) {
+            if (name.startsWith(INVALIDATES_PREFIX)) {
+                Set<String> keys = new HashSet<String>();
+                for (String key : props.getProperty(name).split(",")) {
+                    if (!StringUtils.isBlank(key)) {
+                        keys.add(key.trim());
+                    }
+                }
+                result.put(name.substring(INVALIDATES_PREFIX.length()), Collections.unmodifiableSet(keys));
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @param serviceKey the service key, may be null.
+     * @return true if responses from the service may be cached.
+     */
+    public boolean isCacheable(String serviceKey) {
+        return serviceKey != null && ttls.containsKey(serviceKey);
+    }
+
+    /**
+     * Gets a cached response. The response may be stale.
+     *
+     * @param cacheKey the cache key.
+     * @return the cached response or null if there isn't one.
+     */
+    public synchronized Entry get(String cacheKey) {
+        return entries.get(cacheKey);
+    }
+
+    /**
+     * Caches a response if the service and the backend allow it.
+     *
+     * @param cacheKey the cache key.
+     * @param serviceKey the key of the service that produced the response.
+     * @param address the address the response was retrieved from.
+     * @param body the response body.
+     * @param response the response, used to obtain the caching headers.
+     */
+    public void put(String cacheKey, String serviceKey, String address, String body, HttpResponse response) {
+        Long ttl = ttls.get(serviceKey);
+        if (ttl == null) {
+            return;
+        }
+        long lifetime = getLifetime(response, ttl);
+        Header etag = response.getFirstHeader("ETag");
+        Header lastModified = response.getFirstHeader("Last-Modified");
+        Entry entry = new Entry(serviceKey, getResourcePath(address), body, etag == null ? null
+                : etag.getValue(), lastModified == null ? null : lastModified.getValue(), lifetime);
+        synchronized (this) {
+            if (lifetime < 0 || (lifetime == 0 && !entry.hasValidators())) {
+                remove(cacheKey);
+            }
+            else {
+                store(cacheKey, entry);
+            }
+        }
+    }
+
+    /**
+     * Extends the lifetime of a cached response after the backend has confirmed that it's still valid.
+     *
+     * @param cacheKey the cache key.
+     * @param entry the cached response.
+     * @param response the 304 response from the backend.
+     */
+    public void revalidated(String cacheKey, Entry entry, HttpResponse response) {
+        Long ttl = ttls.get(entry.serviceKey);
+        long lifetime = ttl == null ? -1 : getLifetime(response, ttl);
+        synchronized (this) {
+            if (lifetime < 0) {
+                remove(cacheKey);
+            }
+            else {
+                store(cacheKey, new Entry(entry.serviceKey, entry.resource, entry.body, entry.etag,
+                        entry.lastModified, lifetime));
+            }
+        }
+    }
+
+    /**
+     * Discards the cached responses affected by an update: the responses from the updated service for
+     * the updated resource, its ancestors and its descendants, along with every cached response from
+     * the services that the updated service is configured to invalidate.
+     *
+     * @param serviceKey the key of the updated service, may be null.
+     * @param address the address of the update request.
+     */
+    public void invalidate(String serviceKey, String address) {
+        if (serviceKey == null) {
+            return;
+        }
+        String resource = getResourcePath(address);
+        Set<String> related = invalidations.get(serviceKey);
+        synchronized (this) {
+            discard(serviceKey, resource);
+            if (related != null) {
+                for (String key : related) {
+                    discard(key, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards all cached responses.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        resourcesByService.clear();
+    }
+
+    /**
+     * @return the number of cached responses.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void store(String cacheKey, Entry entry) {
+        Entry previous = entries.put(cacheKey, entry);
+        if (previous != null) {
+            unindex(cacheKey, previous);
+        }
+        if (entries.containsKey(cacheKey)) {
+            Map<String, String> resources = resourcesByService.get(entry.serviceKey);
+            if (resources == null) {
+                resources = new HashMap<String, String>();
+                resourcesByService.put(entry.serviceKey, resources);
+            }
+            resources.put(cacheKey, entry.resource);
+        }
+    }
+
+    private void remove(String cacheKey) {
+        Entry removed = entries.remove(cacheKey);
+        if (removed != null) {
+            unindex(cacheKey, removed);
+        }
+    }
+
+    private void unindex(String cacheKey, Entry entry) {
+        Map<String, String> resources = resourcesByService.get(entry.serviceKey);
+        if (resources != null) {
+            resources.remove(cacheKey);
+            if (resources.isEmpty()) {
+                resourcesByService.remove(entry.serviceKey);
+            }
+        }
+    }
+
+    /**
+     * Discards the cached responses from a service.
+     *
+     * @param serviceKey the service key.
+     * @param resource the resource path whose ancestors and descendants are discarded, or null to
+     *            discard every response from the service.
+     */
+    private void discard(String serviceKey, String resource) {
+        Map<String, String> resources = resourcesByService.get(serviceKey);
+        if (resources == null) {
+            return;
+        }
+        for (Iterator<Map.Entry<String, String>> it = resources.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, String> cached = it.next();
+            if (resource == null || isSameResourceTree(resource, cached.getValue())) {
+                it.remove();
+                entries.remove(cached.getKey());
+            }
+        }
+        if (resources.isEmpty()) {
+            resourcesByService.remove(serviceKey);
+        }
+    }
+
+    /**
+     * @param first a resource path.
+     * @param second another resource path.
+     * @return true if the paths are equal or one of them is an ancestor of the other.
+     */
+    private static boolean isSameResourceTree(String first, String second) {
+        return first.equals(second) || second.startsWith(first + "/") || first.startsWith(second + "/");
+    }
+
+    /**
+     * Determines how long a response may be used without revalidation.
+     *
+     * @param response the response from the backend.
+     * @param ttl the configured time to live, in milliseconds.
+     * @return the lifetime in milliseconds, 0 if the response must always be revalidated or -1 if the
+     *         response must not be cached.
+     */
+    private static long getLifetime(HttpResponse response, long ttl) {
+        long result = ttl;
+        for (Header header : response.getHeaders("Cache-Control")) {
+            for (HeaderElement element : header.getElements()) {
+                String name = element.getName();
+                if ("no-store".equalsIgnoreCase(name)) {
+                    return -1;
+                }
+                else if ("no-cache".equalsIgnoreCase(name)) {
+                    result = 0;
+                }
+                else if ("max-age".equalsIgnoreCase(name) && element.getValue() != null) {
+                    try {
+                        long maxAge = TimeUnit.SECONDS.toMillis(Long.parseLong(element.getValue()));
+                        result = Math.min(result, maxAge);
+                    }
+                    catch (NumberFormatException ignore) {
+                        // Fall back to the configured time to live.
+                    }
+                }
+            }
+        }
+        return Math.max(0, result);
+    }
+
+    /**
+     * A cached response.
+     */
+    public static class Entry {
+
+        private final String serviceKey;
+        private final String resource;
+        private final String body;
+        private final String etag;
+        private final String lastModified;
+        private final long expires;
+
+        public Entry(String serviceKey, String resource, String body, String etag, String lastModified,
+                long lifetime) {
+            this.serviceKey = serviceKey;
+            this.resource = resource;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = System.currentTimeMillis() + lifetime;
+        }
+
+        /**
+         * @return the response body.
+         */
+        public String getBody() {
+            return body;
+        }
+
+        /**
+         * @return true if the response may be used without revalidation.
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expires;
+        }
+
+        /**
+         * @return true if the response can be revalidated with a conditional request.
+         */
+        public boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+
+        /**
+         * Turns a request into a conditional request that the backend may answer with 304 Not Modified
+         * if this response is still valid.
+         *
+         * @param request the request to update.
+         */
+        public void addValidators(HttpRequestBase request) {
+            if (etag != null) {
+                request.setHeader("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                request.setHeader("If-Modified-Since", lastModified);
+            }
+        }
+    }
+}
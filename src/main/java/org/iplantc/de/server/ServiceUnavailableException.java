@@ -0,0 +1,49 @@
+package org.iplantc.de.server;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Indicates that a call to a service was refused without being sent, either because the circuit breaker
+ * for the service is open or because too many calls to the service are already in progress. The
+ * response body is a JSON error document in the same format the proxy servlet uses.
+ */
+public class ServiceUnavailableException extends ServiceErrorException {
+    private static final long serialVersionUID = -6210693412457271360L;
+
+    /**
+     * The HTTP status code used for refused calls.
+     */
+    public static final int STATUS_CODE = 503;
+
+    /**
+     * The number of seconds after which the call may be retried.
+     */
+    private final long retryAfterSeconds;
+
+    /**
+     * @param serviceKey the key of the service that's unavailable.
+     * @param reason the reason the call was refused.
+     * @param retryAfterSeconds the number of seconds after which the call may be retried.
+     */
+    public ServiceUnavailableException(String serviceKey, String reason, long retryAfterSeconds) {
+        super(STATUS_CODE, errorJson(serviceKey, reason));
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return the number of seconds after which the call may be retried.
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    private static String errorJson(String serviceKey, String reason) {
+        JSONObject json = new JSONObject();
+        json.put("status", "failure");
+        json.put("action", "SERVICE_CALL");
+        json.put("error_code", "ERR_SERVICE_UNAVAILABLE");
+        json.put("service", serviceKey);
+        json.put("detail", reason);
+        return json.toString();
+    }
+}
@@ -1,18 +1,27 @@
 package org.iplantc.de.server;
 
+import org.iplantc.de.shared.services.SessionAttributes;
 import org.iplantc.de.shared.services.SessionManagementService;
 
 import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.server.rpc.RemoteServiceServlet;
 
+import org.springframework.web.util.WebUtils;
+
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.http.HttpSession;
 
 /**
  * Provides management of client session data.
+ *
+ * Every change made through this servlet increments a version number stored in the session, so that
+ * clients can make conditional updates. Changes are made while holding the session mutex, and each
+ * attribute is stored as its own string-valued session attribute so that clustered deployments only
+ * replicate the attributes that actually changed. Clients can't set or remove the version themselves.
  * 
  * @author sriram
  */
@@ -23,6 +32,11 @@ public class SessionManagementServlet extends RemoteServiceServlet implements Se
      */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The name of the session attribute used to store the session version.
+     */
+    private static final String VERSION_ATTRIBUTE = "org.iplantc.de.session-version";
+
     /**
      * {@inheritDoc}
      */
@@ -67,8 +81,12 @@ public class SessionManagementServlet extends RemoteServiceServlet implements Se
      */
     @Override
     public void removeAttribute(String key) throws SerializationException {
-        getSession().removeAttribute(key);
-
+        checkWritable(key);
+        HttpSession session = getSession();
+        synchronized (WebUtils.getSessionMutex(session)) {
+            session.removeAttribute(key);
+            incrementVersion(session);
+        }
     }
 
     /**
@@ -76,10 +94,121 @@ public class SessionManagementServlet extends RemoteServiceServlet implements Se
      */
     @Override
     public void setAttribute(String key, String value) throws SerializationException {
-        getSession().setAttribute(key, value);
+        checkWritable(key);
+        HttpSession session = getSession();
+        synchronized (WebUtils.getSessionMutex(session)) {
+            session.setAttribute(key, value);
+            incrementVersion(session);
+        }
     }
 
-    private HttpSession getSession() {
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SessionAttributes getMatchingAttributes(String keyPrefix) throws SerializationException {
+        HttpSession session = getSession();
+        synchronized (WebUtils.getSessionMutex(session)) {
+            return new SessionAttributes(getStringAttributes(session, keyPrefix), getVersion(session), false);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SessionAttributes updateAttributes(Map<String, String> values, List<String> removedKeys,
+            long expectedVersion) throws SerializationException {
+        if (removedKeys != null) {
+            for (String key : removedKeys) {
+                checkWritable(key);
+            }
+        }
+        if (values != null) {
+            for (String key : values.keySet()) {
+                checkWritable(key);
+            }
+        }
+        HttpSession session = getSession();
+        synchronized (WebUtils.getSessionMutex(session)) {
+            long version = getVersion(session);
+            if (expectedVersion >= 0 && expectedVersion != version) {
+                return new SessionAttributes(getStringAttributes(session, null), version, true);
+            }
+
+            HashMap<String, String> result = new HashMap<String, String>();
+            if (removedKeys != null) {
+                for (String key : removedKeys) {
+                    session.removeAttribute(key);
+                }
+            }
+            if (values != null) {
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    if (entry.getValue() == null) {
+                        session.removeAttribute(entry.getKey());
+                    }
+                    else {
+                        session.setAttribute(entry.getKey(), entry.getValue());
+                        result.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            return new SessionAttributes(result, incrementVersion(session), false);
+        }
+    }
+
+    /**
+     * Gets the string-valued session attributes. Other attributes, such as security contexts, are
+     * skipped rather than converted to strings.
+     *
+     * @param session the session.
+     * @param keyPrefix the attribute name prefix, or null to get all string attributes.
+     * @return the attributes.
+     */
+    @SuppressWarnings("unchecked")
+    private HashMap<String, String> getStringAttributes(HttpSession session, String keyPrefix) {
+        HashMap<String, String> result = new HashMap<String, String>();
+        Enumeration<String> names = session.getAttributeNames();
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            if (keyPrefix == null || name.startsWith(keyPrefix)) {
+                Object value = session.getAttribute(name);
+                if (value instanceof String) {
+                    result.put(name, (String)value);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Makes sure that a client isn't trying to change the session version.
+     *
+     * @param key the name of the attribute being set or removed.
+     * @throws SerializationException if the attribute is the session version. The exception is declared
+     *         by the service interface, so it's passed on to the client rather than failing the call.
+     */
+    private void checkWritable(String key) throws SerializationException {
+        if (VERSION_ATTRIBUTE.equals(key)) {
+            throw new SerializationException("the session version can't be changed by clients");
+        }
+    }
+
+    private long getVersion(HttpSession session) {
+        Object version = session.getAttribute(VERSION_ATTRIBUTE);
+        return version instanceof Long ? (Long)version : 0;
+    }
+
+    private long incrementVersion(HttpSession session) {
+        long version = getVersion(session) + 1;
+        session.setAttribute(VERSION_ATTRIBUTE, version);
+        return version;
+    }
+
+    /**
+     * Gets the session of the current request. Tests override this method.
+     */
+    HttpSession getSession() {
         return this.getThreadLocalRequest().getSession();
     }
 }
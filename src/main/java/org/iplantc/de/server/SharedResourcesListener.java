@@ -0,0 +1,39 @@
+package org.iplantc.de.server;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Releases the resources that the service dispatchers in a web application share when the application is
+ * stopped: the pooled HTTP client, along with its connection eviction thread, the asynchronous request
+ * threads and the proxy ticket prefetch threads. Without this listener these threads outlive the
+ * application and keep its class loader from being collected after a redeployment. Register this
+ * listener in the deployment descriptor of every web application that calls services:
+ *
+ * <pre>
+ * &lt;listener&gt;
+ *     &lt;listener-class&gt;org.iplantc.de.server.SharedResourcesListener&lt;/listener-class&gt;
+ * &lt;/listener&gt;
+ * </pre>
+ */
+public class SharedResourcesListener implements ServletContextListener {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        AsyncDispatcher.shutdown(context);
+        PooledHttpClient.shutdown(context);
+        ProxyTicketProvider.shutdown(context);
+    }
+}
@@ -0,0 +1,277 @@
+package org.iplantc.de.server;
+
+import org.iplantc.clavin.spring.ConfigAliasResolver;
+import org.iplantc.de.shared.AuthenticationException;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Makes concurrent identical calls to a service share a single request. The first caller sends the
+ * request, and callers that ask for the same address while it's in flight wait for its response instead
+ * of sending requests of their own. Once the request finishes, the next call sends a new request, so
+ * responses are never reused after the fact; that's what {@link ServiceResponseCache} is for.
+ *
+ * Sharing a response is only safe if it doesn't depend on who asked for it, so only GET requests to the
+ * services listed in the "webapp" properties are shared, for example:
+ *
+ * <pre>
+ * org.iplantc.discoveryenvironment.single-flight.services = \
+ *     org.iplantc.services.apps.public-app-groups,org.iplantc.services.apps.get-workflow-elements
+ * </pre>
+ *
+ * The request is still sent with the credentials and deadline of the caller that started it, so some
+ * failures only apply to that caller: authentication failures, and the request being abandoned when
+ * that caller's deadline passes. The other callers don't inherit those failures; each of them sends a
+ * request of its own instead.
+ */
+public class SingleFlight {
+    private static final Logger LOG = Logger.getLogger(SingleFlight.class);
+
+    /**
+     * The name of the servlet context attribute used to store the shared instance.
+     */
+    private static final String CONTEXT_ATTRIBUTE = SingleFlight.class.getName();
+
+    /**
+     * The comma-separated list of keys of services whose responses may be shared.
+     */
+    public static final String SERVICES = "org.iplantc.discoveryenvironment.single-flight.services";
+
+    private final Set<String> serviceKeys;
+
+    /**
+     * The requests that are in flight, indexed by address.
+     */
+    private final ConcurrentMap<String, FutureTask<String>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<String>>();
+
+    /**
+     * @param props the web application configuration properties.
+     */
+    public SingleFlight(Properties props) {
+        Set<String> keys = new HashSet<String>();
+        for (String key : StringUtils.defaultString(props.getProperty(SERVICES)).split(",")) {
+            if (!StringUtils.isBlank(key)) {
+                keys.add(key.trim());
+            }
+        }
+        serviceKeys = Collections.unmodifiableSet(keys);
+    }
+
+    /**
+     * Gets the shared instance for a servlet context. The instance is created from the "webapp"
+     * configuration properties the first time this method is called and reused thereafter.
+     *
+     * @param context the servlet context.
+     * @return the shared instance.
+     */
+    public static SingleFlight getSingleFlight(ServletContext context) {
+        synchronized (context) {
+            SingleFlight result = (SingleFlight)context.getAttribute(CONTEXT_ATTRIBUTE);
+            if (result == null) {
+                Properties props = ConfigAliasResolver.getRequiredAliasedConfigFrom(context, "webapp");
+                result = new SingleFlight(props);
+                context.setAttribute(CONTEXT_ATTRIBUTE, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @param serviceKey the service key, or null if the address isn't a named service.
+     * @return true if concurrent GET requests to the service may share a response.
+     */
+    public boolean isShared(String serviceKey) {
+        return serviceKey != null && serviceKeys.contains(serviceKey);
+    }
+
+    /**
+     * Retrieves a response, sharing the request with any concurrent calls for the same address. If this
+     * call sends the request, it does so on the current thread.
+     *
+     * @param address the address of the request.
+     * @param request sends the request and retrieves the response body.
+     * @param deadline the time at which this caller stops waiting for a shared request, in milliseconds
+     *            since the epoch, or zero if there is none.
+     * @return the response body.
+     * @throws DeadlineExceededException if the deadline passes while waiting for a shared request.
+     * @throws IOException if the request fails.
+     */
+    public String retrieve(String address, Callable<String> request, long deadline) throws IOException {
+        return retrieve(address, request, deadline, null);
+    }
+
+    /**
+     * Retrieves a response, sharing the request with any concurrent calls for the same address. Every
+     * caller stops waiting when its own deadline passes. When the caller that started the request stops
+     * waiting, the request is cancelled as well, and the callers still waiting for it send requests of
+     * their own; the request should therefore abort itself when that caller's deadline passes. To let
+     * the caller that starts the request stop waiting at its deadline, a request started with a deadline
+     * is sent on a thread from the given executor. It's sent on the current thread if there is no
+     * deadline, no executor or no thread available.
+     *
+     * @param address the address of the request.
+     * @param request sends the request on behalf of this caller and retrieves the response body.
+     * @param deadline the time at which this caller stops waiting for the response, in milliseconds since
+     *            the epoch, or zero if there is none.
+     * @param executor the executor used to send requests started with a deadline, may be null.
+     * @return the response body.
+     * @throws DeadlineExceededException if the deadline passes while waiting for the response.
+     * @throws IOException if the request fails.
+     */
+    public String retrieve(final String address, Callable<String> request, long deadline, Executor executor)
+            throws IOException {
+        final FutureTask<String> task = new FutureTask<String>(request);
+        FutureTask<String> existing = inFlight.putIfAbsent(address, task);
+        if (existing != null) {
+            LOG.debug("sharing the request in flight for " + address);
+            try {
+                return getResult(address, existing, deadline);
+            }
+            catch (ExecutionException e) {
+                if (!isCallerSpecific(e.getCause())) {
+                    throw unwrap(address, e);
+                }
+            }
+            catch (CancellationException e) {
+                // The caller that started the request stopped waiting for it.
+            }
+            LOG.debug("the shared request for " + address + " failed for its caller; sending another");
+            return send(address, request);
+        }
+
+        Runnable send = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                }
+                finally {
+                    inFlight.remove(address, task);
+                }
+            }
+        };
+        if (deadline == 0 || executor == null) {
+            send.run();
+        }
+        else {
+            try {
+                executor.execute(send);
+            }
+            catch (RejectedExecutionException e) {
+                LOG.debug("no threads available to share the request for " + address);
+                send.run();
+            }
+        }
+        try {
+            return getResult(address, task, deadline);
+        }
+        catch (ExecutionException e) {
+            throw unwrap(address, e);
+        }
+        catch (DeadlineExceededException e) {
+            task.cancel(true);
+            inFlight.remove(address, task);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of requests in flight.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Determines whether a failure of a shared request only applies to the caller that sent it.
+     *
+     * @param cause the failure.
+     * @return true if the failure depends on the caller's credentials or deadline.
+     */
+    static boolean isCallerSpecific(Throwable cause) {
+        if (cause instanceof AuthenticationException || cause instanceof DeadlineExceededException) {
+            return true;
+        }
+        if (cause instanceof ServiceErrorException) {
+            int status = ((ServiceErrorException)cause).getStatusCode();
+            return status == 401 || status == 403;
+        }
+        return false;
+    }
+
+    /**
+     * Sends a request that isn't shared with any other caller.
+     */
+    private String send(String address, Callable<String> request) throws IOException {
+        try {
+            return request.call();
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException("request to " + address + " failed", e);
+        }
+    }
+
+    /**
+     * Waits for a request to finish.
+     *
+     * @throws DeadlineExceededException if the deadline passes first.
+     * @throws ExecutionException if the request failed.
+     * @throws CancellationException if the request was cancelled.
+     */
+    private String getResult(String address, FutureTask<String> task, long deadline) throws IOException,
+            ExecutionException {
+        try {
+            if (deadline == 0) {
+                return task.get();
+            }
+            return task.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            throw new DeadlineExceededException(address, e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for a response from " + address);
+        }
+    }
+
+    private IOException unwrap(String address, ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException)cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error)cause;
+        }
+        return new IOException("request to " + address + " failed", cause);
+    }
+}
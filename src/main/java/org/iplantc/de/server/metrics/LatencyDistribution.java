@@ -0,0 +1,43 @@
+package org.iplantc.de.server.metrics;
+
+/**
+ * Records latencies and summarizes them for reporting. Implementations must be safe to update and read
+ * from several threads at once.
+ */
+public interface LatencyDistribution {
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    void record(long nanos);
+
+    /**
+     * @return the number of recorded latencies.
+     */
+    long getCount();
+
+    /**
+     * @return the mean latency in milliseconds, or zero if nothing has been recorded.
+     */
+    double getMeanMillis();
+
+    /**
+     * @return the largest recorded latency in milliseconds.
+     */
+    double getMaxMillis();
+
+    /**
+     * Estimates a percentile from the recorded latencies.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the estimated latency in milliseconds, or zero if nothing has been recorded.
+     */
+    double getPercentileMillis(double percentile);
+
+    /**
+     * Discards all recorded latencies.
+     */
+    void reset();
+}
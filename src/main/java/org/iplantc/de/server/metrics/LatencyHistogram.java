@@ -0,0 +1,167 @@
+package org.iplantc.de.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies. Values are recorded in microseconds into buckets whose width
+ * grows with the value: each power of two is split into four sub-buckets, so any reported percentile is
+ * within 25% of the true value regardless of its magnitude, in the same spirit as an HDR histogram.
+ * Recording a value never allocates, so the histogram can be updated on every request.
+ */
+public class LatencyHistogram implements LatencyDistribution {
+
+    /**
+     * The number of bits used to select a sub-bucket within each power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 2;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Enough buckets for values up to about 2^40 microseconds, or roughly 12 days.
+     */
+    private static final int BUCKETS = SUB_BUCKETS + (40 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(bucketIndex(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+            // Try again.
+        }
+    }
+
+    /**
+     * @return the number of recorded latencies.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean latency in milliseconds, or zero if nothing has been recorded.
+     */
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / (n * 1000.0);
+    }
+
+    /**
+     * @return the largest recorded latency in milliseconds.
+     */
+    public double getMaxMillis() {
+        return max.get() / 1000.0;
+    }
+
+    /**
+     * Estimates a percentile from the recorded latencies. The estimate is the upper bound of the bucket
+     * containing the percentile, so it never understates the latency.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the estimated latency in milliseconds, or zero if nothing has been recorded.
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        addCountsTo(snapshot);
+        return percentileMillis(snapshot, percentile, max.get());
+    }
+
+    /**
+     * Adds the number of latencies recorded in each bucket to an array of bucket counts.
+     */
+    void addCountsTo(long[] bucketCounts) {
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketCounts[i] += counts.get(i);
+        }
+    }
+
+    /**
+     * @return the sum of the recorded latencies in microseconds.
+     */
+    long getSumMicros() {
+        return sum.get();
+    }
+
+    /**
+     * @return the largest recorded latency in microseconds.
+     */
+    long getMaxMicros() {
+        return max.get();
+    }
+
+    /**
+     * Estimates a percentile from a set of bucket counts.
+     *
+     * @param bucketCounts the number of latencies recorded in each bucket.
+     * @param percentile the percentile, between 0 and 100.
+     * @param maxMicros the largest recorded latency in microseconds.
+     * @return the estimated latency in milliseconds, or zero if the buckets are empty.
+     */
+    static double percentileMillis(long[] bucketCounts, double percentile, long maxMicros) {
+        long total = 0;
+        for (long bucketCount : bucketCounts) {
+            total += bucketCount;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            seen += bucketCounts[i];
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(bucketUpperBound(i), maxMicros) / 1000.0;
+            }
+        }
+        return maxMicros / 1000.0;
+    }
+
+    static int bucketCount() {
+        return BUCKETS;
+    }
+
+    /**
+     * Discards all recorded latencies.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int)micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int)(micros >> shift) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, SUB_BUCKETS + shift * SUB_BUCKETS + subBucket);
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long)(SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
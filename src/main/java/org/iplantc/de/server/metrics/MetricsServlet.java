@@ -0,0 +1,132 @@
+package org.iplantc.de.server.metrics;
+
+import net.sf.json.JSONObject;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reports the statistics for every service called by the web application, along with the CAS proxy
+ * ticket statistics, in JSON format. Latencies are reported in milliseconds. A POST request with the
+ * <code>reset</code> parameter discards the current counters and latencies. Resetting is forbidden
+ * unless the <code>allowReset</code> init parameter is true or the user has the role named by the
+ * <code>resetRole</code> init parameter, for example:
+ *
+ * <pre>
+ * &lt;init-param&gt;
+ *     &lt;param-name&gt;resetRole&lt;/param-name&gt;
+ *     &lt;param-value&gt;admin&lt;/param-value&gt;
+ * &lt;/init-param&gt;
+ * </pre>
+ */
+public class MetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 4263018237751465539L;
+
+    /**
+     * The percentiles reported for each latency histogram.
+     */
+    private static final double[] PERCENTILES = {50, 90, 95, 99};
+
+    /**
+     * True if any client may reset the statistics.
+     */
+    private boolean allowReset;
+
+    /**
+     * The role that a user needs in order to reset the statistics, or null if there is none.
+     */
+    private String resetRole;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init() throws ServletException {
+        allowReset = Boolean.parseBoolean(getInitParameter("allowReset"));
+        resetRole = StringUtils.trimToNull(getInitParameter("resetRole"));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        JSONObject services = new JSONObject();
+        for (Map.Entry<String, ServiceStats> entry : ServiceMetrics.getInstance().getAllStats().entrySet()) {
+            services.put(entry.getKey(), statsJson(entry.getValue()));
+        }
+        JSONObject json = new JSONObject();
+        json.put("services", services);
+        json.put("proxy_tickets", proxyTicketJson(ServiceMetrics.getInstance().getProxyTicketStats()));
+
+        res.setContentType("application/json");
+        res.setCharacterEncoding("UTF-8");
+        res.setHeader("Cache-Control", "no-cache");
+        res.getWriter().print(json.toString(4));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        if (req.getParameter("reset") != null) {
+            if (!isResetAllowed(req)) {
+                res.sendError(HttpServletResponse.SC_FORBIDDEN, "resetting metrics isn't allowed");
+                return;
+            }
+            ServiceMetrics.getInstance().reset();
+        }
+        doGet(req, res);
+    }
+
+    private boolean isResetAllowed(HttpServletRequest req) {
+        return allowReset || (resetRole != null && req.isUserInRole(resetRole));
+    }
+
+    private JSONObject statsJson(ServiceStats stats) {
+        JSONObject latency = new JSONObject();
+        latency.put("ticket", histogramJson(stats.getTicketLatency()));
+        latency.put("connect", histogramJson(stats.getConnectLatency()));
+        latency.put("first_byte", histogramJson(stats.getFirstByteLatency()));
+        latency.put("total", histogramJson(stats.getTotalLatency()));
+
+        JSONObject json = new JSONObject();
+        json.put("requests", stats.getRequestCount());
+        json.put("errors", stats.getErrorCount());
+        json.put("in_flight", stats.getInFlight());
+        json.put("bytes_in", stats.getBytesIn());
+        json.put("bytes_out", stats.getBytesOut());
+        json.put("latency", latency);
+        return json;
+    }
+
+    private JSONObject proxyTicketJson(ProxyTicketStats stats) {
+        JSONObject json = new JSONObject();
+        json.put("hits", stats.getHitCount());
+        json.put("misses", stats.getMissCount());
+        json.put("expired", stats.getExpiredCount());
+        json.put("cas_requests", stats.getCasRequestCount());
+        json.put("cas_failures", stats.getCasFailureCount());
+        json.put("cas_mean", stats.getCasMeanMillis());
+        return json;
+    }
+
+    private JSONObject histogramJson(LatencyDistribution histogram) {
+        JSONObject json = new JSONObject();
+        json.put("count", histogram.getCount());
+        json.put("mean", histogram.getMeanMillis());
+        for (double percentile : PERCENTILES) {
+            json.put("p" + (int)percentile, histogram.getPercentileMillis(percentile));
+        }
+        json.put("max", histogram.getMaxMillis());
+        return json;
+    }
+}
@@ -0,0 +1,47 @@
+package org.iplantc.de.server.metrics;
+
+import org.iplantc.de.server.ProxyTicketProvider;
+
+/**
+ * Publishes the statistics kept by {@link ProxyTicketProvider} for all sessions: how many proxy tickets
+ * were taken from the prefetch pools, how many had to be obtained synchronously and how long the CAS
+ * server took to hand them out.
+ */
+public class ProxyTicketStats implements ProxyTicketStatsMBean {
+
+    @Override
+    public long getHitCount() {
+        return ProxyTicketProvider.getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return ProxyTicketProvider.getMissCount();
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return ProxyTicketProvider.getExpiredCount();
+    }
+
+    @Override
+    public long getCasRequestCount() {
+        return ProxyTicketProvider.getCasRequestCount();
+    }
+
+    @Override
+    public long getCasFailureCount() {
+        return ProxyTicketProvider.getCasFailureCount();
+    }
+
+    @Override
+    public long getCasLatencyMillis() {
+        return ProxyTicketProvider.getCasLatencyMillis();
+    }
+
+    @Override
+    public double getCasMeanMillis() {
+        long requests = getCasRequestCount();
+        return requests == 0 ? 0 : (double)getCasLatencyMillis() / requests;
+    }
+}
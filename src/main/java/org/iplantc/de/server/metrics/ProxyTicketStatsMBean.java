@@ -0,0 +1,21 @@
+package org.iplantc.de.server.metrics;
+
+/**
+ * The management interface for the CAS proxy ticket statistics.
+ */
+public interface ProxyTicketStatsMBean {
+
+    public long getHitCount();
+
+    public long getMissCount();
+
+    public long getExpiredCount();
+
+    public long getCasRequestCount();
+
+    public long getCasFailureCount();
+
+    public long getCasLatencyMillis();
+
+    public double getCasMeanMillis();
+}
@@ -0,0 +1,144 @@
+package org.iplantc.de.server.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The statistics for every service called by the web application, indexed by service key. The
+ * statistics for each service are registered with the platform MBean server when the service is first
+ * called, and are also available in JSON format from the {@link MetricsServlet}. The CAS proxy ticket
+ * statistics are published the same way. The MBeans must be unregistered when the web application is
+ * stopped, or they keep its class loader alive; {@link ServiceMetricsListener} takes care of that.
+ */
+public class ServiceMetrics {
+    private static final Logger LOG = Logger.getLogger(ServiceMetrics.class);
+
+    /**
+     * The key used for calls to addresses that aren't named services.
+     */
+    public static final String UNNAMED_SERVICE = "unnamed";
+
+    /**
+     * The JMX domain used for the service statistics.
+     */
+    public static final String JMX_DOMAIN = "org.iplantc.de";
+
+    private static final ServiceMetrics INSTANCE = new ServiceMetrics();
+
+    private final ConcurrentMap<String, ServiceStats> stats = new ConcurrentHashMap<String, ServiceStats>();
+
+    private final ProxyTicketStats proxyTicketStats = new ProxyTicketStats();
+
+    /**
+     * The names of the MBeans registered by this instance.
+     */
+    private final Set<ObjectName> registered = Collections.synchronizedSet(new HashSet<ObjectName>());
+
+    private ServiceMetrics() {
+        register(proxyTicketStats, JMX_DOMAIN + ":type=ProxyTicketStats", "proxy ticket statistics");
+    }
+
+    /**
+     * @return the metrics for the web application.
+     */
+    public static ServiceMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the statistics for a service, creating them if necessary.
+     *
+     * @param serviceKey the service key, or null if the address wasn't a named service.
+     * @return the statistics.
+     */
+    public ServiceStats getStats(String serviceKey) {
+        String key = serviceKey == null ? UNNAMED_SERVICE : serviceKey;
+        ServiceStats result = stats.get(key);
+        if (result == null) {
+            ServiceStats created = new ServiceStats(key);
+            result = stats.putIfAbsent(key, created);
+            if (result == null) {
+                result = created;
+                register(created, JMX_DOMAIN + ":type=ServiceStats,service=" + ObjectName.quote(key),
+                        "service statistics for " + key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the statistics for all services that have been called, sorted by service key.
+     */
+    public SortedMap<String, ServiceStats> getAllStats() {
+        return Collections.unmodifiableSortedMap(new TreeMap<String, ServiceStats>(stats));
+    }
+
+    /**
+     * @return the CAS proxy ticket statistics.
+     */
+    public ProxyTicketStats getProxyTicketStats() {
+        return proxyTicketStats;
+    }
+
+    /**
+     * Discards the counters and latencies for all services.
+     */
+    public void reset() {
+        for (ServiceStats serviceStats : stats.values()) {
+            serviceStats.reset();
+        }
+    }
+
+    /**
+     * Registers statistics with the platform MBean server. Failures are logged and otherwise ignored;
+     * they most often mean that another web application in the same container has already registered
+     * statistics under the same name.
+     *
+     * @param mbean the statistics to register.
+     * @param objectName the name to register the statistics under.
+     * @param description a description of the statistics for log messages.
+     */
+    private void register(Object mbean, String objectName, String description) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(mbean, name);
+                registered.add(name);
+            }
+        }
+        catch (JMException e) {
+            LOG.warn("unable to register " + description, e);
+        }
+    }
+
+    /**
+     * Unregisters all statistics registered by this instance from the platform MBean server.
+     */
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (registered) {
+            for (ObjectName name : registered) {
+                try {
+                    server.unregisterMBean(name);
+                }
+                catch (JMException e) {
+                    LOG.warn("unable to unregister " + name, e);
+                }
+            }
+            registered.clear();
+        }
+    }
+}
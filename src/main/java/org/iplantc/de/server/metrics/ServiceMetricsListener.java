@@ -0,0 +1,33 @@
+package org.iplantc.de.server.metrics;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Unregisters the service statistics MBeans when the web application is stopped, so that a redeployed
+ * application can register its own. Register this listener in the deployment descriptor of every web
+ * application that calls services:
+ *
+ * <pre>
+ * &lt;listener&gt;
+ *     &lt;listener-class&gt;org.iplantc.de.server.metrics.ServiceMetricsListener&lt;/listener-class&gt;
+ * &lt;/listener&gt;
+ * </pre>
+ */
+public class ServiceMetricsListener implements ServletContextListener {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        ServiceMetrics.getInstance().unregister();
+    }
+}
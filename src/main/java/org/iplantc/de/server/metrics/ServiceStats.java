@@ -0,0 +1,252 @@
+package org.iplantc.de.server.metrics;
+
+import org.iplantc.de.server.HttpTransport;
+
+import org.apache.http.protocol.HttpContext;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request counts, traffic and latency histograms for a single service. The latency of each call is
+ * split into phases: obtaining the CAS proxy ticket and building the request, leasing or establishing
+ * a connection, waiting for the first byte of the response and the call as a whole. The latency
+ * histograms only cover the last minute, so that they follow changes in the service's latency.
+ */
+public class ServiceStats implements ServiceStatsMBean {
+
+    /**
+     * The number of milliseconds covered by windowed latency histograms.
+     */
+    public static final long LATENCY_WINDOW_MILLIS = 60000;
+
+    /**
+     * The number of slots windowed latency histograms are divided into.
+     */
+    private static final int LATENCY_WINDOW_SLOTS = 6;
+
+    private final String serviceKey;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    private final LatencyDistribution ticket = newLatencyHistogram();
+    private final LatencyDistribution connect = newLatencyHistogram();
+    private final LatencyDistribution firstByte = newLatencyHistogram();
+    private final LatencyDistribution total = newLatencyHistogram();
+
+    /**
+     * @param serviceKey the key of the service these statistics are for.
+     */
+    public ServiceStats(String serviceKey) {
+        this.serviceKey = serviceKey;
+    }
+
+    private static LatencyDistribution newLatencyHistogram() {
+        return new WindowedLatencyHistogram(LATENCY_WINDOW_MILLIS, LATENCY_WINDOW_SLOTS);
+    }
+
+    /**
+     * Starts timing a call to the service.
+     *
+     * @return the object used to record the progress of the call.
+     */
+    public Call start() {
+        requests.incrementAndGet();
+        inFlight.incrementAndGet();
+        return new Call();
+    }
+
+    @Override
+    public String getServiceKey() {
+        return serviceKey;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public LatencyDistribution getTicketLatency() {
+        return ticket;
+    }
+
+    public LatencyDistribution getConnectLatency() {
+        return connect;
+    }
+
+    public LatencyDistribution getFirstByteLatency() {
+        return firstByte;
+    }
+
+    public LatencyDistribution getTotalLatency() {
+        return total;
+    }
+
+    @Override
+    public double getTicketMeanMillis() {
+        return ticket.getMeanMillis();
+    }
+
+    @Override
+    public double getConnectMeanMillis() {
+        return connect.getMeanMillis();
+    }
+
+    @Override
+    public double getFirstByteMeanMillis() {
+        return firstByte.getMeanMillis();
+    }
+
+    @Override
+    public double getTotalMeanMillis() {
+        return total.getMeanMillis();
+    }
+
+    @Override
+    public double getTotalP50Millis() {
+        return total.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getTotalP95Millis() {
+        return total.getPercentileMillis(95);
+    }
+
+    @Override
+    public double getTotalP99Millis() {
+        return total.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getTotalMaxMillis() {
+        return total.getMaxMillis();
+    }
+
+    /**
+     * Discards all counters and latencies. The in-flight gauge isn't affected.
+     */
+    @Override
+    public void reset() {
+        requests.set(0);
+        errors.set(0);
+        bytesIn.set(0);
+        bytesOut.set(0);
+        ticket.reset();
+        connect.reset();
+        firstByte.reset();
+        total.reset();
+    }
+
+    /**
+     * Records the progress of a single call. Phases that are never reported, for example the connect
+     * phase of a call that fails before it's sent, aren't recorded. The call must always be finished.
+     */
+    public class Call {
+
+        private final long start = System.nanoTime();
+        private long requestBuilt;
+        private boolean succeeded;
+        private boolean abandoned;
+        private boolean finished;
+
+        /**
+         * Records that the outgoing request, including its CAS proxy ticket, is ready to send.
+         *
+         * @param length the length of the request body in bytes, or a negative number if it's unknown.
+         */
+        public void requestBuilt(long length) {
+            requestBuilt = System.nanoTime();
+            ticket.record(requestBuilt - start);
+            if (length > 0) {
+                bytesOut.addAndGet(length);
+            }
+        }
+
+        /**
+         * Records that the status line and headers of the response were received. The connect phase is
+         * recorded as well if the transport reported when the connection was obtained.
+         *
+         * @param context the execution context that the request was sent with.
+         */
+        public void responseStarted(HttpContext context) {
+            long now = System.nanoTime();
+            long sent = requestBuilt == 0 ? start : requestBuilt;
+            Object connected = context.getAttribute(HttpTransport.CONNECTED_AT);
+            if (connected instanceof Long) {
+                long connectedAt = (Long)connected;
+                connect.record(connectedAt - sent);
+                sent = connectedAt;
+            }
+            firstByte.record(now - sent);
+        }
+
+        /**
+         * Records the number of bytes in the response body.
+         *
+         * @param length the number of bytes.
+         */
+        public void bytesReceived(long length) {
+            if (length > 0) {
+                bytesIn.addAndGet(length);
+            }
+        }
+
+        /**
+         * Records that the call succeeded. Calls that are finished without succeeding count as errors.
+         */
+        public void succeeded() {
+            succeeded = true;
+        }
+
+        /**
+         * Records that the call was abandoned because its result was no longer needed, for example
+         * because it lost a hedging race. Abandoned calls count neither as errors nor towards the total
+         * latency.
+         */
+        public void abandoned() {
+            abandoned = true;
+        }
+
+        /**
+         * Records the total latency of the call. Calling this method more than once has no effect.
+         */
+        public void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            inFlight.decrementAndGet();
+            if (abandoned) {
+                return;
+            }
+            total.record(System.nanoTime() - start);
+            if (!succeeded) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.iplantc.de.server.metrics;
+
+/**
+ * The management interface for the statistics of a single service.
+ */
+public interface ServiceStatsMBean {
+
+    public String getServiceKey();
+
+    public long getRequestCount();
+
+    public long getErrorCount();
+
+    public int getInFlight();
+
+    public long getBytesIn();
+
+    public long getBytesOut();
+
+    public double getTicketMeanMillis();
+
+    public double getConnectMeanMillis();
+
+    public double getFirstByteMeanMillis();
+
+    public double getTotalMeanMillis();
+
+    public double getTotalP50Millis();
+
+    public double getTotalP95Millis();
+
+    public double getTotalP99Millis();
+
+    public double getTotalMaxMillis();
+
+    public void reset();
+}
@@ -0,0 +1,117 @@
+package org.iplantc.de.server.metrics;
+
+/**
+ * A latency distribution that only reports the latencies recorded recently. The window is divided into
+ * a fixed number of slots, each of which is a {@link LatencyHistogram}; when a slot's interval comes
+ * around again, its old latencies are discarded. Reports therefore cover between the whole window and
+ * the whole window less one slot, and follow changes in a service's latency within one window.
+ */
+public class WindowedLatencyHistogram implements LatencyDistribution {
+
+    private final LatencyHistogram[] slots;
+    private final long[] slotEpochs;
+    private final long slotMillis;
+
+    /**
+     * @param windowMillis the length of the window in milliseconds.
+     * @param slotCount the number of slots the window is divided into.
+     */
+    public WindowedLatencyHistogram(long windowMillis, int slotCount) {
+        slots = new LatencyHistogram[Math.max(1, slotCount)];
+        slotEpochs = new long[slots.length];
+        slotMillis = Math.max(1, windowMillis / slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new LatencyHistogram();
+            slotEpochs[i] = -1;
+        }
+    }
+
+    @Override
+    public void record(long nanos) {
+        long epoch = currentTimeMillis() / slotMillis;
+        int index = (int)(epoch % slots.length);
+        synchronized (slots[index]) {
+            if (slotEpochs[index] != epoch) {
+                slots[index].reset();
+                slotEpochs[index] = epoch;
+            }
+        }
+        slots[index].record(nanos);
+    }
+
+    @Override
+    public long getCount() {
+        long result = 0;
+        for (LatencyHistogram slot : getLiveSlots()) {
+            result += slot.getCount();
+        }
+        return result;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long count = 0;
+        long sum = 0;
+        for (LatencyHistogram slot : getLiveSlots()) {
+            count += slot.getCount();
+            sum += slot.getSumMicros();
+        }
+        return count == 0 ? 0 : sum / (count * 1000.0);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        long result = 0;
+        for (LatencyHistogram slot : getLiveSlots()) {
+            result = Math.max(result, slot.getMaxMicros());
+        }
+        return result / 1000.0;
+    }
+
+    @Override
+    public double getPercentileMillis(double percentile) {
+        long[] counts = new long[LatencyHistogram.bucketCount()];
+        long maxMicros = 0;
+        for (LatencyHistogram slot : getLiveSlots()) {
+            slot.addCountsTo(counts);
+            maxMicros = Math.max(maxMicros, slot.getMaxMicros());
+        }
+        return LatencyHistogram.percentileMillis(counts, percentile, maxMicros);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < slots.length; i++) {
+            synchronized (slots[i]) {
+                slots[i].reset();
+                slotEpochs[i] = -1;
+            }
+        }
+    }
+
+    /**
+     * @return the current time in milliseconds; overridden in tests.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return the slots whose latencies fall within the window.
+     */
+    private LatencyHistogram[] getLiveSlots() {
+        long oldest = currentTimeMillis() / slotMillis - slots.length + 1;
+        LatencyHistogram[] live = new LatencyHistogram[slots.length];
+        int count = 0;
+        for (int i = 0; i < slots.length; i++) {
+            synchronized (slots[i]) {
+                if (slotEpochs[i] >= oldest) {
+                    live[count++] = slots[i];
+                }
+            }
+        }
+        LatencyHistogram[] result = new LatencyHistogram[count];
+        System.arraycopy(live, 0, result, 0, count);
+        return result;
+    }
+}
@@ -0,0 +1,425 @@
+package org.iplantc.de.server.service;
+
+import static org.iplantc.de.server.util.ServletUtils.getIntProp;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded queue of messages waiting to be delivered to the iPlant e-mail service. Messages are
+ * delivered by a small pool of worker threads, so callers never wait for the e-mail service. Each
+ * worker takes up to a batch of messages from the queue at a time and sends them back to back over the
+ * same pooled connection. Deliveries that fail because of an I/O error or a server error are retried
+ * with exponential backoff; deliveries that the e-mail service rejects are dropped.
+ *
+ * If a spool directory is configured, every accepted message is also written to disk until it has been
+ * delivered, and messages left over from a previous run are queued again at startup, so messages
+ * aren't lost when the web application is restarted. When the queue is shut down, the workers keep
+ * delivering the queued messages for up to the shutdown timeout before they're stopped. All of the
+ * settings are optional:
+ *
+ * <pre>
+ * org.iplantc.discoveryenvironment.email.queue-capacity = 1000
+ * org.iplantc.discoveryenvironment.email.workers = 2
+ * org.iplantc.discoveryenvironment.email.batch-size = 20
+ * org.iplantc.discoveryenvironment.email.max-attempts = 5
+ * org.iplantc.discoveryenvironment.email.retry-base-ms = 1000
+ * org.iplantc.discoveryenvironment.email.retry-max-ms = 300000
+ * org.iplantc.discoveryenvironment.email.spool-dir = /var/spool/de-email
+ * org.iplantc.discoveryenvironment.email.shutdown-timeout-ms = 10000
+ * </pre>
+ */
+public class EmailDeliveryQueue {
+
+    private static final Logger LOG = Logger.getLogger(EmailDeliveryQueue.class);
+
+    /**
+     * The prefix used for all e-mail delivery configuration settings.
+     */
+    public static final String PROPERTY_PREFIX = "org.iplantc.discoveryenvironment.email.";
+
+    /**
+     * The maximum number of messages waiting to be delivered.
+     */
+    public static final String QUEUE_CAPACITY = PROPERTY_PREFIX + "queue-capacity";
+
+    /**
+     * The number of worker threads used to deliver messages.
+     */
+    public static final String WORKERS = PROPERTY_PREFIX + "workers";
+
+    /**
+     * The maximum number of messages a worker takes from the queue at once.
+     */
+    public static final String BATCH_SIZE = PROPERTY_PREFIX + "batch-size";
+
+    /**
+     * The number of times to try delivering a message before giving up.
+     */
+    public static final String MAX_ATTEMPTS = PROPERTY_PREFIX + "max-attempts";
+
+    /**
+     * The number of milliseconds to wait before the first retry. The delay doubles after every attempt.
+     */
+    public static final String RETRY_BASE = PROPERTY_PREFIX + "retry-base-ms";
+
+    /**
+     * The maximum number of milliseconds to wait between attempts.
+     */
+    public static final String RETRY_MAX = PROPERTY_PREFIX + "retry-max-ms";
+
+    /**
+     * The directory used to keep undelivered messages across restarts.
+     */
+    public static final String SPOOL_DIR = PROPERTY_PREFIX + "spool-dir";
+
+    /**
+     * The maximum number of milliseconds to spend delivering queued messages when the queue is shut down.
+     */
+    public static final String SHUTDOWN_TIMEOUT = PROPERTY_PREFIX + "shutdown-timeout-ms";
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final int DEFAULT_WORKERS = 2;
+    private static final int DEFAULT_BATCH_SIZE = 20;
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final int DEFAULT_RETRY_BASE = 1000;
+    private static final int DEFAULT_RETRY_MAX = 300000;
+    private static final int DEFAULT_SHUTDOWN_TIMEOUT = 10000;
+
+    /**
+     * The number of milliseconds between checks for an empty queue while shutting down.
+     */
+    private static final long DRAIN_POLL_MILLIS = 50;
+
+    /**
+     * The suffix used for spooled message files.
+     */
+    private static final String SPOOL_SUFFIX = ".json";
+
+    /**
+     * Delivers a single message.
+     */
+    public interface Sender {
+
+        /**
+         * Delivers a message.
+         *
+         * @param body the message request body.
+         * @throws IOException if the delivery fails and should be retried.
+         * @throws ServiceCallFailedException if the message was rejected and shouldn't be retried.
+         */
+        public void send(String body) throws IOException;
+    }
+
+    private final Sender sender;
+    private final BlockingQueue<PendingMessage> queue;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryBaseMillis;
+    private final long retryMaxMillis;
+    private final File spoolDir;
+    private final long shutdownTimeoutMillis;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private final ScheduledExecutorService retryTimer;
+
+    /**
+     * The number of messages that are either queued or being delivered right now.
+     */
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * Set once the queue stops accepting messages.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Set once the workers have been told to stop.
+     */
+    private volatile boolean shutdown;
+
+    /**
+     * Creates the queue and starts the worker threads.
+     *
+     * @param props the web application configuration properties.
+     * @param sender used to deliver messages.
+     * @throws IllegalStateException if the spool directory can't be created.
+     */
+    public EmailDeliveryQueue(Properties props, Sender sender) {
+        this.sender = sender;
+        queue = new LinkedBlockingQueue<PendingMessage>(getIntProp(props, QUEUE_CAPACITY,
+                DEFAULT_QUEUE_CAPACITY));
+        batchSize = Math.max(1, getIntProp(props, BATCH_SIZE, DEFAULT_BATCH_SIZE));
+        maxAttempts = Math.max(1, getIntProp(props, MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS));
+        retryBaseMillis = getIntProp(props, RETRY_BASE, DEFAULT_RETRY_BASE);
+        retryMaxMillis = getIntProp(props, RETRY_MAX, DEFAULT_RETRY_MAX);
+        spoolDir = createSpoolDir(props.getProperty(SPOOL_DIR));
+        shutdownTimeoutMillis = Math.max(0, getIntProp(props, SHUTDOWN_TIMEOUT, DEFAULT_SHUTDOWN_TIMEOUT));
+        retryTimer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("email-retry"));
+
+        recoverSpooledMessages();
+        int count = Math.max(1, getIntProp(props, WORKERS, DEFAULT_WORKERS));
+        for (int i = 0; i < count; i++) {
+            Thread worker = new Thread(new Worker(), "email-delivery-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    private static File createSpoolDir(String path) {
+        if (StringUtils.isBlank(path)) {
+            return null;
+        }
+        File dir = new File(path.trim());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("unable to create the e-mail spool directory: " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Queues a message for delivery. This method never waits for the e-mail service.
+     *
+     * @param body the message request body.
+     * @return true if the message was queued or false if the queue is full.
+     * @throws IOException if the message can't be written to the spool directory.
+     */
+    public boolean offer(String body) throws IOException {
+        if (closed) {
+            return false;
+        }
+        PendingMessage message = new PendingMessage(body, spool(body));
+        if (!enqueue(message)) {
+            message.unspool();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of messages waiting to be delivered, not counting messages waiting to be
+     *         retried.
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting messages, waits up to the shutdown timeout for the queued messages to be delivered
+     * and stops the worker threads. Messages that still haven't been delivered, including messages
+     * waiting to be retried, are discarded unless they've been spooled, in which case they'll be
+     * delivered when the queue is next created. Calling this method more than once has no effect.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        try {
+            while (outstanding.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        shutdown = true;
+        int retries = retryTimer.shutdownNow().size();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        int undelivered = queue.size() + retries;
+        if (undelivered > 0) {
+            LOG.warn(undelivered + " e-mail messages weren't delivered before shutdown"
+                    + (spoolDir == null ? " and have been discarded" : "; they remain spooled"));
+        }
+    }
+
+    private boolean enqueue(PendingMessage message) {
+        outstanding.incrementAndGet();
+        if (queue.offer(message)) {
+            return true;
+        }
+        outstanding.decrementAndGet();
+        return false;
+    }
+
+    private File spool(String body) throws IOException {
+        if (spoolDir == null) {
+            return null;
+        }
+        File file = new File(spoolDir, UUID.randomUUID().toString() + SPOOL_SUFFIX);
+        File temp = new File(spoolDir, file.getName() + ".tmp");
+        FileUtils.writeStringToFile(temp, body, "UTF-8");
+        if (!temp.renameTo(file)) {
+            FileUtils.deleteQuietly(temp);
+            throw new IOException("unable to spool e-mail message to " + file);
+        }
+        return file;
+    }
+
+    private void recoverSpooledMessages() {
+        if (spoolDir == null) {
+            return;
+        }
+        File[] files = spoolDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SPOOL_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        int recovered = 0;
+        for (File file : files) {
+            try {
+                if (!enqueue(new PendingMessage(FileUtils.readFileToString(file, "UTF-8"), file))) {
+                    LOG.warn("e-mail queue is full; " + (files.length - recovered)
+                            + " spooled messages will be delivered after the next restart");
+                    break;
+                }
+                recovered++;
+            }
+            catch (IOException e) {
+                LOG.error("unable to read spooled e-mail message " + file, e);
+            }
+        }
+        if (recovered > 0) {
+            LOG.info("recovered " + recovered + " spooled e-mail messages");
+        }
+    }
+
+    private void deliver(PendingMessage message) {
+        message.attempts++;
+        try {
+            sender.send(message.body);
+            message.unspool();
+        }
+        catch (IOException e) {
+            if (message.attempts >= maxAttempts) {
+                LOG.error("giving up on e-mail message after " + message.attempts + " attempts", e);
+                message.unspool();
+            }
+            else {
+                LOG.warn("e-mail delivery failed; retrying: " + e.getMessage());
+                scheduleRetry(message, getRetryDelay(message.attempts));
+            }
+        }
+        catch (RuntimeException e) {
+            LOG.error("e-mail message rejected", e);
+            message.unspool();
+        }
+    }
+
+    private long getRetryDelay(int attempts) {
+        long delay = retryBaseMillis << Math.min(attempts - 1, 30);
+        return Math.min(delay, retryMaxMillis);
+    }
+
+    private void scheduleRetry(final PendingMessage message, long delayMillis) {
+        if (shutdown) {
+            return;
+        }
+        retryTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // Wait for room in the queue rather than dropping a message that was already accepted.
+                if (!enqueue(message)) {
+                    scheduleRetry(message, retryMaxMillis);
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes batches of messages from the queue and delivers them.
+     */
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            List<PendingMessage> batch = new ArrayList<PendingMessage>(batchSize);
+            try {
+                while (!shutdown) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, batchSize - 1);
+                    for (PendingMessage message : batch) {
+                        try {
+                            deliver(message);
+                        }
+                        finally {
+                            outstanding.decrementAndGet();
+                        }
+                    }
+                    batch.clear();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A message waiting to be delivered.
+     */
+    private static class PendingMessage {
+
+        private final String body;
+        private final File spoolFile;
+        private int attempts;
+
+        public PendingMessage(String body, File spoolFile) {
+            this.body = body;
+            this.spoolFile = spoolFile;
+        }
+
+        public void unspool() {
+            if (spoolFile != null) {
+                FileUtils.deleteQuietly(spoolFile);
+            }
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so that pending retries never keep the JVM alive.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        public DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
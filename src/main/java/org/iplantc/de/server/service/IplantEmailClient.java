@@ -1,29 +1,37 @@
 package org.iplantc.de.server.service;
 
 import org.iplantc.clavin.spring.ConfigAliasResolver;
+import org.iplantc.de.server.HttpTransport;
+import org.iplantc.de.server.PooledHttpClient;
 
 import net.sf.json.JSONObject;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.util.Properties;
 
 import javax.servlet.ServletContext;
 
 /**
- * A client for the iPlant e-mail service.
+ * A client for the iPlant e-mail service. Messages can either be sent immediately or queued for
+ * delivery in the background; see {@link EmailDeliveryQueue} for the queue settings. All messages are
+ * sent using a single pool of persistent connections. When the client is defined as a Spring bean, it's
+ * shut down along with the application context, after the queued messages have had a chance to be
+ * delivered.
  *
  * @author Dennis Roberts
  */
 @SuppressWarnings("nls")
-public class IplantEmailClient {
+public class IplantEmailClient implements DisposableBean {
 
     /**
      * Used to log debugging messages.
@@ -40,25 +48,59 @@ public class IplantEmailClient {
      */
     private final String baseUrl;
 
+    /**
+     * The transport used to send message requests.
+     */
+    private final HttpTransport transport;
+
+    /**
+     * The queue of messages waiting to be delivered in the background.
+     */
+    private final EmailDeliveryQueue deliveryQueue;
+
     /**
      * @param resolver the configuration alias resolver used to retrieve the web application properties.
      */
     public IplantEmailClient(ConfigAliasResolver resolver) {
-        Properties props = resolver.getRequiredAliasedConfig("webapp");
-        if (props == null) {
-            throw new IllegalStateException("web application configuration settings not found");
-        }
-        baseUrl = props.getProperty(EMAIL_BASE_PROPERTY);
-        if (baseUrl == null) {
-            throw new IllegalStateException("configuration setting, " + EMAIL_BASE_PROPERTY + ", not found");
-        }
+        this(resolver.getRequiredAliasedConfig("webapp"));
     }
 
     /**
      * @param baseUrl the base URL to use when connecting to the e-mail service.
      */
     public IplantEmailClient(String baseUrl) {
+        this(baseUrl, new PooledHttpClient(new Properties()), new Properties());
+    }
+
+    /**
+     * @param baseUrl the base URL to use when connecting to the e-mail service.
+     * @param transport the transport used to send message requests.
+     * @param props the configuration properties used to configure the delivery queue.
+     */
+    public IplantEmailClient(String baseUrl, HttpTransport transport, Properties props) {
         this.baseUrl = baseUrl;
+        this.transport = transport;
+        deliveryQueue = new EmailDeliveryQueue(props, new EmailDeliveryQueue.Sender() {
+            @Override
+            public void send(String body) throws IOException {
+                post(body);
+            }
+        });
+    }
+
+    private IplantEmailClient(Properties props) {
+        this(getBaseUrl(props), new PooledHttpClient(props), props);
+    }
+
+    private static String getBaseUrl(Properties props) {
+        if (props == null) {
+            throw new IllegalStateException("web application configuration settings not found");
+        }
+        String baseUrl = props.getProperty(EMAIL_BASE_PROPERTY);
+        if (baseUrl == null) {
+            throw new IllegalStateException("configuration setting, " + EMAIL_BASE_PROPERTY + ", not found");
+        }
+        return baseUrl;
     }
 
     /**
@@ -78,23 +120,15 @@ public class IplantEmailClient {
     }
 
     /**
-     * Sends a message.
+     * Sends a message, waiting for the e-mail service to accept it. Callers handling user requests
+     * should use {@link #queueMessage(MessageRequest)} instead.
      *
      * @param request the request used to format the message.
      * @throws ServiceCallFailedException if the request fails.
      */
     public void sendMessage(MessageRequest request) {
-        DefaultHttpClient client = new DefaultHttpClient();
-        HttpPost post = new HttpPost(baseUrl);
         try {
-            post.setEntity(new StringEntity(request.toString()));
-            post.setHeader("Content-Type", "application/json");
-            String responseBody = client.execute(post, new ServiceResponseHandler());
-            LOG.trace(responseBody);
-        }
-        catch (UnsupportedEncodingException e) {
-            LOG.error("message request failed", e);
-            throw new ServiceCallFailedException(e);
+            post(request.toString());
         }
         catch (IOException e) {
             LOG.error("message request failed", e);
@@ -104,8 +138,73 @@ public class IplantEmailClient {
             LOG.error("message request failed", e);
             throw e;
         }
+    }
+
+    /**
+     * Queues a message for delivery in the background. The message is validated immediately, but this
+     * method never waits for the e-mail service.
+     *
+     * @param request the request used to format the message.
+     * @throws IllegalArgumentException if a required message setting is missing.
+     * @throws ServiceCallFailedException if the delivery queue is full or the message can't be spooled.
+     */
+    public void queueMessage(MessageRequest request) {
+        String body = request.toString();
+        try {
+            if (!deliveryQueue.offer(body)) {
+                LOG.error("e-mail delivery queue is full; message not sent");
+                throw new ServiceCallFailedException("e-mail delivery queue is full");
+            }
+        }
+        catch (IOException e) {
+            LOG.error("unable to queue message request", e);
+            throw new ServiceCallFailedException(e);
+        }
+    }
+
+    /**
+     * Stops accepting messages, delivers the queued messages for up to the delivery queue's shutdown
+     * timeout and closes the connections to the e-mail service.
+     */
+    public void shutdown() {
+        deliveryQueue.shutdown();
+        transport.shutdown();
+    }
+
+    /**
+     * Shuts the client down when the application context that defines it is closed.
+     */
+    @Override
+    public void destroy() {
+        shutdown();
+    }
+
+    /**
+     * Posts a message request to the e-mail service.
+     *
+     * @param body the message request body.
+     * @throws IOException if an I/O error occurs or the e-mail service reports a server error.
+     * @throws ServiceCallFailedException if the e-mail service rejects the message.
+     */
+    private void post(String body) throws IOException {
+        HttpPost post = new HttpPost(baseUrl);
+        post.setEntity(new StringEntity(body, "UTF-8"));
+        post.setHeader("Content-Type", "application/json");
+        HttpResponse response = transport.execute(post);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            String responseBody = entity == null ? "" : EntityUtils.toString(entity);
+            if (status >= 500) {
+                throw new IOException("e-mail service returned status " + status + ": " + responseBody);
+            }
+            if (status < 200 || status > 299) {
+                throw new ServiceCallFailedException("response body: " + responseBody);
+            }
+            LOG.trace(responseBody);
+        }
         finally {
-            client.getConnectionManager().shutdown();
+            post.releaseConnection();
         }
     }
 
@@ -1,14 +1,26 @@
 package org.iplantc.de.server.service;
 
+import static org.iplantc.de.server.util.ServletUtils.getIntProp;
+
+import org.iplantc.clavin.spring.ConfigAliasResolver;
+import org.iplantc.de.server.AsyncDispatcher;
+import org.iplantc.de.server.EndpointBalancer;
+import org.iplantc.de.server.HttpTransport;
+import org.iplantc.de.server.PooledHttpClient;
 import org.iplantc.de.server.ServiceCallResolver;
+import org.iplantc.de.server.ServiceIsolation;
+import org.iplantc.de.server.ServiceUnavailableException;
 import org.iplantc.de.server.UnresolvableServiceNameException;
+import org.iplantc.de.server.metrics.ServiceMetrics;
+import org.iplantc.de.server.metrics.ServiceStats;
+import org.iplantc.de.server.util.ServletUtils;
+import org.iplantc.de.server.util.StreamUtils;
 
 import net.sf.json.JSONObject;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
@@ -19,14 +31,19 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpTrace;
 import org.apache.http.entity.InputStreamEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -41,16 +58,83 @@ import javax.servlet.http.HttpServletResponse;
 public class ProxyServlet extends HttpServlet {
     private static final long serialVersionUID = -8343592394048255113L;
 
+    private static final Logger LOG = Logger.getLogger(ProxyServlet.class);
+
+    /**
+     * The prefix used for all proxy configuration settings.
+     */
+    public static final String PROPERTY_PREFIX = "org.iplantc.discoveryenvironment.proxy.";
+
+    /**
+     * The number of seconds the validators from a response may be used to answer conditional requests
+     * without contacting the service. Zero disables the validator cache. Changes that aren't made
+     * through this proxy aren't seen, so clients may be told that a resource hasn't changed for up to
+     * this long after it has.
+     */
+    public static final String VALIDATOR_TTL = PROPERTY_PREFIX + "validator-ttl-seconds";
+
     /**
-     * The set of headers that should be skipped when copying headers.
+     * The maximum number of responses whose validators are remembered.
      */
-    private static final Set<String> HEADERS_TO_SKIP = new HashSet<String>(Arrays.asList("content-length"));
+    public static final String VALIDATOR_MAX_ENTRIES = PROPERTY_PREFIX + "validator-max-entries";
+
+    private static final int DEFAULT_VALIDATOR_TTL = 60;
+    private static final int DEFAULT_VALIDATOR_MAX_ENTRIES = 10000;
+
+    /**
+     * The request methods that cause remembered validators for a resource to be discarded.
+     */
+    private static final Set<String> MODIFYING_METHODS = new HashSet<String>(Arrays.asList("PUT", "POST",
+            "DELETE"));
+
+    /**
+     * Hop-by-hop headers, which apply only to a single connection and must never be forwarded.
+     */
+    private static final List<String> HOP_BY_HOP_HEADERS = Arrays.asList("connection", "keep-alive",
+            "proxy-authenticate", "proxy-authorization", "te", "trailer", "trailers", "transfer-encoding",
+            "upgrade");
+
+    /**
+     * The request headers that should be skipped when copying headers. The content length is set by
+     * the outgoing request entity.
+     */
+    private static final Set<String> REQUEST_HEADERS_TO_SKIP = new HashSet<String>(HOP_BY_HOP_HEADERS);
+
+    /**
+     * The response headers that should be skipped when copying headers. The content length is kept so
+     * that clients can show download progress and responses aren't needlessly chunked.
+     */
+    private static final Set<String> RESPONSE_HEADERS_TO_SKIP = new HashSet<String>(HOP_BY_HOP_HEADERS);
+
+    static {
+        REQUEST_HEADERS_TO_SKIP.add("content-length");
+    }
 
     /**
      * Used to resolve aliased service calls.
      */
     private ServiceCallResolver serviceResolver;
 
+    /**
+     * Used to send requests to other services.
+     */
+    private HttpTransport transport;
+
+    /**
+     * Limits concurrent calls to each service and stops calls to failing services.
+     */
+    private ServiceIsolation serviceIsolation;
+
+    /**
+     * Used to answer conditional requests without contacting the service, or null if disabled.
+     */
+    private ValidatorCache validatorCache;
+
+    /**
+     * Decides which thread handles each request.
+     */
+    private AsyncDispatcher asyncDispatcher;
+
     /**
      * The default constructor.
      */
@@ -64,6 +148,27 @@ public class ProxyServlet extends HttpServlet {
         this.serviceResolver = serviceResolver;
     }
 
+    /**
+     * @param serviceResolver used to resolve aliased service calls.
+     * @param transport used to send requests to other services.
+     */
+    public ProxyServlet(ServiceCallResolver serviceResolver, HttpTransport transport) {
+        this.serviceResolver = serviceResolver;
+        this.transport = transport;
+    }
+
+    /**
+     * @param serviceResolver used to resolve aliased service calls.
+     * @param transport used to send requests to other services.
+     * @param serviceIsolation limits concurrent calls to each service and stops calls to failing services.
+     */
+    public ProxyServlet(ServiceCallResolver serviceResolver, HttpTransport transport,
+            ServiceIsolation serviceIsolation) {
+        this.serviceResolver = serviceResolver;
+        this.transport = transport;
+        this.serviceIsolation = serviceIsolation;
+    }
+
     /**
      * Initializes the servlet.
      *
@@ -75,6 +180,86 @@ public class ProxyServlet extends HttpServlet {
         if (serviceResolver == null) {
             serviceResolver = ServiceCallResolver.getServiceCallResolver(getServletContext());
         }
+        if (transport == null) {
+            transport = PooledHttpClient.getPooledHttpClient(getServletContext());
+        }
+        if (serviceIsolation == null) {
+            serviceIsolation = ServiceIsolation.getServiceIsolation(getServletContext());
+        }
+        validatorCache = createValidatorCache(getWebappConfig());
+        if (asyncDispatcher == null) {
+            asyncDispatcher = AsyncDispatcher.getAsyncDispatcher(getServletContext());
+        }
+    }
+
+    /**
+     * Forwards each request on a thread chosen by the {@link AsyncDispatcher}, so that requests waiting
+     * for services don't need to hold container threads.
+     *
+     * @param req the HTTP servlet request.
+     * @param res the HTTP servlet response.
+     * @throws ServletException if a servlet error occurs.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse res) throws ServletException,
+            IOException {
+        asyncDispatcher.dispatch(req, res, new AsyncDispatcher.Handler() {
+            @Override
+            public void handle(HttpServletRequest req, HttpServletResponse res) throws ServletException,
+                    IOException {
+                ProxyServlet.super.service(req, res);
+            }
+        });
+    }
+
+    /**
+     * Sets the dispatcher that decides which thread handles each request. If none is set, the
+     * dispatcher shared by all servlets in the servlet context is used.
+     *
+     * @param asyncDispatcher the dispatcher.
+     */
+    public void setAsyncDispatcher(AsyncDispatcher asyncDispatcher) {
+        this.asyncDispatcher = asyncDispatcher;
+    }
+
+    /**
+     * Gets the web application configuration properties. The proxy settings all have defaults, so the
+     * defaults are used if there's no configuration.
+     *
+     * @return the configuration properties, which are empty if there's no configuration.
+     */
+    private Properties getWebappConfig() {
+        try {
+            return ConfigAliasResolver.getRequiredAliasedConfigFrom(getServletContext(), "webapp");
+        }
+        catch (IllegalStateException e) {
+            LOG.warn("no webapp configuration found; using the default proxy settings: "
+                    + e.getMessage());
+            return new Properties();
+        }
+    }
+
+    /**
+     * @return the validator cache, or null if it's disabled.
+     */
+    ValidatorCache getValidatorCache() {
+        return validatorCache;
+    }
+
+    /**
+     * Creates the validator cache.
+     *
+     * @param props the web application configuration properties.
+     * @return the validator cache or null if it's disabled.
+     */
+    private ValidatorCache createValidatorCache(Properties props) {
+        int ttl = getIntProp(props, VALIDATOR_TTL, DEFAULT_VALIDATOR_TTL);
+        if (ttl <= 0) {
+            return null;
+        }
+        return new ValidatorCache(TimeUnit.SECONDS.toMillis(ttl), getIntProp(props, VALIDATOR_MAX_ENTRIES,
+                DEFAULT_VALIDATOR_MAX_ENTRIES));
     }
 
     /**
@@ -197,18 +382,17 @@ public class ProxyServlet extends HttpServlet {
     }
 
     /**
-     * Resolves an aliased service call.
+     * Extracts the aliased service call from a request path.
      *
      * @param req the original HTTP servlet request.
-     * @return the string representation of the URI to forward the request to.
+     * @return the service name, including any additional path components.
      */
-    private String resolveServiceCall(HttpServletRequest req) {
+    private String getServiceName(HttpServletRequest req) {
         String pathInfo = req.getPathInfo();
         if (pathInfo == null) {
             throw new NoServiceNameProvidedException();
         }
-        String serviceName = pathInfo.replaceAll("^/", "");
-        return serviceResolver.resolveAddress(serviceName);
+        return pathInfo.replaceAll("^/", "");
     }
 
     /**
@@ -227,6 +411,11 @@ public class ProxyServlet extends HttpServlet {
          */
         private final HttpServletResponse res;
 
+        /**
+         * The key of the service the request is forwarded to, if it's a named service.
+         */
+        private String serviceKey;
+
         /**
          * @param req the incoming HTTP servlet request.
          * @param res the outgoing HTTP servlet response.
@@ -244,7 +433,9 @@ public class ProxyServlet extends HttpServlet {
         public void call() throws IOException {
             String uri;
             try {
-                uri = resolveServiceCall(req);
+                String serviceName = getServiceName(req);
+                uri = serviceResolver.resolveAddress(serviceName);
+                serviceKey = serviceResolver.getServiceKey(serviceName);
                 String queryString = req.getQueryString();
                 if (queryString != null) {
                     uri += "?" + queryString;
@@ -276,14 +467,8 @@ public class ProxyServlet extends HttpServlet {
          * @throws IOException if an I/O error occurs.
          */
         protected void forwardRequest(HttpRequestBase out) throws IOException {
-            HttpClient client = new DefaultHttpClient();
-            try {
-                copyHeaders(req, out);
-                copyResponse(client.execute(out), res);
-            }
-            finally {
-                out.releaseConnection();
-            }
+            copyHeaders(req, out);
+            execute(out, 0);
         }
 
         /**
@@ -293,28 +478,100 @@ public class ProxyServlet extends HttpServlet {
          * @throws IOException if an I/O exception occurs.
          */
         protected void forwardRequest(HttpEntityEnclosingRequestBase out) throws IOException {
-            HttpClient client = new DefaultHttpClient();
+            copyHeaders(req, out);
+            out.setEntity(new InputStreamEntity(req.getInputStream(), req.getContentLength()));
+            execute(out, req.getContentLength());
+        }
+
+        /**
+         * Sends the outgoing request and copies the response to the outgoing servlet response, recording
+         * the progress of the call in the service metrics.
+         *
+         * @param out the outgoing request.
+         * @param contentLength the length of the request body, or a negative number if it's unknown.
+         * @throws IOException if an I/O error occurs.
+         */
+        private void execute(HttpRequestBase out, long contentLength) throws IOException {
+            String method = out.getMethod();
+            String resource = out.getURI().toString();
+            String validatorUser = null;
+            if (method.equals("GET") || method.equals("HEAD")) {
+                validatorUser = getValidatorUser();
+                if (validatorUser != null
+                        && validatorCache.sendNotModified(validatorUser, resource, req, res)) {
+                    return;
+                }
+            }
+
+            ServiceIsolation.Permit permit;
             try {
-                copyHeaders(req, out);
-                out.setEntity(new InputStreamEntity(req.getInputStream(), req.getContentLength()));
-                copyResponse(client.execute(out), res);
+                permit = serviceIsolation.acquire(serviceKey);
+            }
+            catch (ServiceUnavailableException e) {
+                res.setStatus(e.getStatusCode());
+                res.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+                sendJsonResponse(res, e.getResponseBody());
+                return;
+            }
+
+            ServiceStats.Call call = ServiceMetrics.getInstance().getStats(serviceKey).start();
+            EndpointBalancer.Lease lease = serviceResolver.startCall(serviceKey, resource);
+            boolean healthy = false;
+            try {
+                call.requestBuilt(contentLength);
+                HttpContext context = new BasicHttpContext();
+                HttpResponse response = transport.execute(out, context);
+                healthy = response.getStatusLine().getStatusCode() < 500;
+                call.responseStarted(context);
+                if (validatorUser != null) {
+                    validatorCache.update(validatorUser, resource, response);
+                }
+                call.bytesReceived(copyResponse(out, response, res));
+                if (response.getStatusLine().getStatusCode() < 400) {
+                    call.succeeded();
+                }
             }
             finally {
+                call.finish();
+                permit.release(healthy);
+                lease.release(healthy);
                 out.releaseConnection();
+                if (validatorCache != null && MODIFYING_METHODS.contains(method)) {
+                    validatorCache.invalidate(resource);
+                }
+            }
+        }
+
+        /**
+         * Finds the user whose validators are used. Validators are remembered separately for each user
+         * because services may check permissions on every request.
+         *
+         * @return the name of the user or null if validators shouldn't be remembered.
+         */
+        private String getValidatorUser() {
+            if (validatorCache == null) {
+                return null;
             }
+            return ServletUtils.getUsername(req);
         }
 
         /**
          * Copies an incoming response to an outgoing servlet response.
          *
+         * @param request the request the incoming response is for, aborted if the copy fails.
          * @param source the incoming response.
          * @param dest the outgoing response.
+         * @return the number of bytes in the response body.
          * @throws IOException if an I/O error occurs.
          */
-        private void copyResponse(HttpResponse source, HttpServletResponse dest) throws IOException {
+        private long copyResponse(HttpRequestBase request, HttpResponse source, HttpServletResponse dest)
+                throws IOException {
+
+            // The client's Accept-Encoding header is forwarded and the transport doesn't decompress
+            // responses, so compressed bodies are passed through along with their Content-Encoding.
             dest.setStatus(source.getStatusLine().getStatusCode());
             copyHeaders(source, dest);
-            IOUtils.copy(source.getEntity().getContent(), dest.getOutputStream());
+            return StreamUtils.copyContent(source.getEntity(), dest.getOutputStream(), request);
         }
 
         /**
@@ -325,7 +582,7 @@ public class ProxyServlet extends HttpServlet {
          */
         private void copyHeaders(HttpResponse source, HttpServletResponse dest) {
             for (Header header : source.getAllHeaders()) {
-                if (!HEADERS_TO_SKIP.contains(header.getName().toLowerCase())) {
+                if (!RESPONSE_HEADERS_TO_SKIP.contains(header.getName().toLowerCase())) {
                     dest.addHeader(header.getName(), header.getValue());
                 }
             }
@@ -341,7 +598,7 @@ public class ProxyServlet extends HttpServlet {
             Enumeration<String> names = source.getHeaderNames();
             while (names.hasMoreElements()) {
                 String name = names.nextElement();
-                if (!HEADERS_TO_SKIP.contains(name.toLowerCase())) {
+                if (!REQUEST_HEADERS_TO_SKIP.contains(name.toLowerCase())) {
                     Enumeration<String> values = source.getHeaders(name);
                     while (values.hasMoreElements()) {
                         String value = values.nextElement();
@@ -359,10 +616,21 @@ public class ProxyServlet extends HttpServlet {
          * @throws IOException if an I/O error occurs.
          */
         private void sendErrorResponse(HttpServletResponse res, String msg) throws IOException {
+            sendJsonResponse(res, errorJson(msg));
+        }
+
+        /**
+         * Sends a JSON document as the response body.
+         *
+         * @param res the outgoing HTTP servlet response.
+         * @param json the string representation of the JSON document.
+         * @throws IOException if an I/O error occurs.
+         */
+        private void sendJsonResponse(HttpServletResponse res, String json) throws IOException {
             PrintStream out = new PrintStream(res.getOutputStream());
             try {
                 res.setContentType("application/json");
-                out.println(errorJson(msg));
+                out.println(json);
             }
             finally {
                 if (out != null) {
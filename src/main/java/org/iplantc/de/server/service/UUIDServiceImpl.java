@@ -1,23 +1,41 @@
 package org.iplantc.de.server.service;
 
+import org.iplantc.clavin.spring.ConfigAliasResolver;
 import org.iplantc.de.client.services.UUIDService;
+import org.iplantc.de.server.util.UUIDGenerator;
 
-import com.google.common.collect.Lists;
 import com.google.gwt.user.server.rpc.RemoteServiceServlet;
 
 import java.util.List;
-import java.util.UUID;
+import java.util.Properties;
 
+import javax.servlet.ServletException;
+
+/**
+ * Generates UUIDs for the client. Random (version 4) UUIDs are generated by default; setting
+ * <code>org.iplantc.discoveryenvironment.uuid.time-ordered</code> to true in the webapp configuration
+ * generates time-ordered (version 7) UUIDs instead.
+ */
 @SuppressWarnings("serial")
 public class UUIDServiceImpl extends RemoteServiceServlet implements UUIDService {
 
+    /**
+     * True if time-ordered UUIDs should be generated.
+     */
+    public static final String TIME_ORDERED = "org.iplantc.discoveryenvironment.uuid.time-ordered";
+
+    private UUIDGenerator generator;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        Properties props = ConfigAliasResolver.getRequiredAliasedConfigFrom(getServletContext(), "webapp");
+        generator = new UUIDGenerator(Boolean.parseBoolean(props.getProperty(TIME_ORDERED, "false").trim()));
+    }
+
     @Override
     public List<String> getUUIDs(int num) {
-       List<String> uuids = Lists.newArrayList();
-        for(int i = 0; i < num; i++){
-            uuids.add(UUID.randomUUID().toString());
-        }
-        return uuids;
+        return generator.generateStrings(num);
     }
 
 }
@@ -0,0 +1,248 @@
+package org.iplantc.de.server.service;
+
+import static org.iplantc.de.server.util.UrlUtils.getResourcePath;
+
+import org.iplantc.de.server.util.StreamUtils;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Remembers the cache validators (ETag and Last-Modified) of recent responses from proxied services, so
+ * that a conditional request for a resource that hasn't changed can be answered with 304 Not Modified
+ * without contacting the service. Entries are kept per user for a short time only, because the service
+ * can't be told about requests that are answered locally.
+ *
+ * Requests sent through the proxy that modify a resource discard the entries for every representation
+ * of it, whatever the query string. Changes made any other way aren't seen, so a client may be told
+ * that a resource hasn't changed for up to the time to live after it has.
+ */
+public class ValidatorCache {
+
+    /**
+     * The response headers that are remembered and repeated in locally generated 304 responses.
+     */
+    private static final String[] HEADERS_TO_KEEP = {"ETag", "Last-Modified", "Cache-Control", "Expires",
+            "Vary", "Content-Location"};
+
+    private final long ttlMillis;
+
+    /**
+     * The entries, indexed by user and resource URI, least recently used first.
+     */
+    private final Map<String, Entry> entries;
+
+    /**
+     * The keys of the entries for each resource path, so that a resource can be invalidated without
+     * looking at every entry.
+     */
+    private final Map<String, Set<String>> keysByPath = new HashMap<String, Set<String>>();
+
+    /**
+     * @param ttlMillis the number of milliseconds an entry may be used.
+     * @param maxEntries the maximum number of entries.
+     */
+    public ValidatorCache(long ttlMillis, final int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= maxEntries) {
+                    return false;
+                }
+                unindex(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Answers a conditional request locally if the resource is known not to have changed.
+     *
+     * @param username the name of the user, since services may check permissions on every request.
+     * @param resource the URI of the resource.
+     * @param req the incoming request.
+     * @param res the outgoing response.
+     * @return true if a 304 response was sent.
+     */
+    public boolean sendNotModified(String username, String resource, HttpServletRequest req,
+            HttpServletResponse res) {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        String ifModifiedSince = req.getHeader("If-Modified-Since");
+        if (ifNoneMatch == null && ifModifiedSince == null) {
+            return false;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(getKey(username, resource));
+        }
+        if (entry == null || currentTimeMillis() - entry.stored > ttlMillis) {
+            return false;
+        }
+        boolean notModified = ifNoneMatch != null ? StreamUtils.matchesEtag(ifNoneMatch, entry.etag)
+                : entry.notModifiedSince(ifModifiedSince);
+        if (notModified) {
+            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            for (Header header : entry.headers) {
+                res.addHeader(header.getName(), header.getValue());
+            }
+        }
+        return notModified;
+    }
+
+    /**
+     * Remembers the validators from a successful response, or forgets the resource if the response
+     * doesn't have any.
+     *
+     * @param username the name of the user.
+     * @param resource the URI of the resource.
+     * @param response the response from the service.
+     */
+    public void update(String username, String resource, HttpResponse response) {
+        int status = response.getStatusLine().getStatusCode();
+        if (status == HttpServletResponse.SC_NOT_MODIFIED) {
+            return;
+        }
+        Entry entry = null;
+        if (status == HttpServletResponse.SC_OK || status == HttpServletResponse.SC_PARTIAL_CONTENT) {
+            entry = Entry.fromResponse(getResourcePath(resource), response, currentTimeMillis());
+        }
+        String key = getKey(username, resource);
+        synchronized (this) {
+            Entry previous = entry == null ? entries.remove(key) : entries.put(key, entry);
+            if (previous != null) {
+                unindex(key, previous);
+            }
+            if (entry != null && entries.containsKey(key)) {
+                Set<String> keys = keysByPath.get(entry.path);
+                if (keys == null) {
+                    keys = new HashSet<String>();
+                    keysByPath.put(entry.path, keys);
+                }
+                keys.add(key);
+            }
+        }
+    }
+
+    /**
+     * Forgets every user's validators for a resource that's being modified. The query string is
+     * ignored, because it usually selects a representation of the resource rather than a different
+     * resource.
+     *
+     * @param resource the URI of the resource.
+     */
+    public synchronized void invalidate(String resource) {
+        Set<String> keys = keysByPath.remove(getResourcePath(resource));
+        if (keys != null) {
+            for (String key : keys) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * The clock used to expire entries. Tests override this method.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Removes an entry that's no longer in the cache from the path index. Called with the lock held.
+     */
+    private void unindex(String key, Entry entry) {
+        Set<String> keys = keysByPath.get(entry.path);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysByPath.remove(entry.path);
+            }
+        }
+    }
+
+    private static String getKey(String username, String resource) {
+        return username + " " + resource;
+    }
+
+    /**
+     * The validators for a single resource.
+     */
+    private static class Entry {
+
+        private final String path;
+        private final String etag;
+        private final Date lastModified;
+        private final List<Header> headers;
+        private final long stored;
+
+        private Entry(String path, String etag, Date lastModified, List<Header> headers, long stored) {
+            this.path = path;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.headers = headers;
+            this.stored = stored;
+        }
+
+        public static Entry fromResponse(String path, HttpResponse response, long stored) {
+            Header etag = response.getFirstHeader("ETag");
+            Date lastModified = parseDate(response.getFirstHeader("Last-Modified"));
+            if (etag == null && lastModified == null) {
+                return null;
+            }
+            List<Header> headers = new ArrayList<Header>();
+            for (String name : HEADERS_TO_KEEP) {
+                for (Header header : response.getHeaders(name)) {
+                    headers.add(header);
+                }
+            }
+            return new Entry(path, etag == null ? null : etag.getValue(), lastModified, headers, stored);
+        }
+
+        public boolean notModifiedSince(String ifModifiedSince) {
+            if (lastModified == null) {
+                return false;
+            }
+            try {
+                return !lastModified.after(DateUtils.parseDate(ifModifiedSince));
+            }
+            catch (DateParseException e) {
+                return false;
+            }
+        }
+
+        private static Date parseDate(Header header) {
+            if (header == null) {
+                return null;
+            }
+            try {
+                return DateUtils.parseDate(header.getValue());
+            }
+            catch (DateParseException e) {
+                return null;
+            }
+        }
+    }
+}
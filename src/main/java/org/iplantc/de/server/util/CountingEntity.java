@@ -0,0 +1,70 @@
+package org.iplantc.de.server.util;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An entity that counts the bytes read from its content. Wrapping the entity of a response before it's
+ * decompressed counts the bytes that actually arrived from the service, which is the only way to learn
+ * the size of chunked responses.
+ */
+public class CountingEntity extends HttpEntityWrapper {
+
+    private CountingContent content;
+
+    /**
+     * @param wrapped the entity to count the content of.
+     */
+    public CountingEntity(HttpEntity wrapped) {
+        super(wrapped);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        content = new CountingContent(wrappedEntity.getContent());
+        return content;
+    }
+
+    /**
+     * @return the number of bytes read so far from the most recently obtained content stream.
+     */
+    public long getByteCount() {
+        return content == null ? 0 : content.getByteCount();
+    }
+
+    /**
+     * Counts the bytes read from a content stream. The stream can still release or abort the connection
+     * it came from.
+     */
+    private static class CountingContent extends CountingInputStream implements ConnectionReleaseTrigger {
+
+        private final InputStream wrapped;
+
+        public CountingContent(InputStream wrapped) {
+            super(wrapped);
+            this.wrapped = wrapped;
+        }
+
+        @Override
+        public void releaseConnection() throws IOException {
+            if (wrapped instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger)wrapped).releaseConnection();
+            }
+        }
+
+        @Override
+        public void abortConnection() throws IOException {
+            if (wrapped instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger)wrapped).abortConnection();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.iplantc.de.server.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically checks a properties file for changes and notifies a listener with the new contents of
+ * the file whenever it changes. This is a simple local stand-in for a watch on a remote configuration
+ * source.
+ */
+public class PropertiesFileWatcher {
+
+    private static final Logger LOG = Logger.getLogger(PropertiesFileWatcher.class);
+
+    /**
+     * Notified when the properties file changes.
+     */
+    public interface Listener {
+        /**
+         * Called with the new contents of the properties file.
+         *
+         * @param props the properties loaded from the file.
+         */
+        public void propertiesChanged(Properties props);
+    }
+
+    private final File file;
+    private final int intervalSeconds;
+    private final Listener listener;
+    private ScheduledExecutorService executor;
+
+    /**
+     * The modification time of the file when it was last loaded.
+     */
+    private long lastModified = -1;
+
+    /**
+     * The length of the file when it was last loaded.
+     */
+    private long lastLength = -1;
+
+    /**
+     * @param file the file to watch.
+     * @param intervalSeconds the number of seconds between checks.
+     * @param listener the listener to notify when the file changes.
+     */
+    public PropertiesFileWatcher(File file, int intervalSeconds, Listener listener) {
+        this.file = file;
+        this.intervalSeconds = Math.max(1, intervalSeconds);
+        this.listener = listener;
+    }
+
+    /**
+     * Loads the file if it exists and starts watching it for changes.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        checkForChanges();
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "properties-file-watcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkForChanges();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops watching the file.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Notifies the listener if the file has changed since it was last loaded.
+     */
+    private void checkForChanges() {
+        try {
+            if (!file.isFile()) {
+                return;
+            }
+            long modified = file.lastModified();
+            long length = file.length();
+            if (modified != lastModified || length != lastLength) {
+                Properties props = load();
+                lastModified = modified;
+                lastLength = length;
+                LOG.info("loaded " + file);
+                listener.propertiesChanged(props);
+            }
+        }
+        catch (Exception e) {
+            LOG.error("unable to load " + file, e);
+        }
+    }
+
+    /**
+     * Loads the properties file.
+     *
+     * @return the properties.
+     * @throws IOException if the file can't be read.
+     */
+    private Properties load() throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            Properties props = new Properties();
+            props.load(in);
+            return props;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.iplantc.de.server.util;
 
+import org.iplantc.de.server.DESecurityConstants;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 
@@ -9,6 +11,8 @@ import java.util.Properties;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
 
 /**
  * Some utility methods for use within servlets.
@@ -55,6 +59,42 @@ public class ServletUtils {
         return value;
     }
 
+    /**
+     * Gets an optional integer property from a set of properties.
+     *
+     * @param props the properties.
+     * @param name the name of the property.
+     * @param defaultValue the value to use if the property isn't defined.
+     * @return the value of the property or the default value.
+     * @throws IllegalStateException if the property value isn't a valid integer.
+     */
+    public static int getIntProp(Properties props, String name, int defaultValue) {
+        String value = props.getProperty(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e) {
+            String msg = "configuration property, " + name + ", is not a valid integer: " + value;
+            throw new IllegalStateException(msg, e);
+        }
+    }
+
+    /**
+     * Gets the name of the authenticated user from the session associated with a request. A session is
+     * never created by this method.
+     *
+     * @param request the servlet request.
+     * @return the username or null if the request has no session or the user isn't authenticated.
+     */
+    public static String getUsername(HttpServletRequest request) {
+        HttpSession session = request.getSession(false);
+        Object username = session == null ? null : session.getAttribute(DESecurityConstants.LOCAL_SHIB_UID);
+        return username == null ? null : username.toString();
+    }
+
     /**
      * Loads a resource from someplace on the classpath.
      *
@@ -0,0 +1,222 @@
+package org.iplantc.de.server.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.message.BasicHeaderValueParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Utility methods for streaming response bodies from other services without buffering them in memory.
+ */
+public class StreamUtils {
+
+    /**
+     * The size of the buffer used to copy response bodies.
+     */
+    public static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The value of the Accept-Encoding header sent to services that support compressed responses.
+     */
+    public static final String ACCEPT_ENCODING = "gzip,deflate";
+
+    /**
+     * Prevent instantiation.
+     */
+    private StreamUtils() {
+    }
+
+    /**
+     * Copies the content of an HTTP entity to an output stream using a fixed-size buffer. If the copy
+     * fails part of the way through, the connection the entity came from is aborted rather than being
+     * drained, so that a client that goes away doesn't cause the rest of a large body to be read.
+     * Because the writes block, a slow reader slows down the reads from the service instead of causing
+     * the body to be buffered.
+     *
+     * The connection can only be aborted through the entity if the entity hasn't been wrapped, for
+     * example to decompress it. Use {@link #copyContent(HttpEntity, OutputStream, HttpUriRequest)} to
+     * copy wrapped entities.
+     *
+     * @param entity the entity to copy, which may be null.
+     * @param out the output stream to copy the entity content to.
+     * @return the number of bytes copied.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static long copyContent(HttpEntity entity, OutputStream out) throws IOException {
+        return copyContent(entity, out, null);
+    }
+
+    /**
+     * Copies the content of an HTTP entity to an output stream, aborting the request the entity is a
+     * response to if the copy fails part of the way through. The request is aborted before the content
+     * stream is closed, so closing a decompressing stream doesn't drain the rest of the body.
+     *
+     * @param entity the entity to copy, which may be null.
+     * @param out the output stream to copy the entity content to.
+     * @param request the request the entity is a response to, which may be null.
+     * @return the number of bytes copied.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static long copyContent(HttpEntity entity, OutputStream out, HttpUriRequest request)
+            throws IOException {
+        if (entity == null) {
+            return 0;
+        }
+        InputStream in = entity.getContent();
+        try {
+            long count = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+                count += n;
+            }
+            return count;
+        }
+        catch (IOException e) {
+            abort(in, request);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            abort(in, request);
+            throw e;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Replaces a response entity with one that counts the bytes read from it. This must be done before
+     * the content is decoded to count the bytes received from the service.
+     *
+     * @param response the response from the service.
+     * @return the counting entity, or null if the response has no entity.
+     */
+    public static CountingEntity countContent(HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return null;
+        }
+        CountingEntity result = new CountingEntity(entity);
+        response.setEntity(result);
+        return result;
+    }
+
+    /**
+     * Replaces a compressed response entity with one that decompresses the content as it's read. The
+     * Content-Encoding and Content-Length headers are removed from the response because they no longer
+     * describe the content. Responses that aren't compressed are left alone.
+     *
+     * @param response the response from the service.
+     * @return the response.
+     */
+    public static HttpResponse decodeContent(HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        Header encoding = entity == null ? null : entity.getContentEncoding();
+        if (encoding == null) {
+            return response;
+        }
+        String name = encoding.getValue().trim().toLowerCase();
+        if (name.equals("gzip") || name.equals("x-gzip")) {
+            response.setEntity(new GzipDecompressingEntity(entity));
+        }
+        else if (name.equals("deflate")) {
+            response.setEntity(new DeflateDecompressingEntity(entity));
+        }
+        else {
+            return response;
+        }
+        response.removeHeaders("Content-Encoding");
+        response.removeHeaders("Content-Length");
+        return response;
+    }
+
+    /**
+     * Determines whether a client accepts a content encoding.
+     *
+     * @param acceptEncoding the value of the client's Accept-Encoding header, which may be null.
+     * @param encoding the content encoding.
+     * @return true if the encoding is acceptable.
+     */
+    public static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null || encoding == null) {
+            return false;
+        }
+        String wanted = encoding.trim();
+        for (HeaderElement element : BasicHeaderValueParser.parseElements(acceptEncoding, null)) {
+            String name = element.getName();
+            if (name.equalsIgnoreCase(wanted) || name.equals("*")) {
+                NameValuePair q = element.getParameterByName("q");
+                return q == null || !isZero(q.getValue());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares an entity tag with the tags in an If-None-Match header, using the weak comparison
+     * function that RFC 7232 requires for that header.
+     *
+     * @param ifNoneMatch the value of the If-None-Match header, which may be null.
+     * @param etag the current entity tag, which may be null.
+     * @return true if the header lists the tag or is "*".
+     */
+    public static boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        String current = stripWeak(etag.trim());
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || stripWeak(tag).equals(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private static boolean isZero(String quality) {
+        try {
+            return Double.parseDouble(quality) == 0;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Aborts the connection associated with an entity content stream if possible.
+     *
+     * @param in the entity content stream.
+     * @param request the request the entity is a response to, which may be null.
+     */
+    private static void abort(InputStream in, HttpUriRequest request) {
+        if (request != null) {
+            request.abort();
+        }
+        if (in instanceof ConnectionReleaseTrigger) {
+            try {
+                ((ConnectionReleaseTrigger)in).abortConnection();
+            }
+            catch (IOException ignore) {
+                // The connection is being discarded anyway.
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.iplantc.de.server.util;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates random UUIDs in bulk. {@link UUID#randomUUID()} draws from a single shared
+ * {@link SecureRandom}, so threads generating many UUIDs at once contend for it. This generator keeps a
+ * pool of random number generators, one for each thread that's generating UUIDs at the same time. Each
+ * one is replaced periodically so that no single seed is used for too long, and draws random bytes a
+ * buffer at a time rather than 16 bytes at a time. The pool belongs to the generator rather than to the
+ * threads, so nothing is left behind on container threads when the web application is stopped.
+ *
+ * Two kinds of UUIDs can be generated: version 4 UUIDs, which are entirely random, and version 7
+ * UUIDs, which begin with a millisecond timestamp. Version 7 UUIDs generated by the same generator are
+ * strictly increasing, so they cluster together in B-tree indexes instead of being scattered across
+ * them.
+ */
+public class UUIDGenerator {
+
+    /**
+     * The number of random bytes drawn from the generator at a time.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * The number of random bytes a thread's generator produces before it's replaced.
+     */
+    private static final long RESEED_BYTES = 1L << 20;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final boolean timeOrdered;
+
+    /**
+     * The random number generators that aren't in use.
+     */
+    private final ConcurrentLinkedQueue<RandomBuffer> idle = new ConcurrentLinkedQueue<RandomBuffer>();
+
+    /**
+     * The timestamp and sequence number of the last version 7 UUID, as the 48-bit timestamp followed by
+     * the 12-bit sequence number.
+     */
+    private final AtomicLong lastTimestamp = new AtomicLong();
+
+    /**
+     * @param timeOrdered true to generate time-ordered (version 7) UUIDs, false to generate random
+     *            (version 4) UUIDs.
+     */
+    public UUIDGenerator(boolean timeOrdered) {
+        this.timeOrdered = timeOrdered;
+    }
+
+    /**
+     * @return true if this generator produces time-ordered (version 7) UUIDs.
+     */
+    public boolean isTimeOrdered() {
+        return timeOrdered;
+    }
+
+    /**
+     * @return a new UUID.
+     */
+    public UUID generate() {
+        RandomBuffer random = borrow();
+        try {
+            return next(random);
+        }
+        finally {
+            idle.offer(random);
+        }
+    }
+
+    /**
+     * Generates several UUIDs in their string representation.
+     *
+     * @param count the number of UUIDs to generate.
+     * @return the UUIDs.
+     */
+    public List<String> generateStrings(int count) {
+        List<String> result = new ArrayList<String>(Math.max(0, count));
+        char[] chars = new char[36];
+        RandomBuffer random = borrow();
+        try {
+            for (int i = 0; i < count; i++) {
+                result.add(format(next(random), chars));
+            }
+        }
+        finally {
+            idle.offer(random);
+        }
+        return result;
+    }
+
+    private RandomBuffer borrow() {
+        RandomBuffer result = idle.poll();
+        return result == null ? new RandomBuffer() : result;
+    }
+
+    private UUID next(RandomBuffer random) {
+        return timeOrdered ? nextTimeOrdered(random) : nextRandom(random);
+    }
+
+    private UUID nextRandom(RandomBuffer random) {
+        long msb = random.nextLong();
+        long lsb = random.nextLong();
+        msb = (msb & ~0xf000L) | 0x4000L;
+        lsb = (lsb & 0x3fffffffffffffffL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Generates a version 7 UUID: a 48-bit millisecond timestamp, the version, a 12-bit sequence
+     * number, the variant and 62 random bits. The sequence number starts at a random value below 2048
+     * every millisecond and is incremented for every UUID generated in the same millisecond; if it
+     * overflows, the timestamp is advanced instead.
+     */
+    private UUID nextTimeOrdered(RandomBuffer random) {
+        long timestamp;
+        while (true) {
+            long last = lastTimestamp.get();
+            long now = (System.currentTimeMillis() & 0xffffffffffffL) << 12;
+            timestamp = now > last ? now | (random.nextLong() & 0x7ff) : last + 1;
+            if (lastTimestamp.compareAndSet(last, timestamp)) {
+                break;
+            }
+        }
+        long msb = ((timestamp >>> 12) << 16) | 0x7000L | (timestamp & 0xfff);
+        long lsb = (random.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Formats a UUID the same way as {@link UUID#toString()}, which is considerably slower on the JVMs
+     * we deploy to.
+     */
+    static String format(UUID uuid, char[] chars) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        formatHex(msb >>> 32, chars, 0, 8);
+        chars[8] = '-';
+        formatHex(msb >>> 16, chars, 9, 4);
+        chars[13] = '-';
+        formatHex(msb, chars, 14, 4);
+        chars[18] = '-';
+        formatHex(lsb >>> 48, chars, 19, 4);
+        chars[23] = '-';
+        formatHex(lsb, chars, 24, 12);
+        return new String(chars);
+    }
+
+    private static void formatHex(long value, char[] chars, int offset, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            chars[i] = HEX_DIGITS[(int)(value & 0xf)];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * A random number generator and the random bytes it has produced but that haven't been used yet.
+     * Only one thread uses a buffer at a time.
+     */
+    private static class RandomBuffer {
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = BUFFER_SIZE;
+        private SecureRandom random;
+        private long bytesSinceReseed;
+
+        public long nextLong() {
+            if (position + 8 > buffer.length) {
+                refill();
+            }
+            long result = 0;
+            for (int i = 0; i < 8; i++) {
+                result = (result << 8) | (buffer[position++] & 0xff);
+            }
+            return result;
+        }
+
+        private void refill() {
+            if (random == null || bytesSinceReseed >= RESEED_BYTES) {
+                // A new instance is seeded from the operating system's non-blocking entropy source.
+                random = new SecureRandom();
+                bytesSinceReseed = 0;
+            }
+            random.nextBytes(buffer);
+            bytesSinceReseed += buffer.length;
+            position = 0;
+        }
+    }
+}
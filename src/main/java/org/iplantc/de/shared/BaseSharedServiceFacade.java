@@ -1,12 +1,15 @@
 package org.iplantc.de.shared;
 
 import org.iplantc.de.shared.services.MultiPartServiceWrapper;
+import org.iplantc.de.shared.services.ServiceCallResult;
 import org.iplantc.de.shared.services.ServiceCallWrapper;
 
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwt.user.client.rpc.ServiceDefTarget;
 
+import java.util.List;
+
 /**
  * Base class for a singleton service that provides an asynchronous proxy to data services.
  */
@@ -42,4 +45,16 @@ public class BaseSharedServiceFacade {
     public void getServiceData(MultiPartServiceWrapper wrapper, AsyncCallback<String> callback) {
         proxy.getServiceData(wrapper, callback);
     }
+
+    /**
+     * Gets the responses to several independent HTTP requests in a single round trip. The requests are
+     * sent concurrently by the server.
+     * 
+     * @param wrappers the service call wrappers.
+     * @param callback the callback to use to notify the caller of the results.
+     */
+    public void getServiceDataBatch(List<ServiceCallWrapper> wrappers,
+            AsyncCallback<List<ServiceCallResult>> callback) {
+        proxy.getServiceDataBatch(wrappers, callback);
+    }
 }
@@ -1,11 +1,14 @@
 package org.iplantc.de.shared;
 
 import org.iplantc.de.shared.services.MultiPartServiceWrapper;
+import org.iplantc.de.shared.services.ServiceCallResult;
 import org.iplantc.de.shared.services.ServiceCallWrapper;
 
 import com.google.gwt.user.client.rpc.RemoteService;
 import com.google.gwt.user.client.rpc.SerializationException;
 
+import java.util.List;
+
 /**
  * Defines an interface for all remote services implemented in the application.
  */
@@ -13,4 +16,11 @@ public interface DEService extends RemoteService {
     String getServiceData(ServiceCallWrapper wrapper) throws SerializationException, AuthenticationException;
 
     String getServiceData(MultiPartServiceWrapper wrapper) throws SerializationException, AuthenticationException;
+
+    /**
+     * Performs several independent service calls concurrently. The results are returned in the same
+     * order as the wrappers, and each result indicates whether or not its call succeeded.
+     */
+    List<ServiceCallResult> getServiceDataBatch(List<ServiceCallWrapper> wrappers)
+            throws SerializationException, AuthenticationException;
 }
@@ -1,10 +1,13 @@
 package org.iplantc.de.shared;
 
 import org.iplantc.de.shared.services.MultiPartServiceWrapper;
+import org.iplantc.de.shared.services.ServiceCallResult;
 import org.iplantc.de.shared.services.ServiceCallWrapper;
 
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
+import java.util.List;
+
 /**
  * Defines an interface for all asynchronous remote services implemented in the application.
  */
@@ -12,4 +15,7 @@ public interface DEServiceAsync {
     void getServiceData(ServiceCallWrapper wrapper, AsyncCallback<String> callback);
 
     void getServiceData(MultiPartServiceWrapper wrapper, AsyncCallback<String> callback);
+
+    void getServiceDataBatch(List<ServiceCallWrapper> wrappers,
+            AsyncCallback<List<ServiceCallResult>> callback);
 }
@@ -1,10 +1,13 @@
 package org.iplantc.de.shared;
 
 import org.iplantc.de.shared.services.MultiPartServiceWrapper;
+import org.iplantc.de.shared.services.ServiceCallResult;
 import org.iplantc.de.shared.services.ServiceCallWrapper;
 
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
+import java.util.List;
+
 /**
  * A singleton service that provides an asynchronous proxy to data services.
  */
@@ -66,4 +69,16 @@ public class SharedServiceFacade extends BaseSharedServiceFacade {
     public void getServiceData(MultiPartServiceWrapper wrapper, AsyncCallback<String> callback) {
         super.getServiceData(wrapper, new AsyncCallbackWrapper<String>(callback));
     }
+
+    /**
+     * Gets the responses to several independent HTTP requests in a single round trip.
+     * 
+     * @param wrappers the service call wrappers.
+     * @param callback the callback to use to notify the caller of the results.
+     */
+    @Override
+    public void getServiceDataBatch(List<ServiceCallWrapper> wrappers,
+            AsyncCallback<List<ServiceCallResult>> callback) {
+        super.getServiceDataBatch(wrappers, new AsyncCallbackWrapper<List<ServiceCallResult>>(callback));
+    }
 }
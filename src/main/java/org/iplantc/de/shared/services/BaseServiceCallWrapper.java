@@ -11,6 +11,7 @@ public class BaseServiceCallWrapper implements Serializable {
     private Type type = Type.GET;
     private String address = new String();
     private String arguments;
+    private int timeoutMillis;
 
     /**
      * Indicate the type of HTTP Method being used for a service call.
@@ -50,4 +51,31 @@ public class BaseServiceCallWrapper implements Serializable {
     public boolean hasArguments() {
         return arguments != null && arguments.length() != 0;
     }
+
+    /**
+     * @return the number of milliseconds the caller is willing to wait for the service call, or zero if
+     *         the call has no deadline.
+     */
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Sets the deadline for the service call, relative to the time the server receives it; the
+     * browser's clock can't be compared with the server's. The server gives up on the call once the
+     * deadline has passed.
+     *
+     * @param timeoutMillis the number of milliseconds the caller is willing to wait, or zero for no
+     *            deadline.
+     */
+    public void setTimeoutMillis(int timeoutMillis) {
+        this.timeoutMillis = Math.max(0, timeoutMillis);
+    }
+
+    /**
+     * @return true if the service call has a deadline.
+     */
+    public boolean hasTimeout() {
+        return timeoutMillis > 0;
+    }
 }
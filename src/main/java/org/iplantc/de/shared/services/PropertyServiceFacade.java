@@ -1,9 +1,20 @@
 package org.iplantc.de.shared.services;
 
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.RequestException;
+import com.google.gwt.http.client.Response;
+import com.google.gwt.json.client.JSONObject;
+import com.google.gwt.json.client.JSONParser;
+import com.google.gwt.json.client.JSONString;
+import com.google.gwt.json.client.JSONValue;
+import com.google.gwt.storage.client.Storage;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwt.user.client.rpc.ServiceDefTarget;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -17,6 +28,16 @@ public class PropertyServiceFacade {
      */
     private final String PROPERTY_SERVICE = "properties"; //$NON-NLS-1$
 
+    /**
+     * The local storage key used for the cached copy of the properties.
+     */
+    private static final String STORAGE_KEY = "org.iplantc.de.properties"; //$NON-NLS-1$
+
+    /**
+     * The local storage key used for the version of the cached copy of the properties.
+     */
+    private static final String VERSION_STORAGE_KEY = "org.iplantc.de.properties.version"; //$NON-NLS-1$
+
     /**
      * The single instance of the property service facade.
      */
@@ -55,4 +76,93 @@ public class PropertyServiceFacade {
     public void getProperties(AsyncCallback<Map<String, String>> callback) {
         proxy.getProperties(callback);
     }
+
+    /**
+     * Retrieves the discovery environment configuration properties, using the copy kept in the
+     * browser's local storage if there is one. A cached copy is passed to the callback immediately, and
+     * is then revalidated with the server in the background; if the properties have changed, the new
+     * properties are stored for the next time the application is loaded. If there's no cached copy then
+     * the callback is called when the properties have been retrieved from the server.
+     *
+     * Nothing in this module calls this method; an application opts in by using it instead of
+     * {@link #getProperties(AsyncCallback)} to obtain the properties it passes to
+     * {@link org.iplantc.de.client.models.DEProperties#initialize(Map)}.
+     *
+     * @param callback called when the properties are available.
+     */
+    public void getCachedProperties(final AsyncCallback<Map<String, String>> callback) {
+        final Storage storage = Storage.getLocalStorageIfSupported();
+        String version = storage == null ? null : storage.getItem(VERSION_STORAGE_KEY);
+        final Map<String, String> cached = version == null ? null : parse(storage.getItem(STORAGE_KEY));
+        if (cached != null) {
+            callback.onSuccess(cached);
+        }
+
+        RequestBuilder builder = new RequestBuilder(RequestBuilder.GET, GWT.getModuleBaseURL()
+                + PROPERTY_SERVICE);
+        if (cached != null) {
+            builder.setHeader("If-None-Match", version); //$NON-NLS-1$
+        }
+        try {
+            builder.sendRequest(null, new RequestCallback() {
+                @Override
+                public void onResponseReceived(Request request, Response response) {
+                    Map<String, String> properties = null;
+                    if (response.getStatusCode() == Response.SC_OK) {
+                        properties = parse(response.getText());
+                        String etag = response.getHeader("ETag"); //$NON-NLS-1$
+                        if (properties != null && storage != null && etag != null) {
+                            storage.setItem(STORAGE_KEY, response.getText());
+                            storage.setItem(VERSION_STORAGE_KEY, etag);
+                        }
+                    }
+                    if (cached == null) {
+                        if (properties != null) {
+                            callback.onSuccess(properties);
+                        } else {
+                            getProperties(callback);
+                        }
+                    }
+                }
+
+                @Override
+                public void onError(Request request, Throwable exception) {
+                    if (cached == null) {
+                        getProperties(callback);
+                    }
+                }
+            });
+        } catch (RequestException e) {
+            if (cached == null) {
+                getProperties(callback);
+            }
+        }
+    }
+
+    /**
+     * Parses a JSON representation of the properties.
+     *
+     * @param json the JSON text, may be null.
+     * @return the properties or null if the text can't be parsed.
+     */
+    private Map<String, String> parse(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            JSONObject object = JSONParser.parseStrict(json).isObject();
+            if (object == null) {
+                return null;
+            }
+            Map<String, String> result = new HashMap<String, String>();
+            for (String key : object.keySet()) {
+                JSONValue value = object.get(key);
+                JSONString string = value == null ? null : value.isString();
+                result.put(key, string == null ? null : string.stringValue());
+            }
+            return result;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package org.iplantc.de.shared.services;
+
+import java.io.Serializable;
+
+/**
+ * The outcome of a single service call in a batch of service calls. Each call in a batch either
+ * succeeds with a response body or fails with an error message; one failed call doesn't prevent the
+ * others from succeeding.
+ */
+public class ServiceCallResult implements Serializable {
+    private static final long serialVersionUID = 5028718466357096781L;
+
+    private String data;
+    private String error;
+
+    public ServiceCallResult() {
+    }
+
+    private ServiceCallResult(String data, String error) {
+        this.data = data;
+        this.error = error;
+    }
+
+    /**
+     * @param data the response body.
+     * @return a result for a successful service call.
+     */
+    public static ServiceCallResult success(String data) {
+        return new ServiceCallResult(data, null);
+    }
+
+    /**
+     * @param error the error message.
+     * @return a result for a failed service call.
+     */
+    public static ServiceCallResult failure(String error) {
+        return new ServiceCallResult(null, error == null ? "" : error);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,55 @@
+package org.iplantc.de.shared.services;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A set of session attributes along with the version of the session they were read from. The version
+ * changes whenever an attribute is set or removed through the session management service, so a client
+ * can send it back with an update to make sure that it isn't overwriting changes made by another
+ * browser tab.
+ */
+public class SessionAttributes implements Serializable {
+    private static final long serialVersionUID = -3725176047419873362L;
+
+    private HashMap<String, String> attributes;
+    private long version;
+    private boolean conflict;
+
+    public SessionAttributes() {
+    }
+
+    /**
+     * @param attributes the attribute values, indexed by attribute name.
+     * @param version the session version.
+     * @param conflict true if an update was rejected because the session had changed.
+     */
+    public SessionAttributes(HashMap<String, String> attributes, long version, boolean conflict) {
+        this.attributes = attributes;
+        this.version = version;
+        this.conflict = conflict;
+    }
+
+    /**
+     * @return the attribute values, indexed by attribute name.
+     */
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return the version of the session the attributes were read from.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return true if an update was rejected because the session had been changed since the version
+     *         the update was based on. The attributes are the current attributes in that case.
+     */
+    public boolean isConflict() {
+        return conflict;
+    }
+}
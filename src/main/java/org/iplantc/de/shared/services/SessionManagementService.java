@@ -3,6 +3,7 @@ package org.iplantc.de.shared.services;
 import com.google.gwt.user.client.rpc.RemoteService;
 import com.google.gwt.user.client.rpc.SerializationException;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -34,7 +35,7 @@ public interface SessionManagementService extends RemoteService {
      * 
      * @param key attribute key.
      * @param value attribute value.
-     * @throws SerializationException if an error occurs.
+     * @throws SerializationException if an error occurs or the session version would be changed.
      */
     void setAttribute(String key, String value) throws SerializationException;
 
@@ -42,10 +43,35 @@ public interface SessionManagementService extends RemoteService {
      * Remove an attribute.
      * 
      * @param key attribute key.
-     * @throws SerializationException if an error occurs.
+     * @throws SerializationException if an error occurs or the session version would be changed.
      */
     void removeAttribute(String key) throws SerializationException;
 
+    /**
+     * Retrieves the string-valued attributes whose names start with a prefix, along with the current
+     * session version.
+     * 
+     * @param keyPrefix the attribute name prefix; null or empty to retrieve all string attributes.
+     * @return the matching attributes.
+     * @throws SerializationException if an error occurs.
+     */
+    SessionAttributes getMatchingAttributes(String keyPrefix) throws SerializationException;
+
+    /**
+     * Sets and removes several attributes at once. If an expected version is given and the session
+     * has changed since that version, nothing is changed and the current attributes are returned with
+     * the conflict flag set.
+     * 
+     * @param values the attributes to set, may be null.
+     * @param removedKeys the names of the attributes to remove, may be null.
+     * @param expectedVersion the session version the update is based on, or -1 to update regardless.
+     * @return the attributes that were set, or all current attributes if there was a conflict, along
+     *         with the new session version.
+     * @throws SerializationException if an error occurs or the session version would be changed.
+     */
+    SessionAttributes updateAttributes(Map<String, String> values, List<String> removedKeys,
+            long expectedVersion) throws SerializationException;
+
     /**
      * Invalidate session.
      * 
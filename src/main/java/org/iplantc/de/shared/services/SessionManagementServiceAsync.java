@@ -2,6 +2,7 @@ package org.iplantc.de.shared.services;
 
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -43,6 +44,25 @@ public interface SessionManagementServiceAsync {
      */
     void removeAttribute(String key, AsyncCallback<Void> callback);
 
+    /**
+     * Retrieve the string attributes whose names start with a prefix.
+     * 
+     * @param keyPrefix the attribute name prefix; null or empty to retrieve all string attributes.
+     * @param callback executed when RPC call completes.
+     */
+    void getMatchingAttributes(String keyPrefix, AsyncCallback<SessionAttributes> callback);
+
+    /**
+     * Set and remove several attributes at once.
+     * 
+     * @param values the attributes to set, may be null.
+     * @param removedKeys the names of the attributes to remove, may be null.
+     * @param expectedVersion the session version the update is based on, or -1 to update regardless.
+     * @param callback executed when RPC call completes.
+     */
+    void updateAttributes(Map<String, String> values, List<String> removedKeys, long expectedVersion,
+            AsyncCallback<SessionAttributes> callback);
+
     /**
      * Invalidate session.
      * 
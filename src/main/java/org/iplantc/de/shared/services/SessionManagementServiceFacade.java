@@ -6,6 +6,7 @@ import com.google.gwt.core.client.GWT;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwt.user.client.rpc.ServiceDefTarget;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -77,6 +78,31 @@ public class SessionManagementServiceFacade {
         proxy.removeAttribute(key, new AsyncCallbackWrapper<Void>(callback));
     }
 
+    /**
+     * Retrieve the string attributes whose names start with a prefix, along with the session version.
+     * 
+     * @param keyPrefix the attribute name prefix; null or empty to retrieve all string attributes.
+     * @param callback executed when RPC call completes.
+     */
+    public void getMatchingAttributes(String keyPrefix, AsyncCallback<SessionAttributes> callback) {
+        proxy.getMatchingAttributes(keyPrefix, new AsyncCallbackWrapper<SessionAttributes>(callback));
+    }
+
+    /**
+     * Set and remove several attributes in a single call. If the session has changed since the
+     * expected version, nothing is changed and the result has its conflict flag set.
+     * 
+     * @param values the attributes to set, may be null.
+     * @param removedKeys the names of the attributes to remove, may be null.
+     * @param expectedVersion the session version the update is based on, or -1 to update regardless.
+     * @param callback executed when RPC call completes.
+     */
+    public void updateAttributes(Map<String, String> values, List<String> removedKeys,
+            long expectedVersion, AsyncCallback<SessionAttributes> callback) {
+        proxy.updateAttributes(values, removedKeys, expectedVersion,
+                new AsyncCallbackWrapper<SessionAttributes>(callback));
+    }
+
     /**
      * Invalidate session.
      * 
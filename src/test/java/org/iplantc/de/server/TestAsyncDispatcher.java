@@ -0,0 +1,185 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class TestAsyncDispatcher {
+
+    /**
+     * Stands in for a Servlet 3.0 container, recording the requests that are put into asynchronous
+     * mode and completed.
+     */
+    private static class FakeAsyncSupport implements AsyncDispatcher.AsyncSupport {
+
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile int started;
+
+        @Override
+        public boolean isAsyncSupported(ServletRequest req) {
+            return true;
+        }
+
+        @Override
+        public Object startAsync(ServletRequest req, long timeout) {
+            started++;
+            return req;
+        }
+
+        @Override
+        public void complete(Object asyncContext) {
+            completed.countDown();
+        }
+
+        public void awaitCompletion() throws InterruptedException {
+            assertTrue("the request wasn't completed", completed.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @After
+    public void clearSecurityContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testClassicModeHandlesRequestsOnTheCallingThread() throws Exception {
+        assertHandledOnCallingThread(new AsyncDispatcher(new Properties()));
+    }
+
+    @Test
+    public void testAsyncModeFallsBackWithoutServletAsyncSupport() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(AsyncDispatcher.MODE, "async");
+        AsyncDispatcher dispatcher = new AsyncDispatcher(props);
+
+        // The Servlet 2.5 API used for testing can't handle requests asynchronously.
+        assertFalse(dispatcher.isAsync());
+        assertHandledOnCallingThread(dispatcher);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidModeIsRejected() {
+        Properties props = new Properties();
+        props.setProperty(AsyncDispatcher.MODE, "virtual");
+        new AsyncDispatcher(props);
+    }
+
+    @Test
+    public void testAsyncModeHandlesRequestsOnPoolThreads() throws Exception {
+        FakeAsyncSupport asyncSupport = new FakeAsyncSupport();
+        AsyncDispatcher dispatcher = new AsyncDispatcher(asyncProps(), asyncSupport);
+        assertTrue(dispatcher.isAsync());
+
+        Principal principal = new TestingAuthenticationToken("ipctest", "");
+        HttpServletRequest req = mock(HttpServletRequest.class);
+        when(req.getUserPrincipal()).thenReturn(principal);
+        SecurityContext securityContext = new SecurityContextImpl();
+        SecurityContextHolder.setContext(securityContext);
+
+        final Object[] seen = new Object[3];
+        dispatcher.dispatch(req, mock(HttpServletResponse.class), new AsyncDispatcher.Handler() {
+            @Override
+            public void handle(HttpServletRequest req, HttpServletResponse res) {
+                seen[0] = Thread.currentThread();
+                seen[1] = req.getUserPrincipal();
+                seen[2] = SecurityContextHolder.getContext();
+            }
+        });
+        asyncSupport.awaitCompletion();
+
+        assertEquals(1, asyncSupport.started);
+        assertNotSame(Thread.currentThread(), seen[0]);
+        assertSame(principal, seen[1]);
+        assertSame(securityContext, seen[2]);
+    }
+
+    @Test
+    public void testAsyncHandlerErrorsAreReported() throws Exception {
+        FakeAsyncSupport asyncSupport = new FakeAsyncSupport();
+        AsyncDispatcher dispatcher = new AsyncDispatcher(asyncProps(), asyncSupport);
+        HttpServletResponse res = mock(HttpServletResponse.class);
+        dispatcher.dispatch(mock(HttpServletRequest.class), res, new AsyncDispatcher.Handler() {
+            @Override
+            public void handle(HttpServletRequest req, HttpServletResponse res) {
+                throw new IllegalStateException("failed");
+            }
+        });
+        asyncSupport.awaitCompletion();
+        verify(res).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+
+    @Test
+    public void testExhaustedPoolHandlesRequestsOnTheCallingThread() throws Exception {
+        Properties props = asyncProps();
+        props.setProperty(AsyncDispatcher.MAX_THREADS, "1");
+        FakeAsyncSupport asyncSupport = new FakeAsyncSupport();
+        AsyncDispatcher dispatcher = new AsyncDispatcher(props, asyncSupport);
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.dispatch(mock(HttpServletRequest.class), mock(HttpServletResponse.class),
+                new AsyncDispatcher.Handler() {
+                    @Override
+                    public void handle(HttpServletRequest req, HttpServletResponse res) {
+                        blocked.countDown();
+                        try {
+                            release.await();
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+        try {
+            assertTrue(blocked.await(10, TimeUnit.SECONDS));
+            final Thread[] handlerThread = new Thread[1];
+            dispatcher.dispatch(mock(HttpServletRequest.class), mock(HttpServletResponse.class),
+                    new AsyncDispatcher.Handler() {
+                        @Override
+                        public void handle(HttpServletRequest req, HttpServletResponse res) {
+                            handlerThread[0] = Thread.currentThread();
+                        }
+                    });
+            assertSame(Thread.currentThread(), handlerThread[0]);
+            assertEquals(2, asyncSupport.started);
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+    private Properties asyncProps() {
+        Properties props = new Properties();
+        props.setProperty(AsyncDispatcher.MODE, "async");
+        return props;
+    }
+
+    private void assertHandledOnCallingThread(AsyncDispatcher dispatcher) throws Exception {
+        final Thread[] handlerThread = new Thread[1];
+        dispatcher.dispatch(null, null, new AsyncDispatcher.Handler() {
+            @Override
+            public void handle(HttpServletRequest req, HttpServletResponse res) throws ServletException,
+                    IOException {
+                handlerThread[0] = Thread.currentThread();
+            }
+        });
+        assertSame(Thread.currentThread(), handlerThread[0]);
+    }
+}
@@ -0,0 +1,199 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.iplantc.de.server.metrics.ServiceMetrics;
+import org.iplantc.de.server.metrics.ServiceStats;
+import org.iplantc.de.shared.services.BaseServiceCallWrapper;
+import org.iplantc.de.shared.services.ServiceCallWrapper;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Properties;
+
+import javax.servlet.http.HttpServletRequest;
+
+public class TestBaseDEServiceDispatcher {
+
+    private static final String SERVICE_KEY = "org.iplantc.services.test-dispatcher";
+
+    private HttpTransport transport;
+    private BaseDEServiceDispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ServiceIsolation.MAX_CONCURRENT, "1");
+        props.setProperty(ServiceIsolation.MAX_WAIT, "0");
+        props.setProperty(RetryPolicy.BASE_DELAY, "1");
+        props.setProperty(RetryPolicy.MAX_DELAY, "1");
+
+        transport = mock(HttpTransport.class);
+        BaseUrlConnector connector = mock(BaseUrlConnector.class);
+        when(connector.getBodilessRequest(any(HttpServletRequest.class), anyString(), eq("GET")))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) {
+                        return new HttpGet((String)invocation.getArguments()[1]);
+                    }
+                });
+
+        dispatcher = new BaseDEServiceDispatcher(new ServiceCallResolver() {
+            @Override
+            public String resolveAddress(BaseServiceCallWrapper wrapper) {
+                return resolveAddress(wrapper.getAddress());
+            }
+
+            @Override
+            public String resolveAddress(String serviceName) {
+                return "http://localhost/" + serviceName;
+            }
+
+            @Override
+            public String getServiceKey(String address) {
+                return SERVICE_KEY;
+            }
+        });
+        dispatcher.setRequest(mock(HttpServletRequest.class));
+        dispatcher.setUrlConnector(connector);
+        dispatcher.setTransport(transport);
+        dispatcher.setServiceIsolation(new ServiceIsolation(props));
+        dispatcher.setRetryPolicy(new RetryPolicy(props));
+    }
+
+    @After
+    public void tearDown() {
+        ServiceMetrics.getInstance().reset();
+    }
+
+    @Test
+    public void testStreamsHoldTheirPermitUntilClosed() throws Exception {
+        respondWith("streamed");
+        ServiceStats stats = ServiceMetrics.getInstance().getStats(SERVICE_KEY);
+
+        DEServiceInputStream in = dispatcher.getServiceStream(new ServiceCallWrapper(SERVICE_KEY));
+        assertEquals(1, stats.getInFlight());
+        try {
+            dispatcher.getServiceStream(new ServiceCallWrapper(SERVICE_KEY));
+            fail("the second concurrent call should have been refused");
+        }
+        catch (ServiceUnavailableException expected) {
+        }
+
+        assertEquals("streamed", IOUtils.toString(in, "UTF-8"));
+        in.close();
+        assertEquals(0, stats.getInFlight());
+        assertEquals(0, stats.getErrorCount());
+        assertEquals(8, stats.getBytesIn());
+
+        dispatcher.getServiceStream(new ServiceCallWrapper(SERVICE_KEY)).close();
+    }
+
+    @Test
+    public void testStreamsAreRetriedBeforeTheBodyIsRead() throws Exception {
+        when(transport.execute(any(HttpUriRequest.class), any(HttpContext.class)))
+                .thenThrow(new ConnectException("connection refused"))
+                .thenReturn(response(200, "streamed"));
+
+        DEServiceInputStream in = dispatcher.getServiceStream(new ServiceCallWrapper(SERVICE_KEY));
+        try {
+            assertEquals("streamed", IOUtils.toString(in, "UTF-8"));
+        }
+        finally {
+            in.close();
+        }
+        verify(transport, times(2)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+    }
+
+    @Test
+    public void testFailedStreamsCountAsErrors() throws Exception {
+        when(transport.execute(any(HttpUriRequest.class), any(HttpContext.class)))
+                .thenReturn(response(404, "not found"));
+        ServiceStats stats = ServiceMetrics.getInstance().getStats(SERVICE_KEY);
+        try {
+            dispatcher.getServiceStream(new ServiceCallWrapper(SERVICE_KEY));
+            fail("the failed call should have thrown an exception");
+        }
+        catch (ServiceErrorException expected) {
+            assertEquals(404, expected.getStatusCode());
+        }
+        assertEquals(0, stats.getInFlight());
+        assertEquals(1, stats.getErrorCount());
+
+        // The permit was released.
+        respondWith("streamed");
+        dispatcher.getServiceStream(new ServiceCallWrapper(SERVICE_KEY)).close();
+    }
+
+    @Test
+    public void testOtherConnectorsBuildBodilessRequestsFromRequestsWithBodies() throws Exception {
+        UrlConnector connector = mock(UrlConnector.class);
+        when(connector.getRequest(any(HttpServletRequest.class), anyString(), eq("POST")))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) {
+                        HttpPost result = new HttpPost(invocation.getArguments()[1] + "?proxyToken=t");
+                        result.setHeader("User-Agent", "test");
+                        return result;
+                    }
+                });
+        dispatcher.setUrlConnector(connector);
+        respondWith("streamed");
+
+        dispatcher.getServiceStream(new ServiceCallWrapper(SERVICE_KEY)).close();
+        ArgumentCaptor<HttpUriRequest> request = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(transport).execute(request.capture(), any(HttpContext.class));
+        assertEquals("GET", request.getValue().getMethod());
+        assertEquals("http://localhost/" + SERVICE_KEY + "?proxyToken=t",
+                request.getValue().getURI().toString());
+        assertEquals("test", request.getValue().getFirstHeader("User-Agent").getValue());
+    }
+
+    @Test
+    public void testBatchesRequireAListOfCalls() throws Exception {
+        try {
+            dispatcher.getServiceDataBatch(null);
+            fail("a missing list of calls should have been rejected");
+        }
+        catch (SerializationException expected) {
+            assertTrue(expected.getMessage().contains("no list of service calls"));
+        }
+        verifyZeroInteractions(transport);
+    }
+
+    private void respondWith(final String body) throws IOException {
+        when(transport.execute(any(HttpUriRequest.class), any(HttpContext.class)))
+                .thenAnswer(new Answer<HttpResponse>() {
+                    @Override
+                    public HttpResponse answer(InvocationOnMock invocation) throws Exception {
+                        return response(200, body);
+                    }
+                });
+    }
+
+    private HttpResponse response(int status, String body) throws IOException {
+        HttpResponse result = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+        result.setEntity(new StringEntity(body, "UTF-8"));
+        return result;
+    }
+}
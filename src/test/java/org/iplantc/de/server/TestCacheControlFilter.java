@@ -0,0 +1,238 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class TestCacheControlFilter {
+
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private File root;
+    private ServletContext context;
+    private CacheControlFilter filter;
+    private FilterChain chain;
+    private ByteArrayOutputStream body;
+
+    @Before
+    public void setUp() throws Exception {
+        root = File.createTempFile("cache-control", "");
+        root.delete();
+        root.mkdir();
+        write("/app.0123abcd.css.br", "brotli");
+        write("/app.0123abcd.css.gz", "gzip");
+        write("/plain.0123abcd.css", "plain");
+        write("/app.cache.js", "cached");
+        write("/app.nocache.js.gz", "nocache");
+
+        context = mock(ServletContext.class);
+        when(context.getResource(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Exception {
+                File file = new File(root, (String)invocation.getArguments()[0]);
+                return file.exists() ? file.toURI().toURL() : null;
+            }
+        });
+        when(context.getMimeType(anyString())).thenReturn("text/css");
+        filter = createFilter(null, null);
+        chain = mock(FilterChain.class);
+        body = new ByteArrayOutputStream();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Test
+    public void testFingerprintedResourcesAreImmutable() throws Exception {
+        HttpServletResponse res = response();
+        filter.doFilter(request("/plain.0123abcd.css", null), res, chain);
+        verify(res).setHeader("Cache-Control", IMMUTABLE);
+        verify(chain).doFilter(any(HttpServletRequest.class), same(res));
+
+        res = response();
+        filter.doFilter(request("/plain.css", null), res, chain);
+        verify(res, never()).setHeader(eq("Cache-Control"), anyString());
+    }
+
+    @Test
+    public void testFingerprintMatchingCanBeDisabled() throws Exception {
+        filter = createFilter("", null);
+        HttpServletResponse res = response();
+        filter.doFilter(request("/plain.0123abcd.css", null), res, chain);
+        verify(res, never()).setHeader(eq("Cache-Control"), anyString());
+
+        res = response();
+        filter.doFilter(request("/app.cache.js", null), res, chain);
+        verify(res).setHeader("Cache-Control", IMMUTABLE);
+    }
+
+    @Test
+    public void testDynamicResponsesWithFingerprintedNamesAreNotCached() throws Exception {
+        HttpServletResponse res = response();
+        filter.doFilter(request("/sample.20130415.fastq", null), res, chain);
+        verify(res, never()).setHeader(eq("Cache-Control"), anyString());
+        verify(chain).doFilter(any(HttpServletRequest.class), same(res));
+    }
+
+    @Test
+    public void testResourcesUnderStaticPrefixesAreImmutable() throws Exception {
+        filter = createFilter(null, "/assets/, /images/");
+        HttpServletResponse res = response();
+        filter.doFilter(request("/images/logo.0123abcd.png", null), res, chain);
+        verify(res).setHeader("Cache-Control", IMMUTABLE);
+
+        res = response();
+        filter.doFilter(request("/data/sample.20130415.fastq", null), res, chain);
+        verify(res, never()).setHeader(eq("Cache-Control"), anyString());
+    }
+
+    @Test
+    public void testNocacheResourcesAreNotCached() throws Exception {
+        HttpServletResponse res = response();
+        filter.doFilter(request("/app.nocache.js", null), res, chain);
+        verify(res).setHeader("Cache-control", "no-cache, no-store, must-revalidate");
+    }
+
+    @Test
+    public void testPrecompressedNocacheResourcesHaveNoValidators() throws Exception {
+        HttpServletRequest req = request("/app.nocache.js", "gzip");
+        when(req.getHeader("If-None-Match")).thenReturn("*");
+        HttpServletResponse res = response();
+        filter.doFilter(req, res, chain);
+        verify(res).setHeader("Content-Encoding", "gzip");
+        verify(res, never()).setHeader(eq("ETag"), anyString());
+        verify(res, never()).setDateHeader(eq("Last-Modified"), anyLong());
+        verify(res, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals("nocache", body.toString());
+    }
+
+    @Test
+    public void testPreferredPrecompressedSiblingIsServed() throws Exception {
+        HttpServletResponse res = response();
+        filter.doFilter(request("/app.0123abcd.css", "gzip, br"), res, chain);
+        verify(res).setHeader("Content-Encoding", "br");
+        verify(res).setContentType("text/css");
+        verify(res).setContentLength(6);
+        assertEquals("brotli", body.toString());
+        verifyZeroInteractions(chain);
+
+        body.reset();
+        res = response();
+        filter.doFilter(request("/app.0123abcd.css", "gzip;q=1, br;q=0"), res, chain);
+        verify(res).setHeader("Content-Encoding", "gzip");
+        assertEquals("gzip", body.toString());
+    }
+
+    @Test
+    public void testUncompressedResourceIsServedIfNoEncodingIsAccepted() throws Exception {
+        HttpServletResponse res = response();
+        filter.doFilter(request("/app.0123abcd.css", null), res, chain);
+        verify(res).setHeader("Vary", "Accept-Encoding");
+        verify(res, never()).setHeader(eq("Content-Encoding"), anyString());
+        verify(chain).doFilter(any(HttpServletRequest.class), same(res));
+    }
+
+    @Test
+    public void testMatchingEtagIsNotModified() throws Exception {
+        String etag = getEtag();
+        HttpServletRequest req = request("/app.0123abcd.css", "br");
+        when(req.getHeader("If-None-Match")).thenReturn("\"other\", W/" + etag);
+        HttpServletResponse res = response();
+        filter.doFilter(req, res, chain);
+        verify(res).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(0, body.size());
+    }
+
+    @Test
+    public void testEtagsAreComparedWhole() throws Exception {
+        String etag = getEtag();
+        HttpServletRequest req = request("/app.0123abcd.css", "br");
+        // A malformed tag that happens to contain the current tag doesn't match it.
+        when(req.getHeader("If-None-Match")).thenReturn("\"prefix-" + etag + "\"");
+        HttpServletResponse res = response();
+        filter.doFilter(req, res, chain);
+        verify(res, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals("brotli", body.toString());
+    }
+
+    @Test
+    public void testUnchangedSinceDateIsNotModified() throws Exception {
+        long lastModified = new File(root, "/app.0123abcd.css.br").lastModified();
+        HttpServletRequest req = request("/app.0123abcd.css", "br");
+        when(req.getDateHeader("If-Modified-Since")).thenReturn(lastModified);
+        HttpServletResponse res = response();
+        filter.doFilter(req, res, chain);
+        verify(res).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+        when(req.getDateHeader("If-Modified-Since")).thenReturn(lastModified - 1000);
+        res = response();
+        filter.doFilter(req, res, chain);
+        verify(res, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    private String getEtag() throws Exception {
+        HttpServletResponse res = response();
+        filter.doFilter(request("/app.0123abcd.css", "br"), res, chain);
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(res).setHeader(eq("ETag"), etag.capture());
+        body.reset();
+        return etag.getValue();
+    }
+
+    private CacheControlFilter createFilter(String fingerprintPattern, String staticPrefixes)
+            throws Exception {
+        FilterConfig config = mock(FilterConfig.class);
+        when(config.getServletContext()).thenReturn(context);
+        when(config.getInitParameter("fingerprintPattern")).thenReturn(fingerprintPattern);
+        when(config.getInitParameter("staticPrefixes")).thenReturn(staticPrefixes);
+        CacheControlFilter result = new CacheControlFilter();
+        result.init(config);
+        return result;
+    }
+
+    private HttpServletRequest request(String path, String acceptEncoding) {
+        HttpServletRequest result = mock(HttpServletRequest.class);
+        when(result.getMethod()).thenReturn("GET");
+        when(result.getRequestURI()).thenReturn("/de" + path);
+        when(result.getServletPath()).thenReturn(path);
+        when(result.getHeader("Accept-Encoding")).thenReturn(acceptEncoding);
+        when(result.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+        return result;
+    }
+
+    private HttpServletResponse response() throws IOException {
+        HttpServletResponse result = mock(HttpServletResponse.class);
+        when(result.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+        });
+        return result;
+    }
+
+    private void write(String path, String content) throws IOException {
+        FileUtils.writeStringToFile(new File(root, path), content);
+    }
+}
@@ -0,0 +1,190 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.List;
+
+public class TestChunkedUpload {
+
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes();
+
+    private File spoolFile;
+    private ChunkedUpload upload;
+
+    @Before
+    public void setUp() throws IOException {
+        spoolFile = File.createTempFile("chunked-upload", ".part");
+        upload = new ChunkedUpload("id", "ipctest", "http://example.org/upload", "file.txt", "text/plain",
+                CONTENT.length, spoolFile);
+    }
+
+    @After
+    public void tearDown() {
+        upload.discard();
+    }
+
+    @Test
+    public void testChunksMayArriveInAnyOrder() throws IOException {
+        writeChunk(10, 5, null);
+        writeChunk(0, 5, null);
+        assertRanges(new long[][] {{0, 5}, {10, 15}});
+        assertEquals(5, upload.getContiguousBytes());
+        assertFalse(upload.isComplete());
+
+        // Adjacent ranges are merged.
+        writeChunk(5, 5, null);
+        assertRanges(new long[][] {{0, 15}});
+
+        // Overlapping ranges are merged, and chunks sent again don't change anything.
+        writeChunk(12, 8, null);
+        writeChunk(0, 5, null);
+        assertRanges(new long[][] {{0, 20}});
+        assertTrue(upload.isComplete());
+        assertArrayEquals(CONTENT, FileUtils.readFileToByteArray(spoolFile));
+    }
+
+    @Test
+    public void testRangeSpanningSeveralRangesIsMerged() throws IOException {
+        writeChunk(2, 2, null);
+        writeChunk(6, 2, null);
+        writeChunk(10, 2, null);
+        assertRanges(new long[][] {{2, 4}, {6, 8}, {10, 12}});
+        writeChunk(3, 8, null);
+        assertRanges(new long[][] {{2, 12}});
+    }
+
+    @Test
+    public void testChunkMatchingItsChecksumIsAccepted() throws Exception {
+        writeChunk(0, 10, md5(0, 10));
+        assertRanges(new long[][] {{0, 10}});
+    }
+
+    @Test
+    public void testChunkNotMatchingItsChecksumIsRejected() throws Exception {
+        try {
+            writeChunk(0, 10, md5(10, 10));
+            fail("the chunk should have been rejected");
+        }
+        catch (ChunkedUpload.ChunkRejectedException expected) {
+        }
+        assertRanges(new long[0][]);
+    }
+
+    @Test
+    public void testShortChunkIsRejected() throws IOException {
+        try {
+            upload.writeChunk(0, 10, new ByteArrayInputStream(CONTENT, 0, 5), null);
+            fail("the chunk should have been rejected");
+        }
+        catch (ChunkedUpload.ChunkRejectedException expected) {
+        }
+        assertRanges(new long[0][]);
+    }
+
+    @Test
+    public void testChunksOutsideTheFileAreRejected() throws IOException {
+        long[][] invalid = {{-1, 5}, {0, -1}, {16, 5}, {0, 21}};
+        for (long[] chunk : invalid) {
+            try {
+                upload.writeChunk(chunk[0], chunk[1], new ByteArrayInputStream(CONTENT), null);
+                fail("the chunk at " + chunk[0] + " with length " + chunk[1] + " should have been rejected");
+            }
+            catch (ChunkedUpload.ChunkRejectedException expected) {
+            }
+        }
+        assertRanges(new long[0][]);
+    }
+
+    @Test
+    public void testEmptyUploadIsComplete() throws IOException {
+        upload = new ChunkedUpload("id", "ipctest", "http://example.org/upload", "empty.txt", null, 0,
+                spoolFile);
+        assertTrue(upload.isComplete());
+        assertTrue(upload.beginCompletion());
+        upload.endCompletion(true);
+        assertFalse(spoolFile.exists());
+    }
+
+    @Test
+    public void testChunksAreRejectedOnceTheUploadIsDiscarded() throws IOException {
+        upload.discard();
+        try {
+            writeChunk(0, 5, null);
+            fail("the chunk should have been rejected");
+        }
+        catch (ChunkedUpload.UploadClosedException expected) {
+        }
+        assertFalse(spoolFile.exists());
+        assertRanges(new long[0][]);
+    }
+
+    @Test
+    public void testChunksAreRejectedWhileTheUploadIsBeingCompleted() throws IOException {
+        assertFalse(upload.beginCompletion());
+        writeChunk(0, 20, null);
+        assertTrue(upload.beginCompletion());
+        try {
+            writeChunk(0, 5, null);
+            fail("the chunk should have been rejected");
+        }
+        catch (ChunkedUpload.UploadClosedException expected) {
+        }
+        try {
+            upload.beginCompletion();
+            fail("the upload should not have been completed twice");
+        }
+        catch (ChunkedUpload.UploadClosedException expected) {
+        }
+
+        // An upload that couldn't be sent may be completed again.
+        upload.endCompletion(false);
+        assertTrue(spoolFile.exists());
+        assertTrue(upload.beginCompletion());
+    }
+
+    @Test
+    public void testDiscardingDuringCompletionWaitsForTheCompletion() throws IOException {
+        writeChunk(0, 20, null);
+        assertTrue(upload.beginCompletion());
+        upload.discard();
+        assertTrue(spoolFile.exists());
+        assertFalse(upload.discardIfIdleSince(Long.MAX_VALUE));
+        upload.endCompletion(false);
+        assertFalse(spoolFile.exists());
+    }
+
+    @Test
+    public void testIdleUploadsAreDiscarded() throws IOException {
+        assertFalse(upload.discardIfIdleSince(upload.getLastActivity()));
+        assertTrue(spoolFile.exists());
+        assertTrue(upload.discardIfIdleSince(upload.getLastActivity() + 1));
+        assertFalse(spoolFile.exists());
+    }
+
+    private void writeChunk(int offset, int length, byte[] md5) throws IOException {
+        upload.writeChunk(offset, length, new ByteArrayInputStream(CONTENT, offset, length), md5);
+    }
+
+    private byte[] md5(int offset, int length) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        digest.update(CONTENT, offset, length);
+        return digest.digest();
+    }
+
+    private void assertRanges(long[][] expected) {
+        List<long[]> actual = upload.getReceivedRanges();
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual.get(i));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestCircuitBreaker {
+
+    @Test
+    public void testOpensWhenFailureRateIsExceeded() {
+        CircuitBreaker breaker = new CircuitBreaker(50, 4, 60000, 60000, 60000, 1);
+        for (int i = 0; i < 2; i++) {
+            breaker.record(breaker.tryAcquire(), true, 0);
+        }
+        breaker.record(breaker.tryAcquire(), false, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.record(breaker.tryAcquire(), false, 0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire());
+    }
+
+    @Test
+    public void testSlowCallsCountAsFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(100, 1, 60000, 10, 60000, 1);
+        breaker.record(breaker.tryAcquire(), true, 20000000L);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testProbeClosesBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(100, 1, 60000, 60000, 0, 1);
+        long stale = breaker.tryAcquire();
+        breaker.record(breaker.tryAcquire(), false, 0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        long probe = breaker.tryAcquire();
+        assertTrue(probe != CircuitBreaker.REFUSED);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire());
+
+        // Calls that started before the breaker opened don't affect the probe.
+        breaker.record(stale, false, 0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.record(probe, true, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
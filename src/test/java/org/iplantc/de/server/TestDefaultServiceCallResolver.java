@@ -127,6 +127,63 @@ public class TestDefaultServiceCallResolver {
         verifyURLParses(actual, true);
     }
 
+    @Test
+    public void testAdditionalPathAndQueryAreAppended() {
+        String srvKey = "org.iplantc.services.acctmgmt.fetchStates/foo/bar?baz=quux";
+        String expected = "http://ndy.sixfifty.org/accountmanagementv2/fetch-states/foo/bar?baz=quux";
+        assertEquals(expected, resolver.resolveAddress(wrapper(srvKey)));
+        assertEquals(expected, resolver.resolveAddress(srvKey));
+    }
+
+    @Test(expected = UnresolvableServiceNameException.class)
+    public void testUnknownServiceNameFails() {
+        resolver.resolveAddress(wrapper("org.iplantc.services.acctmgmt.unknown"));
+    }
+
+    @Test
+    public void testServiceKeyIgnoresPathAndQuery() {
+        assertEquals("org.iplantc.services.acctmgmt.fetchStates",
+                resolver.getServiceKey("org.iplantc.services.acctmgmt.fetchStates/foo?baz=quux"));
+        assertNull(resolver.getServiceKey("http://www.google.com"));
+    }
+
+    @Test
+    public void testReloadSwapsRoutingSnapshot() {
+        String srvKey = "org.iplantc.services.acctmgmt.fetchStates";
+        Properties overrides = new Properties();
+        overrides.put(srvKey, "http://emma.iplantcollaborative.org/accountmanagementv2/fetch-states");
+        long version = resolver.getRoutingVersion();
+        resolver.reload(overrides);
+        assertEquals(version + 1, resolver.getRoutingVersion());
+        assertEquals("http://emma.iplantcollaborative.org/accountmanagementv2/fetch-states",
+                resolver.resolveAddress(wrapper(srvKey)));
+        assertEquals("http://ndy.sixfifty.org/accountmanagementv2/fetch-positions",
+                resolver.resolveAddress(wrapper("org.iplantc.services.acctmgmt.fetchPositions")));
+    }
+
+    @Test
+    public void testUrlsContainingCommasAreNotSplit() {
+        String srvKey = "org.iplantc.services.acctmgmt.fetchStates";
+        Properties overrides = new Properties();
+        overrides.put(srvKey, "http://ndy.sixfifty.org/states/a,b?fields=name,code");
+        resolver.reload(overrides);
+        assertEquals("http://ndy.sixfifty.org/states/a,b?fields=name,code",
+                resolver.resolveAddress(wrapper(srvKey)));
+    }
+
+    @Test
+    public void testListsOfAbsoluteUrlsAreSplit() {
+        String srvKey = "org.iplantc.services.acctmgmt.fetchStates";
+        Properties overrides = new Properties();
+        overrides.put(srvKey, "http://one.sixfifty.org/states, http://two.sixfifty.org/states");
+        resolver.reload(overrides);
+        String first = resolver.resolveAddress(wrapper(srvKey));
+        String second = resolver.resolveAddress(wrapper(srvKey));
+        assertTrue(first.matches("http://(one|two)\\.sixfifty\\.org/states"));
+        assertFalse(first.equals(second));
+        resolver.destroy();
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testResolverFailsWithoutPrefix() {
         testProps.remove("prefix");
@@ -0,0 +1,86 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+public class TestEndpointBalancer {
+
+    private static final String SERVICE = "org.iplantc.services.apps";
+
+    private static final List<String> URLS = Arrays.asList("http://apps-1:31323", "http://apps-2:31323",
+            "http://apps-3:31323");
+
+    @Test
+    public void testRoundRobinUsesEveryEndpoint() {
+        EndpointBalancer balancer = new EndpointBalancer(new Properties());
+        Set<String> chosen = new HashSet<String>();
+        for (int i = 0; i < URLS.size(); i++) {
+            chosen.add(balancer.choose(SERVICE, URLS));
+        }
+        assertEquals(new HashSet<String>(URLS), chosen);
+    }
+
+    @Test
+    public void testLeastInFlightAvoidsBusyEndpoints() {
+        Properties props = new Properties();
+        props.setProperty(EndpointBalancer.STRATEGY, "least-in-flight");
+        EndpointBalancer balancer = new EndpointBalancer(props);
+        EndpointBalancer.Lease first = balancer.start(SERVICE, URLS, URLS.get(0) + "/apps");
+        EndpointBalancer.Lease second = balancer.start(SERVICE, URLS, URLS.get(1) + "/apps");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(URLS.get(2), balancer.choose(SERVICE, URLS));
+        }
+        first.release(true);
+        second.release(true);
+    }
+
+    @Test
+    public void testFailingEndpointIsEjected() {
+        Properties props = new Properties();
+        props.setProperty(EndpointBalancer.EJECT_AFTER, "2");
+        props.setProperty(EndpointBalancer.MAX_EJECTED, "50");
+        EndpointBalancer balancer = new EndpointBalancer(props);
+        for (int i = 0; i < 2; i++) {
+            balancer.start(SERVICE, URLS, URLS.get(0) + "/apps").release(false);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertFalse(URLS.get(0).equals(balancer.choose(SERVICE, URLS)));
+        }
+
+        // Only one of the three endpoints may be ejected at once.
+        for (int i = 0; i < 2; i++) {
+            balancer.start(SERVICE, URLS, URLS.get(1) + "/apps").release(false);
+        }
+        Set<String> chosen = new HashSet<String>();
+        for (int i = 0; i < 10; i++) {
+            chosen.add(balancer.choose(SERVICE, URLS));
+        }
+        assertEquals(new HashSet<String>(URLS.subList(1, 3)), chosen);
+    }
+
+    @Test
+    public void testResolverSpreadsCallsAcrossEndpoints() {
+        Properties props = new Properties();
+        props.setProperty("prefix", "org.iplantc.services");
+        props.setProperty(SERVICE, URLS.get(0) + ", " + URLS.get(1));
+        DefaultServiceCallResolver resolver = new DefaultServiceCallResolver(props);
+        try {
+            Set<String> resolved = new HashSet<String>();
+            for (int i = 0; i < 2; i++) {
+                resolved.add(resolver.resolveAddress(SERVICE + "/groups?public=true"));
+            }
+            assertEquals(new HashSet<String>(Arrays.asList(URLS.get(0) + "/groups?public=true",
+                    URLS.get(1) + "/groups?public=true")), resolved);
+        }
+        finally {
+            resolver.shutdown();
+        }
+    }
+}
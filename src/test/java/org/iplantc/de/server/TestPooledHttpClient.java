@@ -0,0 +1,113 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+
+public class TestPooledHttpClient {
+
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private HttpServer server;
+    private String url;
+    private PooledHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/";
+
+        Properties props = new Properties();
+        props.setProperty(PooledHttpClient.IDLE_TIMEOUT, "1");
+        client = new PooledHttpClient(props);
+    }
+
+    @After
+    public void tearDown() {
+        client.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        get();
+        get();
+        get();
+        assertEquals(1, clientPorts.size());
+        assertEquals(1, getConnectionManager().getTotalStats().getAvailable());
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        get();
+        assertEquals(1, getConnectionManager().getTotalStats().getAvailable());
+        long giveUp = System.currentTimeMillis() + 5000;
+        while (getConnectionManager().getTotalStats().getAvailable() > 0
+                && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, getConnectionManager().getTotalStats().getAvailable());
+
+        // The next request opens a new connection.
+        get();
+        assertEquals(2, clientPorts.size());
+    }
+
+    @Test
+    public void testSharedClientIsShutDownWithTheContext() throws Exception {
+        ServletContext context = mock(ServletContext.class);
+        when(context.getAttribute(PooledHttpClient.class.getName())).thenReturn(client);
+        get();
+
+        new SharedResourcesListener().contextDestroyed(new ServletContextEvent(context));
+        verify(context).removeAttribute(PooledHttpClient.class.getName());
+        try {
+            get();
+            fail("the client should have been shut down");
+        }
+        catch (IllegalStateException expected) {
+        }
+    }
+
+    private void get() throws IOException {
+        HttpResponse response = client.execute(new HttpGet(url));
+        assertEquals("ok", EntityUtils.toString(response.getEntity()));
+    }
+
+    private PoolingClientConnectionManager getConnectionManager() {
+        return (PoolingClientConnectionManager)client.getClient().getConnectionManager();
+    }
+}
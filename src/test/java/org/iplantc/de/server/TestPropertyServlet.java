@@ -0,0 +1,86 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Properties;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class TestPropertyServlet {
+
+    private PropertyServlet servlet;
+    private StringWriter body;
+
+    @Before
+    public void setUp() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("org.iplantc.discoveryenvironment.foo", "bar");
+        servlet = new PropertyServlet(props);
+        ServletConfig config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(mock(ServletContext.class));
+        servlet.init(config);
+        body = new StringWriter();
+    }
+
+    @Test
+    public void testPropertiesAreSentAsJson() throws Exception {
+        HttpServletResponse res = response();
+        servlet.doGet(request(null), res);
+        verify(res).setContentType("application/json");
+        assertEquals("{\"org.iplantc.discoveryenvironment.foo\":\"bar\"}", body.toString());
+    }
+
+    @Test
+    public void testMatchingEtagIsNotModified() throws Exception {
+        String etag = getEtag();
+        HttpServletResponse res = response();
+        servlet.doGet(request("\"other\", W/" + etag), res);
+        verify(res).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(0, body.getBuffer().length());
+
+        res = response();
+        servlet.doGet(request("*"), res);
+        verify(res).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+    @Test
+    public void testEtagsAreComparedWhole() throws Exception {
+        String etag = getEtag();
+        HttpServletResponse res = response();
+        servlet.doGet(request("\"prefix-" + etag.substring(1)), res);
+        verify(res, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertTrue(body.getBuffer().length() > 0);
+    }
+
+    private String getEtag() throws Exception {
+        HttpServletResponse res = response();
+        servlet.doGet(request(null), res);
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(res).setHeader(eq("ETag"), etag.capture());
+        body.getBuffer().setLength(0);
+        return etag.getValue();
+    }
+
+    private HttpServletRequest request(String ifNoneMatch) {
+        HttpServletRequest result = mock(HttpServletRequest.class);
+        when(result.getMethod()).thenReturn("GET");
+        when(result.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+        return result;
+    }
+
+    private HttpServletResponse response() throws Exception {
+        HttpServletResponse result = mock(HttpServletResponse.class);
+        when(result.getWriter()).thenReturn(new PrintWriter(body, true));
+        return result;
+    }
+}
@@ -0,0 +1,183 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.jasig.cas.client.authentication.AttributePrincipal;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+
+public class TestProxyTicketProvider {
+
+    private static final String SERVICE = "http://example.org:8080";
+
+    /**
+     * Runs prefetches on the calling thread so that the pools are refilled before the call returns.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * A provider with a clock that only moves when it's told to.
+     */
+    private static class ManualClockProvider extends ProxyTicketProvider {
+        private static final long serialVersionUID = 1L;
+
+        private long now = 1000000;
+
+        public ManualClockProvider(int poolSize, long maxTicketAge) {
+            super(poolSize, maxTicketAge, DIRECT);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private AttributePrincipal principal;
+    private int issued;
+
+    @Before
+    public void setUp() {
+        issued = 0;
+        principal = mock(AttributePrincipal.class);
+        when(principal.getProxyTicketFor(SERVICE)).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return "ST-" + ++issued;
+            }
+        });
+    }
+
+    @Test
+    public void testInfrequentCallsDontPrefetch() {
+        ManualClockProvider provider = new ManualClockProvider(2, 5000);
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(provider.getProxyTicket(principal, SERVICE));
+            provider.now += 10000;
+        }
+        assertEquals(5, issued);
+    }
+
+    @Test
+    public void testFrequentCallsAreServedFromThePool() {
+        ManualClockProvider provider = new ManualClockProvider(2, 5000);
+        long hits = ProxyTicketProvider.getHitCount();
+
+        // The first call has no history to go by.
+        assertEquals("ST-1", provider.getProxyTicket(principal, SERVICE));
+        assertEquals(1, issued);
+
+        // The second call within the ticket age shows demand, so a ticket is prefetched.
+        provider.now += 1000;
+        assertEquals("ST-2", provider.getProxyTicket(principal, SERVICE));
+        assertEquals(3, issued);
+
+        provider.now += 1000;
+        assertEquals("ST-3", provider.getProxyTicket(principal, SERVICE));
+        assertEquals(1, ProxyTicketProvider.getHitCount() - hits);
+
+        // The pool is refilled to the number of recent calls, up to the pool size.
+        assertEquals(5, issued);
+    }
+
+    @Test
+    public void testExpiredTicketsAreDiscarded() {
+        ManualClockProvider provider = new ManualClockProvider(1, 5000);
+        long expired = ProxyTicketProvider.getExpiredCount();
+        provider.getProxyTicket(principal, SERVICE);
+        provider.now += 1000;
+        provider.getProxyTicket(principal, SERVICE);
+        assertEquals(3, issued);
+
+        // The prefetched ticket is too old to use by the time the next call arrives.
+        provider.now += 6000;
+        assertEquals("ST-4", provider.getProxyTicket(principal, SERVICE));
+        assertEquals(1, ProxyTicketProvider.getExpiredCount() - expired);
+
+        // The gap since the last call is longer than the ticket age, so nothing is prefetched.
+        assertEquals(4, issued);
+    }
+
+    @Test
+    public void testPrefetchingCanBeDisabled() {
+        ManualClockProvider provider = new ManualClockProvider(0, 5000);
+        for (int i = 0; i < 5; i++) {
+            provider.getProxyTicket(principal, SERVICE);
+            provider.now += 100;
+        }
+        assertEquals(5, issued);
+    }
+
+    @Test
+    public void testFailedTicketRequestsAreReported() {
+        ManualClockProvider provider = new ManualClockProvider(2, 5000);
+        long failures = ProxyTicketProvider.getCasFailureCount();
+        AttributePrincipal unauthenticated = mock(AttributePrincipal.class);
+        assertNull(provider.getProxyTicket(unauthenticated, SERVICE));
+        assertEquals(1, ProxyTicketProvider.getCasFailureCount() - failures);
+    }
+
+    @Test
+    public void testSessionsSharePrefetchThreadsThatStopWithTheContext() {
+        ServletContext context = mock(ServletContext.class);
+        final Map<String, Object> contextAttributes = new HashMap<String, Object>();
+        when(context.getAttribute(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return contextAttributes.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                contextAttributes.put((String)invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(context).setAttribute(anyString(), any());
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                contextAttributes.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(context).removeAttribute(anyString());
+
+        ProxyTicketProvider first = ProxyTicketProvider.forSession(session(context), 2, 5000);
+        ProxyTicketProvider second = ProxyTicketProvider.forSession(session(context), 2, 5000);
+        assertNotSame(first, second);
+        assertEquals(1, contextAttributes.size());
+        ThreadPoolExecutor prefetcher = (ThreadPoolExecutor)contextAttributes.values().iterator().next();
+        assertTrue(prefetcher.allowsCoreThreadTimeOut());
+
+        ProxyTicketProvider.shutdown(context);
+        assertTrue(prefetcher.isShutdown());
+        assertTrue(contextAttributes.isEmpty());
+
+        // Providers that outlive the prefetch threads still hand out tickets.
+        assertNotNull(first.getProxyTicket(principal, SERVICE));
+        assertNotNull(first.getProxyTicket(principal, SERVICE));
+    }
+
+    private HttpSession session(ServletContext context) {
+        HttpSession result = mock(HttpSession.class);
+        when(result.getServletContext()).thenReturn(context);
+        return result;
+    }
+}
@@ -0,0 +1,126 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+import java.security.Principal;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+public class TestRequestContext {
+
+    @After
+    public void clearSecurityContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testPrincipalAndSecurityContextAreAvailableOnOtherThreads() throws Exception {
+        Principal principal = new TestingAuthenticationToken("ipctest", "");
+        HttpServletRequest req = mock(HttpServletRequest.class);
+        when(req.getUserPrincipal()).thenReturn(principal);
+        SecurityContext securityContext = new SecurityContextImpl();
+        SecurityContextHolder.setContext(securityContext);
+
+        final RequestContext context = RequestContext.capture(req);
+
+        // The container's request wrapper can't find the principal on other threads.
+        when(req.getUserPrincipal()).thenReturn(null);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Object[] seen = executor.submit(new Callable<Object[]>() {
+                @Override
+                public Object[] call() {
+                    RequestContext previous = context.attach();
+                    try {
+                        return new Object[] {RequestContext.current().getRequest().getUserPrincipal(),
+                                SecurityContextHolder.getContext()};
+                    }
+                    finally {
+                        context.detach(previous);
+                    }
+                }
+            }).get();
+            assertSame(principal, seen[0]);
+            assertSame(securityContext, seen[1]);
+
+            // Pool threads are left without any of the request's state.
+            assertNull(executor.submit(new Callable<RequestContext>() {
+                @Override
+                public RequestContext call() {
+                    return RequestContext.current();
+                }
+            }).get());
+        }
+        finally {
+            executor.shutdown();
+        }
+        assertSame(securityContext, SecurityContextHolder.getContext());
+    }
+
+    @Test
+    public void testForkedContextDoesntTouchTheServletRequest() {
+        Principal principal = new TestingAuthenticationToken("ipctest", "");
+        HttpSession session = mock(HttpSession.class);
+        HttpServletRequest req = mock(HttpServletRequest.class);
+        when(req.getUserPrincipal()).thenReturn(principal);
+        when(req.getSession(false)).thenReturn(session);
+        when(req.getRemoteAddr()).thenReturn("127.0.0.1");
+        when(req.getHeader("User-Agent")).thenReturn("Mozilla/5.0");
+
+        RequestContext context = RequestContext.capture(req).fork();
+
+        // The container may recycle the request once it has finished.
+        reset(req);
+        HttpServletRequest detached = context.getRequest();
+        assertSame(principal, detached.getUserPrincipal());
+        assertSame(session, detached.getSession());
+        assertSame(session, detached.getSession(false));
+        assertEquals("127.0.0.1", detached.getRemoteAddr());
+        assertEquals("Mozilla/5.0", detached.getHeader("user-agent"));
+        try {
+            detached.getParameter("address");
+            fail("the servlet request was used");
+        }
+        catch (IllegalStateException expected) {
+        }
+        verifyZeroInteractions(req);
+    }
+
+    @Test
+    public void testForkedContextIsCancelledSeparately() {
+        RequestContext context = RequestContext.capture(mock(HttpServletRequest.class));
+        RequestContext fork = context.fork();
+        HttpGet shared = new HttpGet("http://localhost/foo");
+        fork.track(shared);
+        context.cancel();
+        assertFalse(shared.isAborted());
+        assertFalse(fork.isCancelled());
+    }
+
+    @Test
+    public void testCancelAbortsTrackedAndLaterRequests() {
+        RequestContext context = RequestContext.capture(mock(HttpServletRequest.class));
+        HttpGet inFlight = new HttpGet("http://localhost/foo");
+        context.track(inFlight);
+        context.cancel();
+        assertTrue(inFlight.isAborted());
+
+        HttpGet later = new HttpGet("http://localhost/bar");
+        context.track(later);
+        assertTrue(later.isAborted());
+        assertTrue(context.isCancelled());
+    }
+}
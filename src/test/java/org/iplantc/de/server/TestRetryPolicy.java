@@ -0,0 +1,65 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+
+import org.iplantc.de.shared.AuthenticationException;
+import org.iplantc.de.shared.services.BaseServiceCallWrapper.Type;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.Properties;
+
+public class TestRetryPolicy {
+
+    private static final String SERVICE = "org.iplantc.services.foo";
+
+    @Test
+    public void testOnlyIdempotentMethodsAreRetriedByDefault() {
+        RetryPolicy.Settings settings = new RetryPolicy(new Properties()).getSettings(SERVICE);
+        assertTrue(settings.isRetryable(Type.GET));
+        assertTrue(settings.isRetryable(Type.DELETE));
+        assertFalse(settings.isRetryable(Type.PUT));
+        assertFalse(settings.isRetryable(Type.POST));
+    }
+
+    @Test
+    public void testServiceSettingsOverrideDefaults() {
+        Properties props = new Properties();
+        props.setProperty(RetryPolicy.METHODS + "." + SERVICE, "GET, POST");
+        props.setProperty(RetryPolicy.MAX_ATTEMPTS, "5");
+        RetryPolicy policy = new RetryPolicy(props);
+
+        RetryPolicy.Settings settings = policy.getSettings(SERVICE);
+        assertTrue(settings.isRetryable(Type.POST));
+        assertFalse(settings.isRetryable(Type.DELETE));
+        assertEquals(5, settings.getMaxAttempts());
+        assertFalse(policy.getSettings(null).isRetryable(Type.POST));
+    }
+
+    @Test
+    public void testDelayIsBounded() {
+        Properties props = new Properties();
+        props.setProperty(RetryPolicy.BASE_DELAY, "100");
+        props.setProperty(RetryPolicy.MAX_DELAY, "400");
+        RetryPolicy.Settings settings = new RetryPolicy(props).getSettings(SERVICE);
+        for (int attempt = 1; attempt < 10; attempt++) {
+            long delay = settings.getDelayMillis(attempt);
+            assertTrue(delay >= 0);
+            assertTrue(delay < Math.min(400, 100 << (attempt - 1)));
+        }
+    }
+
+    @Test
+    public void testTransientFailures() {
+        assertTrue(RetryPolicy.isTransient(new SocketException("Connection reset")));
+        assertTrue(RetryPolicy.isTransient(new ServiceErrorException(503, "")));
+        assertFalse(RetryPolicy.isTransient(new ServiceErrorException(500, "")));
+        assertFalse(RetryPolicy.isTransient(new ServiceErrorException(404, "")));
+        assertFalse(RetryPolicy.isTransient(new ServiceUnavailableException(SERVICE, "busy", 1)));
+        assertFalse(RetryPolicy.isTransient(new AuthenticationException("expired")));
+        assertFalse(RetryPolicy.isTransient(new DeadlineExceededException("http://foo", null)));
+        assertTrue(RetryPolicy.isTransient(new IOException("unexpected end of stream")));
+    }
+}
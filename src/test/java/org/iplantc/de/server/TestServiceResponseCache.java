@@ -0,0 +1,140 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+
+public class TestServiceResponseCache {
+
+    private static final String APPS = "org.iplantc.services.apps";
+    private static final String APPS_ADMIN = "org.iplantc.services.apps-admin";
+    private static final String GENOMES = "org.iplantc.services.reference-genomes";
+
+    private ServiceResponseCache cache;
+
+    @Before
+    public void setUp() {
+        Properties props = new Properties();
+        props.setProperty(ServiceResponseCache.MAX_ENTRIES, "3");
+        props.setProperty(ServiceResponseCache.TTL_PREFIX + APPS, "300");
+        props.setProperty(ServiceResponseCache.TTL_PREFIX + GENOMES, "300");
+        props.setProperty(ServiceResponseCache.INVALIDATES_PREFIX + APPS_ADMIN, APPS);
+        cache = new ServiceResponseCache(props);
+    }
+
+    @Test
+    public void testOnlyConfiguredServicesAreCached() {
+        assertTrue(cache.isCacheable(APPS));
+        assertFalse(cache.isCacheable(APPS_ADMIN));
+        assertFalse(cache.isCacheable(null));
+
+        put("ipctest", APPS_ADMIN, "http://apps/admin/apps", response());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCachedResponsesAreFresh() {
+        put("ipctest", APPS, "http://apps/apps/123", response());
+        ServiceResponseCache.Entry entry = cache.get("ipctest http://apps/apps/123");
+        assertNotNull(entry);
+        assertTrue(entry.isFresh());
+        assertEquals("body", entry.getBody());
+        assertNull(cache.get("other http://apps/apps/123"));
+    }
+
+    @Test
+    public void testCacheControlIsHonored() {
+        put("ipctest", APPS, "http://apps/apps/1", response("Cache-Control", "no-store"));
+        assertNull(cache.get("ipctest http://apps/apps/1"));
+
+        // Responses that must be revalidated are only worth keeping if they can be revalidated.
+        put("ipctest", APPS, "http://apps/apps/2", response("Cache-Control", "no-cache"));
+        assertNull(cache.get("ipctest http://apps/apps/2"));
+
+        HttpResponse validated = response("Cache-Control", "no-cache");
+        validated.setHeader("ETag", "\"v1\"");
+        put("ipctest", APPS, "http://apps/apps/3", validated);
+        ServiceResponseCache.Entry entry = cache.get("ipctest http://apps/apps/3");
+        assertFalse(entry.isFresh());
+        assertTrue(entry.hasValidators());
+
+        HttpGet request = new HttpGet("http://apps/apps/3");
+        entry.addValidators(request);
+        assertEquals("\"v1\"", request.getFirstHeader("If-None-Match").getValue());
+    }
+
+    @Test
+    public void testRevalidatedResponsesBecomeFresh() {
+        HttpResponse validated = response("Cache-Control", "max-age=0");
+        validated.setHeader("ETag", "\"v1\"");
+        put("ipctest", APPS, "http://apps/apps/1", validated);
+        ServiceResponseCache.Entry entry = cache.get("ipctest http://apps/apps/1");
+        assertFalse(entry.isFresh());
+
+        HttpResponse notModified = new BasicHttpResponse(HttpVersion.HTTP_1_1, 304, "Not Modified");
+        cache.revalidated("ipctest http://apps/apps/1", entry, notModified);
+        ServiceResponseCache.Entry revalidated = cache.get("ipctest http://apps/apps/1");
+        assertTrue(revalidated.isFresh());
+        assertEquals("body", revalidated.getBody());
+        assertTrue(revalidated.hasValidators());
+    }
+
+    @Test
+    public void testUpdatesOnlyInvalidateRelatedResources() {
+        put("ipctest", APPS, "http://apps/apps?limit=10", response());
+        put("ipctest", APPS, "http://apps/apps/123/tasks", response());
+        put("other", APPS, "http://apps/apps/456", response());
+
+        // Requests to the same service may be balanced across endpoints.
+        cache.invalidate(APPS, "http://apps2/apps/123");
+        assertNull(cache.get("ipctest http://apps/apps?limit=10"));
+        assertNull(cache.get("ipctest http://apps/apps/123/tasks"));
+        assertNotNull(cache.get("other http://apps/apps/456"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testUpdatesInvalidateConfiguredServices() {
+        put("ipctest", APPS, "http://apps/apps/123", response());
+        put("ipctest", GENOMES, "http://genomes/genomes", response());
+
+        cache.invalidate(APPS_ADMIN, "http://apps/admin/apps/123");
+        assertNull(cache.get("ipctest http://apps/apps/123"));
+        assertNotNull(cache.get("ipctest http://genomes/genomes"));
+    }
+
+    @Test
+    public void testEvictedEntriesAreForgotten() {
+        for (int i = 0; i < 5; i++) {
+            put("ipctest", APPS, "http://apps/apps/" + i, response());
+        }
+        assertEquals(3, cache.size());
+        assertNull(cache.get("ipctest http://apps/apps/0"));
+
+        cache.invalidate(APPS, "http://apps/apps");
+        assertEquals(0, cache.size());
+        put("ipctest", APPS, "http://apps/apps/0", response());
+        assertEquals(1, cache.size());
+    }
+
+    private void put(String username, String serviceKey, String address, HttpResponse response) {
+        cache.put(username + " " + address, serviceKey, address, "body", response);
+    }
+
+    private HttpResponse response() {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+    }
+
+    private HttpResponse response(String header, String value) {
+        HttpResponse result = response();
+        result.setHeader(header, value);
+        return result;
+    }
+}
@@ -0,0 +1,188 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.iplantc.de.shared.services.SessionAttributes;
+import org.iplantc.de.shared.services.SessionManagementService;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.server.rpc.RPC;
+import com.google.gwt.user.server.rpc.SerializationPolicy;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpSession;
+
+public class TestSessionManagementServlet {
+
+    private static final String VERSION = "org.iplantc.de.session-version";
+
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+    private SessionManagementServlet servlet;
+
+    @Before
+    public void setUp() {
+        final HttpSession session = mockSession();
+        servlet = new SessionManagementServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            HttpSession getSession() {
+                return session;
+            }
+        };
+    }
+
+    @Test
+    public void testChangesIncrementTheVersion() throws Exception {
+        assertEquals(0, servlet.getMatchingAttributes(null).getVersion());
+        servlet.setAttribute("a", "1");
+        servlet.removeAttribute("a");
+        assertEquals(2, servlet.getMatchingAttributes(null).getVersion());
+    }
+
+    @Test
+    public void testMatchingAttributesAreStringsWithThePrefix() throws Exception {
+        attributes.put("view.one", "1");
+        attributes.put("view.context", new Object());
+        attributes.put("other", "2");
+        SessionAttributes result = servlet.getMatchingAttributes("view.");
+        assertEquals(Collections.singletonMap("view.one", "1"), result.getAttributes());
+        assertFalse(result.isConflict());
+    }
+
+    @Test
+    public void testUpdatesAreAppliedTogether() throws Exception {
+        attributes.put("a", "1");
+        attributes.put("b", "2");
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("c", "3");
+        values.put("b", null);
+        SessionAttributes result = servlet.updateAttributes(values, Arrays.asList("a"), 0);
+        assertFalse(result.isConflict());
+        assertEquals(1, result.getVersion());
+        assertEquals(Collections.singletonMap("c", "3"), result.getAttributes());
+        assertEquals(Collections.singletonMap("c", "3"), servlet.getMatchingAttributes(null).getAttributes());
+    }
+
+    @Test
+    public void testStaleUpdatesConflict() throws Exception {
+        servlet.setAttribute("a", "1");
+        SessionAttributes result = servlet.updateAttributes(Collections.singletonMap("a", "2"), null, 0);
+        assertTrue(result.isConflict());
+        assertEquals(1, result.getVersion());
+        assertEquals(Collections.singletonMap("a", "1"), result.getAttributes());
+        assertEquals("1", servlet.getAttribute("a"));
+
+        // Updates that don't expect a version are always applied.
+        assertFalse(servlet.updateAttributes(Collections.singletonMap("a", "2"), null, -1).isConflict());
+        assertEquals("2", servlet.getAttribute("a"));
+    }
+
+    @Test
+    public void testClientsCantChangeTheVersion() throws Exception {
+        servlet.setAttribute("a", "1");
+        try {
+            servlet.setAttribute(VERSION, "0");
+            fail("the version should not have been set");
+        }
+        catch (SerializationException expected) {
+        }
+        try {
+            servlet.removeAttribute(VERSION);
+            fail("the version should not have been removed");
+        }
+        catch (SerializationException expected) {
+        }
+        try {
+            servlet.updateAttributes(Collections.singletonMap("b", "2"), Arrays.asList(VERSION), -1);
+            fail("the version should not have been removed");
+        }
+        catch (SerializationException expected) {
+        }
+        assertNull(servlet.getAttribute("b"));
+        assertEquals(1, servlet.getMatchingAttributes(null).getVersion());
+    }
+
+    @Test
+    public void testClientsAreToldTheVersionCantBeChanged() throws Exception {
+        Method method = SessionManagementService.class.getMethod("setAttribute", String.class,
+                String.class);
+        // The declared exception is sent to the client instead of failing the whole call.
+        String payload = RPC.invokeAndEncodeResponse(servlet, method, new Object[] {VERSION, "0"},
+                permissivePolicy());
+        assertTrue(payload, payload.startsWith("//EX"));
+        assertTrue(payload, payload.contains(SerializationException.class.getName()));
+        assertNull(attributes.get(VERSION));
+    }
+
+    /**
+     * @return a serialization policy that allows every type to be sent.
+     */
+    private SerializationPolicy permissivePolicy() {
+        return new SerializationPolicy() {
+            @Override
+            public boolean shouldDeserializeFields(Class<?> clazz) {
+                return true;
+            }
+
+            @Override
+            public boolean shouldSerializeFields(Class<?> clazz) {
+                return true;
+            }
+
+            @Override
+            public void validateDeserialize(Class<?> clazz) {
+            }
+
+            @Override
+            public void validateSerialize(Class<?> clazz) {
+            }
+        };
+    }
+
+    /**
+     * Creates a session backed by the attribute map.
+     */
+    private HttpSession mockSession() {
+        HttpSession result = mock(HttpSession.class);
+        when(result.getAttribute(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return attributes.get(invocation.getArguments()[0]);
+            }
+        });
+        when(result.getAttributeNames()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return Collections.enumeration(attributes.keySet());
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                attributes.put((String)invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(result).setAttribute(anyString(), any());
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                attributes.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(result).removeAttribute(anyString());
+        return result;
+    }
+}
@@ -0,0 +1,207 @@
+package org.iplantc.de.server;
+
+import static org.junit.Assert.*;
+
+import org.iplantc.de.shared.AuthenticationException;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSingleFlight {
+
+    private static final String ADDRESS = "http://apps/public-app-groups";
+
+    @Test
+    public void testOnlyListedServicesAreShared() {
+        Properties props = new Properties();
+        props.setProperty(SingleFlight.SERVICES, "org.iplantc.services.foo, org.iplantc.services.bar");
+        SingleFlight flight = new SingleFlight(props);
+        assertTrue(flight.isShared("org.iplantc.services.foo"));
+        assertTrue(flight.isShared("org.iplantc.services.bar"));
+        assertFalse(flight.isShared("org.iplantc.services.baz"));
+        assertFalse(flight.isShared(null));
+    }
+
+    @Test
+    public void testConcurrentCallsShareOneRequest() throws Exception {
+        final SingleFlight flight = new SingleFlight(new Properties());
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> request = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                requests.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "groups";
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            Future<String> leader = executor.submit(new Retrieval(flight, request));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<?>[] followers = new Future<?>[4];
+            for (int i = 0; i < followers.length; i++) {
+                followers[i] = executor.submit(new Retrieval(flight, request));
+            }
+            Thread.sleep(200);
+            release.countDown();
+
+            assertEquals("groups", leader.get(5, TimeUnit.SECONDS));
+            for (Future<?> follower : followers) {
+                assertEquals("groups", follower.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, requests.get());
+            assertEquals(0, flight.getInFlightCount());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailuresAreReportedAndNotRemembered() throws Exception {
+        SingleFlight flight = new SingleFlight(new Properties());
+        try {
+            flight.retrieve(ADDRESS, new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw new ServiceErrorException(503, "busy");
+                }
+            }, 0);
+            fail("the failure wasn't reported");
+        }
+        catch (ServiceErrorException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals("groups", new Retrieval(flight, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return "groups";
+            }
+        }).call());
+    }
+
+    @Test
+    public void testEachCallerAppliesItsOwnDeadline() throws Exception {
+        final SingleFlight flight = new SingleFlight(new Properties());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger requests = new AtomicInteger();
+        final Callable<String> request = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                requests.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "groups";
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<String> follower = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    assertTrue(started.await(5, TimeUnit.SECONDS));
+                    return flight.retrieve(ADDRESS, request, System.currentTimeMillis() + 10000, null);
+                }
+            });
+
+            // The caller that starts the request gives up early, and the request is cancelled with it.
+            try {
+                flight.retrieve(ADDRESS, request, System.currentTimeMillis() + 300, executor);
+                fail("the deadline wasn't applied");
+            }
+            catch (DeadlineExceededException expected) {
+            }
+            assertEquals(0, flight.getInFlightCount());
+
+            // The caller that was still waiting sends a request of its own.
+            release.countDown();
+            assertEquals("groups", follower.get(5, TimeUnit.SECONDS));
+            assertEquals(2, requests.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCallerSpecificFailuresArentShared() throws Exception {
+        final SingleFlight flight = new SingleFlight(new Properties());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<String> unauthorized = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                release.await();
+                throw new ServiceErrorException(401, "who are you?");
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(new Retrieval(flight, unauthorized));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> follower = executor.submit(new Retrieval(flight, new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return "groups";
+                }
+            }));
+            Thread.sleep(200);
+            release.countDown();
+
+            try {
+                leader.get(5, TimeUnit.SECONDS);
+                fail("the failure wasn't reported to the caller that sent the request");
+            }
+            catch (ExecutionException e) {
+                assertEquals(401, ((ServiceErrorException)e.getCause()).getStatusCode());
+            }
+            assertEquals("groups", follower.get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailuresThatDependOnTheCaller() {
+        assertTrue(SingleFlight.isCallerSpecific(new AuthenticationException()));
+        assertTrue(SingleFlight.isCallerSpecific(new ServiceErrorException(403, "")));
+        assertTrue(SingleFlight.isCallerSpecific(new DeadlineExceededException(ADDRESS, null)));
+        assertFalse(SingleFlight.isCallerSpecific(new ServiceErrorException(500, "")));
+        assertFalse(SingleFlight.isCallerSpecific(new IOException()));
+    }
+
+    private static class Retrieval implements Callable<String> {
+
+        private final SingleFlight flight;
+        private final Callable<String> request;
+
+        public Retrieval(SingleFlight flight, Callable<String> request) {
+            this.flight = flight;
+            this.request = request;
+        }
+
+        @Override
+        public String call() throws IOException {
+            return flight.retrieve(ADDRESS, request, 0);
+        }
+    }
+}
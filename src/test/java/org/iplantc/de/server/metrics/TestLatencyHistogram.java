@@ -0,0 +1,43 @@
+package org.iplantc.de.server.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        for (long micros = 0; micros < 100000; micros++) {
+            int index = LatencyHistogram.bucketIndex(micros);
+            assertTrue(micros <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) {
+                assertTrue(micros > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMeanMillis(), 0.001);
+        assertEquals(100.0, histogram.getMaxMillis(), 0.001);
+        double p50 = histogram.getPercentileMillis(50);
+        assertTrue(p50 >= 50 && p50 <= 50 * 1.25);
+        double p99 = histogram.getPercentileMillis(99);
+        assertTrue(p99 >= 99 && p99 <= 100);
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0.0, histogram.getPercentileMillis(99), 0.0);
+        assertEquals(0.0, histogram.getMeanMillis(), 0.0);
+    }
+}
@@ -0,0 +1,85 @@
+package org.iplantc.de.server.metrics;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class TestMetricsServlet {
+
+    private static final String SERVICE = "org.iplantc.services.test-metrics";
+
+    @Before
+    public void setUp() {
+        ServiceMetrics.getInstance().getStats(SERVICE).start().finish();
+    }
+
+    @After
+    public void tearDown() {
+        ServiceMetrics.getInstance().reset();
+    }
+
+    @Test
+    public void testResetIsForbiddenByDefault() throws Exception {
+        HttpServletResponse res = response();
+        createServlet(null, null).doPost(resetRequest(null), res);
+        verify(res).sendError(eq(HttpServletResponse.SC_FORBIDDEN), anyString());
+        assertEquals(1, ServiceMetrics.getInstance().getStats(SERVICE).getRequestCount());
+    }
+
+    @Test
+    public void testResetCanBeAllowed() throws Exception {
+        createServlet("true", null).doPost(resetRequest(null), response());
+        assertEquals(0, ServiceMetrics.getInstance().getStats(SERVICE).getRequestCount());
+    }
+
+    @Test
+    public void testResetRequiresTheConfiguredRole() throws Exception {
+        MetricsServlet servlet = createServlet(null, "admin");
+        HttpServletResponse res = response();
+        servlet.doPost(resetRequest("user"), res);
+        verify(res).sendError(eq(HttpServletResponse.SC_FORBIDDEN), anyString());
+        assertEquals(1, ServiceMetrics.getInstance().getStats(SERVICE).getRequestCount());
+
+        res = response();
+        servlet.doPost(resetRequest("admin"), res);
+        verify(res, never()).sendError(anyInt(), anyString());
+        assertEquals(0, ServiceMetrics.getInstance().getStats(SERVICE).getRequestCount());
+    }
+
+    private MetricsServlet createServlet(String allowReset, String resetRole) throws Exception {
+        ServletConfig config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(mock(ServletContext.class));
+        when(config.getInitParameter("allowReset")).thenReturn(allowReset);
+        when(config.getInitParameter("resetRole")).thenReturn(resetRole);
+        MetricsServlet result = new MetricsServlet();
+        result.init(config);
+        return result;
+    }
+
+    private HttpServletRequest resetRequest(String role) {
+        HttpServletRequest result = mock(HttpServletRequest.class);
+        when(result.getParameter("reset")).thenReturn("");
+        if (role != null) {
+            when(result.isUserInRole(role)).thenReturn(true);
+        }
+        return result;
+    }
+
+    private HttpServletResponse response() throws Exception {
+        HttpServletResponse result = mock(HttpServletResponse.class);
+        when(result.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        return result;
+    }
+}
@@ -0,0 +1,44 @@
+package org.iplantc.de.server.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+public class TestServiceStats {
+
+    @Test
+    public void testAbandonedCallsAreNotErrors() {
+        ServiceStats stats = new ServiceStats("test");
+        ServiceStats.Call failed = stats.start();
+        ServiceStats.Call abandoned = stats.start();
+        ServiceStats.Call succeeded = stats.start();
+        assertEquals(3, stats.getInFlight());
+
+        failed.finish();
+        abandoned.abandoned();
+        abandoned.finish();
+        succeeded.succeeded();
+        succeeded.finish();
+
+        assertEquals(3, stats.getRequestCount());
+        assertEquals(1, stats.getErrorCount());
+        assertEquals(0, stats.getInFlight());
+        assertEquals(2, stats.getTotalLatency().getCount());
+    }
+
+    @Test
+    public void testStatsAreUnregistered() throws Exception {
+        ServiceMetrics metrics = ServiceMetrics.getInstance();
+        metrics.getStats("org.iplantc.services.test");
+        ObjectName name = new ObjectName(ServiceMetrics.JMX_DOMAIN + ":type=ServiceStats,service="
+                + ObjectName.quote("org.iplantc.services.test"));
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+        metrics.unregister();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,55 @@
+package org.iplantc.de.server.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestWindowedLatencyHistogram {
+
+    /**
+     * A histogram with a clock that only moves when it's told to.
+     */
+    private static class ManualClockHistogram extends WindowedLatencyHistogram {
+
+        private long now = 1000000;
+
+        public ManualClockHistogram() {
+            super(60000, 6);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testOldLatenciesAreForgotten() {
+        ManualClockHistogram histogram = new ManualClockHistogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1000));
+        }
+        assertEquals(100, histogram.getCount());
+        assertTrue(histogram.getPercentileMillis(95) >= 1000);
+
+        // The service speeds up; the slow calls leave the window after a minute.
+        histogram.now += 30000;
+        for (int i = 0; i < 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertEquals(200, histogram.getCount());
+        assertTrue(histogram.getPercentileMillis(95) >= 1000);
+
+        histogram.now += 40000;
+        assertEquals(100, histogram.getCount());
+        assertTrue(histogram.getPercentileMillis(95) < 20);
+        assertEquals(10.0, histogram.getMeanMillis(), 0.001);
+        assertTrue(histogram.getMaxMillis() < 20);
+
+        histogram.now += 60000;
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getPercentileMillis(95), 0.0);
+    }
+}
@@ -0,0 +1,150 @@
+package org.iplantc.de.server.service;
+
+import static org.junit.Assert.*;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestEmailDeliveryQueue {
+
+    private File spoolDir;
+    private EmailDeliveryQueue queue;
+
+    @Before
+    public void setUp() {
+        spoolDir = new File(FileUtils.getTempDirectory(), "email-spool-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        if (queue != null) {
+            queue.shutdown();
+        }
+        FileUtils.deleteQuietly(spoolDir);
+    }
+
+    @Test
+    public void testRetriesFailedDeliveries() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final BlockingQueue<String> delivered = new LinkedBlockingQueue<String>();
+        queue = new EmailDeliveryQueue(props(), new EmailDeliveryQueue.Sender() {
+            @Override
+            public void send(String body) throws IOException {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new IOException("unavailable");
+                }
+                delivered.add(body);
+            }
+        });
+
+        assertTrue(queue.offer("message"));
+        assertEquals("message", delivered.poll(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testDoesNotRetryRejectedMessages() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        queue = new EmailDeliveryQueue(props(), new EmailDeliveryQueue.Sender() {
+            @Override
+            public void send(String body) {
+                attempts.incrementAndGet();
+                throw new ServiceCallFailedException("rejected");
+            }
+        });
+
+        assertTrue(queue.offer("message"));
+        Thread.sleep(200);
+        assertEquals(1, attempts.get());
+        assertEquals(0, spoolDir.list().length);
+    }
+
+    @Test
+    public void testRecoversSpooledMessages() throws Exception {
+        spoolDir.mkdirs();
+        FileUtils.writeStringToFile(new File(spoolDir, "left-over.json"), "spooled", "UTF-8");
+
+        final BlockingQueue<String> delivered = new LinkedBlockingQueue<String>();
+        queue = new EmailDeliveryQueue(props(), new EmailDeliveryQueue.Sender() {
+            @Override
+            public void send(String body) {
+                delivered.add(body);
+            }
+        });
+
+        assertEquals("spooled", delivered.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShutdownDeliversQueuedMessages() throws Exception {
+        final BlockingQueue<String> delivered = new LinkedBlockingQueue<String>();
+        queue = new EmailDeliveryQueue(props(), new EmailDeliveryQueue.Sender() {
+            @Override
+            public void send(String body) throws IOException {
+                try {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+                delivered.add(body);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer("message " + i));
+        }
+
+        queue.shutdown();
+        assertEquals(5, delivered.size());
+        assertEquals(0, spoolDir.list().length);
+        assertFalse(queue.offer("too late"));
+    }
+
+    @Test
+    public void testShutdownWaitIsBounded() throws Exception {
+        Properties props = props();
+        props.setProperty(EmailDeliveryQueue.SHUTDOWN_TIMEOUT, "100");
+        final CountDownLatch release = new CountDownLatch(1);
+        queue = new EmailDeliveryQueue(props, new EmailDeliveryQueue.Sender() {
+            @Override
+            public void send(String body) throws IOException {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+        });
+        assertTrue(queue.offer("stuck"));
+        assertTrue(queue.offer("waiting"));
+
+        long start = System.currentTimeMillis();
+        queue.shutdown();
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        // Undelivered messages stay spooled for the next run.
+        assertEquals(2, spoolDir.list().length);
+    }
+
+    private Properties props() {
+        Properties props = new Properties();
+        props.setProperty(EmailDeliveryQueue.RETRY_BASE, "10");
+        props.setProperty(EmailDeliveryQueue.WORKERS, "1");
+        props.setProperty(EmailDeliveryQueue.SPOOL_DIR, spoolDir.getPath());
+        return props;
+    }
+}
@@ -0,0 +1,34 @@
+package org.iplantc.de.server.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.iplantc.de.server.AsyncDispatcher;
+import org.iplantc.de.server.HttpTransport;
+import org.iplantc.de.server.ServiceCallResolver;
+import org.iplantc.de.server.ServiceIsolation;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+public class TestProxyServlet {
+
+    @Test
+    public void testDefaultsAreUsedWithoutConfiguration() throws Exception {
+        ProxyServlet servlet = new ProxyServlet(mock(ServiceCallResolver.class), mock(HttpTransport.class),
+                mock(ServiceIsolation.class));
+        servlet.setAsyncDispatcher(new AsyncDispatcher(new Properties()));
+
+        // The servlet context has no Spring application context, so there's no configuration.
+        ServletConfig config = mock(ServletConfig.class);
+        when(config.getServletContext()).thenReturn(mock(ServletContext.class));
+        servlet.init(config);
+
+        // The validator cache is enabled by default.
+        assertNotNull(servlet.getValidatorCache());
+    }
+}
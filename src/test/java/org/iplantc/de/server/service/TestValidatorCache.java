@@ -0,0 +1,151 @@
+package org.iplantc.de.server.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class TestValidatorCache {
+
+    private static final String RESOURCE = "http://apps/apps/123?limit=10";
+    private static final Date MODIFIED = new Date(1000000000000L);
+
+    /**
+     * A validator cache with a clock that only moves when it's told to.
+     */
+    private static class ManualClockCache extends ValidatorCache {
+        private long now = 1000000;
+
+        public ManualClockCache(long ttlMillis, int maxEntries) {
+            super(ttlMillis, maxEntries);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private ManualClockCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new ManualClockCache(60000, 10);
+        cache.update("ipctest", RESOURCE, response("\"v1\"", MODIFIED));
+    }
+
+    @Test
+    public void testMatchingEtagIsNotModified() {
+        HttpServletResponse res = mock(HttpServletResponse.class);
+        assertTrue(cache.sendNotModified("ipctest", RESOURCE, request("\"v0\", W/\"v1\"", null), res));
+        verify(res).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(res).addHeader("ETag", "\"v1\"");
+
+        assertTrue(send("ipctest", RESOURCE, request("*", null)));
+        assertFalse(send("ipctest", RESOURCE, request("\"v0\", \"v10\"", null)));
+    }
+
+    @Test
+    public void testEtagTakesPrecedenceOverDate() {
+        String since = DateUtils.formatDate(MODIFIED);
+        assertFalse(send("ipctest", RESOURCE, request("\"v0\"", since)));
+    }
+
+    @Test
+    public void testUnchangedSinceDateIsNotModified() {
+        assertTrue(send("ipctest", RESOURCE, request(null, DateUtils.formatDate(MODIFIED))));
+        assertTrue(send("ipctest", RESOURCE, request(null, DateUtils.formatDate(new Date(MODIFIED.getTime()
+                + 1000)))));
+        assertFalse(send("ipctest", RESOURCE, request(null, DateUtils.formatDate(new Date(MODIFIED.getTime()
+                - 1000)))));
+        assertFalse(send("ipctest", RESOURCE, request(null, "not a date")));
+    }
+
+    @Test
+    public void testUnconditionalRequestsAreForwarded() {
+        assertFalse(send("ipctest", RESOURCE, request(null, null)));
+    }
+
+    @Test
+    public void testValidatorsAreKeptPerUser() {
+        assertFalse(send("other", RESOURCE, request("\"v1\"", null)));
+    }
+
+    @Test
+    public void testValidatorsExpire() {
+        cache.now += 60000;
+        assertTrue(send("ipctest", RESOURCE, request("\"v1\"", null)));
+        cache.now += 1;
+        assertFalse(send("ipctest", RESOURCE, request("\"v1\"", null)));
+    }
+
+    @Test
+    public void testFailedResponsesForgetTheResource() {
+        cache.update("ipctest", RESOURCE, new BasicHttpResponse(HttpVersion.HTTP_1_1, 404, "Not Found"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testModificationsInvalidateEveryQuery() {
+        cache.update("other", "http://apps/apps/123", response("\"v1\"", null));
+        cache.update("ipctest", "http://apps/apps/456", response("\"v1\"", null));
+
+        // Requests for the same resource may be balanced across endpoints.
+        cache.invalidate("http://apps2/apps/123/?name=new");
+        assertFalse(send("ipctest", RESOURCE, request("\"v1\"", null)));
+        assertFalse(send("other", "http://apps/apps/123", request("\"v1\"", null)));
+        assertTrue(send("ipctest", "http://apps/apps/456", request("\"v1\"", null)));
+    }
+
+    @Test
+    public void testInvalidationOnlyTouchesTheResource() {
+        cache = new ManualClockCache(60000, 2);
+        cache.update("one", RESOURCE, response("\"v1\"", null));
+        cache.update("two", RESOURCE, response("\"v1\"", null));
+        cache.update("one", "http://apps/apps/456", response("\"v1\"", null));
+
+        // The least recently used entry was evicted.
+        assertEquals(2, cache.size());
+        assertFalse(send("one", RESOURCE, request("\"v1\"", null)));
+
+        cache.invalidate(RESOURCE);
+        assertEquals(1, cache.size());
+        assertTrue(send("one", "http://apps/apps/456", request("\"v1\"", null)));
+
+        // A resource can be remembered again once it has been invalidated.
+        cache.update("two", RESOURCE, response("\"v2\"", null));
+        assertTrue(send("two", RESOURCE, request("\"v2\"", null)));
+    }
+
+    private boolean send(String username, String resource, HttpServletRequest req) {
+        return cache.sendNotModified(username, resource, req, mock(HttpServletResponse.class));
+    }
+
+    private HttpServletRequest request(String ifNoneMatch, String ifModifiedSince) {
+        HttpServletRequest result = mock(HttpServletRequest.class);
+        when(result.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+        when(result.getHeader("If-Modified-Since")).thenReturn(ifModifiedSince);
+        return result;
+    }
+
+    private HttpResponse response(String etag, Date lastModified) {
+        HttpResponse result = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        if (etag != null) {
+            result.setHeader("ETag", etag);
+        }
+        if (lastModified != null) {
+            result.setHeader("Last-Modified", DateUtils.formatDate(lastModified));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,175 @@
+package org.iplantc.de.server.util;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class TestStreamUtils {
+
+    private static final byte[] CONTENT = new byte[StreamUtils.BUFFER_SIZE * 8];
+
+    static {
+        Arrays.fill(CONTENT, (byte)'x');
+    }
+
+    /**
+     * The content stream of the backend response, which records what happened to it.
+     */
+    private class BackendStream extends FilterInputStream {
+        private boolean closed;
+        private boolean abortedBeforeClose;
+
+        public BackendStream(byte[] body) {
+            super(new ByteArrayInputStream(body));
+        }
+
+        @Override
+        public void close() throws IOException {
+            abortedBeforeClose = aborted;
+            closed = true;
+            super.close();
+        }
+    }
+
+    private HttpUriRequest request;
+    private boolean aborted;
+
+    @Before
+    public void setUp() {
+        aborted = false;
+        request = mock(HttpUriRequest.class);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                aborted = true;
+                return null;
+            }
+        }).when(request).abort();
+    }
+
+    @Test
+    public void testContentIsCopied() throws IOException {
+        BackendStream backend = new BackendStream(CONTENT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(CONTENT.length, StreamUtils.copyContent(new InputStreamEntity(backend, -1), out,
+                request));
+        assertArrayEquals(CONTENT, out.toByteArray());
+        assertTrue(backend.closed);
+        assertFalse(aborted);
+    }
+
+    @Test
+    public void testDisconnectAbortsTheRequestBeforeClosing() throws IOException {
+        BackendStream backend = new BackendStream(CONTENT);
+        try {
+            StreamUtils.copyContent(new InputStreamEntity(backend, -1), disconnectingStream(), request);
+            fail("the copy should have failed");
+        }
+        catch (IOException expected) {
+        }
+        assertTrue(backend.closed);
+        assertTrue(backend.abortedBeforeClose);
+    }
+
+    @Test
+    public void testDisconnectWhileDecodingAbortsTheRequestBeforeClosing() throws IOException {
+        BackendStream backend = new BackendStream(gzip(CONTENT));
+        HttpResponse response = response(backend, "gzip");
+        try {
+            StreamUtils.copyContent(StreamUtils.decodeContent(response).getEntity(), disconnectingStream(),
+                    request);
+            fail("the copy should have failed");
+        }
+        catch (IOException expected) {
+        }
+        assertTrue(backend.closed);
+        assertTrue(backend.abortedBeforeClose);
+    }
+
+    @Test
+    public void testGzipContentIsDecoded() throws IOException {
+        HttpResponse response = response(new BackendStream(gzip(CONTENT)), "gzip");
+        response.setHeader("Content-Length", "123");
+        StreamUtils.decodeContent(response);
+        assertFalse(response.containsHeader("Content-Encoding"));
+        assertFalse(response.containsHeader("Content-Length"));
+        assertArrayEquals(CONTENT, EntityUtils.toByteArray(response.getEntity()));
+    }
+
+    @Test
+    public void testDeflateContentIsDecoded() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(compressed);
+        out.write(CONTENT);
+        out.close();
+        HttpResponse response = response(new BackendStream(compressed.toByteArray()), "deflate");
+        assertArrayEquals(CONTENT, EntityUtils.toByteArray(StreamUtils.decodeContent(response).getEntity()));
+    }
+
+    @Test
+    public void testUnknownEncodingsAreLeftAlone() throws IOException {
+        byte[] body = "compressed".getBytes("UTF-8");
+        HttpResponse response = response(new BackendStream(body), "br");
+        StreamUtils.decodeContent(response);
+        assertEquals("br", response.getFirstHeader("Content-Encoding").getValue());
+        assertArrayEquals(body, EntityUtils.toByteArray(response.getEntity()));
+    }
+
+    private HttpResponse response(BackendStream body, String encoding) {
+        HttpResponse result = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        InputStreamEntity entity = new InputStreamEntity(body, -1);
+        entity.setContentEncoding(encoding);
+        result.setEntity(entity);
+        result.setHeader("Content-Encoding", encoding);
+        return result;
+    }
+
+    private byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(result);
+        out.write(content);
+        out.close();
+        return result.toByteArray();
+    }
+
+    /**
+     * @return an output stream that fails like a client that went away after the first write.
+     */
+    private OutputStream disconnectingStream() {
+        return new OutputStream() {
+            private boolean written;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte)b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (written) {
+                    throw new IOException("connection reset by peer");
+                }
+                written = true;
+            }
+        };
+    }
+}
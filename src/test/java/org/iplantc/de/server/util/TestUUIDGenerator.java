@@ -0,0 +1,83 @@
+package org.iplantc.de.server.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+public class TestUUIDGenerator {
+
+    @Test
+    public void testRandomUUIDs() {
+        List<String> uuids = new UUIDGenerator(false).generateStrings(10000);
+        Set<String> distinct = new HashSet<String>(uuids);
+        assertEquals(10000, distinct.size());
+        for (String uuid : uuids) {
+            UUID parsed = UUID.fromString(uuid);
+            assertEquals(4, parsed.version());
+            assertEquals(2, parsed.variant());
+            assertEquals(parsed.toString(), uuid);
+        }
+    }
+
+    @Test
+    public void testTimeOrderedUUIDsIncrease() {
+        long before = System.currentTimeMillis();
+        List<String> uuids = new UUIDGenerator(true).generateStrings(10000);
+        String previous = null;
+        for (String uuid : uuids) {
+            UUID parsed = UUID.fromString(uuid);
+            assertEquals(7, parsed.version());
+            assertEquals(2, parsed.variant());
+            assertTrue(previous == null || uuid.compareTo(previous) > 0);
+            previous = uuid;
+        }
+        long millis = UUID.fromString(uuids.get(0)).getMostSignificantBits() >>> 16;
+        assertTrue(millis >= before && millis <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void testTimeOrderedUUIDsIncreaseAcrossThreads() throws InterruptedException {
+        final UUIDGenerator generator = new UUIDGenerator(true);
+        final List<String> uuids = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        uuids.add(generator.generate().toString());
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400, new HashSet<String>(uuids).size());
+
+        // UUIDs generated later by any thread sort after the ones generated before.
+        String last = Collections.max(uuids);
+        assertTrue(generator.generate().toString().compareTo(last) > 0);
+    }
+
+    @Test
+    public void testFormatMatchesToString() {
+        char[] chars = new char[36];
+        for (int i = 0; i < 100; i++) {
+            UUID uuid = UUID.randomUUID();
+            assertEquals(uuid.toString(), UUIDGenerator.format(uuid, chars));
+        }
+        UUID edge = new UUID(-1L, 0L);
+        assertEquals(edge.toString(), UUIDGenerator.format(edge, chars));
+    }
+}